@@ -0,0 +1,51 @@
+package com.example.Users.benchmarks;
+
+import com.example.Users.UsersApplication;
+import com.example.Users.models.User;
+import com.example.Users.services.UserService;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDate;
+
+// Shared setup of the benchmarks: the application context and deterministic test users
+final class BenchmarkUsers {
+    static final LocalDate FIRST_BIRTH_DATE = LocalDate.of(1950, 1, 1);
+    // Birth dates are spread over this many days (about 55 years)
+    static final int BIRTH_DATE_DAYS = 20_000;
+
+    private static final String[] FIRST_NAMES = {"Olena", "Taras", "Iryna", "Bohdan", "Oksana", "Andrii", "Mariia", "Dmytro"};
+    private static final String[] LAST_NAMES = {"Shevchenko", "Kovalenko", "Bondarenko", "Tkachenko", "Kravchenko", "Melnyk"};
+
+    private BenchmarkUsers() {
+    }
+
+    static ConfigurableApplicationContext start(WebApplicationType webApplicationType, String... properties) {
+        return new SpringApplicationBuilder(UsersApplication.class)
+                .web(webApplicationType)
+                .logStartupInfo(false)
+                .properties("server.port=0", "logging.level.root=WARN")
+                .properties(properties)
+                .run();
+    }
+
+    static void load(UserService userService, int users) {
+        for (int i = 0; i < users; i++) {
+            userService.createUser(user(i));
+        }
+    }
+
+    static String email(int i) {
+        return "user" + i + "@example.com";
+    }
+
+    static User user(int i) {
+        return new User(email(i), FIRST_NAMES[i % FIRST_NAMES.length], LAST_NAMES[i % LAST_NAMES.length], birthDate(i));
+    }
+
+    // Multiplying by a prime spreads neighbouring users over the whole range
+    static LocalDate birthDate(int i) {
+        return FIRST_BIRTH_DATE.plusDays((i * 7919L) % BIRTH_DATE_DAYS);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.Users.benchmarks;
+
+import com.example.Users.controllers.CborConverter;
+import com.example.Users.controllers.SmileConverter;
+import com.example.Users.models.User;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// A full /users/search page (max.search.limit users) written and read in JSON, CBOR and Smile with the mappers the
+// controllers use, the binary ones with dates as epoch days. The size of each format's page is printed at setup.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BinaryFormatBenchmark {
+    @Param({"json", "cbor", "smile"})
+    private String format;
+
+    @Param({"1000"})
+    private int users;
+
+    private ObjectMapper objectMapper;
+    private ObjectReader reader;
+    private List<User> searchPage;
+    private byte[] encoded;
+    // Stands in for the response body, reset before every write
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        try (ConfigurableApplicationContext context = BenchmarkUsers.start(WebApplicationType.NONE)) {
+            objectMapper = switch (format) {
+                case "json" -> context.getBean(ObjectMapper.class);
+                case "cbor" -> context.getBean(CborConverter.class).getObjectMapper();
+                case "smile" -> context.getBean(SmileConverter.class).getObjectMapper();
+                default -> throw new IllegalArgumentException("Unknown format " + format);
+            };
+        }
+        reader = objectMapper.readerFor(new TypeReference<List<User>>() {
+        });
+        searchPage = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            User user = BenchmarkUsers.user(i);
+            user.setVersion(i + 1);
+            searchPage.add(user);
+        }
+        encoded = objectMapper.writeValueAsBytes(searchPage);
+        System.out.printf("%n%s: %d bytes for %d users (%.1f per user)%n", format, encoded.length, users, encoded.length / (double) users);
+    }
+
+    @Benchmark
+    public int writeSearchPage() throws Exception {
+        out.reset();
+        objectMapper.writeValue(out, searchPage);
+        return out.size();
+    }
+
+    @Benchmark
+    public List<User> readSearchPage() throws Exception {
+        return reader.readValue(encoded);
+    }
+}
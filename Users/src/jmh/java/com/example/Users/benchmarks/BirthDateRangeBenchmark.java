@@ -0,0 +1,75 @@
+package com.example.Users.benchmarks;
+
+import com.example.Users.models.User;
+import com.example.Users.stores.ColumnarUserIndex;
+import com.example.Users.stores.StripedUserStore;
+import com.example.Users.stores.UserStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// The backends of getUsersByBirthDateRange on the same users:
+// stream - the original filter over all users, index - the store's sorted index (search.backend=index),
+// columnar - the parallel scan over the birth date column (search.backend=columnar)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms12g", "-Xmx12g"})
+@State(Scope.Benchmark)
+public class BirthDateRangeBenchmark {
+    @Param({"1000000", "10000000"})
+    private int users;
+
+    // Width of the searched range, about a month and about ten years
+    @Param({"30", "3650"})
+    private int rangeDays;
+
+    private UserStore userStore;
+    private ColumnarUserIndex columnarUserIndex;
+    private LocalDate from;
+    private LocalDate to;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        userStore = new StripedUserStore();
+        for (int i = 0; i < users; i++) {
+            userStore.putIfAbsent(BenchmarkUsers.user(i));
+        }
+        columnarUserIndex = new ColumnarUserIndex(userStore);
+        columnarUserIndex.open();
+        from = BenchmarkUsers.FIRST_BIRTH_DATE.plusDays(BenchmarkUsers.BIRTH_DATE_DAYS / 2);
+        to = from.plusDays(rangeDays);
+    }
+
+    @Benchmark
+    public List<User> stream() {
+        return userStore.values().stream()
+                .filter(user -> user.getBirthDate().isAfter(from) && user.getBirthDate().isBefore(to))
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<User> index() {
+        return userStore.findByBirthDateRange(from, to);
+    }
+
+    @Benchmark
+    public List<User> columnar() {
+        return columnarUserIndex.findByBirthDateRange(from, to);
+    }
+}
@@ -0,0 +1,474 @@
+package com.example.Users.benchmarks;
+
+import com.example.Users.UsersApplication;
+import com.example.Users.services.UserService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Replays the production mix against the real server before a release: starts the application, stores -Dusers
+// users and sends -Drate requests a second over HTTP, 70% birth date searches, 20% PATCHes and PUTs (half each),
+// 8% creates and 2% deletes. Which stored user a PATCH or PUT hits follows a Zipf distribution (-Dzipf.exponent),
+// so a few users get most of the writes, as in production. Deletes take the users the run created, oldest first,
+// so the preloaded users and their popularity stay the same for the whole run.
+//
+// The load is open-loop: request k is due at start + k / rate whether or not the earlier ones have been answered,
+// and its response time runs from when it was due, not from when a connection was free to send it. A server
+// that stalls for a second is charged a second on every request that fell due meanwhile, instead of on the one
+// request that happened to be waiting (coordinated omission). The time from sending to the answer is reported
+// as service time next to it. Only requests due in the measured window count, the warmup before it doesn't.
+// The requests and the users they hit come from -Dseed alone, so two runs send the same sequence.
+//
+// mvn -Pbenchmarks test-compile exec:java -Dexec.classpathScope=test
+//     -Dexec.mainClass=com.example.Users.benchmarks.LoadGenerator [-Dexec.args="admission.enabled=false ..."]
+// Arguments are application properties for the server. Options: -Dusers=100000 -Drate=2000 -Dconnections=64
+// -Dwarmup.seconds=10 -Dmeasure.seconds=60 -Dzipf.exponent=0.99 -Dseed=42 -Dlabel=<release>
+// -Dresult=target/load-test.json -Dbaseline=<an earlier result> -Dmax.regression.percent=10
+// With a baseline the p99 response time and the throughput of every operation are compared with it, and the
+// run fails if one of them got worse by more than max.regression.percent.
+public class LoadGenerator {
+    private static final int USERS = Integer.getInteger("users", 100_000);
+    private static final int RATE = Integer.getInteger("rate", 2_000);
+    private static final int CONNECTIONS = Integer.getInteger("connections", 64);
+    private static final int WARMUP_SECONDS = Integer.getInteger("warmup.seconds", 10);
+    private static final int MEASURE_SECONDS = Integer.getInteger("measure.seconds", 60);
+    private static final double ZIPF_EXPONENT = Double.parseDouble(System.getProperty("zipf.exponent", "0.99"));
+    private static final long SEED = Long.getLong("seed", 42);
+    private static final String LABEL = System.getProperty("label", "");
+    private static final Path RESULT = Paths.get(System.getProperty("result", "target/load-test.json"));
+    private static final String BASELINE = System.getProperty("baseline");
+    private static final double MAX_REGRESSION_PERCENT = Double.parseDouble(System.getProperty("max.regression.percent", "10"));
+    // Searches span up to three months
+    private static final int MAX_SEARCH_DAYS = 90;
+    private static final int SEARCH_LIMIT = 50;
+
+    enum Operation {
+        SEARCH(70), PATCH(10), PUT(10), CREATE(8), DELETE(2);
+
+        // Share of the requests in percent
+        final int percent;
+
+        Operation(int percent) {
+            this.percent = percent;
+        }
+    }
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final Zipf zipf;
+    // Current email of every preloaded user, PUTs give them new ones
+    private final AtomicReferenceArray<String> emails;
+    private final ConcurrentLinkedQueue<String> created = new ConcurrentLinkedQueue<>();
+    private final AtomicLong next = new AtomicLong();
+    private final Map<Operation, Stats> stats = new LinkedHashMap<>();
+    private final long start;
+    private final long measureStart;
+    private final long measureEnd;
+    private final long intervalNanos;
+
+    private LoadGenerator(int port, AtomicReferenceArray<String> emails) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        this.baseUrl = "http://127.0.0.1:" + port;
+        this.emails = emails;
+        this.zipf = new Zipf(emails.length(), ZIPF_EXPONENT);
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new Stats());
+        }
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / RATE;
+        this.start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        this.measureStart = start + TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+        this.measureEnd = measureStart + TimeUnit.SECONDS.toNanos(MEASURE_SECONDS);
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> properties = new ArrayList<>(List.of("server.port=0", "logging.level.root=WARN"));
+        properties.addAll(Arrays.asList(args));
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(UsersApplication.class)
+                .web(WebApplicationType.SERVLET)
+                .logStartupInfo(false)
+                .properties(properties.toArray(new String[0]))
+                .run();
+        Map<String, Object> result;
+        try {
+            UserService userService = context.getBean(UserService.class);
+            AtomicReferenceArray<String> emails = new AtomicReferenceArray<>(USERS);
+            for (int i = 0; i < USERS; i++) {
+                userService.createUser(BenchmarkUsers.user(i));
+                emails.set(i, BenchmarkUsers.email(i));
+            }
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            System.out.printf(Locale.ROOT, "%d users stored, sending %d requests/s for %d + %d s%n", USERS, RATE, WARMUP_SECONDS, MEASURE_SECONDS);
+            result = new LoadGenerator(port, emails).run(properties);
+        } finally {
+            context.close();
+        }
+
+        ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        if (RESULT.getParent() != null) {
+            Files.createDirectories(RESULT.getParent());
+        }
+        objectMapper.writeValue(RESULT.toFile(), result);
+        System.out.println("Results written to " + RESULT);
+        if (BASELINE != null && !compare(objectMapper.valueToTree(result), objectMapper.readTree(Paths.get(BASELINE).toFile()))) {
+            System.exit(1);
+        }
+    }
+
+    private Map<String, Object> run(List<String> properties) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < CONNECTIONS; i++) {
+            Thread thread = new Thread(this::sendRequests, "load-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("label", LABEL);
+        result.put("finishedAt", Instant.now().toString());
+        result.put("java", System.getProperty("java.version"));
+        result.put("processors", Runtime.getRuntime().availableProcessors());
+        result.put("users", USERS);
+        result.put("targetRate", RATE);
+        result.put("connections", CONNECTIONS);
+        result.put("warmupSeconds", WARMUP_SECONDS);
+        result.put("measureSeconds", MEASURE_SECONDS);
+        result.put("zipfExponent", ZIPF_EXPONENT);
+        result.put("seed", SEED);
+        result.put("properties", properties);
+        Stats all = new Stats();
+        Map<String, Object> operations = new LinkedHashMap<>();
+        for (Map.Entry<Operation, Stats> entry : stats.entrySet()) {
+            all.add(entry.getValue());
+            operations.put(entry.getKey().name().toLowerCase(Locale.ROOT), entry.getValue().toMap());
+        }
+        result.put("all", all.toMap());
+        result.put("operations", operations);
+
+        System.out.printf(Locale.ROOT, "%-7s %10s %10s %10s %10s %10s %10s %8s%n",
+                "", "requests/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "errors");
+        for (Map.Entry<Operation, Stats> entry : stats.entrySet()) {
+            entry.getValue().print(entry.getKey().name().toLowerCase(Locale.ROOT));
+        }
+        all.print("all");
+        return result;
+    }
+
+    // One connection: takes the next request that is due, waits for its time and sends it
+    private void sendRequests() {
+        while (true) {
+            long k = next.getAndIncrement();
+            long due = start + k * intervalNanos;
+            if (due >= measureEnd) {
+                return;
+            }
+            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+            SplittableRandom random = new SplittableRandom(SEED ^ (k * 0x9E3779B97F4A7C15L));
+            Operation operation = pick(random);
+            long sent = System.nanoTime();
+            int status = send(operation, k, random);
+            long answered = System.nanoTime();
+            if (due >= measureStart) {
+                stats.get(operation).record(status, (answered - due) / 1_000, (answered - sent) / 1_000);
+            }
+        }
+    }
+
+    private static Operation pick(SplittableRandom random) {
+        int percent = random.nextInt(100);
+        for (Operation operation : Operation.values()) {
+            percent -= operation.percent;
+            if (percent < 0) {
+                return operation;
+            }
+        }
+        throw new IllegalStateException("Shares add up to less than 100%");
+    }
+
+    // Status of the response, 0 if there was none
+    private int send(Operation operation, long k, SplittableRandom random) {
+        try {
+            return switch (operation) {
+                case SEARCH -> {
+                    LocalDate from = BenchmarkUsers.FIRST_BIRTH_DATE.plusDays(random.nextInt(BenchmarkUsers.BIRTH_DATE_DAYS));
+                    LocalDate to = from.plusDays(1 + random.nextInt(MAX_SEARCH_DAYS));
+                    yield get("/users/search?from=" + from + "&to=" + to + "&limit=" + SEARCH_LIMIT);
+                }
+                case PATCH -> {
+                    String email = emails.get(zipf.sample(random));
+                    yield send("PATCH", "/users/" + email, "{\"firstName\":\"Name" + random.nextInt(1_000) + "\"}");
+                }
+                case PUT -> {
+                    // A PUT gives the user a new email, which later requests then use
+                    int slot = zipf.sample(random);
+                    String email = emails.get(slot);
+                    String newEmail = "user" + slot + "." + k + "@example.com";
+                    int status = send("PUT", "/users/" + email, userJson(newEmail, random));
+                    if (status == 200) {
+                        emails.compareAndSet(slot, email, newEmail);
+                    }
+                    yield status;
+                }
+                case CREATE -> create(k, random);
+                case DELETE -> {
+                    String email = created.poll();
+                    yield email == null ? create(k, random) : send("DELETE", "/users/" + email, null);
+                }
+            };
+        } catch (IOException e) {
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+
+    private int create(long k, SplittableRandom random) throws IOException, InterruptedException {
+        String email = "new" + k + "@example.com";
+        int status = send("POST", "/users", userJson(email, random));
+        if (status == 201) {
+            created.add(email);
+        }
+        return status;
+    }
+
+    private static String userJson(String email, SplittableRandom random) {
+        LocalDate birthDate = BenchmarkUsers.FIRST_BIRTH_DATE.plusDays(random.nextInt(BenchmarkUsers.BIRTH_DATE_DAYS));
+        return "{\"email\":\"" + email + "\",\"firstName\":\"Name" + random.nextInt(1_000)
+                + "\",\"lastName\":\"Melnyk\",\"birthDate\":\"" + birthDate + "\"}";
+    }
+
+    private int get(String path) throws IOException, InterruptedException {
+        return send("GET", path, null);
+    }
+
+    private int send(String method, String path, String json) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(Duration.ofSeconds(30));
+        if (json == null) {
+            request.method(method, BodyPublishers.noBody());
+        } else {
+            request.header("Content-Type", "application/json").method(method, BodyPublishers.ofString(json));
+        }
+        return client.send(request.build(), BodyHandlers.discarding()).statusCode();
+    }
+
+    // Compares the p99 response time and throughput of every operation with the baseline's, false on a regression
+    private static boolean compare(JsonNode result, JsonNode baseline) {
+        System.out.printf(Locale.ROOT, "Compared with %s (%s):%n", BASELINE, baseline.path("label").asText());
+        boolean passed = true;
+        List<String> names = new ArrayList<>();
+        result.path("operations").fieldNames().forEachRemaining(names::add);
+        names.add("all");
+        for (String name : names) {
+            JsonNode now = name.equals("all") ? result.path("all") : result.path("operations").path(name);
+            JsonNode before = name.equals("all") ? baseline.path("all") : baseline.path("operations").path(name);
+            if (before.isMissingNode()) {
+                continue;
+            }
+            double p99 = change(now.path("responseTime").path("p99Millis").asDouble(), before.path("responseTime").path("p99Millis").asDouble());
+            double throughput = change(now.path("requestsPerSecond").asDouble(), before.path("requestsPerSecond").asDouble());
+            boolean regressed = p99 > MAX_REGRESSION_PERCENT || throughput < -MAX_REGRESSION_PERCENT;
+            System.out.printf(Locale.ROOT, "%-7s p99 %+7.1f%%  throughput %+7.1f%%%s%n", name, p99, throughput, regressed ? "  REGRESSION" : "");
+            passed &= !regressed;
+        }
+        return passed;
+    }
+
+    private static double change(double now, double before) {
+        return before == 0 ? 0 : (now - before) * 100 / before;
+    }
+
+    // Zipf distribution over n users by inverting its cumulative distribution. Ranks are scattered over the users
+    // by a multiplication modulo n, so the popular users aren't all neighbours in email and birth date.
+    private static final class Zipf {
+        private final double[] cumulative;
+        private final long stride;
+
+        Zipf(int n, double exponent) {
+            cumulative = new double[n];
+            double sum = 0;
+            for (int rank = 0; rank < n; rank++) {
+                sum += 1 / Math.pow(rank + 1, exponent);
+                cumulative[rank] = sum;
+            }
+            for (int rank = 0; rank < n; rank++) {
+                cumulative[rank] /= sum;
+            }
+            // A prime that doesn't divide n makes the scattering a permutation
+            long prime = 1_000_003;
+            stride = n % prime == 0 ? 1 : prime;
+        }
+
+        int sample(SplittableRandom random) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+            if (rank < 0) {
+                rank = Math.min(-rank - 1, cumulative.length - 1);
+            }
+            return (int) (rank * stride % cumulative.length);
+        }
+    }
+
+    // Counts and latency histograms of one operation
+    private static final class Stats {
+        private final Histogram responseTime = new Histogram();
+        private final Histogram serviceTime = new Histogram();
+        // Responses by status, index 0 for requests without one
+        private final AtomicLongArray statuses = new AtomicLongArray(600);
+
+        void record(int status, long responseMicros, long serviceMicros) {
+            statuses.incrementAndGet(status);
+            responseTime.record(responseMicros);
+            serviceTime.record(serviceMicros);
+        }
+
+        void add(Stats other) {
+            responseTime.add(other.responseTime);
+            serviceTime.add(other.serviceTime);
+            for (int i = 0; i < statuses.length(); i++) {
+                statuses.addAndGet(i, other.statuses.get(i));
+            }
+        }
+
+        // No response or a server error other than 503, which is load shedding
+        long errors() {
+            long errors = statuses.get(0);
+            for (int status = 500; status < 600; status++) {
+                errors += status == 503 ? 0 : statuses.get(status);
+            }
+            return errors;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("requests", responseTime.total());
+            map.put("requestsPerSecond", responseTime.total() / (double) MEASURE_SECONDS);
+            map.put("errors", errors());
+            Map<String, Long> byStatus = new LinkedHashMap<>();
+            for (int status = 0; status < statuses.length(); status++) {
+                if (statuses.get(status) > 0) {
+                    byStatus.put(status == 0 ? "none" : Integer.toString(status), statuses.get(status));
+                }
+            }
+            map.put("statuses", byStatus);
+            map.put("responseTime", responseTime.toMap());
+            map.put("serviceTime", serviceTime.toMap());
+            return map;
+        }
+
+        void print(String name) {
+            System.out.printf(Locale.ROOT, "%-7s %10.1f %10.2f %10.2f %10.2f %10.2f %10.2f %8d%n",
+                    name, responseTime.total() / (double) MEASURE_SECONDS, responseTime.percentile(0.5) / 1_000.0,
+                    responseTime.percentile(0.9) / 1_000.0, responseTime.percentile(0.99) / 1_000.0,
+                    responseTime.percentile(0.999) / 1_000.0, responseTime.max() / 1_000.0, errors());
+        }
+    }
+
+    // Latencies in microseconds, 32 buckets per power of two (about 3% precision)
+    private static final class Histogram {
+        private static final int SUB_BUCKETS = 32;
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long micros) {
+            micros = Math.max(0, micros);
+            counts.incrementAndGet(index(micros));
+            max.accumulateAndGet(micros, Math::max);
+        }
+
+        void add(Histogram other) {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.addAndGet(i, other.counts.get(i));
+            }
+            max.accumulateAndGet(other.max.get(), Math::max);
+        }
+
+        long total() {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                total += counts.get(i);
+            }
+            return total;
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        // Upper bound of the bucket holding the given fraction of the recorded latencies
+        long percentile(double fraction) {
+            long rank = (long) Math.ceil(total() * fraction);
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank && seen > 0) {
+                    return Math.min(lowerBound(i + 1) - 1, max());
+                }
+            }
+            return 0;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("p50Millis", percentile(0.5) / 1_000.0);
+            map.put("p90Millis", percentile(0.9) / 1_000.0);
+            map.put("p99Millis", percentile(0.99) / 1_000.0);
+            map.put("p999Millis", percentile(0.999) / 1_000.0);
+            map.put("maxMillis", max() / 1_000.0);
+            return map;
+        }
+
+        // Values below 2 * SUB_BUCKETS have their own bucket, larger ones share one per 1/32 of their power of two
+        private static int index(long value) {
+            if (value < 2 * SUB_BUCKETS) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - 5;
+            return shift * SUB_BUCKETS + (int) (value >>> shift);
+        }
+
+        private static long lowerBound(int index) {
+            if (index < 2 * SUB_BUCKETS) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            return (long) (index - shift * SUB_BUCKETS) << shift;
+        }
+    }
+}
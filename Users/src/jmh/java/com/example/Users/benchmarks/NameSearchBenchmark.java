@@ -0,0 +1,74 @@
+package com.example.Users.benchmarks;
+
+import com.example.Users.models.User;
+import com.example.Users.stores.NameIndex;
+import com.example.Users.stores.StripedUserStore;
+import com.example.Users.stores.UserStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Latency of /users/search/name lookups in NameIndex, sampled so the JSON result has percentiles.
+// The few names of BenchmarkUsers would make a trivial dictionary, so names here are built from
+// syllables: about 30 thousand distinct first and last names, each shared by many users.
+// query: a short prefix matching many names, a full-name prefix, a substring found through
+// trigrams, a two-letter substring checked against every name, and a name nobody has.
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms12g", "-Xmx12g"})
+@State(Scope.Benchmark)
+public class NameSearchBenchmark {
+    private static final String[] SYLLABLES = {"ko", "va", "len", "shev", "chen", "ma", "ri", "ol", "tar", "bo",
+            "hdan", "ir", "yna", "mel", "nyk", "kra", "vets", "lys", "ar", "sen", "da", "ni", "lo", "zu", "ro",
+            "stu", "pan", "hry", "ho", "ruk", "yo"};
+
+    @Param({"1000000", "10000000"})
+    private int users;
+
+    @Param({"ko", "shevchen", "enko", "ny", "qqq"})
+    private String query;
+
+    @Param({"20"})
+    private int limit;
+
+    private NameIndex nameIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        UserStore userStore = new StripedUserStore();
+        for (int i = 0; i < users; i++) {
+            User user = BenchmarkUsers.user(i);
+            user.setFirstName(name(i * 31L));
+            user.setLastName(name(i * 7919L) + "enko");
+            userStore.putIfAbsent(user);
+        }
+        nameIndex = new NameIndex(userStore);
+        nameIndex.open();
+    }
+
+    @Benchmark
+    public List<User> search() {
+        return nameIndex.search(query, limit);
+    }
+
+    // Three syllables picked by the digits of n in base SYLLABLES.length
+    private static String name(long n) {
+        int base = SYLLABLES.length;
+        String name = SYLLABLES[(int) (n % base)] + SYLLABLES[(int) (n / base % base)] + SYLLABLES[(int) (n / base / base % base)];
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+}
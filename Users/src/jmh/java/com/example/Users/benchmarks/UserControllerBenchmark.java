@@ -0,0 +1,96 @@
+package com.example.Users.benchmarks;
+
+import com.example.Users.services.UserService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.time.LocalDate;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+// Full request path through UserController: Spring MVC dispatch, Jackson, validation and UserService.
+// MockMvc leaves out only the network and Tomcat.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class UserControllerBenchmark {
+    @Param({"10000", "1000000"})
+    private int users;
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+    private MockMvc mockMvc;
+    private SplittableRandom random;
+    private int created;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkUsers.start(WebApplicationType.SERVLET);
+        userService = context.getBean(UserService.class);
+        BenchmarkUsers.load(userService, users);
+        mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+        random = new SplittableRandom(42);
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeCreatedUsers() {
+        for (int i = 0; i < created; i++) {
+            userService.deleteUser(BenchmarkUsers.email(users + i));
+        }
+        created = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public MockHttpServletResponse createUser() throws Exception {
+        String body = "{\"email\":\"" + BenchmarkUsers.email(users + created++)
+                + "\",\"firstName\":\"Olena\",\"lastName\":\"Melnyk\",\"birthDate\":\"1990-05-17\"}";
+        return mockMvc.perform(post("/users").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andReturn().getResponse();
+    }
+
+    @Benchmark
+    public MockHttpServletResponse updatePartialUser() throws Exception {
+        return mockMvc.perform(patch("/users/{email}", BenchmarkUsers.email(random.nextInt(users)))
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"firstName\":\"Patched\"}"))
+                .andReturn().getResponse();
+    }
+
+    @Benchmark
+    public MockHttpServletResponse searchOneMonth() throws Exception {
+        LocalDate from = BenchmarkUsers.FIRST_BIRTH_DATE.plusDays(random.nextInt(BenchmarkUsers.BIRTH_DATE_DAYS));
+        return mockMvc.perform(get("/users/search")
+                        .param("from", from.toString())
+                        .param("to", from.plusMonths(1).toString()))
+                .andReturn().getResponse();
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.Users.benchmarks;
+
+import com.example.Users.models.User;
+import com.example.Users.services.UserJsonCache;
+import com.example.Users.stores.StripedUserStore;
+import com.example.Users.stores.UserStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Jackson serialization of User with the ObjectMapper that Spring Boot configures for the controllers,
+// and the same users written from UserJsonCache as the controllers do with json.cache.enabled=true.
+// With -Djmh.args="UserJsonBenchmark -prof gc" JMH reports the bytes allocated per operation as well.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserJsonBenchmark {
+    private ObjectMapper objectMapper;
+    private User user;
+    private List<User> searchPage;
+    private byte[] userJson;
+    private UserJsonCache userJsonCache;
+    // Stands in for the response body, reset before every write
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 16);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        try (ConfigurableApplicationContext context = BenchmarkUsers.start(WebApplicationType.NONE)) {
+            objectMapper = context.getBean(ObjectMapper.class);
+        }
+        // Copies of stored users, as the controllers get them
+        UserStore userStore = new StripedUserStore();
+        searchPage = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            userStore.putIfAbsent(BenchmarkUsers.user(i));
+            searchPage.add(userStore.getCopy(BenchmarkUsers.email(i)));
+        }
+        user = searchPage.get(1);
+        userJson = objectMapper.writeValueAsBytes(user);
+        // json.cache.max.bytes as shipped
+        userJsonCache = new UserJsonCache(userStore, objectMapper, new SimpleMeterRegistry(), 64L << 20);
+        userJsonCache.open();
+        userJsonCache.writeArray(searchPage, out);
+    }
+
+    @Benchmark
+    public byte[] serializeUser() throws Exception {
+        return objectMapper.writeValueAsBytes(user);
+    }
+
+    @Benchmark
+    public byte[] serializeSearchPage() throws Exception {
+        return objectMapper.writeValueAsBytes(searchPage);
+    }
+
+    @Benchmark
+    public byte[] cachedUser() throws Exception {
+        return userJsonCache.toJson(user);
+    }
+
+    @Benchmark
+    public int writeSearchPage() throws Exception {
+        out.reset();
+        objectMapper.writeValue(out, searchPage);
+        return out.size();
+    }
+
+    @Benchmark
+    public int writeCachedSearchPage() throws Exception {
+        out.reset();
+        userJsonCache.writeArray(searchPage, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public User deserializeUser() throws Exception {
+        return objectMapper.readValue(userJson, User.class);
+    }
+}
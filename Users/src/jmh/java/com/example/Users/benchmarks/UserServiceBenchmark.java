@@ -0,0 +1,136 @@
+package com.example.Users.benchmarks;
+
+import com.example.Users.models.User;
+import com.example.Users.models.UserPage;
+import com.example.Users.services.UserService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// UserService operations on a store that already holds the given number of users
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms12g", "-Xmx12g"})
+@State(Scope.Benchmark)
+public class UserServiceBenchmark {
+    private static final String[] EMAILS = {"test@example.com", "john.doe@example.co.uk", "not_an_email", "user@example..com"};
+
+    @Param({"10000", "1000000", "10000000"})
+    private int users;
+
+    // user.store: objects on the heap or records in direct memory
+    @Param({"heap", "offheap"})
+    private String store;
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+    private SplittableRandom random;
+    private boolean[] renamed;
+    private int created;
+    private int emailIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkUsers.start(WebApplicationType.NONE, "user.store=" + store);
+        userService = context.getBean(UserService.class);
+        BenchmarkUsers.load(userService, users);
+        random = new SplittableRandom(42);
+        renamed = new boolean[users];
+    }
+
+    // Removes the users added by createUser, so every iteration sees the same store size
+    @TearDown(Level.Iteration)
+    public void removeCreatedUsers() {
+        for (int i = 0; i < created; i++) {
+            userService.deleteUser(BenchmarkUsers.email(users + i));
+        }
+        created = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public boolean createUser() {
+        return userService.createUser(BenchmarkUsers.user(users + created++));
+    }
+
+    @Benchmark
+    public User updatePartialUser() {
+        User patch = new User();
+        patch.setFirstName("Patched");
+        return userService.updatePartialUser(BenchmarkUsers.email(random.nextInt(users)), patch);
+    }
+
+    // Moves a random user to another email, or back if it was moved before
+    @Benchmark
+    public User renameEmail() {
+        int i = random.nextInt(users);
+        String email = BenchmarkUsers.email(i);
+        String movedEmail = "moved-" + email;
+        User patch = new User();
+        patch.setEmail(renamed[i] ? email : movedEmail);
+        User result = userService.updatePartialUser(renamed[i] ? movedEmail : email, patch);
+        renamed[i] = !renamed[i];
+        return result;
+    }
+
+    // A delete alone would empty the store, so the user is put back right away
+    @Benchmark
+    public boolean deleteAndRecreateUser() {
+        int i = random.nextInt(users);
+        String email = renamed[i] ? "moved-" + BenchmarkUsers.email(i) : BenchmarkUsers.email(i);
+        boolean deleted = userService.deleteUser(email);
+        renamed[i] = false;
+        userService.createUser(BenchmarkUsers.user(i));
+        return deleted;
+    }
+
+    @Benchmark
+    public List<User> searchOneDay() {
+        LocalDate from = randomBirthDate();
+        return userService.getUsersByBirthDateRange(from.minusDays(1), from.plusDays(1));
+    }
+
+    @Benchmark
+    public List<User> searchOneYear() {
+        LocalDate from = randomBirthDate();
+        return userService.getUsersByBirthDateRange(from, from.plusYears(1));
+    }
+
+    @Benchmark
+    public UserPage searchOneYearFirstPage() {
+        LocalDate from = randomBirthDate();
+        return userService.getUsersByBirthDateRange(from, from.plusYears(1), null, 100);
+    }
+
+    @Benchmark
+    public boolean isValidEmail() {
+        return userService.isValidEmail(EMAILS[emailIndex++ & (EMAILS.length - 1)]);
+    }
+
+    private LocalDate randomBirthDate() {
+        return BenchmarkUsers.FIRST_BIRTH_DATE.plusDays(random.nextInt(BenchmarkUsers.BIRTH_DATE_DAYS));
+    }
+}
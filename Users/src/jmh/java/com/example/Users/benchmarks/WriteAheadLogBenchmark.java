@@ -0,0 +1,82 @@
+package com.example.Users.benchmarks;
+
+import com.example.Users.stores.StripedUserStore;
+import com.example.Users.stores.UserStore;
+import com.example.Users.stores.WriteAheadLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+// Creates and updates through a store with a write-ahead log, compared to the in-memory store alone (fsync=NONE).
+// Runs with several threads, that's what group commit is for.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Threads(8)
+@State(Scope.Benchmark)
+public class WriteAheadLogBenchmark {
+    @Param({"NONE", "OS", "INTERVAL", "ALWAYS"})
+    private String fsync;
+
+    private Path directory;
+    private UserStore userStore;
+    private WriteAheadLog writeAheadLog;
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("wal-benchmark");
+        userStore = new StripedUserStore();
+        if (!fsync.equals("NONE")) {
+            writeAheadLog = new WriteAheadLog(directory, WriteAheadLog.FsyncPolicy.valueOf(fsync), 10, 0, userStore);
+            writeAheadLog.open();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (writeAheadLog != null) {
+            writeAheadLog.close();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public boolean createUser() {
+        return userStore.putIfAbsent(BenchmarkUsers.user(next.getAndIncrement()));
+    }
+
+    @Benchmark
+    public Object updateUser() {
+        int i = next.getAndIncrement() & 0xFFFF;
+        if (!userStore.contains(BenchmarkUsers.email(i))) {
+            userStore.putIfAbsent(BenchmarkUsers.user(i));
+        }
+        return userStore.update(BenchmarkUsers.email(i), null, user -> user.setFirstName("Updated"));
+    }
+}
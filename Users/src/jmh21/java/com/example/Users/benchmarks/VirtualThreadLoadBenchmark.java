@@ -0,0 +1,282 @@
+package com.example.Users.benchmarks;
+
+import com.example.Users.UsersApplication;
+import com.example.Users.models.User;
+import com.example.Users.services.UserService;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Stream;
+
+// Throughput and latency of the real server (Tomcat over TCP) with many keep-alive connections,
+// once on Tomcat's platform thread pool and once on virtual threads (spring.threads.virtual.enabled).
+//
+// Every connection is a client virtual thread sending one request after another: searches and PATCHes,
+// which wait for the write-ahead log's shared fsync (wal.fsync=always). Waiting requests hold a
+// platform thread each, so the pool of 200 caps how many of them share one fsync; virtual threads don't.
+// Connections are spread over several loopback addresses to get past the ephemeral port range.
+//
+// Needs about two file descriptors per connection (ulimit -n 120000 for 50k) and a large heap:
+// MAVEN_OPTS="-Xmx8g" mvn -Pjava21 test-compile exec:java -Dexec.classpathScope=test
+//     -Dexec.mainClass=com.example.Users.benchmarks.VirtualThreadLoadBenchmark -Dexec.args="1000 10000 50000"
+// Options: -Dusers=100000 -Dwarmup.seconds=10 -Dmeasure.seconds=30 -Dwrite.percent=50
+// Results are printed and written to target/virtual-thread-load.json.
+public class VirtualThreadLoadBenchmark {
+    private static final int USERS = Integer.getInteger("users", 100_000);
+    private static final int WARMUP_SECONDS = Integer.getInteger("warmup.seconds", 10);
+    private static final int MEASURE_SECONDS = Integer.getInteger("measure.seconds", 30);
+    private static final int WRITE_PERCENT = Integer.getInteger("write.percent", 50);
+    private static final int LOOPBACK_ADDRESSES = 8;
+    private static final LocalDate FIRST_BIRTH_DATE = LocalDate.of(1950, 1, 1);
+    private static final int BIRTH_DATE_DAYS = 20_000;
+
+    public static void main(String[] args) throws Exception {
+        List<Integer> connections = new ArrayList<>();
+        for (String arg : args.length == 0 ? new String[]{"1000", "10000", "50000"} : args) {
+            connections.add(Integer.parseInt(arg));
+        }
+        int maxConnections = connections.stream().max(Comparator.naturalOrder()).orElseThrow();
+        List<String> results = new ArrayList<>();
+        for (boolean virtualThreads : new boolean[]{false, true}) {
+            Path walDirectory = Files.createTempDirectory("virtual-thread-load");
+            ConfigurableApplicationContext context = new SpringApplicationBuilder(UsersApplication.class)
+                    .web(WebApplicationType.SERVLET)
+                    .logStartupInfo(false)
+                    .properties("server.port=0", "logging.level.root=WARN",
+                            "spring.threads.virtual.enabled=" + virtualThreads,
+                            // Both modes keep every connection open, only the threads behind them differ
+                            "server.tomcat.max-connections=" + (maxConnections + 1_000),
+                            "server.tomcat.accept-count=" + maxConnections,
+                            "server.tomcat.max-keep-alive-requests=-1",
+                            "server.tomcat.keep-alive-timeout=120s",
+                            "wal.enabled=true", "wal.fsync=always", "wal.snapshot.interval.ms=0",
+                            "wal.directory=" + walDirectory)
+                    .run();
+            try {
+                UserService userService = context.getBean(UserService.class);
+                for (int i = 0; i < USERS; i++) {
+                    userService.createUser(new User(email(i), "Olena", "Melnyk", FIRST_BIRTH_DATE.plusDays((i * 7919L) % BIRTH_DATE_DAYS)));
+                }
+                int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+                for (int count : connections) {
+                    Result result = run(port, count);
+                    String mode = virtualThreads ? "virtual" : "platform";
+                    System.out.printf(Locale.ROOT, "%-8s %6d connections: %10.0f requests/s  p50 %8.2f ms  p99 %8.2f ms  p99.9 %8.2f ms  errors %d%n",
+                            mode, count, result.throughput(), result.p50Millis(), result.p99Millis(), result.p999Millis(), result.errors());
+                    results.add(String.format(Locale.ROOT,
+                            "{\"threads\":\"%s\",\"connections\":%d,\"requestsPerSecond\":%.1f,\"p50Millis\":%.3f,\"p99Millis\":%.3f,\"p999Millis\":%.3f,\"errors\":%d}",
+                            mode, count, result.throughput(), result.p50Millis(), result.p99Millis(), result.p999Millis(), result.errors()));
+                }
+            } finally {
+                context.close();
+                try (Stream<Path> files = Files.list(walDirectory)) {
+                    for (Path file : files.toList()) {
+                        Files.delete(file);
+                    }
+                }
+                Files.delete(walDirectory);
+            }
+        }
+        Path file = Paths.get("target", "virtual-thread-load.json");
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "[\n" + String.join(",\n", results) + "\n]\n");
+    }
+
+    // Opens all connections, lets them warm up, then counts the requests that start and finish within the measured window
+    private static Result run(int port, int connections) throws InterruptedException {
+        Histogram histogram = new Histogram();
+        AtomicLong errors = new AtomicLong();
+        long measureStart = System.nanoTime() + WARMUP_SECONDS * 1_000_000_000L;
+        long measureEnd = measureStart + MEASURE_SECONDS * 1_000_000_000L;
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < connections; c++) {
+                String address = "127.0.0." + (1 + c % LOOPBACK_ADDRESSES);
+                SplittableRandom random = new SplittableRandom(c);
+                clients.submit(() -> {
+                    try (Socket socket = new Socket()) {
+                        socket.connect(new InetSocketAddress(address, port), 60_000);
+                        socket.setTcpNoDelay(true);
+                        OutputStream out = socket.getOutputStream();
+                        InputStream in = new BufferedInputStream(socket.getInputStream());
+                        long now;
+                        while ((now = System.nanoTime()) < measureEnd) {
+                            out.write(request(random));
+                            out.flush();
+                            int status = readResponse(in);
+                            long end = System.nanoTime();
+                            if (now >= measureStart && end <= measureEnd) {
+                                if (status >= 500) {
+                                    errors.incrementAndGet();
+                                } else {
+                                    histogram.record((end - now) / 1_000);
+                                }
+                            }
+                        }
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    }
+                });
+            }
+        }
+        return new Result(histogram, errors.get());
+    }
+
+    private static byte[] request(SplittableRandom random) {
+        String email = email(random.nextInt(USERS));
+        if (random.nextInt(100) < WRITE_PERCENT) {
+            String body = "{\"firstName\":\"Name" + random.nextInt(1_000) + "\"}";
+            return ("PATCH /users/" + email + " HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/json\r\nContent-Length: "
+                    + body.length() + "\r\n\r\n" + body).getBytes(StandardCharsets.UTF_8);
+        }
+        LocalDate from = FIRST_BIRTH_DATE.plusDays(random.nextInt(BIRTH_DATE_DAYS));
+        return ("GET /users/search?from=" + from + "&to=" + from.plusDays(30) + "&limit=20 HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Reads one HTTP/1.1 response, with a Content-Length or chunked body, and returns its status
+    private static int readResponse(InputStream in) throws IOException {
+        String statusLine = readLine(in);
+        int status = Integer.parseInt(statusLine.substring(9, 12));
+        long contentLength = 0;
+        boolean chunked = false;
+        for (String header = readLine(in); !header.isEmpty(); header = readLine(in)) {
+            String name = header.substring(0, header.indexOf(':')).trim();
+            String value = header.substring(header.indexOf(':') + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) {
+                contentLength = Long.parseLong(value);
+            } else if (name.equalsIgnoreCase("Transfer-Encoding") && value.equalsIgnoreCase("chunked")) {
+                chunked = true;
+            }
+        }
+        if (!chunked) {
+            skip(in, contentLength);
+            return status;
+        }
+        for (long size = Long.parseLong(readLine(in).trim(), 16); size > 0; size = Long.parseLong(readLine(in).trim(), 16)) {
+            skip(in, size);
+            readLine(in);
+        }
+        // Trailer headers up to the empty line
+        while (!readLine(in).isEmpty()) {
+        }
+        return status;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b < 0) {
+                throw new IOException("Connection closed");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+
+    private static void skip(InputStream in, long bytes) throws IOException {
+        while (bytes > 0) {
+            long skipped = in.skip(bytes);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new IOException("Connection closed");
+                }
+                skipped = 1;
+            }
+            bytes -= skipped;
+        }
+    }
+
+    private static String email(int i) {
+        return "user" + i + "@example.com";
+    }
+
+    // Latencies in microseconds, 32 buckets per power of two (about 3% precision)
+    private static final class Histogram {
+        private static final int SUB_BUCKETS = 32;
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+
+        void record(long micros) {
+            counts.incrementAndGet(index(Math.max(0, micros)));
+        }
+
+        long total() {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                total += counts.get(i);
+            }
+            return total;
+        }
+
+        // Upper bound of the bucket holding the given fraction of the recorded latencies
+        long percentile(double fraction) {
+            long rank = (long) Math.ceil(total() * fraction);
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank && seen > 0) {
+                    return lowerBound(i + 1) - 1;
+                }
+            }
+            return 0;
+        }
+
+        // Values below 2 * SUB_BUCKETS have their own bucket, larger ones share one per 1/32 of their power of two
+        private static int index(long value) {
+            if (value < 2 * SUB_BUCKETS) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - 5;
+            return shift * SUB_BUCKETS + (int) (value >>> shift);
+        }
+
+        private static long lowerBound(int index) {
+            if (index < 2 * SUB_BUCKETS) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            return (long) (index - shift * SUB_BUCKETS) << shift;
+        }
+    }
+
+    private record Result(Histogram histogram, long errors) {
+        double throughput() {
+            return histogram.total() / (double) MEASURE_SECONDS;
+        }
+
+        double p50Millis() {
+            return histogram.percentile(0.5) / 1_000.0;
+        }
+
+        double p99Millis() {
+            return histogram.percentile(0.99) / 1_000.0;
+        }
+
+        double p999Millis() {
+            return histogram.percentile(0.999) / 1_000.0;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.Users.controllers;
+
+import com.example.Users.services.ConcurrencyLimiter;
+import com.example.Users.services.UserMetrics;
+import com.example.Users.services.UserMetrics.Rejection;
+import com.example.Users.services.UserService;
+import com.example.Users.services.UserStatistics;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Load shedding for /users (admission.enabled=true): each class of endpoints has a ConcurrencyLimiter, a request
+// that doesn't fit under its class's limit is turned down at once with 503 and Retry-After instead of queueing
+// up behind the others. The classes have limits of their own, so searches that slow down get fewer slots
+// while cheap reads and writes keep theirs.
+//
+// A birth date search costs one slot plus one per admission.search.cost.users users it's expected to find,
+// counted from UserStatistics (a page at most its limit), so the widest searches are the first to go.
+// The change feed isn't limited, its streams stay open for as long as the client listens.
+// Counted as users.admission.limit and users.admission.in_flight (tag class, in slots) and as
+// users.rejections with reason overloaded.
+@Component
+@ConditionalOnProperty(name = "admission.enabled", havingValue = "true")
+public class AdmissionFilter extends OncePerRequestFilter {
+    public enum EndpointClass {
+        // Single users and stats
+        READ,
+        // Creates, updates and deletes of single users
+        WRITE,
+        SEARCH,
+        // Batches, imports and exports
+        BULK
+    }
+
+    private final Map<EndpointClass, ConcurrencyLimiter> limiters = new EnumMap<>(EndpointClass.class);
+    private final UserService userService;
+    private final UserStatistics userStatistics;
+    private final UserMetrics userMetrics;
+    private final long searchCostUsers;
+    private final int maxLimit;
+    private final String retryAfterSeconds;
+
+    @Autowired
+    public AdmissionFilter(UserService userService, UserStatistics userStatistics, UserMetrics userMetrics, MeterRegistry registry,
+                           @Value("${admission.initial.limit:20}") int initialLimit,
+                           @Value("${admission.min.limit:4}") int minLimit,
+                           @Value("${admission.max.limit:1000}") int maxLimit,
+                           @Value("${admission.tolerance:1.5}") double tolerance,
+                           @Value("${admission.smoothing:0.2}") double smoothing,
+                           @Value("${admission.window.ms:100}") long windowMillis,
+                           @Value("${admission.search.cost.users:1000}") long searchCostUsers,
+                           @Value("${admission.retry.after.s:1}") int retryAfterSeconds) {
+        this.userService = userService;
+        this.userStatistics = userStatistics;
+        this.userMetrics = userMetrics;
+        this.searchCostUsers = searchCostUsers;
+        this.maxLimit = maxLimit;
+        this.retryAfterSeconds = Integer.toString(retryAfterSeconds);
+        for (EndpointClass endpointClass : EndpointClass.values()) {
+            ConcurrencyLimiter limiter = new ConcurrencyLimiter(initialLimit, minLimit, maxLimit, tolerance, smoothing, windowMillis);
+            limiters.put(endpointClass, limiter);
+            String tag = endpointClass.name().toLowerCase(Locale.ROOT);
+            Gauge.builder("users.admission.limit", limiter, ConcurrencyLimiter::getLimit)
+                    .description("Slots the requests of an endpoint class may take at once")
+                    .tag("class", tag)
+                    .register(registry);
+            Gauge.builder("users.admission.in_flight", limiter, ConcurrencyLimiter::getInFlight)
+                    .description("Slots taken by the requests of an endpoint class")
+                    .tag("class", tag)
+                    .register(registry);
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return classify(request.getMethod(), request.getRequestURI()) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        EndpointClass endpointClass = classify(request.getMethod(), request.getRequestURI());
+        ConcurrencyLimiter limiter = limiters.get(endpointClass);
+        int cost = endpointClass == EndpointClass.SEARCH ? searchCost(request) : 1;
+        if (!limiter.tryAcquire(cost)) {
+            userMetrics.rejected(Rejection.OVERLOADED);
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader(HttpHeaders.RETRY_AFTER, retryAfterSeconds);
+            response.getWriter().write("Too many " + endpointClass.name().toLowerCase(Locale.ROOT) + " requests, try again later");
+            return;
+        }
+        long start = System.nanoTime();
+        boolean async = false;
+        try {
+            chain.doFilter(request, response);
+            // Exports and imports go on streaming after the handler returns, the slot is theirs until they end
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new Release(limiter, cost, start));
+                async = true;
+            }
+        } finally {
+            if (!async) {
+                limiter.release(cost, System.nanoTime() - start);
+            }
+        }
+    }
+
+    ConcurrencyLimiter limiter(EndpointClass endpointClass) {
+        return limiters.get(endpointClass);
+    }
+
+    // Null for requests that aren't limited
+    static EndpointClass classify(String method, String path) {
+        if (!path.equals("/users") && !path.startsWith("/users/") || path.startsWith("/users/changes")) {
+            return null;
+        }
+        if (path.equals("/users/search") || path.equals("/users/search/name")) {
+            return EndpointClass.SEARCH;
+        }
+        if (path.equals("/users/batch") || path.equals("/users/import") || path.equals("/users/export")) {
+            return EndpointClass.BULK;
+        }
+        return method.equals("GET") || method.equals("HEAD") ? EndpointClass.READ : EndpointClass.WRITE;
+    }
+
+    int searchCost(HttpServletRequest request) {
+        if (!request.getRequestURI().equals("/users/search")) {
+            // At most max.search.limit users, each found through the name index
+            return 1;
+        }
+        long expected;
+        try {
+            expected = userStatistics.countBornBetween(LocalDate.parse(request.getParameter("from")),
+                    LocalDate.parse(request.getParameter("to")));
+            String limit = request.getParameter("limit");
+            if (limit != null) {
+                expected = Math.min(expected, Integer.parseInt(limit));
+            } else if (request.getParameter("cursor") != null) {
+                expected = Math.min(expected, userService.getMaxSearchLimit());
+            }
+        } catch (RuntimeException e) {
+            // Malformed, the controller turns it down
+            return 1;
+        }
+        return (int) Math.min(maxLimit, 1 + Math.max(0, expected) / searchCostUsers);
+    }
+
+    private static final class Release implements AsyncListener {
+        private final ConcurrencyLimiter limiter;
+        private final int cost;
+        private final long start;
+
+        Release(ConcurrencyLimiter limiter, int cost, long start) {
+            this.limiter = limiter;
+            this.cost = cost;
+            this.start = start;
+        }
+
+        // Also called after a timeout or an error
+        @Override
+        public void onComplete(AsyncEvent event) {
+            limiter.release(cost, System.nanoTime() - start);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
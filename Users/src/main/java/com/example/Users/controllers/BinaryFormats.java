@@ -0,0 +1,70 @@
+package com.example.Users.controllers;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdScalarSerializer;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+// CBOR (application/cbor) and Smile (application/x-jackson-smile) for bulk clients, negotiated through Accept and
+// Content-Type like JSON. Both are binary JSON: the same fields, with numbers and lengths in binary instead of text.
+// Dates are days since 1970-01-01 (a small integer, 3 bytes in CBOR) instead of ISO strings, and are read either way.
+final class BinaryFormats {
+    private BinaryFormats() {
+    }
+
+    // The controllers' mapper (settings and modules) writing to the given format, with dates as epoch days
+    static ObjectMapper mapper(ObjectMapper objectMapper, JsonFactory format) {
+        SimpleModule epochDays = new SimpleModule("EpochDays");
+        epochDays.addSerializer(LocalDate.class, new EpochDaySerializer());
+        epochDays.addDeserializer(LocalDate.class, new EpochDayDeserializer());
+        // Registered last, so it wins over the JavaTimeModule
+        return objectMapper.copyWith(format).registerModule(epochDays);
+    }
+
+    static final class EpochDaySerializer extends StdScalarSerializer<LocalDate> {
+        private static final long serialVersionUID = 1L;
+
+        EpochDaySerializer() {
+            super(LocalDate.class);
+        }
+
+        @Override
+        public void serialize(LocalDate date, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeNumber(date.toEpochDay());
+        }
+    }
+
+    static final class EpochDayDeserializer extends StdScalarDeserializer<LocalDate> {
+        private static final long serialVersionUID = 1L;
+
+        EpochDayDeserializer() {
+            super(LocalDate.class);
+        }
+
+        @Override
+        public LocalDate deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            if (parser.hasToken(JsonToken.VALUE_NUMBER_INT)) {
+                return LocalDate.ofEpochDay(parser.getLongValue());
+            }
+            if (parser.hasToken(JsonToken.VALUE_STRING)) {
+                String text = parser.getText().trim();
+                try {
+                    return LocalDate.parse(text);
+                } catch (DateTimeParseException e) {
+                    return (LocalDate) context.handleWeirdStringValue(LocalDate.class, text, "Not an ISO date");
+                }
+            }
+            return (LocalDate) context.handleUnexpectedToken(LocalDate.class, parser);
+        }
+    }
+}
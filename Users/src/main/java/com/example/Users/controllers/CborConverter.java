@@ -0,0 +1,16 @@
+package com.example.Users.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.stereotype.Component;
+
+// application/cbor with dates as epoch days, see BinaryFormats. Takes the place of Spring's own CBOR converter.
+@Component
+public class CborConverter extends MappingJackson2CborHttpMessageConverter {
+    @Autowired
+    public CborConverter(ObjectMapper objectMapper) {
+        super(BinaryFormats.mapper(objectMapper, new CBORFactory()));
+    }
+}
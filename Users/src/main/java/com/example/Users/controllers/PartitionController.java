@@ -0,0 +1,118 @@
+package com.example.Users.controllers;
+
+import com.example.Users.models.User;
+import com.example.Users.services.UserPartitions;
+import com.example.Users.services.UserService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.time.LocalDate;
+import java.util.List;
+
+// Requests of the other nodes of the cluster (cluster.enabled=true), answered from this node's store only.
+// The checks of /users were done by the node that got the request, so these only tell whether it worked:
+// 404 for no such user (or a failed update), 409 for a taken email. An email this node doesn't own gets 421,
+// it's never passed on, so nodes that disagree on cluster.nodes can't send requests around in circles.
+@RestController
+@RequestMapping(UserPartitions.PATH)
+@ConditionalOnProperty(name = "cluster.enabled", havingValue = "true")
+public class PartitionController {
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private UserPartitions userPartitions;
+
+    @GetMapping("/{email}")
+    public ResponseEntity<?> getUser(@PathVariable String email) {
+        if (!userPartitions.isLocal(email)) {
+            return misdirected(email);
+        }
+        User user = userService.getUser(email);
+        return user == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(user);
+    }
+
+    @PostMapping
+    public ResponseEntity<?> createUser(@RequestBody User user) {
+        if (!userPartitions.isLocal(user.getEmail())) {
+            return misdirected(user.getEmail());
+        }
+        if (!userService.createUser(user)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+        return ResponseEntity.status(HttpStatus.CREATED).body(user);
+    }
+
+    // A new email another node owns moves the user there
+    @PatchMapping("/{email}")
+    public ResponseEntity<?> updatePartialUser(@PathVariable String email, @RequestBody User user,
+                                               @RequestParam("version") long expectedVersion) {
+        if (!userPartitions.isLocal(email)) {
+            return misdirected(email);
+        }
+        User updatedUser = userService.updatePartialUser(email, user, expectedVersion);
+        return updatedUser == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(updatedUser);
+    }
+
+    @PutMapping("/{email}")
+    public ResponseEntity<?> updateUser(@PathVariable String email, @RequestBody User user,
+                                        @RequestParam("version") long expectedVersion) {
+        if (!userPartitions.isLocal(email)) {
+            return misdirected(email);
+        }
+        User updatedUser = userService.updateUser(email, user, expectedVersion);
+        return updatedUser == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(updatedUser);
+    }
+
+    @DeleteMapping("/{email}")
+    public ResponseEntity<?> deleteUser(@PathVariable String email, @RequestParam("version") long expectedVersion) {
+        if (!userPartitions.isLocal(email)) {
+            return misdirected(email);
+        }
+        return userService.deleteUser(email, expectedVersion) ? ResponseEntity.ok().build() : ResponseEntity.notFound().build();
+    }
+
+    // All users of this node in the range, or with limit one UserPage of them
+    @GetMapping("/search")
+    public ResponseEntity<?> searchUsersByBirthDateRange(@RequestParam("from") String fromDate, @RequestParam("to") String toDate,
+                                                         @RequestParam(value = "limit", required = false) Integer limit,
+                                                         @RequestParam(value = "cursor", required = false) String cursor) {
+        LocalDate from = LocalDate.parse(fromDate);
+        LocalDate to = LocalDate.parse(toDate);
+        if (limit == null) {
+            return ResponseEntity.ok(userService.getLocalUsersByBirthDateRange(from, to));
+        }
+        try {
+            return ResponseEntity.ok(userService.getLocalUsersByBirthDateRange(from, to, cursor, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Invalid cursor");
+        }
+    }
+
+    @GetMapping("/search/name")
+    public ResponseEntity<?> searchUsersByName(@RequestParam("q") String query, @RequestParam("limit") int limit) {
+        List<User> users = userService.getLocalUsersByName(query, limit);
+        return users == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(users);
+    }
+
+    @GetMapping("/stats")
+    public ResponseEntity<?> getStats() {
+        return ResponseEntity.ok(userService.getLocalStats());
+    }
+
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportUsers() {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(userService::exportLocalUsers);
+    }
+
+    private ResponseEntity<?> misdirected(String email) {
+        return ResponseEntity.status(UserPartitions.MISDIRECTED)
+                .body(email + " belongs to " + userPartitions.ownerOf(email));
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.Users.controllers;
+
+import com.example.Users.services.UserPartitions;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+// Lets only the other nodes of the cluster (cluster.enabled=true) at PartitionController: its requests skip the
+// checks, forwarding and admission control of /users, so one without UserPartitions.SECRET_HEADER set to
+// cluster.secret is turned down with 403.
+@Component
+@ConditionalOnProperty(name = "cluster.enabled", havingValue = "true")
+public class PartitionFilter extends OncePerRequestFilter {
+    private final UserPartitions userPartitions;
+
+    @Autowired
+    public PartitionFilter(UserPartitions userPartitions) {
+        this.userPartitions = userPartitions;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        return !path.equals(UserPartitions.PATH) && !path.startsWith(UserPartitions.PATH + "/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (!userPartitions.isPeerSecret(request.getHeader(UserPartitions.SECRET_HEADER))) {
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.getWriter().write("Only for the nodes of the cluster");
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+}
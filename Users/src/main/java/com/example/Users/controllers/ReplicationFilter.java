@@ -0,0 +1,86 @@
+package com.example.Users.controllers;
+
+import com.example.Users.services.ChangeFeed;
+import com.example.Users.services.ReplicationFollower;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+// Decides on a follower (replication.role=follower) which /users requests it answers itself. Changes, and the
+// change feed, are redirected to the leader with 307, which keeps the method and body. Reads are answered here
+// if the follower is fresh enough, otherwise redirected as well:
+// - with X-Users-Min-Sequence (the X-Users-Sequence the leader answered a write with) once that change is
+//   applied, waiting up to replication.wait.ms for it (read-your-writes),
+// - without it if the follower had all the leader's changes at most replication.max.staleness.ms ago.
+// Answers carry the sequence number of the last applied change as X-Users-Sequence.
+@Component
+@ConditionalOnProperty(name = "replication.role", havingValue = "follower")
+public class ReplicationFilter extends OncePerRequestFilter {
+    private final ReplicationFollower follower;
+    private final long waitMillis;
+    private final long maxStalenessMillis;
+
+    @Autowired
+    public ReplicationFilter(ReplicationFollower follower,
+                             @Value("${replication.wait.ms:1000}") long waitMillis,
+                             @Value("${replication.max.staleness.ms:5000}") long maxStalenessMillis) {
+        this.follower = follower;
+        this.waitMillis = waitMillis;
+        this.maxStalenessMillis = maxStalenessMillis;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        return !path.equals("/users") && !path.startsWith("/users/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        boolean read = request.getMethod().equals("GET") || request.getMethod().equals("HEAD");
+        if (!read || request.getRequestURI().startsWith("/users/changes")) {
+            redirectToLeader(request, response);
+            return;
+        }
+        String minSequence = request.getHeader(ReplicationFollower.MIN_SEQUENCE_HEADER);
+        boolean fresh;
+        if (minSequence != null) {
+            try {
+                fresh = follower.awaitSequence(Long.parseLong(minSequence.trim()), waitMillis);
+            } catch (NumberFormatException e) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+                response.getWriter().write(ReplicationFollower.MIN_SEQUENCE_HEADER + " must be a sequence number");
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fresh = false;
+            }
+        } else {
+            fresh = follower.stalenessMillis() <= maxStalenessMillis;
+        }
+        if (!fresh) {
+            redirectToLeader(request, response);
+            return;
+        }
+        response.setHeader(ChangeFeed.SEQUENCE_HEADER, Long.toString(follower.getAppliedSequence()));
+        chain.doFilter(request, response);
+    }
+
+    private void redirectToLeader(HttpServletRequest request, HttpServletResponse response) {
+        String query = request.getQueryString();
+        response.setStatus(HttpServletResponse.SC_TEMPORARY_REDIRECT);
+        response.setHeader(HttpHeaders.LOCATION, follower.getLeader() + request.getRequestURI() + (query == null ? "" : "?" + query));
+    }
+}
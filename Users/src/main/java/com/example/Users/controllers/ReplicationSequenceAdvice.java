@@ -0,0 +1,39 @@
+package com.example.Users.controllers;
+
+import com.example.Users.services.ChangeFeed;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+// On the leader (replication.role=leader) the answers to changes carry the change feed's last sequence number
+// as X-Users-Sequence, taken after the change was made. Sent to a follower as X-Users-Min-Sequence, it makes
+// the follower answer only once it has that change (see ReplicationFilter).
+@RestControllerAdvice(assignableTypes = UserController.class)
+@ConditionalOnProperty(name = "replication.role", havingValue = "leader")
+public class ReplicationSequenceAdvice implements ResponseBodyAdvice<Object> {
+    @Autowired
+    private ChangeFeed changeFeed;
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    // Called after the handler, before anything of the answer is sent
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        if (!HttpMethod.GET.equals(request.getMethod()) && !HttpMethod.HEAD.equals(request.getMethod())) {
+            response.getHeaders().set(ChangeFeed.SEQUENCE_HEADER, Long.toString(changeFeed.lastSequence()));
+        }
+        return body;
+    }
+}
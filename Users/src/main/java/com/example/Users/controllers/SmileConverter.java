@@ -0,0 +1,16 @@
+package com.example.Users.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.stereotype.Component;
+
+// application/x-jackson-smile with dates as epoch days, see BinaryFormats. Takes the place of Spring's own Smile converter.
+@Component
+public class SmileConverter extends MappingJackson2SmileHttpMessageConverter {
+    @Autowired
+    public SmileConverter(ObjectMapper objectMapper) {
+        super(BinaryFormats.mapper(objectMapper, new SmileFactory()));
+    }
+}
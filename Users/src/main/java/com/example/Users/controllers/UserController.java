@@ -1,128 +1,510 @@
 package com.example.Users.controllers;
 
+import com.example.Users.models.BatchOperation;
+import com.example.Users.models.BatchResult;
 import com.example.Users.models.User;
+import com.example.Users.models.UserChange;
+import com.example.Users.models.UserPage;
+import com.example.Users.services.ChangeFeed;
+import com.example.Users.services.UserBatchService;
+import com.example.Users.services.UserImportService;
+import com.example.Users.services.UserImportService.Format;
+import com.example.Users.services.UserMetrics;
+import com.example.Users.services.UserMetrics.Rejection;
 import com.example.Users.services.UserService;
-import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.validation.BindingResult;
-import org.springframework.validation.FieldError;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/users")
 public class UserController {
+    // Media type the emitters write their text with, the response keeps its own content type
+    private static final MediaType TEXT_UTF_8 = new MediaType("text", "plain", StandardCharsets.UTF_8);
+
     @Autowired
     private UserService userService;
+    @Autowired
+    private UserBatchService userBatchService;
+    @Autowired
+    private UserImportService userImportService;
+    @Autowired
+    private UserMetrics userMetrics;
+    // Only there with changes.enabled=true
+    @Autowired(required = false)
+    private ChangeFeed changeFeed;
+
+    // Counts of all users by birth year, age band and email domain, kept up to date on every change
+    @GetMapping("/stats")
+    public ResponseEntity<?> getStats() {
+        return ResponseEntity.ok(userService.getStats());
+    }
+
+    // All users as NDJSON, one user per line, streamed as they are read from a point-in-time view of the store.
+    // Compressed with gzip when the client accepts it.
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportUsers(
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        boolean gzip = acceptsGzip(acceptEncoding);
+        StreamingResponseBody body = out -> {
+            if (gzip) {
+                GZIPOutputStream gzipOut = new GZIPOutputStream(out, 1 << 16);
+                userService.exportUsers(gzipOut);
+                gzipOut.finish();
+            } else {
+                userService.exportUsers(out);
+            }
+        };
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        // Taken before the export starts, so the export has at least the changes up to this one
+        if (changeFeed != null) {
+            response.header(ChangeFeed.SEQUENCE_HEADER, Long.toString(changeFeed.lastSequence()));
+        }
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response.body(body);
+    }
+
+    // Catching up with the change feed: at most limit changes after the since sequence number, oldest first.
+    // 410 once they are no longer kept, the client then has to load the users again (e.g. from /users/export).
+    @GetMapping(value = "/changes", params = "since", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> getChanges(@RequestParam("since") long since,
+                                        @RequestParam(value = "limit", required = false) Integer limit) {
+        if (changeFeed == null) {
+            return new ResponseEntity<>("Change feed is not enabled", HttpStatus.NOT_FOUND);
+        }
+        int maxLimit = userService.getMaxSearchLimit();
+        int resultLimit = limit == null ? maxLimit : limit;
+        if (resultLimit < 1 || resultLimit > maxLimit) {
+            return ResponseEntity.badRequest().body("Limit must be between 1 and " + maxLimit);
+        }
+        if (since < 0) {
+            return ResponseEntity.badRequest().body("Since must not be negative");
+        }
+        // Taken before the read, a client that got every change up to it has seen all that were made before it asked
+        long lastSequence = changeFeed.lastSequence();
+        List<UserChange> changes = changeFeed.read(since, resultLimit);
+        if (changes == null) {
+            return ResponseEntity.status(HttpStatus.GONE)
+                    .body("Changes after " + since + " are no longer kept, the oldest sequence to ask from is " + changeFeed.oldestSequence());
+        }
+        return ResponseEntity.ok().header(ChangeFeed.SEQUENCE_HEADER, Long.toString(lastSequence)).body(changes);
+    }
+
+    // Tailing the change feed as Server-Sent Events, from the changes after since or Last-Event-ID
+    // (sent by a reconnecting EventSource) and otherwise from the next change on.
+    // The stream runs on a thread of the change feed, not on the one exports and imports stream on,
+    // 503 once changes.max.streams streams are open.
+    @GetMapping(value = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<ResponseBodyEmitter> streamChanges(
+            @RequestParam(value = "since", required = false) Long since,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        if (changeFeed == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).contentType(MediaType.TEXT_PLAIN)
+                    .body(message("Change feed is not enabled", true));
+        }
+        long after;
+        try {
+            after = since != null ? since : lastEventId != null ? Long.parseLong(lastEventId.trim()) : changeFeed.lastSequence();
+        } catch (NumberFormatException e) {
+            after = -1;
+        }
+        if (after < 0) {
+            return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN)
+                    .body(message("Since must be a sequence number", true));
+        }
+        ResponseBodyEmitter emitter = message(":\n\n", false);
+        if (!changeFeed.startStream(after, new EmitterOutputStream(emitter), emitter::complete)) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).contentType(MediaType.TEXT_PLAIN)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .body(message("Too many change streams, try again later", true));
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .header(HttpHeaders.CACHE_CONTROL, "no-cache")
+                .body(emitter);
+    }
+
+    // Single user by email with its version as a strong ETag.
+    // A client that sends the ETag it has in If-None-Match gets 304 without a body while the user is unchanged.
+    @GetMapping("/{email}")
+    public ResponseEntity<?> getUser(@PathVariable String email,
+                                     @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        User user = userService.getUser(email);
+        if (user == null) {
+            userMetrics.rejected(Rejection.NOT_FOUND);
+            return new ResponseEntity<>("User not found", HttpStatus.NOT_FOUND);
+        }
+        String eTag = eTagOf(user);
+        if (ifNoneMatch != null && matches(ifNoneMatch, eTag, true)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
+        return ResponseEntity.ok().eTag(eTag).body(user);
+    }
 
     // Create a new user
     @PostMapping
-    public ResponseEntity<?> createUser(@Valid @RequestBody User user, BindingResult result) {
-        // Handling input data errors
-        if (result.hasErrors()) {
-            List<String> errors = new ArrayList<>();
-            for (FieldError error : result.getFieldErrors()) {
-                errors.add(error.getDefaultMessage());
-            }
+    public ResponseEntity<?> createUser(@RequestBody User user) {
+        // Checking the constraints declared on User
+        List<String> errors = userService.validateUser(user);
+        if (!errors.isEmpty()) {
+            userMetrics.rejected(Rejection.BAD_FORMAT);
             return ResponseEntity.badRequest().body(errors);
         }
 
         // Checking user's age
         if (!userService.isUserOldEnough(user.getBirthDate())) {
+            userMetrics.rejected(Rejection.TOO_YOUNG);
             return ResponseEntity.badRequest().body("User must be at least " + userService.getMinUserAge() + " years old.");
         }
 
         // Creating the user
         if (!userService.createUser(user)) {
+            userMetrics.rejected(Rejection.DUPLICATE_EMAIL);
             return ResponseEntity.badRequest().body("Such email already exists");
         } else {
             return ResponseEntity.status(HttpStatus.CREATED).body(user);
         }
     }
 
+    // Create, update or delete many users in one request.
+    // With atomic=true either all operations are applied or none of them.
+    @PostMapping("/batch")
+    public ResponseEntity<?> applyBatch(@RequestBody List<BatchOperation> operations,
+                                        @RequestParam(value = "atomic", defaultValue = "false") boolean atomic) {
+        if (operations.size() > userService.getMaxBatchSize()) {
+            userMetrics.rejected(Rejection.BAD_FORMAT);
+            return ResponseEntity.badRequest().body("Batch can't have more than " + userService.getMaxBatchSize() + " operations");
+        }
+        // The exclusive lock of an atomic batch only covers this node's store
+        if (atomic && userService.isPartitioned()) {
+            userMetrics.rejected(Rejection.BAD_FORMAT);
+            return ResponseEntity.badRequest().body("Atomic batches aren't supported when the users are split over a cluster");
+        }
+        List<BatchResult> results = userBatchService.applyBatch(operations, atomic);
+        // In best-effort mode every result tells its own outcome, an atomic batch fails as a whole
+        if (atomic && !results.stream().allMatch(BatchResult::isSuccess)) {
+            return ResponseEntity.badRequest().body(results);
+        }
+        return ResponseEntity.ok(results);
+    }
+
+    // Creates users from an NDJSON upload (one user per line, as sent to POST /users) or a CSV one (a header row
+    // naming the email, firstName, lastName and birthDate columns, then one user per row), gzipped or not.
+    // The upload is read as a stream while the response streams back NDJSON: a BatchResult for every
+    // rejected line, with the line number as index, and ImportProgress records, the last one with done set.
+    @PostMapping(value = "/import", consumes = {MediaType.APPLICATION_NDJSON_VALUE, "text/csv"})
+    public ResponseEntity<StreamingResponseBody> importUsers(InputStream body,
+                                                             @RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+                                                             @RequestHeader(value = HttpHeaders.CONTENT_ENCODING, required = false) String contentEncoding) {
+        boolean gzip = contentEncoding != null && contentEncoding.trim().equalsIgnoreCase("gzip");
+        if (contentEncoding != null && !gzip && !contentEncoding.trim().equalsIgnoreCase("identity")) {
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE)
+                    .body(out -> out.write("Content-Encoding must be gzip or identity".getBytes(StandardCharsets.UTF_8)));
+        }
+        Format format = contentType.toLowerCase(Locale.ROOT).startsWith("text/csv") ? Format.CSV : Format.NDJSON;
+        StreamingResponseBody response = out -> {
+            try (InputStream in = gzip ? new GZIPInputStream(body, 1 << 16) : body) {
+                userImportService.importUsers(in, format, out);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(response);
+    }
+
+    // With If-Match the user is only changed if its ETag is still the one given, otherwise 412
     @PatchMapping("/{email}")
-    public ResponseEntity<?> updatePartialUser(@PathVariable String email, @RequestBody User user) {
+    public ResponseEntity<?> updatePartialUser(@PathVariable String email, @RequestBody User user,
+                                               @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         User existingUser = userService.getUsersByEmail().get(email);
         // If user with this email doesn't exist, return null
         if (existingUser == null) {
+            userMetrics.rejected(Rejection.NOT_FOUND);
             return ResponseEntity.badRequest().body("User with this email not found");
         }
 
         // Checking email format and uniqueness
         if (user.getEmail() != null) {
             if (!userService.isValidEmail(user.getEmail())) {
+                userMetrics.rejected(Rejection.BAD_FORMAT);
                 return ResponseEntity.badRequest().body("Invalid email format");
             }
             if (userService.getUsersByEmail().containsKey(user.getEmail())) {
+                userMetrics.rejected(Rejection.DUPLICATE_EMAIL);
                 return ResponseEntity.badRequest().body("Such email already exists");
             }
         }
         // Checking birth date validity and user's age
         if (user.getBirthDate() != null) {
             if (user.getBirthDate().isAfter(LocalDate.now())) {
+                userMetrics.rejected(Rejection.BAD_FORMAT);
                 return ResponseEntity.badRequest().body("Birth date cannot be in the future");
             }
             if (!userService.isUserOldEnough(user.getBirthDate())) {
+                userMetrics.rejected(Rejection.TOO_YOUNG);
                 return ResponseEntity.badRequest().body("User must be at least " + userService.getMinUserAge() + " years old.");
             }
         }
+        User expectedUser = ifMatch == null ? null : matchingUser(email, ifMatch);
+        if (ifMatch != null && expectedUser == null) {
+            return preconditionFailed();
+        }
         // Update the user
-        User updatedUser = userService.updatePartialUser(email, user);
+        User updatedUser = expectedUser == null ? userService.updatePartialUser(email, user)
+                : userService.updatePartialUser(email, user, expectedUser.getVersion());
+        // The user was deleted or the email was taken by a concurrent request
+        if (updatedUser == null) {
+            if (expectedUser != null && changedSince(expectedUser)) {
+                return preconditionFailed();
+            }
+            userMetrics.rejected(userService.getUsersByEmail().containsKey(email) ? Rejection.DUPLICATE_EMAIL : Rejection.NOT_FOUND);
+            return ResponseEntity.badRequest().body("User with this email not found or such email already exists");
+        }
         return ResponseEntity.ok(updatedUser);
     }
 
 
-    // PUT method to update all user fields
+    // PUT method to update all user fields, with If-Match only if the user's ETag is still the one given
     @PutMapping("/{email}")
-    public ResponseEntity<?> updateUser(@PathVariable String email, @Valid @RequestBody User user, BindingResult result) {
-        // Handling input data errors
-        if (result.hasErrors()) {
-            List<String> errors = new ArrayList<>();
-            for (FieldError error : result.getFieldErrors()) {
-                errors.add(error.getDefaultMessage());
-            }
+    public ResponseEntity<?> updateUser(@PathVariable String email, @RequestBody User user,
+                                        @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        // Checking the constraints declared on User
+        List<String> errors = userService.validateUser(user);
+        if (!errors.isEmpty()) {
+            userMetrics.rejected(Rejection.BAD_FORMAT);
             return ResponseEntity.badRequest().body(errors);
         }
         // Check if the email already exists
         if (user.getEmail().equals(email) || userService.getUsersByEmail().containsKey(user.getEmail())) {
+            userMetrics.rejected(Rejection.DUPLICATE_EMAIL);
             return ResponseEntity.badRequest().body("Such email already exists");
         }
         // Check user's age
         if (!userService.isUserOldEnough(user.getBirthDate())) {
+            userMetrics.rejected(Rejection.TOO_YOUNG);
             return ResponseEntity.badRequest().body("User must be at least " + userService.getMinUserAge() + " years old.");
         }
+        User expectedUser = ifMatch == null ? null : matchingUser(email, ifMatch);
+        if (ifMatch != null && expectedUser == null) {
+            return preconditionFailed();
+        }
         // Update the user
-        User updatedUser = userService.updateUser(email, user);
+        User updatedUser = expectedUser == null ? userService.updateUser(email, user)
+                : userService.updateUser(email, user, expectedUser.getVersion());
         if (updatedUser == null) {
+            if (expectedUser != null && changedSince(expectedUser)) {
+                return preconditionFailed();
+            }
+            userMetrics.rejected(Rejection.NOT_FOUND);
             return new ResponseEntity<>("User not found", HttpStatus.NOT_FOUND);
         }
 
         return ResponseEntity.ok(updatedUser);
     }
 
-    // DELETE method to delete a user
+    // DELETE method to delete a user, with If-Match only if the user's ETag is still the one given
     @DeleteMapping("/{email}")
-    public ResponseEntity<?> deleteUser(@PathVariable String email) {
-        boolean deleted = userService.deleteUser(email);
+    public ResponseEntity<?> deleteUser(@PathVariable String email,
+                                        @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        User expectedUser = ifMatch == null ? null : matchingUser(email, ifMatch);
+        if (ifMatch != null && expectedUser == null) {
+            return preconditionFailed();
+        }
+        boolean deleted = expectedUser == null ? userService.deleteUser(email)
+                : userService.deleteUser(email, expectedUser.getVersion());
         if (!deleted) {
+            if (expectedUser != null) {
+                return preconditionFailed();
+            }
+            userMetrics.rejected(Rejection.NOT_FOUND);
             return new ResponseEntity<>("User not found", HttpStatus.NOT_FOUND);
         }
         return ResponseEntity.ok("User deleted successfully");
     }
+    // Without limit and cursor returns all matching users at once.
+    // Otherwise returns one page and, if there are more users, a Link header pointing to the next page.
     @GetMapping("/search")
-    public ResponseEntity<?> searchUsersByBirthDateRange(@RequestParam("from") String fromDate, @RequestParam("to") String toDate) {
+    public ResponseEntity<?> searchUsersByBirthDateRange(@RequestParam("from") String fromDate, @RequestParam("to") String toDate,
+                                                         @RequestParam(value = "limit", required = false) Integer limit,
+                                                         @RequestParam(value = "cursor", required = false) String cursor) {
         LocalDate from = LocalDate.parse(fromDate);
         LocalDate to = LocalDate.parse(toDate);
         if (from.isAfter(to)) {
+            userMetrics.rejected(Rejection.BAD_FORMAT);
             return ResponseEntity.badRequest().body("Invalid date range");
         }
-        List<User> users = userService.getUsersByBirthDateRange(from, to);
+        if (limit == null && cursor == null) {
+            List<User> users = userService.getUsersByBirthDateRange(from, to);
+            return ResponseEntity.ok(users);
+        }
+
+        int maxLimit = userService.getMaxSearchLimit();
+        int pageSize = limit == null ? maxLimit : limit;
+        if (pageSize < 1 || pageSize > maxLimit) {
+            userMetrics.rejected(Rejection.BAD_FORMAT);
+            return ResponseEntity.badRequest().body("Limit must be between 1 and " + maxLimit);
+        }
+        UserPage page;
+        try {
+            page = userService.getUsersByBirthDateRange(from, to, cursor, pageSize);
+        } catch (IllegalArgumentException e) {
+            userMetrics.rejected(Rejection.BAD_FORMAT);
+            return ResponseEntity.badRequest().body("Invalid cursor");
+        }
+        if (page.getNextCursor() == null) {
+            return ResponseEntity.ok(page.getUsers());
+        }
+        // The cursor is base64url and the dates are ISO, so nothing in the link needs escaping
+        String next = "/users/search?from=" + from + "&to=" + to + "&limit=" + pageSize + "&cursor=" + page.getNextCursor();
+        return ResponseEntity.ok()
+                .header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"")
+                .body(page.getUsers());
+    }
+
+    // Users whose first or last name contains q, ignoring case, the ones whose name starts with it first
+    @GetMapping("/search/name")
+    public ResponseEntity<?> searchUsersByName(@RequestParam("q") String query,
+                                               @RequestParam(value = "limit", required = false) Integer limit) {
+        if (query.isBlank()) {
+            userMetrics.rejected(Rejection.BAD_FORMAT);
+            return ResponseEntity.badRequest().body("Query must not be blank");
+        }
+        int maxLimit = userService.getMaxSearchLimit();
+        int resultLimit = limit == null ? Math.min(userService.getNameSearchLimit(), maxLimit) : limit;
+        if (resultLimit < 1 || resultLimit > maxLimit) {
+            userMetrics.rejected(Rejection.BAD_FORMAT);
+            return ResponseEntity.badRequest().body("Limit must be between 1 and " + maxLimit);
+        }
+        List<User> users = userService.getUsersByName(query, resultLimit);
+        if (users == null) {
+            return new ResponseEntity<>("Name search is not enabled", HttpStatus.NOT_FOUND);
+        }
         return ResponseEntity.ok(users);
     }
 
+    // The version in quotes, it changes with every change of the user
+    private static String eTagOf(User user) {
+        return "\"" + user.getVersion() + "\"";
+    }
+
+    // Whether the If-Match or If-None-Match header lists the ETag or is "*".
+    // If-None-Match compares weakly (W/ is ignored), If-Match strongly (a weak ETag never matches).
+    private static boolean matches(String header, String eTag, boolean weak) {
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*")) {
+                return true;
+            }
+            if (candidate.startsWith("W/")) {
+                if (!weak) {
+                    continue;
+                }
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Whether Accept-Encoding lists gzip (or *) without q=0
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String candidate : acceptEncoding.split(",")) {
+            String[] parts = candidate.split(";");
+            String coding = parts[0].trim();
+            if (coding.equalsIgnoreCase("gzip") || coding.equals("*")) {
+                for (int i = 1; i < parts.length; i++) {
+                    String parameter = parts[i].replace(" ", "");
+                    if (parameter.matches("q=0(\\.0*)?")) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A copy of the user if If-Match lists its current ETag, null if it doesn't or the user is gone
+    private User matchingUser(String email, String ifMatch) {
+        User user = userService.getUser(email);
+        return user != null && matches(ifMatch, eTagOf(user), false) ? user : null;
+    }
+
+    // Whether the user is gone or has another version than the expected copy
+    private boolean changedSince(User expectedUser) {
+        User currentUser = userService.getUser(expectedUser.getEmail());
+        return currentUser == null || currentUser.getVersion() != expectedUser.getVersion();
+    }
+
+    private ResponseEntity<?> preconditionFailed() {
+        userMetrics.rejected(Rejection.PRECONDITION_FAILED);
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).body("User was changed or deleted since it was read");
+    }
+
+    // An emitter that starts with the text, held until the response starts and then sent with the headers.
+    // A stream starts with a comment line so that the client gets the headers before the first change.
+    private static ResponseBodyEmitter message(String text, boolean complete) {
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter();
+        try {
+            emitter.send(text, TEXT_UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (complete) {
+            emitter.complete();
+        }
+        return emitter;
+    }
+
+    // Sends what was written since the last flush as one piece of the response, ChangeFeed flushes after each batch of events
+    private static final class EmitterOutputStream extends OutputStream {
+        private final ResponseBodyEmitter emitter;
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+        EmitterOutputStream(ResponseBodyEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        @Override
+        public void write(int b) {
+            pending.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            pending.write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (pending.size() > 0) {
+                emitter.send(pending.toString(StandardCharsets.UTF_8), TEXT_UTF_8);
+                pending.reset();
+            }
+        }
+    }
 }
@@ -0,0 +1,74 @@
+package com.example.Users.controllers;
+
+import com.example.Users.models.User;
+import com.example.Users.services.UserJsonCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+// Writes JSON responses with users from UserJsonCache (json.cache.enabled=true): a user is its cached bytes and a
+// list of users (a search result) their bytes between brackets, without serializing a single field. Other lists,
+// such as errors or batch results, are written by the ObjectMapper just as Spring's own converter would.
+// Spring Boot puts converter beans ahead of its defaults; request bodies are still read by Jackson.
+@Component
+@ConditionalOnProperty(name = "json.cache.enabled", havingValue = "true")
+public class UserJsonConverter extends AbstractHttpMessageConverter<Object> {
+    private final UserJsonCache userJsonCache;
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public UserJsonConverter(UserJsonCache userJsonCache, ObjectMapper objectMapper) {
+        super(MediaType.APPLICATION_JSON);
+        this.userJsonCache = userJsonCache;
+        this.objectMapper = objectMapper;
+    }
+
+    // Lists can't tell their element type before they are written, so all of them are taken
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return clazz == User.class || List.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Only writes users", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(Object body, HttpOutputMessage outputMessage) throws IOException {
+        OutputStream out = outputMessage.getBody();
+        if (body instanceof User user) {
+            out.write(userJsonCache.toJson(user));
+        } else if (isUserList(body)) {
+            @SuppressWarnings("unchecked")
+            List<User> users = (List<User>) body;
+            userJsonCache.writeArray(users, out);
+        } else {
+            out.write(objectMapper.writeValueAsBytes(body));
+        }
+    }
+
+    private static boolean isUserList(Object body) {
+        for (Object element : (List<?>) body) {
+            if (!(element instanceof User)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.Users.models;
+
+// One item of POST /users/batch
+public class BatchOperation {
+    public enum Type {
+        CREATE, UPDATE, DELETE
+    }
+
+    private Type type;
+    // Email of the user to update or delete
+    private String email;
+    // New user data for CREATE and UPDATE, all fields are required like in POST and PUT
+    private User user;
+
+    public BatchOperation() {
+    }
+
+    public BatchOperation(Type type, String email, User user) {
+        this.type = type;
+        this.email = email;
+        this.user = user;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public void setUser(User user) {
+        this.user = user;
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.Users.models;
+
+import java.util.List;
+
+// Outcome of one BatchOperation, index is its position in the request.
+// Also the outcome of a rejected import line, index is then the line number.
+public class BatchResult {
+    public enum Status {
+        CREATED, UPDATED, DELETED, DUPLICATE_EMAIL, TOO_YOUNG, VALIDATION_ERROR, NOT_FOUND,
+        // All-or-nothing batch failed because of another operation
+        NOT_APPLIED
+    }
+
+    private final long index;
+    private final Status status;
+    private final List<String> errors;
+
+    public BatchResult(long index, Status status) {
+        this(index, status, List.of());
+    }
+
+    public BatchResult(long index, Status status, List<String> errors) {
+        this.index = index;
+        this.status = status;
+        this.errors = errors;
+    }
+
+    public long getIndex() {
+        return index;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public boolean isSuccess() {
+        return status == Status.CREATED || status == Status.UPDATED || status == Status.DELETED;
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.Users.models;
+
+// Where an import stands: lines read so far (blank ones included), users created and lines rejected.
+// done is set on the last progress of an import.
+public class ImportProgress {
+    private final long lines;
+    private final long created;
+    private final long rejected;
+    private final boolean done;
+
+    public ImportProgress(long lines, long created, long rejected, boolean done) {
+        this.lines = lines;
+        this.created = created;
+        this.rejected = rejected;
+        this.done = done;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+}
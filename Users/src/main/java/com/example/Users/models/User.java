@@ -1,5 +1,6 @@
 package com.example.Users.models;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.validation.constraints.*;
 
 import java.time.LocalDate;
@@ -15,6 +16,9 @@ public class User {
     @NotNull(message = "Date of birth is required")
     @Past(message = "Please enter a birth date in the past")
     private LocalDate birthDate;
+    // Set by the store on every change, clients can read it but not send it
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private long version;
 
     public User() {
     }
@@ -56,4 +60,12 @@ public class User {
     public void setBirthDate(LocalDate birthDate) {
         this.birthDate = birthDate;
     }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
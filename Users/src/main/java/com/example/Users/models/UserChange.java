@@ -0,0 +1,45 @@
+package com.example.Users.models;
+
+// One change of the store as published by the change feed. Sequence numbers grow by one with every change
+// and start over when the application restarts.
+// email is the user's email after the change (the deleted one for DELETED), previousEmail is only set on
+// RENAMED, user is the user after the change and is null for DELETED and CLEARED.
+public class UserChange {
+    public enum Type {
+        CREATED, UPDATED, RENAMED, DELETED, CLEARED
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final String email;
+    private final String previousEmail;
+    private final User user;
+
+    public UserChange(long sequence, Type type, String email, String previousEmail, User user) {
+        this.sequence = sequence;
+        this.type = type;
+        this.email = email;
+        this.previousEmail = previousEmail;
+        this.user = user;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getPreviousEmail() {
+        return previousEmail;
+    }
+
+    public User getUser() {
+        return user;
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.Users.models;
+
+import java.util.List;
+
+// One page of a search, nextCursor is null on the last page
+public class UserPage {
+    private final List<User> users;
+    private final String nextCursor;
+
+    public UserPage(List<User> users, String nextCursor) {
+        this.users = users;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<User> getUsers() {
+        return users;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
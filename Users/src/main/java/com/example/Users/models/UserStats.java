@@ -0,0 +1,42 @@
+package com.example.Users.models;
+
+import java.util.Map;
+
+// Counts of the stored users. Each map is ordered: birth years ascending, age bands from the youngest,
+// email domains by name. Users without a birth date are only in total, withoutBirthDate and byEmailDomain.
+public class UserStats {
+    private final long total;
+    private final long withoutBirthDate;
+    private final Map<Integer, Long> byBirthYear;
+    private final Map<String, Long> byAgeBand;
+    private final Map<String, Long> byEmailDomain;
+
+    public UserStats(long total, long withoutBirthDate, Map<Integer, Long> byBirthYear,
+                     Map<String, Long> byAgeBand, Map<String, Long> byEmailDomain) {
+        this.total = total;
+        this.withoutBirthDate = withoutBirthDate;
+        this.byBirthYear = byBirthYear;
+        this.byAgeBand = byAgeBand;
+        this.byEmailDomain = byEmailDomain;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getWithoutBirthDate() {
+        return withoutBirthDate;
+    }
+
+    public Map<Integer, Long> getByBirthYear() {
+        return byBirthYear;
+    }
+
+    public Map<String, Long> getByAgeBand() {
+        return byAgeBand;
+    }
+
+    public Map<String, Long> getByEmailDomain() {
+        return byEmailDomain;
+    }
+}
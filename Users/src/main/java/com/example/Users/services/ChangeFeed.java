@@ -0,0 +1,243 @@
+package com.example.Users.services;
+
+import com.example.Users.models.User;
+import com.example.Users.models.UserChange;
+import com.example.Users.models.UserChange.Type;
+import com.example.Users.stores.UserChangeListener;
+import com.example.Users.stores.UserStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// The last changes.capacity changes of the store, numbered in the order they are made (changes.enabled=true).
+//
+// The changes are kept in a ring that writers fill without locks: a writer takes the next sequence number
+// and puts its change in that number's slot unless a newer change is there already. Readers never hold
+// writers up, they find out from the sequence number in a slot whether it's the change they want, one not
+// written yet, or a newer one that overwrote it. A reader that falls behind by more than the capacity
+// has lost changes and has to load the users again, e.g. from /users/export.
+//
+// Tailing readers poll the ring every changes.poll.ms while there is nothing new for them. The streams of
+// startStream run on threads of the feed's own, at most changes.max.streams at once, so open streams never take
+// the threads that exports and imports stream on.
+// Counted as users.changes.sequence (last sequence number), users.changes.resets (readers that lost changes)
+// and users.changes.streams (open streams).
+@Component
+@ConditionalOnProperty(name = "changes.enabled", havingValue = "true")
+public class ChangeFeed implements UserChangeListener {
+    // Response header with the sequence number of the last change, see UserController
+    public static final String SEQUENCE_HEADER = "X-Users-Sequence";
+
+    private final UserStore userStore;
+    private final ObjectMapper objectMapper;
+    private final AtomicReferenceArray<UserChange> slots;
+    private final int mask;
+    private final long pollNanos;
+    private final long heartbeatNanos;
+    private final AtomicLong lastSequence = new AtomicLong();
+    private final Counter resets;
+    private final ThreadPoolExecutor streams;
+    private volatile boolean closed;
+
+    @Autowired
+    public ChangeFeed(UserStore userStore, ObjectMapper objectMapper, MeterRegistry registry,
+                      @Value("${changes.capacity:65536}") int capacity,
+                      @Value("${changes.poll.ms:20}") long pollMillis,
+                      @Value("${changes.heartbeat.ms:15000}") long heartbeatMillis,
+                      @Value("${changes.max.streams:16}") int maxStreams) {
+        this.userStore = userStore;
+        this.objectMapper = objectMapper;
+        // Rounded up to a power of two so that a sequence number maps to its slot with a mask
+        int slotCount = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(slotCount);
+        this.mask = slotCount - 1;
+        this.pollNanos = TimeUnit.MILLISECONDS.toNanos(pollMillis);
+        this.heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatMillis);
+        resets = Counter.builder("users.changes.resets")
+                .description("Change feed readers that fell behind by more than the feed keeps")
+                .register(registry);
+        Gauge.builder("users.changes.sequence", lastSequence, AtomicLong::get)
+                .description("Sequence number of the last change")
+                .register(registry);
+        // No queue: a stream gets a thread at once or not at all
+        streams = new ThreadPoolExecutor(maxStreams, maxStreams, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), task -> {
+            Thread thread = new Thread(task, "user-change-stream");
+            thread.setDaemon(true);
+            return thread;
+        });
+        streams.allowCoreThreadTimeOut(true);
+        Gauge.builder("users.changes.streams", streams, ThreadPoolExecutor::getActiveCount)
+                .description("Open change feed streams")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void open() {
+        userStore.addListener(this);
+    }
+
+    // Ends the streams
+    @PreDestroy
+    public void close() {
+        closed = true;
+        streams.shutdownNow();
+    }
+
+    public long lastSequence() {
+        return lastSequence.get();
+    }
+
+    // Oldest sequence number a reader can still ask for changes after
+    public long oldestSequence() {
+        return Math.max(0, lastSequence.get() - slots.length());
+    }
+
+    // At most limit changes with a sequence number after the given one, oldest first. Stops early at
+    // a change that is numbered but not written yet. Returns null if any of them is no longer kept.
+    public List<UserChange> read(long after, int limit) {
+        long last = lastSequence.get();
+        if (after > last || last - after > slots.length()) {
+            return null;
+        }
+        List<UserChange> changes = new ArrayList<>((int) Math.min(limit, last - after));
+        for (long sequence = after + 1; sequence <= last && changes.size() < limit; sequence++) {
+            UserChange change = slots.get(slot(sequence));
+            if (change == null || change.getSequence() < sequence) {
+                break;
+            }
+            if (change.getSequence() > sequence) {
+                return null;
+            }
+            changes.add(change);
+        }
+        return changes;
+    }
+
+    // Runs stream(after, out) on a stream thread and then onEnd, also when the client went away.
+    // Returns false without running anything if changes.max.streams streams are open already.
+    public boolean startStream(long after, OutputStream out, Runnable onEnd) {
+        try {
+            streams.execute(() -> {
+                try {
+                    stream(after, out);
+                } catch (IOException e) {
+                    // The client is gone
+                } finally {
+                    onEnd.run();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    // Writes the changes after the given sequence number to out as Server-Sent Events, then every new one
+    // as it comes, until the client goes away or the feed is closed. Each event has the sequence number as
+    // id and the type as name, with the UserChange as JSON data. A client that falls too far behind gets a
+    // "reset" event whose data is the last sequence number, and the stream ends.
+    public void stream(long after, OutputStream out) throws IOException {
+        long last = after;
+        long idleSince = System.nanoTime();
+        while (!closed && !Thread.currentThread().isInterrupted()) {
+            List<UserChange> changes = read(last, 1000);
+            if (changes == null) {
+                resets.increment();
+                write(out, "event: reset\ndata: " + lastSequence() + "\n\n");
+                return;
+            }
+            if (!changes.isEmpty()) {
+                StringBuilder events = new StringBuilder();
+                for (UserChange change : changes) {
+                    events.append("id: ").append(change.getSequence())
+                            .append("\nevent: ").append(change.getType())
+                            .append("\ndata: ").append(objectMapper.writeValueAsString(change))
+                            .append("\n\n");
+                }
+                write(out, events.toString());
+                last = changes.get(changes.size() - 1).getSequence();
+                idleSince = System.nanoTime();
+            } else if (System.nanoTime() - idleSince >= heartbeatNanos) {
+                // A comment line, it keeps proxies from closing the connection and finds clients that are gone
+                write(out, ":\n\n");
+                idleSince = System.nanoTime();
+            } else {
+                LockSupport.parkNanos(pollNanos);
+            }
+        }
+    }
+
+    private static void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    @Override
+    public void userCreated(User user) {
+        publish(Type.CREATED, user.getEmail(), null, copyOf(user));
+    }
+
+    @Override
+    public void userUpdated(User before, User after) {
+        if (before.getEmail().equals(after.getEmail())) {
+            publish(Type.UPDATED, after.getEmail(), null, copyOf(after));
+        } else {
+            publish(Type.RENAMED, after.getEmail(), before.getEmail(), copyOf(after));
+        }
+    }
+
+    @Override
+    public void userDeleted(User user) {
+        publish(Type.DELETED, user.getEmail(), null, null);
+    }
+
+    @Override
+    public void storeCleared() {
+        publish(Type.CLEARED, null, null, null);
+    }
+
+    // Called under the store's locks, so it only takes a number and fills a slot
+    private void publish(Type type, String email, String previousEmail, User user) {
+        long sequence = lastSequence.incrementAndGet();
+        UserChange change = new UserChange(sequence, type, email, previousEmail, user);
+        int slot = slot(sequence);
+        // A writer that stalled for a whole lap of the ring must not overwrite the newer change
+        UserChange current;
+        do {
+            current = slots.get(slot);
+            if (current != null && current.getSequence() > sequence) {
+                return;
+            }
+        } while (!slots.compareAndSet(slot, current, change));
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence & mask);
+    }
+
+    private static User copyOf(User user) {
+        User copy = new User(user.getEmail(), user.getFirstName(), user.getLastName(), user.getBirthDate());
+        copy.setVersion(user.getVersion());
+        return copy;
+    }
+}
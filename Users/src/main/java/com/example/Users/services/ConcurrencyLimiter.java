@@ -0,0 +1,110 @@
+package com.example.Users.services;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Adaptive limit of the requests in flight, found with the gradient of their latency.
+//
+// By Little's law the requests in flight are throughput times latency. While the server keeps up, more of them
+// raise the throughput and the latency stays at its no-load value; past that point they only queue up and the
+// latency grows instead. So every window the limiter compares the window's average latency with a long-term
+// average that stands in for the no-load latency: gradient = tolerance * long-term / window, kept in [0.5, 1].
+// The new limit is limit * gradient + sqrt(limit), which lets the limit grow by the square root while the
+// latency holds and shrinks it by up to half once the latency is more than tolerance times its usual value.
+// A limit that wasn't half used in a window doesn't grow, or it would drift off while the load is low.
+//
+// Requests have a cost in slots, a request only gets in if its cost fits under the limit (or nothing else runs,
+// so that a request dearer than the limit isn't locked out for good). Dear requests are the first to be
+// turned down as the slots fill up. Latencies are counted per slot, which keeps dear and cheap requests of one
+// class comparable.
+public class ConcurrencyLimiter {
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double smoothing;
+    private final long windowNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double limit;
+
+    // Not synchronized, a request on a virtual thread waiting for it would pin its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock
+    private long windowStart = System.nanoTime();
+    private double windowLatencySum;
+    private int windowSamples;
+    private int windowMaxInFlight;
+    private double longLatency;
+
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, double smoothing, long windowMillis) {
+        if (minLimit < 1 || minLimit > maxLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 1 <= min <= initial <= max");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+        this.windowNanos = windowMillis * 1_000_000;
+        this.limit = initialLimit;
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    // Takes cost slots, false if they don't fit under the limit. A true must be followed by release(cost, ...).
+    public boolean tryAcquire(int cost) {
+        while (true) {
+            int current = inFlight.get();
+            if (current > 0 && current + cost > limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + cost)) {
+                return true;
+            }
+        }
+    }
+
+    // Gives the slots back, latencyNanos is how long the request took
+    public void release(int cost, long latencyNanos) {
+        int before = inFlight.getAndAdd(-cost);
+        sample(latencyNanos / (double) cost, before, System.nanoTime());
+    }
+
+    void sample(double latencyPerSlot, int inFlightBefore, long now) {
+        lock.lock();
+        try {
+            windowLatencySum += latencyPerSlot;
+            windowSamples++;
+            windowMaxInFlight = Math.max(windowMaxInFlight, inFlightBefore);
+            // A few samples at least, a single slow request mustn't halve the limit
+            if (now - windowStart < windowNanos || windowSamples < 10) {
+                return;
+            }
+            double shortLatency = windowLatencySum / windowSamples;
+            // Follows the latency slowly, so it stays close to the no-load value while the load lasts
+            longLatency = longLatency == 0 ? shortLatency : longLatency * 0.95 + shortLatency * 0.05;
+            // After a long overload the average is too high to detect the next one, it's let down faster
+            if (longLatency > 2 * shortLatency) {
+                longLatency *= 0.9;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, tolerance * longLatency / shortLatency));
+            double newLimit = limit * gradient + Math.sqrt(limit);
+            if (windowMaxInFlight < limit / 2) {
+                newLimit = Math.min(newLimit, limit);
+            }
+            newLimit = limit * (1 - smoothing) + newLimit * smoothing;
+            limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+
+            windowStart = now;
+            windowLatencySum = 0;
+            windowSamples = 0;
+            windowMaxInFlight = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.Users.services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+// Maps keys to nodes with consistent hashing: every node has virtualNodes points on a 64-bit ring and owns the
+// keys that hash to the stretch before each of its points. Adding or removing a node only moves the keys of
+// the stretches it gains or loses, about 1/n of them, and the points spread every node's share evenly.
+// Immutable, the same nodes and virtualNodes give the same mapping in every JVM.
+public class ConsistentHashRing {
+    private final List<String> nodes;
+    // Points in ascending order, owners[i] owns the keys that hash to (points[i - 1], points[i]]
+    private final long[] points;
+    private final String[] owners;
+
+    public ConsistentHashRing(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException("A ring needs at least one node and one virtual node per node");
+        }
+        this.nodes = List.copyOf(new LinkedHashSet<>(nodes));
+        int count = this.nodes.size() * virtualNodes;
+        long[][] sorted = new long[count][];
+        int i = 0;
+        for (int n = 0; n < this.nodes.size(); n++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                sorted[i++] = new long[]{hash(this.nodes.get(n) + "#" + v), n};
+            }
+        }
+        // Ties (practically never) go to the node listed first, in every JVM alike
+        Arrays.sort(sorted, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        points = new long[count];
+        owners = new String[count];
+        for (i = 0; i < count; i++) {
+            points[i] = sorted[i][0];
+            owners[i] = this.nodes.get((int) sorted[i][1]);
+        }
+    }
+
+    public List<String> nodes() {
+        return nodes;
+    }
+
+    public String nodeFor(String key) {
+        int i = Arrays.binarySearch(points, hash(key));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        // Past the last point the ring wraps around to the first one
+        return owners[i == points.length ? 0 : i];
+    }
+
+    // FNV-1a over the UTF-8 bytes with the MurmurHash3 finalizer, FNV alone leaves similar keys close together
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,303 @@
+package com.example.Users.services;
+
+import com.example.Users.models.User;
+import com.example.Users.stores.UserStore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Keeps the store a copy of the leader's (replication.role=follower), which serves the reads while the leader
+// takes the writes. The leader's change feed is the ordered log of its changes: the follower loads all users
+// from the leader's /users/export, which names the last sequence number before it started, then applies the
+// changes after that number from /users/changes every replication.poll.ms. The export may already have some
+// of those changes, but they carry whole users and are applied as blind writes with the leader's versions,
+// so the store ends up in the leader's state all the same (and ETags match the leader's). A follower that
+// falls further behind than the leader's feed reaches back loads everything again, and goes on answering reads
+// from the users it has until the new ones are in.
+//
+// Counted as users.replication.lag (changes not applied yet), users.replication.staleness (seconds since the
+// follower last had everything the leader had) and users.replication.resyncs (loads after the first).
+@Component
+@ConditionalOnProperty(name = "replication.role", havingValue = "follower")
+public class ReplicationFollower {
+    // Read-your-writes: a client sends the X-Users-Sequence of its write as X-Users-Min-Sequence
+    public static final String MIN_SEQUENCE_HEADER = "X-Users-Min-Sequence";
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicationFollower.class);
+
+    private final UserStore userStore;
+    private final ObjectMapper objectMapper;
+    private final String leader;
+    private final long pollMillis;
+    private final int batchSize;
+    private final Duration timeout;
+    private final HttpClient client;
+    private final Counter resyncs;
+    // Guards only the waits of awaitSequence(). A java.util.concurrent lock, so requests waiting on virtual
+    // threads don't pin their carriers as they would in Object.wait().
+    private final ReentrantLock lock = new ReentrantLock();
+    // Signalled when appliedSequence grows
+    private final Condition progress = lock.newCondition();
+    private volatile long appliedSequence;
+    private volatile long leaderSequence;
+    // When the follower last had all the leader's changes, 0 while it's loading
+    private volatile long caughtUpNanos;
+    private volatile boolean loaded;
+    private volatile boolean closed;
+    private Thread thread;
+
+    @Autowired
+    public ReplicationFollower(UserStore userStore, ObjectMapper objectMapper, MeterRegistry registry,
+                               @Value("${replication.leader}") String leader,
+                               @Value("${replication.poll.ms:20}") long pollMillis,
+                               @Value("${replication.batch.size:1000}") int batchSize,
+                               @Value("${replication.timeout.ms:2000}") long timeoutMillis) {
+        this.userStore = userStore;
+        this.objectMapper = objectMapper;
+        this.leader = leader.endsWith("/") ? leader.substring(0, leader.length() - 1) : leader;
+        this.pollMillis = pollMillis;
+        this.batchSize = batchSize;
+        this.timeout = Duration.ofMillis(timeoutMillis);
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .build();
+        resyncs = Counter.builder("users.replication.resyncs")
+                .description("Times the follower fell too far behind and loaded all users again")
+                .register(registry);
+        Gauge.builder("users.replication.lag", this, follower -> Math.max(0, follower.leaderSequence - follower.appliedSequence))
+                .description("Changes of the leader the follower hasn't applied yet")
+                .register(registry);
+        Gauge.builder("users.replication.staleness", this, follower -> follower.stalenessMillis() / 1000.0)
+                .description("Seconds since the follower last had all changes of the leader")
+                .baseUnit("seconds")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void open() {
+        thread = new Thread(this::run, "user-replication");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        closed = true;
+        thread.interrupt();
+        thread.join(timeout.toMillis());
+    }
+
+    public String getLeader() {
+        return leader;
+    }
+
+    // Sequence number of the leader's last change applied here
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    // Time since the follower last had all the leader's changes, Long.MAX_VALUE until it first did
+    public long stalenessMillis() {
+        long caughtUp = caughtUpNanos;
+        return caughtUp == 0 ? Long.MAX_VALUE : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - caughtUp);
+    }
+
+    // Waits until the change with this sequence number is applied, false if that takes longer than timeoutMillis
+    public boolean awaitSequence(long sequence, long timeoutMillis) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            while (!loaded || appliedSequence < sequence) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = progress.awaitNanos(remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    private void run() {
+        while (!closed) {
+            try {
+                if (!loaded) {
+                    load();
+                }
+                if (poll() < batchSize) {
+                    Thread.sleep(pollMillis);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                if (closed) {
+                    return;
+                }
+                log.warn("Replication from {} failed, trying again: {}", leader, e.toString());
+                try {
+                    Thread.sleep(Math.max(pollMillis, 1000));
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Replaces the store's users with the leader's export. The export is read in full before the store is
+    // touched and then swapped in under the exclusive lock: users the leader no longer has are removed and
+    // the ones with another version stored again, so a reader never sees the store empty or half loaded.
+    private void load() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(leader + "/users/export")).timeout(timeout).GET().build();
+        HttpResponse<InputStream> response = client.send(request, BodyHandlers.ofInputStream());
+        try (BufferedReader lines = new BufferedReader(new InputStreamReader(response.body(), StandardCharsets.UTF_8), 1 << 16)) {
+            String sequence = response.headers().firstValue(ChangeFeed.SEQUENCE_HEADER).orElse(null);
+            if (response.statusCode() != 200 || sequence == null) {
+                throw new IOException("The leader's export answered " + response.statusCode()
+                        + (sequence == null ? " without " + ChangeFeed.SEQUENCE_HEADER + ", is changes.enabled=true there?" : ""));
+            }
+            caughtUpNanos = 0;
+            Map<String, User> users = new HashMap<>();
+            for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+                if (!line.isEmpty()) {
+                    User user = toUser(objectMapper.readTree(line));
+                    users.put(user.getEmail(), user);
+                }
+            }
+            userStore.exclusively(() -> {
+                replaceAll(users);
+                return null;
+            });
+            lock.lock();
+            try {
+                appliedSequence = Long.parseLong(sequence);
+                loaded = true;
+                progress.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+        log.info("Loaded {} users from {} as of change {}", userStore.size(), leader, appliedSequence);
+    }
+
+    // Applies the next changes of the leader, returns how many there were
+    private int poll() throws IOException, InterruptedException {
+        long asked = System.nanoTime();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(leader + "/users/changes?since=" + appliedSequence + "&limit=" + batchSize))
+                .timeout(timeout)
+                .header("Accept", "application/json")
+                .GET()
+                .build();
+        HttpResponse<byte[]> response = client.send(request, BodyHandlers.ofByteArray());
+        if (response.statusCode() == 410) {
+            log.warn("Fell behind the change feed of {}, loading all users again", leader);
+            resyncs.increment();
+            loaded = false;
+            caughtUpNanos = 0;
+            return 0;
+        }
+        if (response.statusCode() != 200) {
+            throw new IOException("The leader's change feed answered " + response.statusCode());
+        }
+        JsonNode changes = objectMapper.readTree(response.body());
+        if (!changes.isEmpty()) {
+            userStore.exclusively(() -> {
+                for (JsonNode change : changes) {
+                    apply(change);
+                }
+                return null;
+            });
+        }
+        lock.lock();
+        try {
+            if (!changes.isEmpty()) {
+                appliedSequence = changes.get(changes.size() - 1).path("sequence").asLong();
+            }
+            leaderSequence = response.headers().firstValueAsLong(ChangeFeed.SEQUENCE_HEADER).orElse(appliedSequence);
+            // The leader had no more than this when it was asked
+            if (appliedSequence >= leaderSequence) {
+                caughtUpNanos = asked;
+            }
+            progress.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        return changes.size();
+    }
+
+    // Under the store's exclusive lock. A version is given to one change only, so a user with the same
+    // version as the leader's is the same and is left as it is.
+    private void replaceAll(Map<String, User> users) {
+        List<String> gone = new ArrayList<>();
+        for (User user : userStore.values()) {
+            if (!users.containsKey(user.getEmail())) {
+                gone.add(user.getEmail());
+            }
+        }
+        for (String email : gone) {
+            userStore.remove(email);
+        }
+        for (User user : users.values()) {
+            User current = userStore.get(user.getEmail());
+            if (current == null || current.getVersion() != user.getVersion()) {
+                userStore.replace(user.getEmail(), user);
+            }
+        }
+    }
+
+    // An update would give the user a new version, replaced it keeps the leader's one. Readers don't take the
+    // store's locks, replace() is what keeps them from finding a changed user missing.
+    private void apply(JsonNode change) {
+        switch (change.path("type").asText()) {
+            case "CREATED", "UPDATED" -> {
+                User user = toUser(change.path("user"));
+                userStore.replace(user.getEmail(), user);
+            }
+            case "RENAMED" -> userStore.replace(change.path("previousEmail").asText(), toUser(change.path("user")));
+            case "DELETED" -> userStore.remove(change.path("email").asText());
+            case "CLEARED" -> userStore.clear();
+            default -> throw new IllegalStateException("Unknown change " + change);
+        }
+    }
+
+    // The version isn't read from JSON (clients can't set it), so it's copied over by hand
+    private User toUser(JsonNode json) {
+        try {
+            User user = objectMapper.treeToValue(json, User.class);
+            user.setVersion(json.path("version").asLong());
+            return user;
+        } catch (IOException e) {
+            throw new IllegalStateException("Malformed user from the leader: " + json, e);
+        }
+    }
+}
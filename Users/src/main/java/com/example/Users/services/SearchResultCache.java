@@ -0,0 +1,222 @@
+package com.example.Users.services;
+
+import com.example.Users.models.User;
+import com.example.Users.stores.ColumnarUserIndex;
+import com.example.Users.stores.UserChangeListener;
+import com.example.Users.stores.UserStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+// Results of unpaged birth date searches, keyed by the (from, to) range (search.cache.enabled=true).
+//
+// A result stays until a change touches a birth date inside its range, it's older than search.cache.ttl.ms,
+// or it's the least recently used one once there are more than search.cache.max.entries results or
+// search.cache.max.users users in them. A change checks every cached range, so the cache is meant for
+// the few ranges that are asked for over and over, not for every range ever searched.
+//
+// Concurrent misses of the same range wait for one search instead of each running their own.
+// Hits and misses are counted as users.search.cache.requests (tag result).
+@Component
+@ConditionalOnProperty(name = "search.cache.enabled", havingValue = "true")
+public class SearchResultCache implements UserChangeListener {
+    private final UserStore userStore;
+    private final int maxEntries;
+    private final long maxUsers;
+    private final long ttlNanos;
+    private final Map<Range, Entry> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final Counter hits;
+    private final Counter misses;
+
+    // The columnar index is taken only so that it's opened first: the cache must hear about a change
+    // after the index it caches, or a search running in between could cache the old result
+    @Autowired
+    public SearchResultCache(UserStore userStore, MeterRegistry registry, @Nullable ColumnarUserIndex columnarUserIndex,
+                             @Value("${search.cache.max.entries:256}") int maxEntries,
+                             @Value("${search.cache.max.users:1000000}") long maxUsers,
+                             @Value("${search.cache.ttl.ms:60000}") long ttlMillis) {
+        this.userStore = userStore;
+        this.maxEntries = maxEntries;
+        this.maxUsers = maxUsers;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        hits = Counter.builder("users.search.cache.requests")
+                .description("Unpaged searches answered by the cache or not")
+                .tag("result", "hit")
+                .register(registry);
+        misses = Counter.builder("users.search.cache.requests")
+                .description("Unpaged searches answered by the cache or not")
+                .tag("result", "miss")
+                .register(registry);
+        Gauge.builder("users.search.cache.size", entries, Map::size)
+                .description("Cached search results")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void open() {
+        userStore.addListener(this);
+    }
+
+    // The cached result of the range, or the one the search returns if there is none.
+    // The list is read-only and shared with other callers.
+    public List<User> get(LocalDate from, LocalDate to, Supplier<List<User>> search) {
+        Range range = new Range(from, to);
+        while (true) {
+            long now = System.nanoTime();
+            Entry entry = entries.get(range);
+            if (entry != null) {
+                if (now - entry.created > ttlNanos) {
+                    entries.remove(range, entry);
+                    continue;
+                }
+                hits.increment();
+                entry.lastUsed = now;
+                return entry.await();
+            }
+            Entry loading = new Entry(now);
+            if (entries.putIfAbsent(range, loading) != null) {
+                continue;
+            }
+            misses.increment();
+            // The entry is in the map before the search starts, so a change made during the search removes it
+            List<User> users;
+            try {
+                users = Collections.unmodifiableList(search.get());
+            } catch (RuntimeException e) {
+                entries.remove(range, loading);
+                loading.result.completeExceptionally(e);
+                throw e;
+            }
+            loading.size = users.size();
+            loading.result.complete(users);
+            if (users.size() > maxUsers) {
+                entries.remove(range, loading);
+            } else {
+                evict(now);
+            }
+            return users;
+        }
+    }
+
+    // Cached results, including the ones still being searched
+    public int size() {
+        return entries.size();
+    }
+
+    public double getHits() {
+        return hits.count();
+    }
+
+    public double getMisses() {
+        return misses.count();
+    }
+
+    @Override
+    public void userCreated(User user) {
+        invalidate(user.getBirthDate());
+    }
+
+    @Override
+    public void userUpdated(User before, User after) {
+        invalidate(before.getBirthDate());
+        invalidate(after.getBirthDate());
+    }
+
+    @Override
+    public void userDeleted(User user) {
+        invalidate(user.getBirthDate());
+    }
+
+    @Override
+    public void storeCleared() {
+        entries.clear();
+    }
+
+    // Drops every result whose range has the birth date in it. Users without one are never found by a search.
+    private void invalidate(LocalDate birthDate) {
+        if (birthDate == null) {
+            return;
+        }
+        entries.keySet().removeIf(range -> range.contains(birthDate));
+    }
+
+    // Drops expired results, then the least recently used ones until both limits are met
+    private void evict(long now) {
+        evictionLock.lock();
+        try {
+            entries.values().removeIf(entry -> now - entry.created > ttlNanos);
+            long users = 0;
+            for (Entry entry : entries.values()) {
+                users += entry.size;
+            }
+            while (entries.size() > maxEntries || users > maxUsers) {
+                Map.Entry<Range, Entry> oldest = null;
+                for (Map.Entry<Range, Entry> candidate : entries.entrySet()) {
+                    // Results still being searched have no size yet and aren't evicted
+                    if (candidate.getValue().result.isDone()
+                            && (oldest == null || candidate.getValue().lastUsed - oldest.getValue().lastUsed < 0)) {
+                        oldest = candidate;
+                    }
+                }
+                if (oldest == null) {
+                    return;
+                }
+                if (entries.remove(oldest.getKey(), oldest.getValue())) {
+                    users -= oldest.getValue().size;
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    // Same bounds as the search: birth dates strictly between from and to
+    private record Range(LocalDate from, LocalDate to) {
+        boolean contains(LocalDate birthDate) {
+            return from != null && to != null && birthDate.isAfter(from) && birthDate.isBefore(to);
+        }
+    }
+
+    private static final class Entry {
+        final CompletableFuture<List<User>> result = new CompletableFuture<>();
+        final long created;
+        volatile long lastUsed;
+        // Set before the result is completed
+        volatile int size;
+
+        Entry(long created) {
+            this.created = created;
+            this.lastUsed = created;
+        }
+
+        List<User> await() {
+            try {
+                return result.join();
+            } catch (CompletionException e) {
+                // The search of the thread that loaded it failed, the caller gets the same exception
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        }
+    }
+}
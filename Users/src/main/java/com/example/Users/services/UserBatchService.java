@@ -0,0 +1,193 @@
+package com.example.Users.services;
+
+import com.example.Users.models.BatchOperation;
+import com.example.Users.models.BatchResult;
+import com.example.Users.models.BatchResult.Status;
+import com.example.Users.models.User;
+import com.example.Users.services.UserMetrics.Operation;
+import com.example.Users.services.UserMetrics.Rejection;
+import com.example.Users.stores.UserStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+// Applies many create/update/delete operations in one call.
+// All operations are validated first, then applied either best-effort (each on its own)
+// or all-or-nothing (under the store's exclusive lock, undoing the applied ones on the first failure).
+@Service
+public class UserBatchService {
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private UserStore userStore;
+    @Autowired
+    private UserMetrics userMetrics;
+
+    public List<BatchResult> applyBatch(List<BatchOperation> operations, boolean atomic) {
+        long start = System.nanoTime();
+        try {
+            BatchResult[] results = applyOperations(operations, atomic);
+            countRejections(results);
+            return List.of(results);
+        } finally {
+            userMetrics.record(Operation.BATCH, start);
+        }
+    }
+
+    private BatchResult[] applyOperations(List<BatchOperation> operations, boolean atomic) {
+        // Validation pass, failed operations get their result right away
+        BatchResult[] results = new BatchResult[operations.size()];
+        boolean valid = true;
+        for (int i = 0; i < operations.size(); i++) {
+            results[i] = validate(i, operations.get(i));
+            valid &= results[i] == null;
+        }
+
+        if (!atomic) {
+            for (int i = 0; i < operations.size(); i++) {
+                if (results[i] == null) {
+                    results[i] = apply(i, operations.get(i), null);
+                }
+            }
+        } else if (valid) {
+            userStore.exclusively(() -> applyAll(operations, results));
+        } else {
+            markNotApplied(results);
+        }
+        return results;
+    }
+
+    private Void applyAll(List<BatchOperation> operations, BatchResult[] results) {
+        Deque<Runnable> undo = new ArrayDeque<>();
+        for (int i = 0; i < operations.size(); i++) {
+            results[i] = apply(i, operations.get(i), undo);
+            if (!results[i].isSuccess()) {
+                // Nobody else could write meanwhile, so undoing in reverse order restores the exact old state,
+                // versions included. The undo is made of deletes and creates of its own, which the change feed
+                // and the write-ahead log record like any other change.
+                while (!undo.isEmpty()) {
+                    undo.pop().run();
+                }
+                for (int j = 0; j < i; j++) {
+                    results[j] = null;
+                }
+                markNotApplied(results);
+                return null;
+            }
+        }
+        return null;
+    }
+
+    // Returns null if the operation is valid
+    private BatchResult validate(int index, BatchOperation operation) {
+        if (operation == null || operation.getType() == null) {
+            return new BatchResult(index, Status.VALIDATION_ERROR, List.of("Operation type is required"));
+        }
+        if (operation.getType() != BatchOperation.Type.CREATE && isBlank(operation.getEmail())) {
+            return new BatchResult(index, Status.VALIDATION_ERROR, List.of("Email is required"));
+        }
+        if (operation.getType() == BatchOperation.Type.DELETE) {
+            return null;
+        }
+
+        User user = operation.getUser();
+        if (user == null) {
+            return new BatchResult(index, Status.VALIDATION_ERROR, List.of("User is required"));
+        }
+        List<String> errors = userService.validateUser(user);
+        if (!errors.isEmpty()) {
+            return new BatchResult(index, Status.VALIDATION_ERROR, errors);
+        }
+        if (!userService.isUserOldEnough(user.getBirthDate())) {
+            return new BatchResult(index, Status.TOO_YOUNG,
+                    List.of("User must be at least " + userService.getMinUserAge() + " years old."));
+        }
+        return null;
+    }
+
+    // Records how to revert the operation in undo, if it's given. Atomic batches only run on a single node,
+    // so the undo writes to the store directly: users put back keep the version they had.
+    private BatchResult apply(int index, BatchOperation operation, Deque<Runnable> undo) {
+        switch (operation.getType()) {
+            case CREATE: {
+                User user = operation.getUser();
+                if (!userService.createUser(user)) {
+                    return new BatchResult(index, Status.DUPLICATE_EMAIL);
+                }
+                if (undo != null) {
+                    undo.push(() -> userStore.remove(user.getEmail()));
+                }
+                return new BatchResult(index, Status.CREATED);
+            }
+            case UPDATE: {
+                // Through the service, in a cluster the user may be on another node
+                User existingUser = userService.getUsersByEmail().get(operation.getEmail());
+                if (existingUser == null) {
+                    return new BatchResult(index, Status.NOT_FOUND);
+                }
+                User before = copyOf(existingUser);
+                if (userService.updateUser(operation.getEmail(), operation.getUser()) == null) {
+                    // The user was there a moment ago, so it's the new email that's taken
+                    // (or, in best-effort mode, the user was deleted concurrently)
+                    return new BatchResult(index, userService.getUsersByEmail().containsKey(operation.getEmail()) ? Status.DUPLICATE_EMAIL : Status.NOT_FOUND);
+                }
+                if (undo != null) {
+                    undo.push(() -> {
+                        userStore.remove(operation.getUser().getEmail());
+                        userStore.putIfAbsent(before);
+                    });
+                }
+                return new BatchResult(index, Status.UPDATED);
+            }
+            default: {
+                User existingUser = userService.getUsersByEmail().get(operation.getEmail());
+                User before = existingUser == null ? null : copyOf(existingUser);
+                if (before == null || !userService.deleteUser(operation.getEmail())) {
+                    return new BatchResult(index, Status.NOT_FOUND);
+                }
+                if (undo != null) {
+                    undo.push(() -> userStore.putIfAbsent(before));
+                }
+                return new BatchResult(index, Status.DELETED);
+            }
+        }
+    }
+
+    // Operations that were not applied only because of another one are not counted
+    private void countRejections(BatchResult[] results) {
+        for (BatchResult result : results) {
+            Rejection reason = switch (result.getStatus()) {
+                case DUPLICATE_EMAIL -> Rejection.DUPLICATE_EMAIL;
+                case TOO_YOUNG -> Rejection.TOO_YOUNG;
+                case VALIDATION_ERROR -> Rejection.BAD_FORMAT;
+                case NOT_FOUND -> Rejection.NOT_FOUND;
+                default -> null;
+            };
+            if (reason != null) {
+                userMetrics.rejected(reason);
+            }
+        }
+    }
+
+    private static void markNotApplied(BatchResult[] results) {
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                results[i] = new BatchResult(i, Status.NOT_APPLIED);
+            }
+        }
+    }
+
+    // Keeps the version, a user put back with it is the one clients have the ETag of
+    private static User copyOf(User user) {
+        User copy = new User(user.getEmail(), user.getFirstName(), user.getLastName(), user.getBirthDate());
+        copy.setVersion(user.getVersion());
+        return copy;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+}
@@ -0,0 +1,405 @@
+package com.example.Users.services;
+
+import com.example.Users.models.BatchResult;
+import com.example.Users.models.BatchResult.Status;
+import com.example.Users.models.ImportProgress;
+import com.example.Users.models.User;
+import com.example.Users.services.UserMetrics.Operation;
+import com.example.Users.services.UserMetrics.Rejection;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Creates users from an NDJSON or CSV stream of any length, holding only a few chunks of it at a time.
+// The reading thread cuts the input into chunks of lines that a pool of threads parses and validates
+// with the rules of POST /users, then creates the users of each chunk in input order, so of two lines
+// with the same email the first one wins. While 2 chunks per pool thread wait to be created the reading
+// stops, however fast the client sends.
+@Service
+public class UserImportService {
+    public enum Format {
+        NDJSON, CSV
+    }
+
+    // Columns a CSV header has to name, in any order
+    static final List<String> CSV_COLUMNS = List.of("email", "firstName", "lastName", "birthDate");
+
+    @Value("${import.chunk.lines:1000}")
+    private int chunkLines;
+    @Value("${import.progress.lines:100000}")
+    private int progressLines;
+    @Value("${import.max.line.length:65536}")
+    private int maxLineLength;
+    // 0 = one per processor
+    @Value("${import.threads:0}")
+    private int threads;
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private UserMetrics userMetrics;
+    @Autowired
+    private ObjectMapper objectMapper;
+    private ExecutorService executor;
+    private int maxPendingChunks;
+
+    @PostConstruct
+    public void open() {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        executor = Executors.newFixedThreadPool(poolSize, task -> {
+            Thread thread = new Thread(task, "user-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maxPendingChunks = 2 * poolSize;
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    // Writes to out, as NDJSON, a BatchResult for every rejected line with the line number as index,
+    // an ImportProgress every import.progress.lines lines and a last one with done set, which is returned.
+    // out is flushed after every progress but left open.
+    public ImportProgress importUsers(InputStream in, Format format, OutputStream out) throws IOException {
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            generator.setRootValueSeparator(null);
+            Import job = new Import(new Lines(new InputStreamReader(in, StandardCharsets.UTF_8), maxLineLength), format, writer, generator);
+            return job.run();
+        }
+    }
+
+    // State of one importUsers call, used by the reading thread only
+    private final class Import {
+        private final Lines lines;
+        private final Format format;
+        private final ObjectWriter writer;
+        private final JsonGenerator generator;
+        private final ObjectReader userReader = objectMapper.readerFor(User.class);
+        private final Deque<CompletableFuture<Chunk>> pending = new ArrayDeque<>();
+        // Positions of CSV_COLUMNS in a CSV row
+        private int[] columns;
+        private long created;
+        private long rejected;
+        private long nextProgress = progressLines;
+
+        Import(Lines lines, Format format, ObjectWriter writer, JsonGenerator generator) {
+            this.lines = lines;
+            this.format = format;
+            this.writer = writer;
+            this.generator = generator;
+        }
+
+        ImportProgress run() throws IOException {
+            try {
+                if (format == Format.CSV && !readHeader()) {
+                    return progress(lines.number(), true);
+                }
+                String[] chunk;
+                while ((chunk = readChunk()) != null) {
+                    long firstLine = lines.number() - chunk.length + 1;
+                    String[] parse = chunk;
+                    pending.add(CompletableFuture.supplyAsync(() -> parse(firstLine, parse), executor));
+                    if (pending.size() >= maxPendingChunks) {
+                        create(pending.poll());
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    create(pending.poll());
+                }
+                return progress(lines.number(), true);
+            } finally {
+                pending.forEach(future -> future.cancel(false));
+            }
+        }
+
+        private boolean readHeader() throws IOException {
+            String header;
+            do {
+                header = lines.next();
+            } while (header != null && header.isBlank());
+            if (header == null) {
+                return true;
+            }
+            List<String> names = header == Lines.TOO_LONG ? List.of() : parseCsv(header);
+            columns = new int[CSV_COLUMNS.size()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = indexOfIgnoreCase(names, CSV_COLUMNS.get(i));
+                if (columns[i] < 0) {
+                    reject(new BatchResult(lines.number(), Status.VALIDATION_ERROR,
+                            List.of("CSV header must name the columns " + String.join(", ", CSV_COLUMNS))));
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Returns null at the end of the input
+        private String[] readChunk() throws IOException {
+            String[] chunk = new String[chunkLines];
+            int count = 0;
+            String line;
+            while (count < chunk.length && (line = lines.next()) != null) {
+                chunk[count++] = line;
+            }
+            return count == 0 ? null : count == chunk.length ? chunk : Arrays.copyOf(chunk, count);
+        }
+
+        // Runs on the pool: a user for every valid line, an error for every other non-blank one
+        private Chunk parse(long firstLine, String[] chunk) {
+            User[] users = new User[chunk.length];
+            BatchResult[] errors = new BatchResult[chunk.length];
+            for (int i = 0; i < chunk.length; i++) {
+                long lineNumber = firstLine + i;
+                String line = chunk[i];
+                if (line == Lines.TOO_LONG) {
+                    errors[i] = new BatchResult(lineNumber, Status.VALIDATION_ERROR,
+                            List.of("Line is longer than " + maxLineLength + " characters"));
+                    continue;
+                }
+                if (line.isBlank()) {
+                    continue;
+                }
+                User user;
+                try {
+                    user = format == Format.CSV ? csvUser(line) : userReader.readValue(line);
+                } catch (JsonProcessingException e) {
+                    errors[i] = new BatchResult(lineNumber, Status.VALIDATION_ERROR, List.of("Malformed JSON: " + e.getOriginalMessage()));
+                    continue;
+                } catch (DateTimeParseException e) {
+                    errors[i] = new BatchResult(lineNumber, Status.VALIDATION_ERROR, List.of("Birth date must be in yyyy-MM-dd format"));
+                    continue;
+                }
+                errors[i] = validate(lineNumber, user);
+                if (errors[i] == null) {
+                    users[i] = user;
+                }
+            }
+            return new Chunk(firstLine, users, errors);
+        }
+
+        // Same checks as UserBatchService makes for a create, returns null if the user is valid
+        private BatchResult validate(long lineNumber, User user) {
+            if (user == null) {
+                return new BatchResult(lineNumber, Status.VALIDATION_ERROR, List.of("User is required"));
+            }
+            List<String> errors = userService.validateUser(user);
+            if (!errors.isEmpty()) {
+                return new BatchResult(lineNumber, Status.VALIDATION_ERROR, errors);
+            }
+            if (!userService.isUserOldEnough(user.getBirthDate())) {
+                return new BatchResult(lineNumber, Status.TOO_YOUNG,
+                        List.of("User must be at least " + userService.getMinUserAge() + " years old."));
+            }
+            return null;
+        }
+
+        private User csvUser(String line) {
+            List<String> fields = parseCsv(line);
+            String birthDate = field(fields, 3);
+            return new User(field(fields, 0), field(fields, 1), field(fields, 2),
+                    birthDate == null || birthDate.isBlank() ? null : LocalDate.parse(birthDate.trim()));
+        }
+
+        private String field(List<String> fields, int column) {
+            return columns[column] < fields.size() ? fields.get(columns[column]) : null;
+        }
+
+        private void create(CompletableFuture<Chunk> future) throws IOException {
+            Chunk chunk;
+            try {
+                chunk = future.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+            long start = System.nanoTime();
+            try {
+                for (int i = 0; i < chunk.users.length; i++) {
+                    if (chunk.users[i] != null) {
+                        if (userService.createUser(chunk.users[i])) {
+                            created++;
+                        } else {
+                            chunk.errors[i] = new BatchResult(chunk.firstLine + i, Status.DUPLICATE_EMAIL, List.of("Such email already exists"));
+                        }
+                    }
+                }
+            } finally {
+                userMetrics.record(Operation.IMPORT, start);
+            }
+            for (BatchResult error : chunk.errors) {
+                if (error != null) {
+                    reject(error);
+                }
+            }
+            long lastLine = chunk.firstLine + chunk.users.length - 1;
+            if (lastLine >= nextProgress) {
+                nextProgress = lastLine - lastLine % progressLines + progressLines;
+                progress(lastLine, false);
+            }
+        }
+
+        private void reject(BatchResult error) throws IOException {
+            rejected++;
+            userMetrics.rejected(switch (error.getStatus()) {
+                case DUPLICATE_EMAIL -> Rejection.DUPLICATE_EMAIL;
+                case TOO_YOUNG -> Rejection.TOO_YOUNG;
+                default -> Rejection.BAD_FORMAT;
+            });
+            write(error);
+        }
+
+        // The reading thread is ahead of the users created, so the caller tells which lines are done
+        private ImportProgress progress(long linesDone, boolean done) throws IOException {
+            ImportProgress progress = new ImportProgress(linesDone, created, rejected, done);
+            write(progress);
+            generator.flush();
+            return progress;
+        }
+
+        private void write(Object value) throws IOException {
+            writer.writeValue(generator, value);
+            generator.writeRaw('\n');
+        }
+    }
+
+    private record Chunk(long firstLine, User[] users, BatchResult[] errors) {
+    }
+
+    // Splits one CSV record: fields separated by commas, optionally in double quotes with "" for a quote.
+    // A record must fit on one line.
+    static List<String> parseCsv(String line) {
+        List<String> fields = new ArrayList<>(4);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static int indexOfIgnoreCase(List<String> names, String name) {
+        for (int i = 0; i < names.size(); i++) {
+            if (names.get(i).trim().toLowerCase(Locale.ROOT).equals(name.toLowerCase(Locale.ROOT))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Lines of a reader without \n or \r\n, with a bound on their length that BufferedReader doesn't have.
+    // A longer line is skipped and returned as TOO_LONG.
+    static final class Lines {
+        static final String TOO_LONG = new String("");
+
+        private final Reader reader;
+        private final int maxLength;
+        private final char[] buffer = new char[1 << 16];
+        private final StringBuilder line = new StringBuilder();
+        private int position;
+        private int limit;
+        private long number;
+
+        Lines(Reader reader, int maxLength) {
+            this.reader = reader;
+            this.maxLength = maxLength;
+        }
+
+        // Number of the line returned last, starting at 1
+        long number() {
+            return number;
+        }
+
+        // Returns null at the end of the input
+        String next() throws IOException {
+            line.setLength(0);
+            boolean tooLong = false;
+            while (true) {
+                if (position == limit) {
+                    limit = reader.read(buffer);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        if (line.isEmpty() && !tooLong) {
+                            return null;
+                        }
+                        break;
+                    }
+                }
+                int end = position;
+                while (end < limit && buffer[end] != '\n') {
+                    end++;
+                }
+                if (!tooLong) {
+                    line.append(buffer, position, end - position);
+                    if (line.length() > maxLength + 1) {
+                        tooLong = true;
+                        line.setLength(0);
+                    }
+                }
+                position = end;
+                if (end < limit) {
+                    position++;
+                    break;
+                }
+            }
+            number++;
+            if (tooLong) {
+                return TOO_LONG;
+            }
+            int length = line.length();
+            if (length > 0 && line.charAt(length - 1) == '\r') {
+                length--;
+            }
+            // A byte order mark at the start of the input isn't part of the first line
+            int begin = number == 1 && length > 0 && line.charAt(0) == '\uFEFF' ? 1 : 0;
+            return length - begin > maxLength ? TOO_LONG : line.substring(begin, length);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.Users.services;
+
+import com.example.Users.models.User;
+import com.example.Users.stores.UserChangeListener;
+import com.example.Users.stores.UserStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// UTF-8 JSON of the stored users, byte for byte what the controllers' ObjectMapper writes (json.cache.enabled=true).
+//
+// A user's JSON is made the first time it's written and kept until the store changes or deletes the user, so
+// a user that is read over and over (by email, in search results, in exports) is serialized once instead of
+// on every response. An entry only answers for a user with the same version and fields as the one it was made
+// from: a copy read just before a change can't bring back the old JSON, and neither can a user changed
+// outside the store (e.g. on its way to another node). Only users of this node's store are kept.
+//
+// The JSON kept is at most json.cache.max.bytes: past it, arbitrary entries are dropped until a tenth of the
+// room is free again, so a store bigger than the cache doesn't evict on every miss.
+// Hits and misses are counted as users.json.cache.requests (tag result).
+@Component
+@ConditionalOnProperty(name = "json.cache.enabled", havingValue = "true")
+public class UserJsonCache implements UserChangeListener {
+    private final UserStore userStore;
+    private final ObjectWriter writer;
+    private final long maxBytes;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // JSON bytes of the entries
+    private final AtomicLong bytes = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final Counter hits;
+    private final Counter misses;
+
+    @Autowired
+    public UserJsonCache(UserStore userStore, ObjectMapper objectMapper, MeterRegistry registry,
+                         @Value("${json.cache.max.bytes:67108864}") long maxBytes) {
+        this.userStore = userStore;
+        this.writer = objectMapper.writerFor(User.class);
+        this.maxBytes = maxBytes;
+        hits = Counter.builder("users.json.cache.requests")
+                .description("Users written from their cached JSON or serialized")
+                .tag("result", "hit")
+                .register(registry);
+        misses = Counter.builder("users.json.cache.requests")
+                .description("Users written from their cached JSON or serialized")
+                .tag("result", "miss")
+                .register(registry);
+        Gauge.builder("users.json.cache.size", entries, Map::size)
+                .description("Users with cached JSON")
+                .register(registry);
+        Gauge.builder("users.json.cache.bytes", bytes, AtomicLong::get)
+                .description("Bytes of cached JSON")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void open() {
+        userStore.addListener(this);
+    }
+
+    // The user's JSON, shared with other callers, so it must not be changed
+    public byte[] toJson(User user) throws IOException {
+        String email = user.getEmail();
+        Entry entry = email == null ? null : entries.get(email);
+        if (entry != null && entry.matches(user)) {
+            hits.increment();
+            return entry.json;
+        }
+        misses.increment();
+        // The entry's fields and its JSON come from one snapshot: the user may be one that's changing
+        // meanwhile (a copy a caller fills in), and bytes of one state must never be kept as another's
+        User snapshot = new User(email, user.getFirstName(), user.getLastName(), user.getBirthDate());
+        snapshot.setVersion(user.getVersion());
+        byte[] json = writer.writeValueAsBytes(snapshot);
+        if (email != null && json.length <= maxBytes && userStore.contains(email)) {
+            Entry previous = entries.put(email, new Entry(snapshot, json));
+            bytes.addAndGet(json.length - (previous == null ? 0 : previous.json.length));
+            // Deleted in between, the listener may have run before the put
+            if (!userStore.contains(email)) {
+                drop(email);
+            }
+            if (bytes.get() > maxBytes) {
+                evict();
+            }
+        }
+        return json;
+    }
+
+    // Writes the users as a JSON array, the same as the ObjectMapper would write the list
+    public void writeArray(Iterable<User> users, OutputStream out) throws IOException {
+        out.write('[');
+        boolean first = true;
+        for (User user : users) {
+            if (!first) {
+                out.write(',');
+            }
+            out.write(toJson(user));
+            first = false;
+        }
+        out.write(']');
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long bytes() {
+        return bytes.get();
+    }
+
+    @Override
+    public void userCreated(User user) {
+        drop(user.getEmail());
+    }
+
+    @Override
+    public void userUpdated(User before, User after) {
+        drop(before.getEmail());
+        drop(after.getEmail());
+    }
+
+    @Override
+    public void userDeleted(User user) {
+        drop(user.getEmail());
+    }
+
+    @Override
+    public void storeCleared() {
+        for (String email : entries.keySet()) {
+            drop(email);
+        }
+    }
+
+    private void drop(String email) {
+        Entry entry = entries.remove(email);
+        if (entry != null) {
+            bytes.addAndGet(-entry.json.length);
+        }
+    }
+
+    // In the map's order, which has nothing to do with how often a user is read. One thread evicts at a time,
+    // the others go on: the cache is over its bound only until it's done.
+    private void evict() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            long target = maxBytes - maxBytes / 10;
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (bytes.get() > target && iterator.hasNext()) {
+                Map.Entry<String, Entry> candidate = iterator.next();
+                if (entries.remove(candidate.getKey(), candidate.getValue())) {
+                    bytes.addAndGet(-candidate.getValue().json.length);
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static final class Entry {
+        private final long version;
+        private final String firstName;
+        private final String lastName;
+        private final LocalDate birthDate;
+        private final byte[] json;
+
+        Entry(User user, byte[] json) {
+            this.version = user.getVersion();
+            this.firstName = user.getFirstName();
+            this.lastName = user.getLastName();
+            this.birthDate = user.getBirthDate();
+            this.json = json;
+        }
+
+        // Strings read from the same stored user are mostly the same instances, so this rarely compares characters
+        boolean matches(User user) {
+            return version == user.getVersion()
+                    && Objects.equals(firstName, user.getFirstName())
+                    && Objects.equals(lastName, user.getLastName())
+                    && Objects.equals(birthDate, user.getBirthDate());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.Users.services;
+
+import com.example.Users.stores.ColumnarUserIndex;
+import com.example.Users.stores.UserStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// Micrometer meters of the user operations, published at /actuator/metrics and /actuator/prometheus:
+// users.operations - timer with a histogram per UserService operation (tag operation),
+// users.rejections - counter per reason a request was turned down (tag reason),
+// users.store.size and users.index.size - gauges read from the store and the indexes on each scrape.
+// The endpoints are timed by Spring MVC itself as http.server.requests.
+//
+// Every meter is registered up front and looked up by ordinal, so recording is a nanoTime() call
+// and a few atomic adds, without tag lookups or allocation.
+@Component
+public class UserMetrics {
+    public enum Operation {
+        GET, CREATE, UPDATE_PARTIAL, UPDATE, DELETE, SEARCH, SEARCH_PAGE, SEARCH_NAME, BATCH, STATS, EXPORT, IMPORT
+    }
+
+    public enum Rejection {
+        DUPLICATE_EMAIL, TOO_YOUNG, BAD_FORMAT, NOT_FOUND,
+        // If-Match with an outdated ETag
+        PRECONDITION_FAILED,
+        // Shed by AdmissionFilter while the server is overloaded
+        OVERLOADED
+    }
+
+    private final Timer[] timers;
+    private final Counter[] rejections;
+
+    // The columnar index is only there with search.backend=columnar
+    @Autowired
+    public UserMetrics(MeterRegistry registry, UserStore userStore, @Nullable ColumnarUserIndex columnarUserIndex) {
+        Operation[] operations = Operation.values();
+        timers = new Timer[operations.length];
+        for (Operation operation : operations) {
+            timers[operation.ordinal()] = Timer.builder("users.operations")
+                    .description("Time spent in UserService operations")
+                    .tag("operation", tagOf(operation))
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+        Rejection[] reasons = Rejection.values();
+        rejections = new Counter[reasons.length];
+        for (Rejection reason : reasons) {
+            rejections[reason.ordinal()] = Counter.builder("users.rejections")
+                    .description("Requests and batch operations turned down")
+                    .tag("reason", tagOf(reason))
+                    .register(registry);
+        }
+        Gauge.builder("users.store.size", userStore, UserStore::size)
+                .description("Stored users")
+                .register(registry);
+        Gauge.builder("users.index.size", userStore, UserStore::indexSize)
+                .description("Users in an index")
+                .tag("index", "birth_date")
+                .register(registry);
+        if (columnarUserIndex != null) {
+            Gauge.builder("users.index.size", columnarUserIndex, ColumnarUserIndex::size)
+                    .description("Users in an index")
+                    .tag("index", "columnar")
+                    .register(registry);
+        }
+    }
+
+    // start is a System.nanoTime() taken when the operation began
+    public void record(Operation operation, long start) {
+        timers[operation.ordinal()].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    public void rejected(Rejection reason) {
+        rejections[reason.ordinal()].increment();
+    }
+
+    private static String tagOf(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+}
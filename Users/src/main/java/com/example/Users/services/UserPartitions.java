@@ -0,0 +1,393 @@
+package com.example.Users.services;
+
+import com.example.Users.models.User;
+import com.example.Users.models.UserPage;
+import com.example.Users.models.UserStats;
+import com.example.Users.stores.BirthDateKey;
+import com.example.Users.stores.NameIndex;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+// Splits the users by email over the nodes of cluster.nodes (cluster.enabled=true). Each node stores the users
+// whose email the consistent hash ring maps to it, asks the owner for any other user and asks every node for
+// searches, stats and exports, merging their answers. All nodes need the same cluster.nodes and
+// cluster.virtual.nodes, they tell themselves apart by cluster.self.
+//
+// Nodes talk to each other over HTTP through PartitionController, which only ever answers from its own store.
+// Every request between them carries cluster.secret, PartitionFilter turns down the ones without it.
+// A node that can't be reached or answers unexpectedly fails the request with 503 (UnavailableException).
+@Component
+@ConditionalOnProperty(name = "cluster.enabled", havingValue = "true")
+public class UserPartitions {
+    // Served by PartitionController
+    public static final String PATH = "/partition/users";
+    // Status a node answers with for an email it doesn't own (421 Misdirected Request)
+    public static final int MISDIRECTED = 421;
+    // Request header with cluster.secret
+    public static final String SECRET_HEADER = "X-Users-Cluster-Secret";
+    private static final Comparator<User> BIRTH_DATE_ORDER = Comparator.comparing(User::getBirthDate).thenComparing(User::getEmail);
+
+    private final ObjectMapper objectMapper;
+    private final ConsistentHashRing ring;
+    private final String self;
+    private final String secret;
+    private final List<String> peers;
+    private final Duration timeout;
+    private final HttpClient client;
+
+    @Autowired
+    public UserPartitions(ObjectMapper objectMapper,
+                          @Value("${cluster.nodes}") String[] nodes,
+                          @Value("${cluster.self}") String self,
+                          @Value("${cluster.secret}") String secret,
+                          @Value("${cluster.virtual.nodes:256}") int virtualNodes,
+                          @Value("${cluster.timeout.ms:2000}") long timeoutMillis) {
+        this.objectMapper = objectMapper;
+        List<String> baseUrls = new ArrayList<>();
+        for (String node : nodes) {
+            baseUrls.add(baseUrl(node));
+        }
+        this.ring = new ConsistentHashRing(baseUrls, virtualNodes);
+        this.self = baseUrl(self);
+        if (!ring.nodes().contains(this.self)) {
+            throw new IllegalArgumentException("cluster.self " + self + " is not one of cluster.nodes");
+        }
+        if (secret.isBlank()) {
+            throw new IllegalArgumentException("cluster.secret must be set, the same on all nodes");
+        }
+        this.secret = secret;
+        this.peers = ring.nodes().stream().filter(node -> !node.equals(this.self)).toList();
+        this.timeout = Duration.ofMillis(timeoutMillis);
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .build();
+    }
+
+    public boolean isLocal(String email) {
+        return ring.nodeFor(email).equals(self);
+    }
+
+    // Base URL of the node that stores the user with this email
+    public String ownerOf(String email) {
+        return ring.nodeFor(email);
+    }
+
+    // Whether a request with this SECRET_HEADER comes from a node of the cluster
+    public boolean isPeerSecret(String secret) {
+        // Takes as long for a wrong secret as for a right one of the same length
+        return secret != null && MessageDigest.isEqual(this.secret.getBytes(StandardCharsets.UTF_8), secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public List<String> peers() {
+        return peers;
+    }
+
+    // The user from its owner, null if there is none
+    public User getUser(String email) {
+        String node = ownerOf(email);
+        HttpResponse<byte[]> response = send(node, "GET", userPath(email), null);
+        return response.statusCode() == 404 ? null : toUser(node, read(node, response.body()));
+    }
+
+    // Creates the user on its owner and sets the version it got there, false if the email is taken
+    public boolean createUser(User user) {
+        String node = ownerOf(user.getEmail());
+        HttpResponse<byte[]> response = send(node, "POST", "", user);
+        if (response.statusCode() == 409) {
+            return false;
+        }
+        user.setVersion(read(node, response.body()).path("version").asLong());
+        return true;
+    }
+
+    // Same results as UserService.updatePartialUser (partial) or UserService.updateUser, done by the owner
+    public User updateUser(String email, User updatedUser, long expectedVersion, boolean partial) {
+        String node = ownerOf(email);
+        HttpResponse<byte[]> response = send(node, partial ? "PATCH" : "PUT",
+                userPath(email) + "?version=" + expectedVersion, updatedUser);
+        return response.statusCode() == 404 ? null : toUser(node, read(node, response.body()));
+    }
+
+    public boolean deleteUser(String email, long expectedVersion) {
+        return send(ownerOf(email), "DELETE", userPath(email) + "?version=" + expectedVersion, null).statusCode() != 404;
+    }
+
+    // Lookups by email ask the owner, iterating only sees the users of this node
+    public Map<String, User> view(Map<String, User> local) {
+        return new AbstractMap<>() {
+            @Override
+            public User get(Object key) {
+                if (!(key instanceof String email)) {
+                    return null;
+                }
+                return isLocal(email) ? local.get(email) : getUser(email);
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return get(key) != null;
+            }
+
+            @Override
+            public Set<Entry<String, User>> entrySet() {
+                return local.entrySet();
+            }
+        };
+    }
+
+    // The users of all nodes in the range, in birth date order. The peers are asked before local is called.
+    public List<User> findByBirthDateRange(LocalDate from, LocalDate to, Supplier<List<User>> local) {
+        List<CompletableFuture<HttpResponse<byte[]>>> requests = scatter("/search?from=" + from + "&to=" + to);
+        List<User> users = new ArrayList<>(local.get());
+        for (int i = 0; i < peers.size(); i++) {
+            String node = peers.get(i);
+            users.addAll(toUsers(node, read(node, gather(node, requests.get(i)).body())));
+        }
+        users.sort(BIRTH_DATE_ORDER);
+        return users;
+    }
+
+    // One page over all nodes. Every node gives its first limit users after the cursor, the first limit of
+    // all of them are the page and its last user is the next cursor, where every node goes on from.
+    public UserPage findByBirthDateRange(LocalDate from, LocalDate to, String cursor, int limit, Supplier<UserPage> local) {
+        // The cursor is base64url and the dates are ISO, so nothing needs escaping
+        List<CompletableFuture<HttpResponse<byte[]>>> requests = scatter("/search?from=" + from + "&to=" + to
+                + "&limit=" + limit + (cursor == null ? "" : "&cursor=" + cursor));
+        UserPage localPage = local.get();
+        List<User> users = new ArrayList<>(localPage.getUsers());
+        boolean more = localPage.getNextCursor() != null;
+        for (int i = 0; i < peers.size(); i++) {
+            String node = peers.get(i);
+            JsonNode page = read(node, gather(node, requests.get(i)).body());
+            users.addAll(toUsers(node, page.path("users")));
+            more |= !page.path("nextCursor").isNull();
+        }
+        users.sort(BIRTH_DATE_ORDER);
+        if (users.size() > limit) {
+            users = new ArrayList<>(users.subList(0, limit));
+            more = true;
+        }
+        User last = users.isEmpty() ? null : users.get(users.size() - 1);
+        return new UserPage(users, more && last != null ? new BirthDateKey(last.getBirthDate(), last.getEmail()).encode() : null);
+    }
+
+    // The first limit of the name search results of all nodes, in the order of NameIndex.search
+    public List<User> findByName(String query, int limit, Supplier<List<User>> local) {
+        List<CompletableFuture<HttpResponse<byte[]>>> requests = scatter("/search/name?q=" + encode(query) + "&limit=" + limit);
+        List<User> users = new ArrayList<>(local.get());
+        for (int i = 0; i < peers.size(); i++) {
+            String node = peers.get(i);
+            users.addAll(toUsers(node, read(node, gather(node, requests.get(i)).body())));
+        }
+        users.sort(NameIndex.searchOrder(query));
+        return users.size() > limit ? new ArrayList<>(users.subList(0, limit)) : users;
+    }
+
+    // The counts of all nodes added up
+    public UserStats getStats(Supplier<UserStats> local) {
+        List<CompletableFuture<HttpResponse<byte[]>>> requests = scatter("/stats");
+        UserStats stats = local.get();
+        long total = stats.getTotal();
+        long withoutBirthDate = stats.getWithoutBirthDate();
+        Map<Integer, Long> byBirthYear = new TreeMap<>(stats.getByBirthYear());
+        Map<String, Long> byAgeBand = new LinkedHashMap<>(stats.getByAgeBand());
+        Map<String, Long> byEmailDomain = new TreeMap<>(stats.getByEmailDomain());
+        for (int i = 0; i < peers.size(); i++) {
+            String node = peers.get(i);
+            JsonNode peerStats = read(node, gather(node, requests.get(i)).body());
+            total += peerStats.path("total").asLong();
+            withoutBirthDate += peerStats.path("withoutBirthDate").asLong();
+            for (Iterator<Map.Entry<String, JsonNode>> it = peerStats.path("byBirthYear").fields(); it.hasNext(); ) {
+                Map.Entry<String, JsonNode> count = it.next();
+                byBirthYear.merge(Integer.valueOf(count.getKey()), count.getValue().asLong(), Long::sum);
+            }
+            for (Iterator<Map.Entry<String, JsonNode>> it = peerStats.path("byAgeBand").fields(); it.hasNext(); ) {
+                Map.Entry<String, JsonNode> count = it.next();
+                byAgeBand.merge(count.getKey(), count.getValue().asLong(), Long::sum);
+            }
+            for (Iterator<Map.Entry<String, JsonNode>> it = peerStats.path("byEmailDomain").fields(); it.hasNext(); ) {
+                Map.Entry<String, JsonNode> count = it.next();
+                byEmailDomain.merge(count.getKey(), count.getValue().asLong(), Long::sum);
+            }
+        }
+        return new UserStats(total, withoutBirthDate, byBirthYear, byAgeBand, byEmailDomain);
+    }
+
+    // Copies the NDJSON exports of the peers to out, one after the other, returns the number of users.
+    // Each one is a point-in-time view of its node, but the nodes take theirs at different times.
+    public long exportUsers(OutputStream out) throws IOException {
+        long count = 0;
+        byte[] buffer = new byte[1 << 16];
+        for (String node : peers) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(node + PATH + "/export")).timeout(timeout)
+                    .header(SECRET_HEADER, secret)
+                    .GET().build();
+            HttpResponse<InputStream> response;
+            try {
+                response = client.send(request, BodyHandlers.ofInputStream());
+            } catch (IOException e) {
+                throw new UnavailableException(node, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UnavailableException(node, e);
+            }
+            try (InputStream in = response.body()) {
+                if (response.statusCode() != 200) {
+                    throw new UnavailableException(node, "answered " + response.statusCode());
+                }
+                for (int n; (n = in.read(buffer)) >= 0; ) {
+                    for (int i = 0; i < n; i++) {
+                        if (buffer[i] == '\n') {
+                            count++;
+                        }
+                    }
+                    out.write(buffer, 0, n);
+                }
+            }
+        }
+        return count;
+    }
+
+    // The request to every peer, in the order of peers()
+    private List<CompletableFuture<HttpResponse<byte[]>>> scatter(String path) {
+        List<CompletableFuture<HttpResponse<byte[]>>> requests = new ArrayList<>(peers.size());
+        for (String node : peers) {
+            requests.add(client.sendAsync(request(node, "GET", path, null), BodyHandlers.ofByteArray()));
+        }
+        return requests;
+    }
+
+    private HttpResponse<byte[]> gather(String node, CompletableFuture<HttpResponse<byte[]>> request) {
+        try {
+            return check(node, request.join());
+        } catch (CompletionException e) {
+            throw new UnavailableException(node, e.getCause());
+        }
+    }
+
+    private HttpResponse<byte[]> send(String node, String method, String path, Object body) {
+        try {
+            return check(node, client.send(request(node, method, path, body), BodyHandlers.ofByteArray()));
+        } catch (IOException e) {
+            throw new UnavailableException(node, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnavailableException(node, e);
+        }
+    }
+
+    private HttpRequest request(String node, String method, String path, Object body) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(node + PATH + path)).timeout(timeout)
+                .header(SECRET_HEADER, secret);
+        if (body == null) {
+            return request.method(method, BodyPublishers.noBody()).build();
+        }
+        try {
+            return request.header("Content-Type", "application/json")
+                    .method(method, BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                    .build();
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    // 404 and 409 are answers (no such user, email taken), anything else but success is the node's fault
+    private static HttpResponse<byte[]> check(String node, HttpResponse<byte[]> response) {
+        int status = response.statusCode();
+        if (status / 100 != 2 && status != 404 && status != 409) {
+            throw new UnavailableException(node, status == MISDIRECTED ? "doesn't own the email, check that all nodes have the same cluster.nodes"
+                    : "answered " + status);
+        }
+        return response;
+    }
+
+    private JsonNode read(String node, byte[] body) {
+        try {
+            return objectMapper.readTree(body);
+        } catch (IOException e) {
+            throw new UnavailableException(node, e);
+        }
+    }
+
+    // The version isn't read from JSON (clients can't set it), so it's copied over by hand
+    private User toUser(String node, JsonNode json) {
+        try {
+            User user = objectMapper.treeToValue(json, User.class);
+            user.setVersion(json.path("version").asLong());
+            return user;
+        } catch (JsonProcessingException e) {
+            throw new UnavailableException(node, e);
+        }
+    }
+
+    private List<User> toUsers(String node, JsonNode json) {
+        List<User> users = new ArrayList<>(json.size());
+        for (JsonNode user : json) {
+            users.add(toUser(node, user));
+        }
+        return users;
+    }
+
+    private static String userPath(String email) {
+        return "/" + encode(email);
+    }
+
+    private static String encode(String value) {
+        // URLEncoder encodes for forms, where a space is a plus
+        return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    private static String baseUrl(String node) {
+        String url = node.strip();
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    // A node of the cluster couldn't answer, the request fails with 503
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public static class UnavailableException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public UnavailableException(String node, String problem) {
+            super("Node " + node + " " + problem);
+        }
+
+        public UnavailableException(String node, Throwable cause) {
+            super("Node " + node + " can't be reached: " + cause, cause);
+        }
+    }
+}
@@ -1,104 +1,384 @@
 package com.example.Users.services;
 
 import com.example.Users.models.User;
+import com.example.Users.models.UserPage;
+import com.example.Users.models.UserStats;
+import com.example.Users.services.UserMetrics.Operation;
+import com.example.Users.stores.BirthDateKey;
+import com.example.Users.stores.ColumnarUserIndex;
+import com.example.Users.stores.NameIndex;
+import com.example.Users.stores.PointInTimeWalk;
+import com.example.Users.stores.UserStore;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.time.LocalDate;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 @Service
 public class UserService {
     @Value("${min.user.age}")
     private int minUserAge;
-    private final Map<String, User> usersByEmail = new HashMap<>();
+    @Value("${max.search.limit:1000}")
+    private int maxSearchLimit;
+    @Value("${name.search.limit:20}")
+    private int nameSearchLimit;
+    @Value("${max.batch.size:50000}")
+    private int maxBatchSize;
+    @Autowired
+    private UserStore userStore;
+    @Autowired
+    private UserValidator userValidator;
+    @Autowired
+    private UserMetrics userMetrics;
+    @Autowired
+    private UserStatistics userStatistics;
+    @Autowired
+    private ObjectMapper objectMapper;
+    // Only there with search.backend=columnar
+    @Autowired(required = false)
+    private ColumnarUserIndex columnarUserIndex;
+    // Only there with name.search.enabled=true
+    @Autowired(required = false)
+    private NameIndex nameIndex;
+    // Only there with search.cache.enabled=true
+    @Autowired(required = false)
+    private SearchResultCache searchResultCache;
+    // Only there with cluster.enabled=true
+    @Autowired(required = false)
+    private UserPartitions userPartitions;
+    // Only there with json.cache.enabled=true
+    @Autowired(required = false)
+    private UserJsonCache userJsonCache;
 
     // Method to create a new user
     public boolean createUser(User user) {
-        if (usersByEmail.containsKey(user.getEmail())) {
-            return false;
+        long start = System.nanoTime();
+        try {
+            if (isRemote(user.getEmail())) {
+                return userPartitions.createUser(user);
+            }
+            return userStore.putIfAbsent(user);
+        } finally {
+            userMetrics.record(Operation.CREATE, start);
         }
-        usersByEmail.put(user.getEmail(), user);
-        return true;
+    }
+
+    // Returns a consistent copy of the user with this email or null
+    public User getUser(String email) {
+        long start = System.nanoTime();
+        try {
+            if (isRemote(email)) {
+                return userPartitions.getUser(email);
+            }
+            return userStore.getCopy(email);
+        } finally {
+            userMetrics.record(Operation.GET, start);
+        }
+    }
+
+    // Checks the constraints declared on User, returns their messages or an empty list
+    public List<String> validateUser(User user) {
+        return userValidator.validate(user);
     }
 
     public boolean isUserOldEnough(LocalDate birthDate) {
-        return birthDate.isBefore(LocalDate.now().minusYears(getMinUserAge()));
+        return userValidator.isUserOldEnough(birthDate, getMinUserAge());
     }
 
     // Method to update some fields of a user
+    // Returns null if the user doesn't exist or the new email is already taken
     public User updatePartialUser(String email, User updatedUser) {
-        User existingUser = usersByEmail.get(email);
+        return updatePartialUser(email, updatedUser, UserStore.ANY_VERSION);
+    }
 
-        if (updatedUser.getEmail() != null) {
-            // Updates the user's email
-            updateEmail(email, updatedUser.getEmail(), existingUser);
+    // Same as above, but only if the user still has the expected version, returns null otherwise
+    public User updatePartialUser(String email, User updatedUser, long expectedVersion) {
+        long start = System.nanoTime();
+        try {
+            if (isRemote(email)) {
+                return userPartitions.updateUser(email, updatedUser, expectedVersion, true);
+            }
+            // Updates the user's email (if given) and other fields of the user in one atomic step
+            return update(email, updatedUser.getEmail(), expectedVersion, existingUser -> {
+                if (updatedUser.getFirstName() != null && updatedUser.getFirstName().length() > 0) {
+                    existingUser.setFirstName(updatedUser.getFirstName());
+                }
+                if (updatedUser.getLastName() != null && updatedUser.getLastName().length() > 0) {
+                    existingUser.setLastName(updatedUser.getLastName());
+                }
+                if (updatedUser.getBirthDate() != null) {
+                    existingUser.setBirthDate(updatedUser.getBirthDate());
+                }
+            });
+        } finally {
+            userMetrics.record(Operation.UPDATE_PARTIAL, start);
         }
-        // Updates other fields of the user
-        if (updatedUser.getFirstName() != null && updatedUser.getFirstName().length() > 0) {
-            existingUser.setFirstName(updatedUser.getFirstName());
+    }
+
+    // Method to fully update user information
+    // Returns null if the user doesn't exist or the new email is already taken
+    public User updateUser(String email, User updatedUser) {
+        return updateUser(email, updatedUser, UserStore.ANY_VERSION);
+    }
+
+    // Same as above, but only if the user still has the expected version, returns null otherwise
+    public User updateUser(String email, User updatedUser, long expectedVersion) {
+        long start = System.nanoTime();
+        try {
+            if (isRemote(email)) {
+                return userPartitions.updateUser(email, updatedUser, expectedVersion, false);
+            }
+            // Updates the user's email and other fields of the user in one atomic step
+            return update(email, updatedUser.getEmail(), expectedVersion, existingUser -> {
+                existingUser.setFirstName(updatedUser.getFirstName());
+                existingUser.setLastName(updatedUser.getLastName());
+                existingUser.setBirthDate(updatedUser.getBirthDate());
+            });
+        } finally {
+            userMetrics.record(Operation.UPDATE, start);
         }
-        if (updatedUser.getLastName() != null && updatedUser.getLastName().length() > 0) {
-            existingUser.setLastName(updatedUser.getLastName());
+    }
+
+    // Method to delete a user
+    public boolean deleteUser(String email) {
+        return deleteUser(email, UserStore.ANY_VERSION);
+    }
+
+    // Returns false if the user doesn't exist or no longer has the expected version
+    public boolean deleteUser(String email, long expectedVersion) {
+        long start = System.nanoTime();
+        try {
+            if (isRemote(email)) {
+                return userPartitions.deleteUser(email, expectedVersion);
+            }
+            return userStore.remove(email, expectedVersion); // Return false if user not found
+        } finally {
+            userMetrics.record(Operation.DELETE, start);
         }
-        if (updatedUser.getBirthDate() != null) {
-            existingUser.setBirthDate(updatedUser.getBirthDate());
+    }
+
+    private User update(String email, String newEmail, long expectedVersion, Consumer<User> changes) {
+        if (newEmail != null && isRemote(newEmail)) {
+            return moveUser(email, newEmail, expectedVersion, changes);
         }
+        return userStore.update(email, newEmail, expectedVersion, changes);
+    }
 
-        return existingUser;
+    // Renames a user of this node to an email another node owns: creates the changed user there, then removes
+    // it here unless it was changed in between, in which case the new user is deleted again. Readers may see
+    // both users for a moment, but never neither of them. Returns null like UserStore.update.
+    private User moveUser(String email, String newEmail, long expectedVersion, Consumer<User> changes) {
+        User user = userStore.getCopy(email);
+        if (user == null || expectedVersion != UserStore.ANY_VERSION && user.getVersion() != expectedVersion) {
+            return null;
+        }
+        long copiedVersion = user.getVersion();
+        changes.accept(user);
+        user.setEmail(newEmail);
+        if (!userPartitions.createUser(user)) {
+            return null;
+        }
+        if (!userStore.remove(email, copiedVersion)) {
+            userPartitions.deleteUser(newEmail, user.getVersion());
+            return null;
+        }
+        return user;
     }
 
-    // Method to fully update user information
-    public User updateUser(String email, User updatedUser) {
-        User existingUser = usersByEmail.get(email);
-        if (existingUser == null) {
+    private boolean isRemote(String email) {
+        return userPartitions != null && !userPartitions.isLocal(email);
+    }
+
+    // Whether the users are split over the nodes of a cluster
+    public boolean isPartitioned() {
+        return userPartitions != null;
+    }
+
+    // Method to get a list of users in a given birth date range
+    public List<User> getUsersByBirthDateRange(LocalDate from, LocalDate to) {
+        long start = System.nanoTime();
+        try {
+            if (userPartitions != null) {
+                return userPartitions.findByBirthDateRange(from, to, () -> getLocalUsersByBirthDateRange(from, to));
+            }
+            return getLocalUsersByBirthDateRange(from, to);
+        } finally {
+            userMetrics.record(Operation.SEARCH, start);
+        }
+    }
+
+    // Same as above, but only the users stored on this node
+    public List<User> getLocalUsersByBirthDateRange(LocalDate from, LocalDate to) {
+        if (searchResultCache != null) {
+            return searchResultCache.get(from, to, () -> findByBirthDateRange(from, to));
+        }
+        return findByBirthDateRange(from, to);
+    }
+
+    private List<User> findByBirthDateRange(LocalDate from, LocalDate to) {
+        if (columnarUserIndex != null) {
+            return columnarUserIndex.findByBirthDateRange(from, to);
+        }
+        return userStore.findByBirthDateRange(from, to);
+    }
+
+    // Method to get one page of users in a given birth date range.
+    // A null cursor starts from the beginning, otherwise it must come from UserPage.getNextCursor().
+    // Throws IllegalArgumentException if the cursor is malformed.
+    public UserPage getUsersByBirthDateRange(LocalDate from, LocalDate to, String cursor, int limit) {
+        long start = System.nanoTime();
+        try {
+            BirthDateKey after = cursor == null ? null : BirthDateKey.decode(cursor);
+            if (userPartitions != null) {
+                return userPartitions.findByBirthDateRange(from, to, cursor, limit,
+                        () -> userStore.findByBirthDateRange(from, to, after, limit));
+            }
+            return userStore.findByBirthDateRange(from, to, after, limit);
+        } finally {
+            userMetrics.record(Operation.SEARCH_PAGE, start);
+        }
+    }
+
+    // Same as above, but only the users stored on this node
+    public UserPage getLocalUsersByBirthDateRange(LocalDate from, LocalDate to, String cursor, int limit) {
+        BirthDateKey after = cursor == null ? null : BirthDateKey.decode(cursor);
+        return userStore.findByBirthDateRange(from, to, after, limit);
+    }
+
+    // At most limit users whose first or last name contains the query, ignoring case, those whose name
+    // starts with it first. Returns null if name search isn't enabled.
+    public List<User> getUsersByName(String query, int limit) {
+        if (nameIndex == null) {
             return null;
         }
+        long start = System.nanoTime();
+        try {
+            if (userPartitions != null) {
+                return userPartitions.findByName(query, limit, () -> nameIndex.search(query, limit));
+            }
+            return nameIndex.search(query, limit);
+        } finally {
+            userMetrics.record(Operation.SEARCH_NAME, start);
+        }
+    }
+
+    // Same as above, but only the users stored on this node
+    public List<User> getLocalUsersByName(String query, int limit) {
+        return nameIndex == null ? null : nameIndex.search(query, limit);
+    }
+
+    // Counts of all users as of today, with the first age band starting at min.user.age
+    public UserStats getStats() {
+        long start = System.nanoTime();
+        try {
+            if (userPartitions != null) {
+                return userPartitions.getStats(this::getLocalStats);
+            }
+            return getLocalStats();
+        } finally {
+            userMetrics.record(Operation.STATS, start);
+        }
+    }
 
-        // Updates the user's email
-        updateEmail(email, updatedUser.getEmail(), existingUser);
-        // Updates other fields of the user
-        existingUser.setFirstName(updatedUser.getFirstName());
-        existingUser.setLastName(updatedUser.getLastName());
-        existingUser.setBirthDate(updatedUser.getBirthDate());
+    // Same as above, but only the users stored on this node
+    public UserStats getLocalStats() {
+        return userStatistics.snapshot(LocalDate.now(), getMinUserAge());
+    }
 
-        return existingUser;
+    // Writes every user as one line of JSON, all of them as they were when the export started while
+    // writes go on. Users come in birth date order except for the ones changed during the export,
+    // which come last. Returns the number of users written, out is flushed but left open.
+    // In a cluster every node's users follow one another, each node's as they were when its export started.
+    public long exportUsers(OutputStream out) throws IOException {
+        long count = exportLocalUsers(out);
+        return userPartitions == null ? count : count + userPartitions.exportUsers(out);
     }
 
-    // Method to delete a user
-    public boolean deleteUser(String email) {
-        if (usersByEmail.containsKey(email)) {
-            usersByEmail.remove(email);
-            return true; // User successfully deleted
+    // Same as above, but only the users stored on this node
+    public long exportLocalUsers(OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        if (userJsonCache != null) {
+            try {
+                return exportCachedUsers(out);
+            } finally {
+                userMetrics.record(Operation.EXPORT, start);
+            }
+        }
+        // The generator has a buffer of its own, flushing it after every user would defeat it
+        ObjectWriter writer = objectMapper.writerFor(User.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            generator.setRootValueSeparator(null);
+            return PointInTimeWalk.forEachCopy(userStore, user -> {
+                try {
+                    writer.writeValue(generator, user);
+                    generator.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            userMetrics.record(Operation.EXPORT, start);
         }
-        return false; // Return false if user not found
     }
 
-    // Method to get a list of users in a given birth date range
-    public List<User> getUsersByBirthDateRange(LocalDate from, LocalDate to) {
-        return usersByEmail.values().stream().filter(user -> user.getBirthDate().isAfter(from) && user.getBirthDate().isBefore(to)).collect(Collectors.toList());
+    // Same as above with every user's JSON from the cache, only the users not in it yet are serialized
+    private long exportCachedUsers(OutputStream out) throws IOException {
+        BufferedOutputStream buffered = new BufferedOutputStream(out, 1 << 16);
+        try {
+            long count = PointInTimeWalk.forEachCopy(userStore, user -> {
+                try {
+                    buffered.write(userJsonCache.toJson(user));
+                    buffered.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            buffered.flush();
+            return count;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
     public boolean isValidEmail(String email) {
-        String emailRegex = "^[a-zA-Z0-9_+&*-]+(?:\\.[a-zA-Z0-9_+&*-]+)*@(?:[a-zA-Z0-9-]+\\.)+[a-zA-Z]{2,7}$";
-        return email.matches(emailRegex);
+        return userValidator.isValidEmail(email);
     }
 
     public int getMinUserAge() {
         return minUserAge;
     }
 
-    public Map<String, User> getUsersByEmail() {
-        return usersByEmail;
+    public int getMaxSearchLimit() {
+        return maxSearchLimit;
+    }
+
+    public int getNameSearchLimit() {
+        return nameSearchLimit;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
     }
 
-    private void updateEmail(String email, String newEmail, User existingUser) {
-        usersByEmail.remove(email);
-        existingUser.setEmail(newEmail);
-        usersByEmail.put(newEmail, existingUser);
+    // Read-only view, all changes go through the methods above.
+    // In a cluster get and containsKey cover all nodes, iterating only this one.
+    public Map<String, User> getUsersByEmail() {
+        return userPartitions == null ? userStore.asMap() : userPartitions.view(userStore.asMap());
     }
 
     public void setMinUserAge(int minUserAge) {
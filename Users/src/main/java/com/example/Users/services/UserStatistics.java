@@ -0,0 +1,137 @@
+package com.example.Users.services;
+
+import com.example.Users.models.User;
+import com.example.Users.models.UserStats;
+import com.example.Users.stores.UserChangeListener;
+import com.example.Users.stores.UserStore;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Counts of the stored users by birth year, birth date and email domain, changed with every change of the store,
+// so /users/stats costs as much as there are distinct years, dates and domains, not users.
+//
+// Age bands can't be counted ahead because everyone gets older every day, they are summed from
+// the counts per birth date when asked for. Each count is exact, but while writers run the counts
+// of one snapshot may be taken a few changes apart.
+@Component
+public class UserStatistics implements UserChangeListener {
+    private final UserStore userStore;
+    // Upper bounds of the age bands after the first one, which starts at min.user.age
+    private final int[] ageBands;
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong withoutBirthDate = new AtomicLong();
+    private final ConcurrentMap<Integer, Long> byBirthYear = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<LocalDate, Long> byBirthDate = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, Long> byEmailDomain = new ConcurrentHashMap<>();
+
+    @Autowired
+    public UserStatistics(UserStore userStore, @Value("${stats.age.bands:25,35,45,55,65}") int[] ageBands) {
+        this.userStore = userStore;
+        this.ageBands = ageBands.clone();
+    }
+
+    // Counts the users already stored and follows the later changes, both in one step
+    @PostConstruct
+    public void open() {
+        userStore.exclusively(() -> {
+            userStore.addListener(this);
+            userStore.forEachCopy(user -> count(user, 1));
+            return null;
+        });
+    }
+
+    // Ages are full years on the given day. Bands: under minUserAge, minUserAge up to the first
+    // bound of stats.age.bands, and so on, the last one is open. Bounds not above minUserAge are skipped.
+    public UserStats snapshot(LocalDate today, int minUserAge) {
+        Map<String, Long> byAgeBand = new LinkedHashMap<>();
+        // A user is at least age years old if born on or before this day
+        LocalDate bornBy = today.minusYears(minUserAge);
+        byAgeBand.put("0-" + (minUserAge - 1), sum(byBirthDate.tailMap(bornBy, false)));
+        int lower = minUserAge;
+        for (int upper : ageBands) {
+            if (upper <= lower) {
+                continue;
+            }
+            LocalDate bornAfter = today.minusYears(upper);
+            byAgeBand.put(lower + "-" + (upper - 1), sum(byBirthDate.subMap(bornAfter, false, bornBy, true)));
+            lower = upper;
+            bornBy = bornAfter;
+        }
+        byAgeBand.put(lower + "+", sum(byBirthDate.headMap(bornBy, true)));
+        return new UserStats(total.get(), withoutBirthDate.get(), new TreeMap<>(byBirthYear), byAgeBand,
+                new TreeMap<>(byEmailDomain));
+    }
+
+    // Users born strictly after from and strictly before to, the ones /users/search finds
+    public long countBornBetween(LocalDate from, LocalDate to) {
+        return from.isBefore(to) ? sum(byBirthDate.subMap(from, false, to, false)) : 0;
+    }
+
+    @Override
+    public void userCreated(User user) {
+        count(user, 1);
+    }
+
+    @Override
+    public void userUpdated(User before, User after) {
+        count(before, -1);
+        count(after, 1);
+    }
+
+    @Override
+    public void userDeleted(User user) {
+        count(user, -1);
+    }
+
+    @Override
+    public void storeCleared() {
+        total.set(0);
+        withoutBirthDate.set(0);
+        byBirthYear.clear();
+        byBirthDate.clear();
+        byEmailDomain.clear();
+    }
+
+    private void count(User user, long delta) {
+        total.addAndGet(delta);
+        LocalDate birthDate = user.getBirthDate();
+        if (birthDate == null) {
+            withoutBirthDate.addAndGet(delta);
+        } else {
+            add(byBirthYear, birthDate.getYear(), delta);
+            add(byBirthDate, birthDate, delta);
+        }
+        add(byEmailDomain, domainOf(user.getEmail()), delta);
+    }
+
+    // merge changes a key atomically, a count that drops to 0 removes its key
+    private static <K> void add(ConcurrentMap<K, Long> counts, K key, long delta) {
+        counts.merge(key, delta, (count, change) -> count + change == 0 ? null : count + change);
+    }
+
+    private static long sum(Map<LocalDate, Long> counts) {
+        long sum = 0;
+        for (long count : counts.values()) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    // Domains are case-insensitive, so Example.com and example.com are one domain
+    private static String domainOf(String email) {
+        int at = email.lastIndexOf('@');
+        return email.substring(at + 1).toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.Users.services;
+
+import com.example.Users.models.User;
+import jakarta.validation.Validator;
+import jakarta.validation.constraints.Email;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+// Checks the rules of User's annotations and UserService's email and age rules without reflection.
+// The checks don't allocate on the happy path: email is checked in one pass over its chars,
+// and the dates that depend on "today" are cached until the day changes.
+@Component
+public class UserValidator {
+    // Same messages as the annotations on User
+    static final String EMAIL_REQUIRED = "Email is required";
+    static final String EMAIL_INVALID = "must be a well-formed email address";
+    static final String FIRST_NAME_REQUIRED = "First name is required";
+    static final String LAST_NAME_REQUIRED = "Last name is required";
+    static final String BIRTH_DATE_REQUIRED = "Date of birth is required";
+    static final String BIRTH_DATE_NOT_PAST = "Please enter a birth date in the past";
+
+    // Results of checkEmail
+    private static final int INVALID = 0;
+    private static final int VALID = 1;
+    private static final int VALID_FOR_ANNOTATION = 2;
+
+    // Limits of @Email that the regex of isValidEmail doesn't have
+    private static final int MAX_LOCAL_PART_LENGTH = 64;
+    private static final int MAX_DOMAIN_LABEL_LENGTH = 63;
+    private static final int MAX_DOMAIN_LENGTH = 255;
+
+    // Used only for emails that the fast path can't decide
+    private final Validator validator;
+    private final Clock clock;
+    private volatile Today today;
+    private volatile AgeCutoff ageCutoff;
+
+    @Autowired
+    public UserValidator(Validator validator) {
+        this(validator, Clock.systemDefaultZone());
+    }
+
+    UserValidator(Validator validator, Clock clock) {
+        this.validator = validator;
+        this.clock = clock;
+    }
+
+    // Returns the messages of all failed constraints in field order, empty list if the user is valid
+    public List<String> validate(User user) {
+        List<String> errors = List.of();
+        String email = user.getEmail();
+        if (isBlank(email)) {
+            errors = add(errors, EMAIL_REQUIRED);
+        }
+        // Like @Email, null and empty emails are left to @NotBlank
+        if (email != null && !email.isEmpty() && !isWellFormedEmail(email)) {
+            errors = add(errors, EMAIL_INVALID);
+        }
+        if (isBlank(user.getFirstName())) {
+            errors = add(errors, FIRST_NAME_REQUIRED);
+        }
+        if (isBlank(user.getLastName())) {
+            errors = add(errors, LAST_NAME_REQUIRED);
+        }
+        if (user.getBirthDate() == null) {
+            errors = add(errors, BIRTH_DATE_REQUIRED);
+        } else if (user.getBirthDate().toEpochDay() >= today().epochDay) {
+            errors = add(errors, BIRTH_DATE_NOT_PAST);
+        }
+        return errors;
+    }
+
+    // Same result as birthDate.isBefore(LocalDate.now().minusYears(minUserAge))
+    public boolean isUserOldEnough(LocalDate birthDate, int minUserAge) {
+        Today current = today();
+        AgeCutoff cutoff = ageCutoff;
+        if (cutoff == null || cutoff.epochDay != current.epochDay || cutoff.minUserAge != minUserAge) {
+            cutoff = new AgeCutoff(current.epochDay, minUserAge, current.date.minusYears(minUserAge).toEpochDay());
+            ageCutoff = cutoff;
+        }
+        return birthDate.toEpochDay() < cutoff.cutoffEpochDay;
+    }
+
+    // Single pass equivalent of
+    // ^[a-zA-Z0-9_+&*-]+(?:\.[a-zA-Z0-9_+&*-]+)*@(?:[a-zA-Z0-9-]+\.)+[a-zA-Z]{2,7}$
+    public boolean isValidEmail(String email) {
+        return checkEmail(email) != INVALID;
+    }
+
+    // Same result as @Email. Emails that pass isValidEmail and stay within the limits of @Email
+    // are decided here, anything else goes to Bean Validation.
+    boolean isWellFormedEmail(String email) {
+        if (checkEmail(email) == VALID_FOR_ANNOTATION) {
+            return true;
+        }
+        return validator.validateValue(User.class, "email", email).stream()
+                .noneMatch(violation -> violation.getConstraintDescriptor().getAnnotation() instanceof Email);
+    }
+
+    // Returns VALID_FOR_ANNOTATION if @Email surely accepts the email as well
+    private static int checkEmail(String email) {
+        int length = email.length();
+        int i = 0;
+        // Local part: runs of allowed chars separated by single dots
+        boolean inRun = false;
+        for (; i < length; i++) {
+            char c = email.charAt(i);
+            if (c == '@') {
+                break;
+            }
+            if (c == '.') {
+                if (!inRun) {
+                    return INVALID;
+                }
+                inRun = false;
+            } else if (isLocalChar(c)) {
+                inRun = true;
+            } else {
+                return INVALID;
+            }
+        }
+        if (i == length || !inRun) {
+            return INVALID;
+        }
+        boolean annotationSafe = i <= MAX_LOCAL_PART_LENGTH && length - i - 1 <= MAX_DOMAIN_LENGTH;
+
+        // Domain: at least two labels, the last one is 2 to 7 letters
+        int dots = 0;
+        int labelLength = 0;
+        boolean lettersOnly = true;
+        char previous = '.';
+        for (i++; i < length; i++) {
+            char c = email.charAt(i);
+            if (c == '.') {
+                if (labelLength == 0) {
+                    return INVALID;
+                }
+                // @Email doesn't allow a dash at the end of a label or labels longer than DNS allows
+                annotationSafe &= previous != '-' && labelLength <= MAX_DOMAIN_LABEL_LENGTH;
+                dots++;
+                labelLength = 0;
+                lettersOnly = true;
+            } else if (isDomainChar(c)) {
+                // ...nor at the start of a label
+                annotationSafe &= previous != '.' || c != '-';
+                labelLength++;
+                lettersOnly &= isLetter(c);
+            } else {
+                return INVALID;
+            }
+            previous = c;
+        }
+        if (dots == 0 || labelLength < 2 || labelLength > 7 || !lettersOnly) {
+            return INVALID;
+        }
+        return annotationSafe ? VALID_FOR_ANNOTATION : VALID;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDomainChar(char c) {
+        return isLetter(c) || (c >= '0' && c <= '9') || c == '-';
+    }
+
+    private static boolean isLocalChar(char c) {
+        return isDomainChar(c) || c == '_' || c == '+' || c == '&' || c == '*';
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    private static List<String> add(List<String> errors, String error) {
+        if (errors.isEmpty()) {
+            errors = new ArrayList<>(4);
+        }
+        errors.add(error);
+        return errors;
+    }
+
+    // Reads the clock without allocating and only builds a new Today when the day changes.
+    // Racing threads may both build one, they compute the same value.
+    private Today today() {
+        Today current = today;
+        long now = clock.millis();
+        if (current == null || now < current.startMillis || now >= current.endMillis) {
+            LocalDate date = LocalDate.now(clock);
+            current = new Today(date,
+                    date.atStartOfDay(clock.getZone()).toInstant().toEpochMilli(),
+                    date.plusDays(1).atStartOfDay(clock.getZone()).toInstant().toEpochMilli());
+            today = current;
+        }
+        return current;
+    }
+
+    private static final class Today {
+        final LocalDate date;
+        final long epochDay;
+        final long startMillis;
+        final long endMillis;
+
+        Today(LocalDate date, long startMillis, long endMillis) {
+            this.date = date;
+            this.epochDay = date.toEpochDay();
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+        }
+    }
+
+    // Latest birth date (exclusive) of a user who is old enough on the given day
+    private static final class AgeCutoff {
+        final long epochDay;
+        final int minUserAge;
+        final long cutoffEpochDay;
+
+        AgeCutoff(long epochDay, int minUserAge, long cutoffEpochDay) {
+            this.epochDay = epochDay;
+            this.minUserAge = minUserAge;
+            this.cutoffEpochDay = cutoffEpochDay;
+        }
+    }
+}
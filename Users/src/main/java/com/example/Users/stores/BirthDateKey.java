@@ -0,0 +1,37 @@
+package com.example.Users.stores;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Base64;
+
+// Position of a user in the birth date order. Emails are unique, so (birthDate, email) is unique as well.
+// Also used as the opaque search cursor: the next page starts right after the last key of the previous one,
+// so a cursor stays valid even if that user is changed or deleted in the meantime.
+public record BirthDateKey(LocalDate birthDate, String email) implements Comparable<BirthDateKey> {
+
+    @Override
+    public int compareTo(BirthDateKey other) {
+        int byDate = birthDate.compareTo(other.birthDate);
+        return byDate != 0 ? byDate : email.compareTo(other.email);
+    }
+
+    public String encode() {
+        String plain = birthDate.toEpochDay() + ":" + email;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Throws IllegalArgumentException if the cursor wasn't produced by encode()
+    public static BirthDateKey decode(String cursor) {
+        String plain = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        int separator = plain.indexOf(':');
+        if (separator < 1) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        try {
+            long epochDay = Long.parseLong(plain.substring(0, separator));
+            return new BirthDateKey(LocalDate.ofEpochDay(epochDay), plain.substring(separator + 1));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.example.Users.stores;
+
+import com.example.Users.models.User;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Column-wise copy of the UserStore for birth date range queries (search.backend=columnar).
+//
+// Row i of the columns is one user: birth dates are an int[] of epoch days, first and last names
+// are ids into a dictionary of distinct names, emails are kept as they are. A range query is then
+// a branch-free loop over the int[] that the JIT compiles to straight compares, split across cores
+// with fork/join for large stores. A deleted row is filled with the last one, so the columns stay dense.
+// Birth dates too far away for an int (millions of years) are kept aside and checked one by one.
+@Component
+@ConditionalOnProperty(name = "search.backend", havingValue = "columnar")
+public class ColumnarUserIndex implements UserChangeListener {
+    // Below this many rows a single thread scans faster than fork/join can split the work
+    static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    private static final int NO_BIRTH_DATE = Integer.MIN_VALUE;
+    private static final int NO_NAME = -1;
+    private static final Comparator<User> ORDER = Comparator.comparing(User::getBirthDate).thenComparing(User::getEmail);
+
+    private final UserStore userStore;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Guarded by lock
+    private int size;
+    private String[] emails = new String[1024];
+    private int[] birthDays = new int[1024];
+    private int[] firstNames = new int[1024];
+    private int[] lastNames = new int[1024];
+    private long[] versions = new long[1024];
+    private final Map<String, Integer> rows = new HashMap<>();
+    private final Map<String, Integer> nameIds = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, User> outliers = new HashMap<>();
+
+    @Autowired
+    public ColumnarUserIndex(UserStore userStore) {
+        this.userStore = userStore;
+    }
+
+    // Copies the users already stored and follows the later changes, both in one step
+    @PostConstruct
+    public void open() {
+        userStore.exclusively(() -> {
+            userStore.addListener(this);
+            userStore.forEachCopy(this::add);
+            return null;
+        });
+    }
+
+    // Same result as UserStore.findByBirthDateRange: born strictly between from and to, ordered by birth date and email
+    public List<User> findByBirthDateRange(LocalDate from, LocalDate to) {
+        List<User> users = new ArrayList<>();
+        if (from == null || to == null || !from.isBefore(to)) {
+            return users;
+        }
+        long first = from.toEpochDay() + 1;
+        long end = to.toEpochDay();
+        lock.readLock().lock();
+        try {
+            if (first <= Integer.MAX_VALUE && end > NO_BIRTH_DATE + 1) {
+                int[] matches = scan((int) Math.max(first, NO_BIRTH_DATE + 1), (int) Math.min(end, Integer.MAX_VALUE));
+                for (int row : matches) {
+                    User user = new User(emails[row], name(firstNames[row]), name(lastNames[row]), LocalDate.ofEpochDay(birthDays[row]));
+                    user.setVersion(versions[row]);
+                    users.add(user);
+                }
+            }
+            for (User outlier : outliers.values()) {
+                long day = outlier.getBirthDate().toEpochDay();
+                if (day >= first && day < end) {
+                    users.add(copyOf(outlier));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        users.sort(ORDER);
+        return users;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size + outliers.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Distinct first and last names in the dictionary
+    public int nameCount() {
+        lock.readLock().lock();
+        try {
+            return names.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void userCreated(User user) {
+        add(user);
+    }
+
+    @Override
+    public void userUpdated(User before, User after) {
+        lock.writeLock().lock();
+        try {
+            remove(before.getEmail());
+            add(after);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void userDeleted(User user) {
+        lock.writeLock().lock();
+        try {
+            remove(user.getEmail());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void storeCleared() {
+        lock.writeLock().lock();
+        try {
+            size = 0;
+            Arrays.fill(emails, null);
+            rows.clear();
+            nameIds.clear();
+            names.clear();
+            outliers.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Rows with first <= birth day < end in row order
+    private int[] scan(int first, int end) {
+        if (size < PARALLEL_THRESHOLD) {
+            return scan(birthDays, 0, size, first, end);
+        }
+        return ForkJoinPool.commonPool().invoke(new ScanTask(birthDays, 0, size, first, end));
+    }
+
+    // Shifting the range to start at 0 turns the two compares into one unsigned compare,
+    // and the row is always written, only the count depends on the compare, so there is no branch to mispredict
+    private static int[] scan(int[] birthDays, int from, int to, int first, int end) {
+        int[] matches = new int[to - from];
+        int count = 0;
+        int width = end - first + Integer.MIN_VALUE;
+        for (int row = from; row < to; row++) {
+            matches[count] = row;
+            count += birthDays[row] - first + Integer.MIN_VALUE < width ? 1 : 0;
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    private void add(User user) {
+        lock.writeLock().lock();
+        try {
+            LocalDate birthDate = user.getBirthDate();
+            if (birthDate != null && (birthDate.toEpochDay() <= NO_BIRTH_DATE || birthDate.toEpochDay() > Integer.MAX_VALUE)) {
+                outliers.put(user.getEmail(), copyOf(user));
+                return;
+            }
+            if (size == emails.length) {
+                int capacity = size * 2;
+                emails = Arrays.copyOf(emails, capacity);
+                birthDays = Arrays.copyOf(birthDays, capacity);
+                firstNames = Arrays.copyOf(firstNames, capacity);
+                lastNames = Arrays.copyOf(lastNames, capacity);
+                versions = Arrays.copyOf(versions, capacity);
+            }
+            emails[size] = user.getEmail();
+            birthDays[size] = birthDate == null ? NO_BIRTH_DATE : (int) birthDate.toEpochDay();
+            firstNames[size] = nameId(user.getFirstName());
+            lastNames[size] = nameId(user.getLastName());
+            versions[size] = user.getVersion();
+            rows.put(user.getEmail(), size);
+            size++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void remove(String email) {
+        if (outliers.remove(email) != null) {
+            return;
+        }
+        Integer row = rows.remove(email);
+        if (row == null) {
+            return;
+        }
+        int last = --size;
+        if (row != last) {
+            emails[row] = emails[last];
+            birthDays[row] = birthDays[last];
+            firstNames[row] = firstNames[last];
+            lastNames[row] = lastNames[last];
+            versions[row] = versions[last];
+            rows.put(emails[row], row);
+        }
+        emails[last] = null;
+    }
+
+    // Names are never taken out of the dictionary, there are few distinct ones
+    private int nameId(String name) {
+        if (name == null) {
+            return NO_NAME;
+        }
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            nameIds.put(name, id);
+        }
+        return id;
+    }
+
+    private String name(int id) {
+        return id == NO_NAME ? null : names.get(id);
+    }
+
+    private static User copyOf(User user) {
+        User copy = new User(user.getEmail(), user.getFirstName(), user.getLastName(), user.getBirthDate());
+        copy.setVersion(user.getVersion());
+        return copy;
+    }
+
+    // Splits the rows in halves until they are small enough to scan, then joins the matches in row order
+    private static final class ScanTask extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] birthDays;
+        private final int from;
+        private final int to;
+        private final int first;
+        private final int end;
+
+        ScanTask(int[] birthDays, int from, int to, int first, int end) {
+            this.birthDays = birthDays;
+            this.from = from;
+            this.to = to;
+            this.first = first;
+            this.end = end;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                return scan(birthDays, from, to, first, end);
+            }
+            int middle = (from + to) >>> 1;
+            ScanTask left = new ScanTask(birthDays, from, middle, first, end);
+            left.fork();
+            int[] right = new ScanTask(birthDays, middle, to, first, end).compute();
+            int[] leftMatches = left.join();
+            int[] matches = Arrays.copyOf(leftMatches, leftMatches.length + right.length);
+            System.arraycopy(right, 0, matches, leftMatches.length, right.length);
+            return matches;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.example.Users.stores;
+
+import com.example.Users.models.User;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Case-insensitive search of users by first or last name (name.search.enabled=true).
+//
+// Every distinct lower-case name keeps the emails of the users that have it as first or last name, in email order.
+// Names that start with the query are found as a range of the sorted name dictionary, names that contain it
+// elsewhere through trigrams: the names having every three-letter piece of the query, checked with contains().
+// Queries shorter than a trigram are checked against every distinct name, there are far fewer of those than users.
+//
+// Memory: about 40 bytes per user and name on top of the store, the emails are shared with it.
+@Component
+@ConditionalOnProperty(name = "name.search.enabled", havingValue = "true")
+public class NameIndex implements UserChangeListener {
+    private final UserStore userStore;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Guarded by lock
+    private final NavigableMap<String, Name> names = new TreeMap<>();
+    private final Map<Long, Set<Name>> namesByTrigram = new HashMap<>();
+    private long entries;
+
+    @Autowired
+    public NameIndex(UserStore userStore) {
+        this.userStore = userStore;
+    }
+
+    // Indexes the users already stored and follows the later changes, both in one step
+    @PostConstruct
+    public void open() {
+        userStore.exclusively(() -> {
+            userStore.addListener(this);
+            userStore.forEachCopy(this::add);
+            return null;
+        });
+    }
+
+    // At most limit users with a first or last name that contains the query, ignoring case.
+    // Users whose name starts with it come first, each group in email order.
+    // The users are copies read from the store after the index was searched, a user renamed
+    // in between is left out.
+    public List<User> search(String query, int limit) {
+        String needle = normalize(query);
+        if (needle.isEmpty()) {
+            return List.of();
+        }
+        Set<String> emails = new LinkedHashSet<>();
+        lock.readLock().lock();
+        try {
+            collect(names.subMap(needle, true, needle + Character.MAX_VALUE, false).values(), limit, emails);
+            if (emails.size() < limit) {
+                List<Name> containing = new ArrayList<>();
+                for (Name name : namesContaining(needle)) {
+                    if (!name.name.startsWith(needle)) {
+                        containing.add(name);
+                    }
+                }
+                collect(containing, limit, emails);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<User> users = new ArrayList<>(emails.size());
+        for (String email : emails) {
+            User user = userStore.getCopy(email);
+            if (user != null && (contains(user.getFirstName(), needle) || contains(user.getLastName(), needle))) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    // The order of search(), to merge the results of several indexes
+    public static Comparator<User> searchOrder(String query) {
+        String needle = normalize(query);
+        return Comparator.comparing((User user) -> !normalize(user.getFirstName()).startsWith(needle)
+                        && !normalize(user.getLastName()).startsWith(needle))
+                .thenComparing(User::getEmail);
+    }
+
+    // Distinct lower-case names
+    public int nameCount() {
+        lock.readLock().lock();
+        try {
+            return names.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Pairs of user and name, a user whose first and last name are the same counts once
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return entries;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void userCreated(User user) {
+        add(user);
+    }
+
+    @Override
+    public void userUpdated(User before, User after) {
+        if (before.getEmail().equals(after.getEmail())
+                && normalize(before.getFirstName()).equals(normalize(after.getFirstName()))
+                && normalize(before.getLastName()).equals(normalize(after.getLastName()))) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            remove(before);
+            add(after);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void userDeleted(User user) {
+        lock.writeLock().lock();
+        try {
+            remove(user);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void storeCleared() {
+        lock.writeLock().lock();
+        try {
+            names.clear();
+            namesByTrigram.clear();
+            entries = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void add(User user) {
+        lock.writeLock().lock();
+        try {
+            for (String text : namesOf(user)) {
+                Name name = names.get(text);
+                if (name == null) {
+                    name = new Name(text);
+                    names.put(text, name);
+                    for (long trigram : trigrams(text)) {
+                        namesByTrigram.computeIfAbsent(trigram, key -> new HashSet<>()).add(name);
+                    }
+                }
+                if (name.add(user.getEmail())) {
+                    entries++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Called with the write lock held
+    private void remove(User user) {
+        for (String text : namesOf(user)) {
+            Name name = names.get(text);
+            if (name == null || !name.remove(user.getEmail())) {
+                continue;
+            }
+            entries--;
+            if (name.emails.isEmpty()) {
+                names.remove(text);
+                for (long trigram : trigrams(text)) {
+                    Set<Name> withTrigram = namesByTrigram.get(trigram);
+                    withTrigram.remove(name);
+                    if (withTrigram.isEmpty()) {
+                        namesByTrigram.remove(trigram);
+                    }
+                }
+            }
+        }
+    }
+
+    // Called with the read lock held
+    private List<Name> namesContaining(String needle) {
+        // Starts from the rarest trigram, the others only narrow it down
+        Collection<Name> candidates = needle.length() < 3 ? names.values() : null;
+        for (long trigram : trigrams(needle)) {
+            Set<Name> withTrigram = namesByTrigram.get(trigram);
+            if (withTrigram == null) {
+                return List.of();
+            }
+            if (candidates == null || withTrigram.size() < candidates.size()) {
+                candidates = withTrigram;
+            }
+        }
+        List<Name> containing = new ArrayList<>();
+        for (Name name : candidates) {
+            if (name.name.contains(needle)) {
+                containing.add(name);
+            }
+        }
+        return containing;
+    }
+
+    // Adds the smallest emails of the sorted sets, in email order, until there are limit of them.
+    // A set is read only while its emails come before the largest one kept, so with many matching
+    // names most sets cost one compare.
+    private static void collect(Collection<Name> names, int limit, Set<String> emails) {
+        int wanted = limit - emails.size();
+        TreeSet<String> smallest = new TreeSet<>();
+        String largest = null;
+        for (Name name : names) {
+            if (largest != null && name.first.compareTo(largest) >= 0) {
+                continue;
+            }
+            for (String email : name.emails) {
+                if (largest != null && email.compareTo(largest) >= 0) {
+                    break;
+                }
+                if (!emails.contains(email) && smallest.add(email)) {
+                    if (smallest.size() > wanted) {
+                        smallest.pollLast();
+                    }
+                    if (smallest.size() == wanted) {
+                        largest = smallest.last();
+                    }
+                }
+            }
+        }
+        emails.addAll(smallest);
+    }
+
+    private static Set<String> namesOf(User user) {
+        Set<String> names = new HashSet<>(2);
+        String firstName = normalize(user.getFirstName());
+        String lastName = normalize(user.getLastName());
+        if (!firstName.isEmpty()) {
+            names.add(firstName);
+        }
+        if (!lastName.isEmpty()) {
+            names.add(lastName);
+        }
+        return names;
+    }
+
+    // Three chars of the name packed into one long, 16 bits each
+    private static Set<Long> trigrams(String name) {
+        Set<Long> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= name.length(); i++) {
+            trigrams.add((long) name.charAt(i) << 32 | (long) name.charAt(i + 1) << 16 | name.charAt(i + 2));
+        }
+        return trigrams;
+    }
+
+    private static boolean contains(String name, String needle) {
+        return normalize(name).contains(needle);
+    }
+
+    private static String normalize(String name) {
+        return name == null ? "" : name.strip().toLowerCase(Locale.ROOT);
+    }
+
+    // A distinct lower-case name and the emails of the users that have it.
+    // The smallest email is kept aside, it's all collect() reads of most names.
+    private static final class Name {
+        final String name;
+        final TreeSet<String> emails = new TreeSet<>();
+        String first;
+
+        Name(String name) {
+            this.name = name;
+        }
+
+        boolean add(String email) {
+            if (!emails.add(email)) {
+                return false;
+            }
+            if (first == null || email.compareTo(first) < 0) {
+                first = email;
+            }
+            return true;
+        }
+
+        boolean remove(String email) {
+            if (!emails.remove(email)) {
+                return false;
+            }
+            if (email.equals(first)) {
+                first = emails.isEmpty() ? null : emails.first();
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.Users.stores;
+
+import java.nio.ByteBuffer;
+
+// Allocator of blocks in direct memory for OffHeapUserStore. Not thread-safe, the store locks around it.
+//
+// Memory comes in slabs of direct ByteBuffers, growing from 1MB up to 64MB each. Blocks are
+// multiples of 8 bytes; a freed block goes onto the free list of its size and is reused by the next
+// block of the same size. The free lists are linked through the first 8 bytes of the free blocks,
+// so they take no heap. An address is slab index << SLAB_SHIFT | offset, 0 is never handed out.
+final class OffHeapMemory {
+    static final int MAX_BLOCK_SIZE = (1 << 20) + 8;
+
+    private static final int SLAB_SHIFT = 26;
+    private static final int MAX_SLAB_SIZE = 1 << SLAB_SHIFT;
+    private static final int FIRST_SLAB_SIZE = 1 << 20;
+    // Addresses have to fit into 32 bits once divided by 8, see OffHeapUserStore
+    private static final int MAX_SLABS = 1 << (35 - SLAB_SHIFT);
+
+    private ByteBuffer[] slabs = new ByteBuffer[8];
+    private int slabCount;
+    private int top;
+    private final long[] freeLists = new long[MAX_BLOCK_SIZE / 8 + 1];
+    private long reservedBytes;
+    private long usedBytes;
+    private long freeBytes;
+
+    static int blockSize(int bytes) {
+        return (bytes + 7) & ~7;
+    }
+
+    long allocate(int bytes) {
+        int size = blockSize(bytes);
+        if (size > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block of " + bytes + " bytes is too large");
+        }
+        usedBytes += size;
+        long free = freeLists[size >>> 3];
+        if (free != 0) {
+            freeLists[size >>> 3] = slab(free).getLong(offset(free));
+            freeBytes -= size;
+            return free;
+        }
+        if (slabCount == 0 || top + size > slabs[slabCount - 1].capacity()) {
+            addSlab(size);
+        }
+        long address = ((long) (slabCount - 1) << SLAB_SHIFT) | top;
+        top += size;
+        return address;
+    }
+
+    void free(long address, int bytes) {
+        int size = blockSize(bytes);
+        slab(address).putLong(offset(address), freeLists[size >>> 3]);
+        freeLists[size >>> 3] = address;
+        usedBytes -= size;
+        freeBytes += size;
+    }
+
+    // Shared buffer, only absolute gets and puts may be used on it
+    ByteBuffer slab(long address) {
+        return slabs[(int) (address >>> SLAB_SHIFT)];
+    }
+
+    static int offset(long address) {
+        return (int) (address & (MAX_SLAB_SIZE - 1));
+    }
+
+    // Direct memory taken from the OS
+    long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    // Bytes in blocks that are in use
+    long getUsedBytes() {
+        return usedBytes;
+    }
+
+    // Bytes in freed blocks waiting to be reused
+    long getFreeBytes() {
+        return freeBytes;
+    }
+
+    private void addSlab(int size) {
+        if (slabCount == MAX_SLABS) {
+            throw new IllegalStateException("Off-heap memory is full");
+        }
+        if (slabCount == slabs.length) {
+            ByteBuffer[] larger = new ByteBuffer[slabs.length * 2];
+            System.arraycopy(slabs, 0, larger, 0, slabCount);
+            slabs = larger;
+        }
+        // The start of every slab is skipped, so that no address is 0
+        int capacity = Math.max(FIRST_SLAB_SIZE << Math.min(slabCount, SLAB_SHIFT - 20), size + 8);
+        slabs[slabCount++] = ByteBuffer.allocateDirect(capacity);
+        reservedBytes += capacity;
+        top = 8;
+    }
+}
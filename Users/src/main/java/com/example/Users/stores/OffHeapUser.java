@@ -0,0 +1,109 @@
+package com.example.Users.stores;
+
+import com.example.Users.models.User;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+
+// User read from OffHeapUserStore. Holds a private copy of the record's bytes and decodes
+// each field the first time it's read, so a caller that only needs the email pays for one string.
+// Setting a field works like on any User and doesn't touch the store.
+final class OffHeapUser extends User {
+    private static final int EMAIL = 1;
+    private static final int FIRST_NAME = 2;
+    private static final int LAST_NAME = 4;
+    private static final int BIRTH_DATE = 8;
+    private static final int VERSION = 16;
+
+    private final byte[] record;
+    // Fields that are already decoded or set
+    private int decoded;
+
+    OffHeapUser(byte[] record) {
+        this.record = record;
+    }
+
+    @Override
+    public String getEmail() {
+        if ((decoded & EMAIL) == 0) {
+            super.setEmail(UserCodec.readString(field(0)));
+            decoded |= EMAIL;
+        }
+        return super.getEmail();
+    }
+
+    @Override
+    public void setEmail(String email) {
+        super.setEmail(email);
+        decoded |= EMAIL;
+    }
+
+    @Override
+    public String getFirstName() {
+        if ((decoded & FIRST_NAME) == 0) {
+            super.setFirstName(UserCodec.readString(field(1)));
+            decoded |= FIRST_NAME;
+        }
+        return super.getFirstName();
+    }
+
+    @Override
+    public void setFirstName(String firstName) {
+        super.setFirstName(firstName);
+        decoded |= FIRST_NAME;
+    }
+
+    @Override
+    public String getLastName() {
+        if ((decoded & LAST_NAME) == 0) {
+            super.setLastName(UserCodec.readString(field(2)));
+            decoded |= LAST_NAME;
+        }
+        return super.getLastName();
+    }
+
+    @Override
+    public void setLastName(String lastName) {
+        super.setLastName(lastName);
+        decoded |= LAST_NAME;
+    }
+
+    @Override
+    public LocalDate getBirthDate() {
+        if ((decoded & BIRTH_DATE) == 0) {
+            super.setBirthDate(UserCodec.readBirthDate(field(3)));
+            decoded |= BIRTH_DATE;
+        }
+        return super.getBirthDate();
+    }
+
+    @Override
+    public void setBirthDate(LocalDate birthDate) {
+        super.setBirthDate(birthDate);
+        decoded |= BIRTH_DATE;
+    }
+
+    @Override
+    public long getVersion() {
+        if ((decoded & VERSION) == 0) {
+            super.setVersion(ByteBuffer.wrap(record).getLong(record.length - Long.BYTES));
+            decoded |= VERSION;
+        }
+        return super.getVersion();
+    }
+
+    @Override
+    public void setVersion(long version) {
+        super.setVersion(version);
+        decoded |= VERSION;
+    }
+
+    // Buffer positioned at the given field, the strings before it are skipped by their lengths
+    private ByteBuffer field(int index) {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        for (int i = 0; i < index; i++) {
+            UserCodec.skipString(buffer);
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,761 @@
+package com.example.Users.stores;
+
+import com.example.Users.models.User;
+import com.example.Users.models.UserPage;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// UserStore that keeps users as UserCodec records in direct memory, so tens of millions of users
+// don't turn into tens of millions of objects for the garbage collector to trace.
+//
+// Records live in OffHeapMemory. The email index is an open addressing hash table, also in direct memory,
+// whose slots hold the email's hash and the record's address. The birth date index keeps one bucket per day
+// with the addresses of that day's records sorted by email, so the heap only holds a few thousand arrays.
+// Reads hand out OffHeapUser views that decode their fields on first use.
+//
+// One read-write lock guards everything: reads run in parallel, writes one at a time. A write only
+// encodes one record, and long reads (snapshots, iteration) let writers in every CHUNK_SIZE users.
+@Component
+@ConditionalOnProperty(name = "user.store", havingValue = "offheap")
+@ManagedResource(objectName = "com.example.Users:type=OffHeapUserStore")
+public class OffHeapUserStore implements UserStore {
+    private static final int MAX_RECORD_LENGTH = 1 << 20;
+    private static final int CHUNK_SIZE = 1024;
+    private static final int INITIAL_TABLE_CAPACITY = 1 << 10;
+    // A direct buffer can't hold more slots than this
+    private static final int MAX_TABLE_CAPACITY = 1 << 27;
+    // Users without a birth date go to a bucket after every real date, out of reach of any range
+    private static final long NO_BIRTH_DATE = Long.MAX_VALUE;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<UserChangeListener> listeners = new CopyOnWriteArrayList<>();
+    // Guarded by lock
+    private OffHeapMemory memory = new OffHeapMemory();
+    // Each slot is hash << 32 | address >>> 3, 0 means empty
+    private ByteBuffer table = ByteBuffer.allocateDirect(INITIAL_TABLE_CAPACITY * Long.BYTES);
+    private int mask = INITIAL_TABLE_CAPACITY - 1;
+    private final TreeMap<Long, Bucket> usersByBirthDate = new TreeMap<>();
+    private volatile int size;
+    // Users with a birth date, the rest are in the NO_BIRTH_DATE bucket
+    private volatile int indexSize;
+    // Highest version given out or loaded so far, guarded by lock
+    private long lastVersion;
+
+    @Override
+    public User get(String email) {
+        lock.readLock().lock();
+        try {
+            int slot = slotOf(email, hash(email));
+            return slot < 0 ? null : view(addressAt(slot));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The views are copies already
+    @Override
+    public User getCopy(String email) {
+        return get(email);
+    }
+
+    @Override
+    public boolean contains(String email) {
+        lock.readLock().lock();
+        try {
+            return slotOf(email, hash(email)) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(User user) {
+        int length = recordLength(user);
+        lock.writeLock().lock();
+        try {
+            int hash = hash(user.getEmail());
+            if (slotOf(user.getEmail(), hash) >= 0) {
+                return false;
+            }
+            if (user.getVersion() == ANY_VERSION) {
+                user.setVersion(++lastVersion);
+            } else {
+                lastVersion = Math.max(lastVersion, user.getVersion());
+            }
+            long address = write(user, length);
+            insertSlot(hash, address);
+            index(user, address);
+            size++;
+            for (UserChangeListener listener : listeners) {
+                listener.userCreated(user);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        changesApplied();
+        return true;
+    }
+
+    // The changes are applied to a decoded copy, the record is only replaced once they succeed
+    @Override
+    public User update(String email, String newEmail, long expectedVersion, Consumer<User> changes) {
+        boolean rename = newEmail != null && !newEmail.equals(email);
+        User updatedUser;
+        lock.writeLock().lock();
+        try {
+            int slot = slotOf(email, hash(email));
+            if (slot < 0 || (rename && slotOf(newEmail, hash(newEmail)) >= 0)) {
+                return null;
+            }
+            long address = addressAt(slot);
+            User existingUser = UserCodec.readUser(record(address));
+            if (expectedVersion != ANY_VERSION && existingUser.getVersion() != expectedVersion) {
+                return null;
+            }
+            User before = listeners.isEmpty() ? null : copyOf(existingUser);
+            changes.accept(existingUser);
+            existingUser.setVersion(++lastVersion);
+            if (rename) {
+                existingUser.setEmail(newEmail);
+            }
+            int length = recordLength(existingUser);
+
+            unindex(email, address);
+            free(address);
+            long newAddress = write(existingUser, length);
+            if (rename) {
+                removeSlot(slot);
+                insertSlot(hash(newEmail), newAddress);
+            } else {
+                table.putLong(slot << 3, slotValue(hash(email), newAddress));
+            }
+            index(existingUser, newAddress);
+            if (before != null) {
+                for (UserChangeListener listener : listeners) {
+                    listener.userUpdated(before, existingUser);
+                }
+            }
+            updatedUser = existingUser;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        changesApplied();
+        return updatedUser;
+    }
+
+    // Readers wait for the write lock, so they never see the user missing between the removes and the write
+    @Override
+    public void replace(String email, User user) {
+        int length = recordLength(user);
+        User before;
+        User displaced;
+        lock.writeLock().lock();
+        try {
+            if (user.getVersion() == ANY_VERSION) {
+                user.setVersion(++lastVersion);
+            } else {
+                lastVersion = Math.max(lastVersion, user.getVersion());
+            }
+            before = removeRecord(email);
+            displaced = email.equals(user.getEmail()) ? null : removeRecord(user.getEmail());
+            long address = write(user, length);
+            insertSlot(hash(user.getEmail()), address);
+            index(user, address);
+            size++;
+            for (UserChangeListener listener : listeners) {
+                if (before != null && displaced != null) {
+                    listener.userDeleted(displaced);
+                }
+                if (before != null || displaced != null) {
+                    listener.userUpdated(before != null ? before : displaced, user);
+                } else {
+                    listener.userCreated(user);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        changesApplied();
+    }
+
+    @Override
+    public boolean remove(String email, long expectedVersion) {
+        lock.writeLock().lock();
+        try {
+            int slot = slotOf(email, hash(email));
+            if (slot < 0) {
+                return false;
+            }
+            long address = addressAt(slot);
+            if (expectedVersion != ANY_VERSION && versionAt(address) != expectedVersion) {
+                return false;
+            }
+            User removedUser = listeners.isEmpty() ? null : UserCodec.readUser(record(address));
+            unindex(email, address);
+            free(address);
+            removeSlot(slot);
+            size--;
+            for (UserChangeListener listener : listeners) {
+                listener.userDeleted(removedUser);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        changesApplied();
+        return true;
+    }
+
+    @Override
+    public List<User> findByBirthDateRange(LocalDate from, LocalDate to) {
+        List<User> users = new ArrayList<>();
+        if (from == null || to == null || !from.isBefore(to)) {
+            return users;
+        }
+        lock.readLock().lock();
+        try {
+            for (Bucket bucket : usersByBirthDate.subMap(from.toEpochDay() + 1, true, to.toEpochDay(), false).values()) {
+                for (int i = 0; i < bucket.size; i++) {
+                    users.add(view(bucket.addresses[i]));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return users;
+    }
+
+    @Override
+    public UserPage findByBirthDateRange(LocalDate from, LocalDate to, BirthDateKey after, int limit) {
+        if (from == null || to == null || !from.isBefore(to)) {
+            return new UserPage(new ArrayList<>(), null);
+        }
+        long firstDay = from.toEpochDay() + 1;
+        String afterEmail = null;
+        if (after != null && after.compareTo(new BirthDateKey(from.plusDays(1), "")) >= 0) {
+            firstDay = after.birthDate().toEpochDay();
+            afterEmail = after.email();
+        }
+        long toDay = to.toEpochDay();
+        if (firstDay >= toDay) {
+            return new UserPage(new ArrayList<>(), null);
+        }
+        List<User> users = new ArrayList<>(Math.min(limit, 1024));
+        long lastDay = 0;
+        boolean more = false;
+        lock.readLock().lock();
+        try {
+            scan:
+            for (Map.Entry<Long, Bucket> entry : usersByBirthDate.subMap(firstDay, true, toDay, false).entrySet()) {
+                Bucket bucket = entry.getValue();
+                int start = afterEmail != null && entry.getKey() == firstDay ? bucket.after(afterEmail) : 0;
+                for (int i = start; i < bucket.size; i++) {
+                    if (users.size() == limit) {
+                        more = true;
+                        break scan;
+                    }
+                    users.add(view(bucket.addresses[i]));
+                    lastDay = entry.getKey();
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        String nextCursor = more
+                ? new BirthDateKey(LocalDate.ofEpochDay(lastDay), users.get(users.size() - 1).getEmail()).encode()
+                : null;
+        return new UserPage(users, nextCursor);
+    }
+
+    // Iterates in chunks, see chunkAfter
+    @Override
+    public Collection<User> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<User> iterator() {
+                return new ChunkIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Map<String, User> asMap() {
+        return new AbstractMap<>() {
+            @Override
+            public User get(Object key) {
+                return key instanceof String email ? OffHeapUserStore.this.get(email) : null;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return key instanceof String email && contains(email);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Set<Entry<String, User>> entrySet() {
+                return new AbstractSet<>() {
+                    @Override
+                    public Iterator<Entry<String, User>> iterator() {
+                        ChunkIterator users = new ChunkIterator();
+                        return new Iterator<>() {
+                            @Override
+                            public boolean hasNext() {
+                                return users.hasNext();
+                            }
+
+                            @Override
+                            public Entry<String, User> next() {
+                                User user = users.next();
+                                return new SimpleImmutableEntry<>(user.getEmail(), user);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return size;
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int indexSize() {
+        return indexSize;
+    }
+
+    // The views are copies of the records, each read under the lock
+    @Override
+    public void forEachCopy(Consumer<User> action) {
+        ChunkIterator users = new ChunkIterator();
+        while (users.hasNext()) {
+            action.accept(users.next());
+        }
+    }
+
+    @Override
+    public <T> T exclusively(Supplier<T> action) {
+        T result;
+        lock.writeLock().lock();
+        try {
+            result = action.get();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        changesApplied();
+        return result;
+    }
+
+    @Override
+    public void awaitChangesUnderWay() {
+        // A change holds the write lock until its listeners are done
+        lock.readLock().lock();
+        lock.readLock().unlock();
+    }
+
+    @Override
+    public void clear() {
+        exclusively(() -> {
+            memory = new OffHeapMemory();
+            table = ByteBuffer.allocateDirect(INITIAL_TABLE_CAPACITY * Long.BYTES);
+            mask = INITIAL_TABLE_CAPACITY - 1;
+            usersByBirthDate.clear();
+            size = 0;
+            indexSize = 0;
+            for (UserChangeListener listener : listeners) {
+                listener.storeCleared();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public long lastVersion() {
+        lock.readLock().lock();
+        try {
+            return lastVersion;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void addListener(UserChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(UserChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    @ManagedAttribute(description = "Direct memory taken by the records and the email index")
+    public long getReservedBytes() {
+        lock.readLock().lock();
+        try {
+            return memory.getReservedBytes() + table.capacity();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @ManagedAttribute(description = "Direct memory in records of stored users")
+    public long getRecordBytes() {
+        lock.readLock().lock();
+        try {
+            return memory.getUsedBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @ManagedAttribute(description = "Direct memory in freed records waiting to be reused")
+    public long getFreeBytes() {
+        lock.readLock().lock();
+        try {
+            return memory.getFreeBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @ManagedAttribute(description = "Direct memory of the email index")
+    public long getEmailIndexBytes() {
+        lock.readLock().lock();
+        try {
+            return table.capacity();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @ManagedAttribute(description = "Heap memory of the birth date index")
+    public long getBirthDateIndexBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (Bucket bucket : usersByBirthDate.values()) {
+                bytes += (long) bucket.addresses.length * Long.BYTES;
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Inside exclusively() the lock is still held after a single change, the listeners hear about it at the end
+    private void changesApplied() {
+        if (!lock.isWriteLockedByCurrentThread()) {
+            for (UserChangeListener listener : listeners) {
+                listener.changesApplied();
+            }
+        }
+    }
+
+    // Up to CHUNK_SIZE users that come after the given user in birth date and email order, from the start if it's null
+    private List<User> chunkAfter(User last) {
+        List<User> users = new ArrayList<>(CHUNK_SIZE);
+        long day = last == null ? Long.MIN_VALUE : dayOf(last.getBirthDate());
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<Long, Bucket> entry : usersByBirthDate.tailMap(day, true).entrySet()) {
+                Bucket bucket = entry.getValue();
+                int start = last != null && entry.getKey() == day ? bucket.after(last.getEmail()) : 0;
+                for (int i = start; i < bucket.size && users.size() < CHUNK_SIZE; i++) {
+                    users.add(view(bucket.addresses[i]));
+                }
+                if (users.size() == CHUNK_SIZE) {
+                    break;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return users;
+    }
+
+    private static int recordLength(User user) {
+        int length = UserCodec.sizeOf(user);
+        if (length > MAX_RECORD_LENGTH) {
+            throw new IllegalArgumentException("User is too large to be stored");
+        }
+        return length;
+    }
+
+    // A record is [int length][user in UserCodec form]
+    private long write(User user, int length) {
+        long address = memory.allocate(Integer.BYTES + length);
+        ByteBuffer buffer = memory.slab(address).duplicate();
+        buffer.position(OffHeapMemory.offset(address));
+        buffer.putInt(length);
+        UserCodec.writeUser(buffer, user);
+        return address;
+    }
+
+    private void free(long address) {
+        memory.free(address, Integer.BYTES + memory.slab(address).getInt(OffHeapMemory.offset(address)));
+    }
+
+    // Buffer of its own positioned at the user in the record
+    private ByteBuffer record(long address) {
+        ByteBuffer buffer = memory.slab(address).duplicate();
+        buffer.position(OffHeapMemory.offset(address) + Integer.BYTES);
+        return buffer;
+    }
+
+    private User view(long address) {
+        ByteBuffer slab = memory.slab(address);
+        int offset = OffHeapMemory.offset(address);
+        byte[] bytes = new byte[slab.getInt(offset)];
+        slab.get(offset + Integer.BYTES, bytes);
+        return new OffHeapUser(bytes);
+    }
+
+    // The email is the first field of the record
+    private int compareEmail(long address, String email) {
+        return UserCodec.compareString(memory.slab(address), OffHeapMemory.offset(address) + Integer.BYTES, email);
+    }
+
+    private static int hash(String email) {
+        int h = email.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static long slotValue(int hash, long address) {
+        return (long) hash << 32 | address >>> 3;
+    }
+
+    private long addressAt(int slot) {
+        return (table.getLong(slot << 3) & 0xFFFFFFFFL) << 3;
+    }
+
+    // Linear probing, the table always has empty slots so the loop ends
+    private int slotOf(String email, int hash) {
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            long slot = table.getLong(i << 3);
+            if (slot == 0) {
+                return -1;
+            }
+            if ((int) (slot >>> 32) == hash && compareEmail((slot & 0xFFFFFFFFL) << 3, email) == 0) {
+                return i;
+            }
+        }
+    }
+
+    private void insertSlot(int hash, long address) {
+        // Keeps the load under 3/4
+        if ((size + 1) * 4L > (mask + 1) * 3L) {
+            resize();
+        }
+        int i = hash & mask;
+        while (table.getLong(i << 3) != 0) {
+            i = (i + 1) & mask;
+        }
+        table.putLong(i << 3, slotValue(hash, address));
+    }
+
+    // Moves later slots of the same probe run back into the gap, so lookups never need tombstones
+    private void removeSlot(int gap) {
+        int i = gap;
+        while (true) {
+            i = (i + 1) & mask;
+            long slot = table.getLong(i << 3);
+            if (slot == 0) {
+                break;
+            }
+            int home = (int) (slot >>> 32) & mask;
+            // The slot can fill the gap if its home isn't cyclically within (gap, i]
+            boolean movable = gap <= i ? home <= gap || home > i : home <= gap && home > i;
+            if (movable) {
+                table.putLong(gap << 3, slot);
+                gap = i;
+            }
+        }
+        table.putLong(gap << 3, 0);
+    }
+
+    private void resize() {
+        int capacity = (mask + 1) * 2;
+        if (capacity > MAX_TABLE_CAPACITY) {
+            throw new IllegalStateException("Off-heap user store is full");
+        }
+        ByteBuffer larger = ByteBuffer.allocateDirect(capacity * Long.BYTES);
+        int largerMask = capacity - 1;
+        for (int i = 0; i <= mask; i++) {
+            long slot = table.getLong(i << 3);
+            if (slot != 0) {
+                int j = (int) (slot >>> 32) & largerMask;
+                while (larger.getLong(j << 3) != 0) {
+                    j = (j + 1) & largerMask;
+                }
+                larger.putLong(j << 3, slot);
+            }
+        }
+        table = larger;
+        mask = largerMask;
+    }
+
+    private void index(User user, long address) {
+        long day = dayOf(user.getBirthDate());
+        usersByBirthDate.computeIfAbsent(day, key -> new Bucket()).insert(user.getEmail(), address);
+        if (day != NO_BIRTH_DATE) {
+            indexSize++;
+        }
+    }
+
+    // Takes the user out of the table, the index and memory, returns it or null if there was none
+    private User removeRecord(String email) {
+        int slot = slotOf(email, hash(email));
+        if (slot < 0) {
+            return null;
+        }
+        long address = addressAt(slot);
+        User user = UserCodec.readUser(record(address));
+        unindex(email, address);
+        free(address);
+        removeSlot(slot);
+        size--;
+        return user;
+    }
+
+    // Must run while the record is still there, the bucket is searched by the records' emails
+    private void unindex(String email, long address) {
+        ByteBuffer record = record(address);
+        for (int i = 0; i < 3; i++) {
+            UserCodec.skipString(record);
+        }
+        long day = dayOf(UserCodec.readBirthDate(record));
+        Bucket bucket = usersByBirthDate.get(day);
+        bucket.remove(email);
+        if (bucket.size == 0) {
+            usersByBirthDate.remove(day);
+        }
+        if (day != NO_BIRTH_DATE) {
+            indexSize--;
+        }
+    }
+
+    private static long dayOf(LocalDate birthDate) {
+        return birthDate == null ? NO_BIRTH_DATE : birthDate.toEpochDay();
+    }
+
+    // The version is the last field of the record
+    private long versionAt(long address) {
+        ByteBuffer slab = memory.slab(address);
+        int offset = OffHeapMemory.offset(address);
+        return slab.getLong(offset + Integer.BYTES + slab.getInt(offset) - Long.BYTES);
+    }
+
+    private static User copyOf(User user) {
+        User copy = new User(user.getEmail(), user.getFirstName(), user.getLastName(), user.getBirthDate());
+        copy.setVersion(user.getVersion());
+        return copy;
+    }
+
+    // Addresses of one day's records, sorted by email like BirthDateKey
+    private final class Bucket {
+        long[] addresses = new long[4];
+        int size;
+
+        void insert(String email, long address) {
+            int i = -search(email) - 1;
+            if (size == addresses.length) {
+                long[] larger = new long[size * 2];
+                System.arraycopy(addresses, 0, larger, 0, size);
+                addresses = larger;
+            }
+            System.arraycopy(addresses, i, addresses, i + 1, size - i);
+            addresses[i] = address;
+            size++;
+        }
+
+        void remove(String email) {
+            int i = search(email);
+            System.arraycopy(addresses, i + 1, addresses, i, size - i - 1);
+            size--;
+        }
+
+        // Index of the first record whose email comes after the given one
+        int after(String email) {
+            int i = search(email);
+            return i >= 0 ? i + 1 : -i - 1;
+        }
+
+        // Same contract as Arrays.binarySearch
+        private int search(String email) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int comparison = compareEmail(addresses[middle], email);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else if (comparison > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+    }
+
+    // Reads CHUNK_SIZE users at a time and picks up after the last one, so writers get in between.
+    // Weakly consistent like the iterators of concurrent collections.
+    private final class ChunkIterator implements Iterator<User> {
+        private List<User> chunk = chunkAfter(null);
+        private int next;
+
+        @Override
+        public boolean hasNext() {
+            if (next == chunk.size() && chunk.size() == CHUNK_SIZE) {
+                chunk = chunkAfter(chunk.get(chunk.size() - 1));
+                next = 0;
+            }
+            return next < chunk.size();
+        }
+
+        @Override
+        public User next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return chunk.get(next++);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.Users.stores;
+
+import com.example.Users.models.User;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Walks a UserStore as it was at one moment while writers go on: every user stored at that moment
+// is passed exactly once, as it was then, and no user stored later is passed.
+//
+// The moment is the store's last version when the walk starts. forEachCopy passes the users that haven't
+// changed since, and the walk listens to the store to keep the old state of users changed before forEachCopy
+// got to them. Those are passed at the end, so memory grows with the changes made during the walk, not with
+// the number of users.
+//
+// forEachCopy can step over a user whose change is under way, and the listener only hears of the change once
+// the store has moved the user. So the position the listener compares with only moves every BATCH_SIZE users,
+// once awaitChangesUnderWay() has seen the changes under way through, and users passed since are told apart by
+// version. A change that starts later comes after every copy the walk has taken. Writers wait for one stripe at
+// a time at most, the walk never holds up all of them at once.
+public final class PointInTimeWalk implements UserChangeListener {
+    private static final int BATCH_SIZE = 4096;
+
+    private final long version;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock. Users with a birth date up to published have been passed or kept.
+    private BirthDateKey published;
+    private final Set<Long> passedSincePublished = new HashSet<>();
+    private final Set<Long> passedWithoutBirthDate = new HashSet<>();
+    private final Map<Long, User> kept = new HashMap<>();
+    private boolean cleared;
+
+    private PointInTimeWalk(long version) {
+        this.version = version;
+    }
+
+    // Returns the number of users passed to the action.
+    // Throws IllegalStateException if the store is cleared before the walk is over.
+    public static long forEachCopy(UserStore userStore, Consumer<User> action) {
+        PointInTimeWalk walk = userStore.exclusively(() -> {
+            PointInTimeWalk newWalk = new PointInTimeWalk(userStore.lastVersion());
+            userStore.addListener(newWalk);
+            return newWalk;
+        });
+        List<User> kept;
+        long passed;
+        try {
+            passed = walk.walk(userStore, action);
+        } finally {
+            // Changes under way may still keep users, they are over once exclusively() gets the locks
+            kept = userStore.exclusively(() -> {
+                userStore.removeListener(walk);
+                return walk.kept();
+            });
+        }
+        kept.forEach(action);
+        return passed + kept.size();
+    }
+
+    private long walk(UserStore userStore, Consumer<User> action) {
+        long[] passed = {0};
+        BirthDateKey[] last = {null};
+        userStore.forEachCopy(user -> {
+            if (user.getVersion() > version) {
+                return;
+            }
+            boolean publish;
+            lock.lock();
+            try {
+                checkNotCleared();
+                kept.remove(user.getVersion());
+                if (user.getBirthDate() == null) {
+                    passedWithoutBirthDate.add(user.getVersion());
+                    publish = false;
+                } else {
+                    last[0] = new BirthDateKey(user.getBirthDate(), user.getEmail());
+                    passedSincePublished.add(user.getVersion());
+                    publish = passedSincePublished.size() >= BATCH_SIZE;
+                }
+            } finally {
+                lock.unlock();
+            }
+            action.accept(user);
+            passed[0]++;
+            if (publish) {
+                userStore.awaitChangesUnderWay();
+                publish(last[0]);
+            }
+        });
+        lock.lock();
+        try {
+            checkNotCleared();
+        } finally {
+            lock.unlock();
+        }
+        return passed[0];
+    }
+
+    private void publish(BirthDateKey key) {
+        lock.lock();
+        try {
+            published = key;
+            passedSincePublished.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<User> kept() {
+        lock.lock();
+        try {
+            checkNotCleared();
+            return new ArrayList<>(kept.values());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkNotCleared() {
+        if (cleared) {
+            throw new IllegalStateException("Store was cleared during the walk");
+        }
+    }
+
+    @Override
+    public void userCreated(User user) {
+    }
+
+    @Override
+    public void userUpdated(User before, User after) {
+        keep(before);
+    }
+
+    @Override
+    public void userDeleted(User user) {
+        keep(user);
+    }
+
+    @Override
+    public void storeCleared() {
+        lock.lock();
+        try {
+            cleared = true;
+            kept.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Keeps the user as it was at the walk's moment unless the walk has passed it already
+    private void keep(User user) {
+        if (user.getVersion() > version) {
+            return;
+        }
+        lock.lock();
+        try {
+            boolean passed = user.getBirthDate() == null
+                    ? passedWithoutBirthDate.contains(user.getVersion())
+                    : passedSincePublished.contains(user.getVersion())
+                    || published != null && new BirthDateKey(user.getBirthDate(), user.getEmail()).compareTo(published) <= 0;
+            if (!passed) {
+                kept.put(user.getVersion(), copyOf(user));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static User copyOf(User user) {
+        User copy = new User(user.getEmail(), user.getFirstName(), user.getLastName(), user.getBirthDate());
+        copy.setVersion(user.getVersion());
+        return copy;
+    }
+}
@@ -0,0 +1,407 @@
+package com.example.Users.stores;
+
+import com.example.Users.models.User;
+import com.example.Users.models.UserPage;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// UserStore on top of a ConcurrentHashMap.
+// Reads never lock, and a stored user is never changed: a change stores a changed copy in its place.
+// Writes lock the stripe(s) owning the affected emails, so writes to unrelated emails run in parallel
+// while a rename is atomic for both of its keys.
+// A skip list ordered by (birthDate, email) is kept next to the map, so a birth date
+// range costs O(log N + k) instead of a scan over all users.
+@Component
+@ConditionalOnProperty(name = "user.store", havingValue = "heap", matchIfMissing = true)
+public class StripedUserStore implements UserStore {
+    private final Map<String, User> usersByEmail = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<BirthDateKey, User> usersByBirthDate = new ConcurrentSkipListMap<>();
+    // The skip list counts its entries one by one, so its size is kept here
+    private final AtomicInteger indexSize = new AtomicInteger();
+    // Highest version given out or loaded so far
+    private final AtomicLong lastVersion = new AtomicLong();
+    private final List<UserChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    public StripedUserStore() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    public StripedUserStore(int stripes) {
+        // Rounds the stripe count up to a power of two so a stripe can be picked with a mask
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        mask = size - 1;
+    }
+
+    @Override
+    public User get(String email) {
+        return usersByEmail.get(email);
+    }
+
+    @Override
+    public User getCopy(String email) {
+        return copyUnderLock(email);
+    }
+
+    @Override
+    public boolean contains(String email) {
+        return usersByEmail.containsKey(email);
+    }
+
+    @Override
+    public boolean putIfAbsent(User user) {
+        ReentrantLock lock = lockFor(user.getEmail());
+        lock.lock();
+        try {
+            // Nobody else writes this email while the lock is held, so the version is only used up if the user is stored
+            if (usersByEmail.containsKey(user.getEmail())) {
+                return false;
+            }
+            if (user.getVersion() == ANY_VERSION) {
+                user.setVersion(lastVersion.incrementAndGet());
+            } else {
+                lastVersion.accumulateAndGet(user.getVersion(), Math::max);
+            }
+            usersByEmail.put(user.getEmail(), user);
+            index(user);
+            for (UserChangeListener listener : listeners) {
+                listener.userCreated(user);
+            }
+        } finally {
+            lock.unlock();
+        }
+        changesApplied(lock);
+        return true;
+    }
+
+    @Override
+    public User update(String email, String newEmail, long expectedVersion, Consumer<User> changes) {
+        boolean rename = newEmail != null && !newEmail.equals(email);
+        int first = stripe(email);
+        int second = rename ? stripe(newEmail) : first;
+        // Always locks the lower stripe first so two opposite renames can't deadlock
+        ReentrantLock lower = locks[Math.min(first, second)];
+        ReentrantLock upper = locks[Math.max(first, second)];
+        User updatedUser;
+        lower.lock();
+        upper.lock();
+        try {
+            User existingUser = usersByEmail.get(email);
+            if (existingUser == null || (expectedVersion != ANY_VERSION && existingUser.getVersion() != expectedVersion)
+                    || (rename && usersByEmail.containsKey(newEmail))) {
+                return null;
+            }
+            // Made on a copy that then takes the stored user's place, a reader never sees half of a change
+            User changedUser = copyOf(existingUser);
+            changes.accept(changedUser);
+            changedUser.setVersion(lastVersion.incrementAndGet());
+            if (rename) {
+                changedUser.setEmail(newEmail);
+            }
+            // Puts before removing so concurrent readers always find the user under one of the keys
+            usersByEmail.put(changedUser.getEmail(), changedUser);
+            reindex(existingUser, changedUser);
+            if (rename) {
+                usersByEmail.remove(email);
+            }
+            for (UserChangeListener listener : listeners) {
+                listener.userUpdated(existingUser, changedUser);
+            }
+            updatedUser = changedUser;
+        } finally {
+            upper.unlock();
+            lower.unlock();
+        }
+        changesApplied(lower);
+        return updatedUser;
+    }
+
+    @Override
+    public void replace(String email, User user) {
+        String newEmail = user.getEmail();
+        boolean rename = !newEmail.equals(email);
+        int first = stripe(email);
+        int second = rename ? stripe(newEmail) : first;
+        ReentrantLock lower = locks[Math.min(first, second)];
+        ReentrantLock upper = locks[Math.max(first, second)];
+        lower.lock();
+        upper.lock();
+        try {
+            if (user.getVersion() == ANY_VERSION) {
+                user.setVersion(lastVersion.incrementAndGet());
+            } else {
+                lastVersion.accumulateAndGet(user.getVersion(), Math::max);
+            }
+            User before = usersByEmail.get(email);
+            User displaced = rename ? usersByEmail.get(newEmail) : null;
+            // Same order as a rename in update()
+            usersByEmail.put(newEmail, user);
+            reindex(before, user);
+            reindex(displaced, user);
+            if (rename) {
+                usersByEmail.remove(email);
+            }
+            notifyReplaced(before, displaced, user);
+        } finally {
+            upper.unlock();
+            lower.unlock();
+        }
+        changesApplied(lower);
+    }
+
+    @Override
+    public boolean remove(String email, long expectedVersion) {
+        ReentrantLock lock = lockFor(email);
+        lock.lock();
+        try {
+            User existingUser = usersByEmail.get(email);
+            if (existingUser == null || (expectedVersion != ANY_VERSION && existingUser.getVersion() != expectedVersion)) {
+                return false;
+            }
+            User removedUser = usersByEmail.remove(email);
+            unindex(removedUser);
+            for (UserChangeListener listener : listeners) {
+                listener.userDeleted(removedUser);
+            }
+        } finally {
+            lock.unlock();
+        }
+        changesApplied(lock);
+        return true;
+    }
+
+    @Override
+    public List<User> findByBirthDateRange(LocalDate from, LocalDate to) {
+        if (from == null || to == null || !from.isBefore(to)) {
+            return new ArrayList<>();
+        }
+        // Both bounds are exclusive: starts at the first key of the next day, stops before the first key of "to"
+        ConcurrentNavigableMap<BirthDateKey, User> range = usersByBirthDate.subMap(
+                new BirthDateKey(from.plusDays(1), ""), true, new BirthDateKey(to, ""), false);
+        return new ArrayList<>(range.values());
+    }
+
+    @Override
+    public UserPage findByBirthDateRange(LocalDate from, LocalDate to, BirthDateKey after, int limit) {
+        if (from == null || to == null || !from.isBefore(to)) {
+            return new UserPage(new ArrayList<>(), null);
+        }
+        BirthDateKey lower = new BirthDateKey(from.plusDays(1), "");
+        boolean lowerInclusive = true;
+        if (after != null && after.compareTo(lower) >= 0) {
+            lower = after;
+            lowerInclusive = false;
+        }
+        BirthDateKey upper = new BirthDateKey(to, "");
+        if (lower.compareTo(upper) >= 0) {
+            return new UserPage(new ArrayList<>(), null);
+        }
+        Iterator<Map.Entry<BirthDateKey, User>> range = usersByBirthDate.subMap(lower, lowerInclusive, upper, false)
+                .entrySet().iterator();
+        List<User> users = new ArrayList<>(Math.min(limit, 1024));
+        BirthDateKey last = null;
+        while (users.size() < limit && range.hasNext()) {
+            Map.Entry<BirthDateKey, User> entry = range.next();
+            users.add(entry.getValue());
+            // The cursor comes from the index key, the user itself may already be changing
+            last = entry.getKey();
+        }
+        return new UserPage(users, last != null && range.hasNext() ? last.encode() : null);
+    }
+
+    @Override
+    public Collection<User> values() {
+        return Collections.unmodifiableCollection(usersByEmail.values());
+    }
+
+    @Override
+    public Map<String, User> asMap() {
+        return Collections.unmodifiableMap(usersByEmail);
+    }
+
+    @Override
+    public int size() {
+        return usersByEmail.size();
+    }
+
+    @Override
+    public int indexSize() {
+        return indexSize.get();
+    }
+
+    @Override
+    public void forEachCopy(Consumer<User> action) {
+        // Sorted input is what the skip list of the reading side is fastest with
+        for (BirthDateKey key : usersByBirthDate.keySet()) {
+            User copy = copyUnderLock(key.email());
+            if (copy != null && copy.getBirthDate() != null) {
+                action.accept(copy);
+            }
+        }
+        for (Map.Entry<String, User> entry : usersByEmail.entrySet()) {
+            if (entry.getValue().getBirthDate() == null) {
+                User copy = copyUnderLock(entry.getKey());
+                if (copy != null && copy.getBirthDate() == null) {
+                    action.accept(copy);
+                }
+            }
+        }
+    }
+
+    @Override
+    public <T> T exclusively(Supplier<T> action) {
+        // Takes every stripe in index order, the locks are reentrant so the action can still write
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+        T result;
+        try {
+            result = action.get();
+        } finally {
+            for (int i = locks.length - 1; i >= 0; i--) {
+                locks[i].unlock();
+            }
+        }
+        changesApplied(locks[0]);
+        return result;
+    }
+
+    @Override
+    public void awaitChangesUnderWay() {
+        // A change holds its stripes until its listeners are done, one stripe at a time stalls only its writers
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        exclusively(() -> {
+            usersByEmail.clear();
+            usersByBirthDate.clear();
+            indexSize.set(0);
+            for (UserChangeListener listener : listeners) {
+                listener.storeCleared();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public long lastVersion() {
+        return lastVersion.get();
+    }
+
+    @Override
+    public void addListener(UserChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(UserChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void notifyReplaced(User before, User displaced, User after) {
+        for (UserChangeListener listener : listeners) {
+            if (before != null && displaced != null) {
+                listener.userDeleted(displaced);
+            }
+            if (before != null || displaced != null) {
+                listener.userUpdated(before != null ? before : displaced, after);
+            } else {
+                listener.userCreated(after);
+            }
+        }
+    }
+
+    // Inside exclusively() the locks are still held after a single change, the listeners hear about it at the end
+    private void changesApplied(ReentrantLock releasedLock) {
+        if (!releasedLock.isHeldByCurrentThread()) {
+            for (UserChangeListener listener : listeners) {
+                listener.changesApplied();
+            }
+        }
+    }
+
+    // The caller passes the copy on without the lock, it may be slow (e.g. write to a file)
+    private User copyUnderLock(String email) {
+        ReentrantLock lock = lockFor(email);
+        lock.lock();
+        try {
+            User user = usersByEmail.get(email);
+            return user == null ? null : copyOf(user);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static User copyOf(User user) {
+        User copy = new User(user.getEmail(), user.getFirstName(), user.getLastName(), user.getBirthDate());
+        copy.setVersion(user.getVersion());
+        return copy;
+    }
+
+    // Users without a birth date can't match any range, so they are left out of the index
+    private void index(User user) {
+        if (user.getBirthDate() != null && usersByBirthDate.put(new BirthDateKey(user.getBirthDate(), user.getEmail()), user) == null) {
+            indexSize.incrementAndGet();
+        }
+    }
+
+    // Replaces the user in the index. A new key goes in before the old one comes out, like a renamed user does in
+    // the map, so a search running meanwhile finds a user that stays inside its range.
+    private void reindex(User before, User after) {
+        BirthDateKey oldKey = keyOf(before);
+        BirthDateKey newKey = keyOf(after);
+        if (newKey != null && usersByBirthDate.put(newKey, after) == null) {
+            indexSize.incrementAndGet();
+        }
+        if (oldKey != null && !oldKey.equals(newKey) && usersByBirthDate.remove(oldKey) != null) {
+            indexSize.decrementAndGet();
+        }
+    }
+
+    private static BirthDateKey keyOf(User user) {
+        return user == null || user.getBirthDate() == null ? null : new BirthDateKey(user.getBirthDate(), user.getEmail());
+    }
+
+    private void unindex(User user) {
+        if (user.getBirthDate() != null && usersByBirthDate.remove(new BirthDateKey(user.getBirthDate(), user.getEmail())) != null) {
+            indexSize.decrementAndGet();
+        }
+    }
+
+    private ReentrantLock lockFor(String email) {
+        return locks[stripe(email)];
+    }
+
+    private int stripe(String email) {
+        int h = email.hashCode();
+        // Spreads the high bits down like HashMap does, short emails differ mostly in low bits
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.Users.stores;
+
+import com.example.Users.models.User;
+
+// Gets every change of a UserStore, in the order the changes are applied to each email.
+// The change methods run while the store holds the locks of the affected emails, so they must be quick
+// and must not call back into the store. The users passed in may change right after the call returns.
+public interface UserChangeListener {
+
+    void userCreated(User user);
+
+    // before is a copy of the user as it was, its email differs from after's on a rename
+    void userUpdated(User before, User after);
+
+    void userDeleted(User user);
+
+    void storeCleared();
+
+    // Called on the writing thread once the store has released its locks,
+    // the place to wait for anything the change methods started
+    default void changesApplied() {
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.Users.stores;
+
+import com.example.Users.models.User;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+// Compact binary form of users for the files of the store.
+// A user is [email][first name][last name][long birth date][long version].
+// A string is its UTF-8 length (-1 for null) followed by the bytes, a birth date is its epoch day.
+// Strings are encoded straight into the buffer, without an intermediate byte array.
+final class UserCodec {
+    private static final long NO_BIRTH_DATE = Long.MIN_VALUE;
+
+    private UserCodec() {
+    }
+
+    static int sizeOf(User user) {
+        return sizeOf(user.getEmail()) + sizeOf(user.getFirstName()) + sizeOf(user.getLastName()) + 2 * Long.BYTES;
+    }
+
+    static void writeUser(ByteBuffer buffer, User user) {
+        writeString(buffer, user.getEmail());
+        writeString(buffer, user.getFirstName());
+        writeString(buffer, user.getLastName());
+        buffer.putLong(user.getBirthDate() == null ? NO_BIRTH_DATE : user.getBirthDate().toEpochDay());
+        buffer.putLong(user.getVersion());
+    }
+
+    static User readUser(ByteBuffer buffer) {
+        String email = readString(buffer);
+        String firstName = readString(buffer);
+        String lastName = readString(buffer);
+        User user = new User(email, firstName, lastName, readBirthDate(buffer));
+        user.setVersion(buffer.getLong());
+        return user;
+    }
+
+    static LocalDate readBirthDate(ByteBuffer buffer) {
+        long epochDay = buffer.getLong();
+        return epochDay == NO_BIRTH_DATE ? null : LocalDate.ofEpochDay(epochDay);
+    }
+
+    static int sizeOf(String value) {
+        return Integer.BYTES + (value == null ? 0 : utf8Length(value));
+    }
+
+    static void writeString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(utf8Length(value));
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // Same replacement as String.getBytes for a lone surrogate
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(buffer.position(), bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    static void skipString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        buffer.position(buffer.position() + Math.max(length, 0));
+    }
+
+    // Compares the string written at index with value like String.compareTo, without decoding it.
+    // Only reads with absolute gets, so the buffer may be shared.
+    static int compareString(ByteBuffer buffer, int index, String value) {
+        int length = buffer.getInt(index);
+        if (length < 0) {
+            return -1;
+        }
+        int position = index + Integer.BYTES;
+        int end = position + length;
+        int i = 0;
+        int valueLength = value.length();
+        while (position < end && i < valueLength) {
+            int b = buffer.get(position) & 0xFF;
+            char c;
+            if (b < 0x80) {
+                c = (char) b;
+                position++;
+            } else if (b < 0xE0) {
+                c = (char) (((b & 0x1F) << 6) | (buffer.get(position + 1) & 0x3F));
+                position += 2;
+            } else if (b < 0xF0) {
+                c = (char) (((b & 0x0F) << 12) | ((buffer.get(position + 1) & 0x3F) << 6)
+                        | (buffer.get(position + 2) & 0x3F));
+                position += 3;
+            } else {
+                // A supplementary character is two chars in a String, they are compared one by one
+                int codePoint = ((b & 0x07) << 18) | ((buffer.get(position + 1) & 0x3F) << 12)
+                        | ((buffer.get(position + 2) & 0x3F) << 6) | (buffer.get(position + 3) & 0x3F);
+                position += 4;
+                int difference = Character.highSurrogate(codePoint) - value.charAt(i++);
+                if (difference != 0) {
+                    return difference;
+                }
+                if (i == valueLength) {
+                    return 1;
+                }
+                c = Character.lowSurrogate(codePoint);
+            }
+            int difference = c - value.charAt(i++);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        if (position < end) {
+            return 1;
+        }
+        return i < valueLength ? -1 : 0;
+    }
+
+    private static int utf8Length(String value) {
+        int length = value.length();
+        int bytes = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                bytes++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.Users.stores;
+
+import com.example.Users.models.User;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+// Binary file with a copy of every user of a UserStore.
+//
+// The users are cut into partitions of PARTITION_USERS users, each one encoded with UserCodec
+// and checked by its own CRC32C, so they can be mapped and decoded on all cores at once.
+// The partition table and a fixed size trailer come last, the file is written in one pass:
+// [partition 0]...[partition n-1][n x (long offset, int length, int users, int crc)]
+// [long segment][long users][int partitions][int version][int magic]
+final class UserSnapshot {
+    static final int PARTITION_USERS = 1 << 16;
+
+    private static final int MAGIC = 0x55534E50; // "USNP"
+    // 2: users carry their version
+    private static final int VERSION = 2;
+    private static final int PARTITION_ENTRY_BYTES = Long.BYTES + 3 * Integer.BYTES;
+    private static final int TRAILER_BYTES = 2 * Long.BYTES + 3 * Integer.BYTES;
+
+    private UserSnapshot() {
+    }
+
+    // Writes the users of the store to file through a temporary file, so a crash never leaves
+    // a half written snapshot under the final name. Writers are never blocked for longer than
+    // one user is copied, see UserStore.forEachCopy.
+    static long write(UserStore userStore, Path file, long segment, int partitionUsers) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        PartitionWriter writer = new PartitionWriter(partitionUsers);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writer.channel = channel;
+            userStore.forEachCopy(writer::add);
+            writer.finishPartition();
+            writer.writeTable(segment);
+            channel.force(false);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(file.getParent());
+        return writer.users;
+    }
+
+    // Decodes the partitions in parallel straight from the mapped file into the store,
+    // which rebuilds its indexes along the way. Returns the segment stored with the snapshot.
+    static long read(Path file, UserStore userStore) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < TRAILER_BYTES) {
+                throw corrupted(file);
+            }
+            ByteBuffer trailer = readFully(channel, size - TRAILER_BYTES, TRAILER_BYTES);
+            long segment = trailer.getLong();
+            long users = trailer.getLong();
+            int partitions = trailer.getInt();
+            int version = trailer.getInt();
+            if (trailer.getInt() != MAGIC || partitions < 0
+                    || (long) partitions * PARTITION_ENTRY_BYTES > size - TRAILER_BYTES) {
+                throw corrupted(file);
+            }
+            if (version != VERSION) {
+                throw new IllegalStateException("Snapshot " + file + " has format version " + version + ", expected " + VERSION);
+            }
+            ByteBuffer table = readFully(channel, size - TRAILER_BYTES - (long) partitions * PARTITION_ENTRY_BYTES,
+                    partitions * PARTITION_ENTRY_BYTES);
+            long tableStart = size - TRAILER_BYTES - (long) partitions * PARTITION_ENTRY_BYTES;
+
+            long loaded = IntStream.range(0, partitions).parallel().mapToLong(partition -> {
+                int entry = partition * PARTITION_ENTRY_BYTES;
+                long offset = table.getLong(entry);
+                int length = table.getInt(entry + Long.BYTES);
+                int count = table.getInt(entry + Long.BYTES + Integer.BYTES);
+                int checksum = table.getInt(entry + Long.BYTES + 2 * Integer.BYTES);
+                if (offset < 0 || length < 0 || offset + length > tableStart) {
+                    throw corrupted(file);
+                }
+                try {
+                    MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                    CRC32C crc = new CRC32C();
+                    crc.update(data.duplicate());
+                    if ((int) crc.getValue() != checksum) {
+                        throw corrupted(file);
+                    }
+                    for (int i = 0; i < count; i++) {
+                        userStore.putIfAbsent(UserCodec.readUser(data));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (RuntimeException e) {
+                    // A length that points past the partition shows up as a buffer underflow
+                    throw e instanceof IllegalStateException ? e : corrupted(file);
+                }
+                return count;
+            }).sum();
+            if (loaded != users) {
+                throw corrupted(file);
+            }
+            return segment;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of " + channel);
+            }
+        }
+        return buffer.flip();
+    }
+
+    // Makes the rename durable. Not every platform can open a directory, there the rename is left to the OS.
+    private static void syncDirectory(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Nothing more can be done here
+        }
+    }
+
+    private static IllegalStateException corrupted(Path file) {
+        return new IllegalStateException("Snapshot " + file + " is corrupted");
+    }
+
+    private static final class PartitionWriter {
+        private final int partitionUsers;
+        private final CRC32C crc = new CRC32C();
+        private ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+        private ByteBuffer table = ByteBuffer.allocate(PARTITION_ENTRY_BYTES * 64);
+        private FileChannel channel;
+        private long position;
+        private int partitionCount;
+        private int partitions;
+        private long users;
+
+        PartitionWriter(int partitionUsers) {
+            this.partitionUsers = partitionUsers;
+        }
+
+        void add(User user) {
+            int size = UserCodec.sizeOf(user);
+            if (buffer.remaining() < size) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            UserCodec.writeUser(buffer, user);
+            users++;
+            if (++partitionCount == partitionUsers) {
+                finishPartition();
+            }
+        }
+
+        void finishPartition() {
+            if (partitionCount == 0) {
+                return;
+            }
+            int length = buffer.position();
+            crc.reset();
+            crc.update(buffer.array(), 0, length);
+            if (table.remaining() < PARTITION_ENTRY_BYTES) {
+                ByteBuffer larger = ByteBuffer.allocate(table.capacity() * 2);
+                table.flip();
+                larger.put(table);
+                table = larger;
+            }
+            table.putLong(position).putInt(length).putInt(partitionCount).putInt((int) crc.getValue());
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+            position += length;
+            partitionCount = 0;
+            partitions++;
+        }
+
+        void writeTable(long segment) {
+            table.flip();
+            writeFully(table);
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+            trailer.putLong(segment).putLong(users).putInt(partitions).putInt(VERSION).putInt(MAGIC);
+            writeFully(trailer.flip());
+        }
+
+        private void writeFully(ByteBuffer data) {
+            try {
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.Users.stores;
+
+import com.example.Users.models.User;
+import com.example.Users.models.UserPage;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Thread-safe storage of users keyed by email.
+// Every mutating method is atomic with respect to the other mutating methods.
+//
+// Every change gives the user the next number of one counter of the store as its version,
+// so a user's version grows with each update, and a user created again after a delete never
+// gets a version it had before.
+public interface UserStore {
+    // As expected version: apply the change whatever the user's version is
+    long ANY_VERSION = 0;
+
+    // Returns the user with this email or null. A user the store hands out is never changed by it,
+    // a change stores a new one in its place, so the caller must not change it either.
+    User get(String email);
+
+    // Returns a copy of the user with this email taken atomically with respect to writers, or null
+    User getCopy(String email);
+
+    boolean contains(String email);
+
+    // Stores the user unless its email is already taken, returns false in that case.
+    // The store may keep this very instance, it must not be changed afterwards.
+    // A user without a version (0) gets the next one, a user with one (e.g. from a log) keeps it.
+    boolean putIfAbsent(User user);
+
+    // Applies changes to a copy of the user stored under email and stores it in the user's place, when newEmail
+    // is not null and differs from email under newEmail. Returns the stored copy.
+    // Returns null if the user doesn't exist, its version isn't expectedVersion or newEmail is already taken.
+    User update(String email, String newEmail, long expectedVersion, Consumer<User> changes);
+
+    default User update(String email, String newEmail, Consumer<User> changes) {
+        return update(email, newEmail, ANY_VERSION, changes);
+    }
+
+    // Stores the user in one step in place of the user stored under email, if any, and of the one under the
+    // user's own email when that's another one (a rename). Unlike update() the user keeps its version, for users
+    // that come with one (e.g. from the leader), and readers find either the old user or the new one, never none.
+    // Listeners hear of an update, or of a create if neither email was stored.
+    void replace(String email, User user);
+
+    // Returns false if the user doesn't exist or its version isn't expectedVersion
+    boolean remove(String email, long expectedVersion);
+
+    // Returns false if user not found
+    default boolean remove(String email) {
+        return remove(email, ANY_VERSION);
+    }
+
+    // Users born strictly after from and strictly before to, ordered by birth date and email
+    List<User> findByBirthDateRange(LocalDate from, LocalDate to);
+
+    // Same order as above, at most limit users that come after the given key (or from the start if it's null)
+    UserPage findByBirthDateRange(LocalDate from, LocalDate to, BirthDateKey after, int limit);
+
+    // Live, read-only view of all stored users
+    Collection<User> values();
+
+    // Live, read-only view of the users keyed by email
+    Map<String, User> asMap();
+
+    int size();
+
+    // Users in the birth date index, that is the ones with a birth date
+    int indexSize();
+
+    // Passes a copy of every user to the action in birth date order, users without a birth date last.
+    // Each copy is taken under the user's lock, so it never shows half of a change, but writers are not
+    // held up for longer than one copy. A user changed during the walk may be missed or passed twice.
+    void forEachCopy(Consumer<User> action);
+
+    // Runs the action while no other thread can change the store.
+    // The action itself may call the mutating methods.
+    <T> T exclusively(Supplier<T> action);
+
+    // Returns once the changes under way when it's called, listeners included, are over.
+    // Unlike exclusively() it never holds up every writer at once, changes that start meanwhile go on.
+    void awaitChangesUnderWay();
+
+    void clear();
+
+    // Version given by the last change, a later change gives a higher one
+    long lastVersion();
+
+    // The listener gets every change made after this call
+    void addListener(UserChangeListener listener);
+
+    void removeListener(UserChangeListener listener);
+}
@@ -0,0 +1,518 @@
+package com.example.Users.stores;
+
+import com.example.Users.models.User;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// Append-only log of every change of the UserStore, replayed into the store at startup.
+//
+// A record is [int length][byte type][payload][int CRC32C of type and payload].
+// Writers only copy their record into a memory buffer. A single background thread writes
+// whatever has piled up with one write call, and fsyncs it according to the policy:
+// ALWAYS - before the change is acknowledged, concurrent writers share one fsync (group commit),
+// INTERVAL - at most every wal.fsync.interval.ms, a crash may lose the last interval,
+// OS - never, the OS decides when the data reaches the disk.
+//
+// The log is split into numbered segments. Every wal.snapshot.interval.ms a checkpoint starts a new
+// segment S and writes a UserSnapshot of the store as snapshot-S.bin while writers keep going.
+// The snapshot may catch some users before and some after the changes logged in S, but the records
+// carry whole users and are replayed as blind writes, so the snapshot followed by segments S, S+1, ...
+// always ends in the exact state at the end of the log. Once the snapshot is on the disk, the older
+// segments and snapshots are deleted.
+@Component
+@ConditionalOnProperty(name = "wal.enabled", havingValue = "true")
+public class WriteAheadLog implements UserChangeListener, Closeable {
+    public enum FsyncPolicy {
+        ALWAYS, INTERVAL, OS
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final byte CREATE = 1;
+    private static final byte UPDATE = 2;
+    private static final byte RENAME = 3;
+    private static final byte DELETE = 4;
+    private static final byte CLEAR = 5;
+
+    private static final int MAX_RECORD_LENGTH = 1 << 20;
+    // Writers wait for the background thread once this much is waiting to be written
+    private static final int MAX_PENDING_BYTES = 64 << 20;
+
+    private static final Pattern SEGMENT = Pattern.compile("users-(\\d{16})\\.wal");
+    private static final Pattern SNAPSHOT = Pattern.compile("snapshot-(\\d{16})\\.bin");
+
+    private final Path directory;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final long snapshotIntervalMillis;
+    private final UserStore userStore;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Signalled by writers when there is something to write
+    private final Condition pending = lock.newCondition();
+    // Signalled by the background thread after each write
+    private final Condition written = lock.newCondition();
+    private final CRC32C crc = new CRC32C();
+    private final ThreadLocal<long[]> lastSequence = ThreadLocal.withInitial(() -> new long[1]);
+    // Guarded by lock
+    private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer spare = ByteBuffer.allocate(1 << 16);
+    private long appendedSequence;
+    private IOException failure;
+    private boolean closed;
+    // Set by checkpoints, the background thread starts a new segment after its current write
+    private boolean rotateRequested;
+
+    private volatile long durableSequence;
+    // Owned by the background thread once it runs
+    private FileChannel channel;
+    private long segment;
+    private Thread writer;
+    // Only one checkpoint at a time
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    private ScheduledExecutorService snapshotScheduler;
+
+    @Autowired
+    public WriteAheadLog(@Value("${wal.directory:data}") String directory,
+                         @Value("${wal.fsync:interval}") String fsyncPolicy,
+                         @Value("${wal.fsync.interval.ms:50}") long fsyncIntervalMillis,
+                         @Value("${wal.snapshot.interval.ms:600000}") long snapshotIntervalMillis,
+                         UserStore userStore) {
+        this(Paths.get(directory), FsyncPolicy.valueOf(fsyncPolicy.trim().toUpperCase(Locale.ROOT)),
+                fsyncIntervalMillis, snapshotIntervalMillis, userStore);
+    }
+
+    // A snapshot interval of 0 turns off the periodic checkpoints, checkpoint() can still be called
+    public WriteAheadLog(Path directory, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis,
+                         long snapshotIntervalMillis, UserStore userStore) {
+        this.directory = directory;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis);
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+        this.userStore = userStore;
+    }
+
+    // Loads the latest snapshot and replays the segments written since into the store,
+    // then starts logging the store's changes to a new segment
+    @PostConstruct
+    public void open() throws IOException {
+        Files.createDirectories(directory);
+        List<Long> snapshots = list(SNAPSHOT);
+        long firstSegment = snapshots.isEmpty() ? 0 : snapshots.get(snapshots.size() - 1);
+        if (!snapshots.isEmpty()) {
+            UserSnapshot.read(snapshotFile(firstSegment), userStore);
+        }
+        List<Long> segments = list(SEGMENT);
+        segments.removeIf(number -> number < firstSegment);
+        for (int i = 0; i < segments.size(); i++) {
+            replay(segmentFile(segments.get(i)), i == segments.size() - 1);
+        }
+        segment = segments.isEmpty() ? firstSegment : segments.get(segments.size() - 1) + 1;
+        channel = openSegment(segment);
+        userStore.addListener(this);
+        writer = new Thread(this::writeLoop, "user-wal-writer");
+        writer.setDaemon(true);
+        writer.start();
+        if (snapshotIntervalMillis > 0) {
+            snapshotScheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "user-snapshot-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotScheduler.scheduleWithFixedDelay(this::scheduledCheckpoint,
+                    snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    @Override
+    public void close() throws IOException {
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdownNow();
+        }
+        // Lets a running checkpoint finish, its snapshot is still good
+        checkpointLock.lock();
+        checkpointLock.unlock();
+        lock.lock();
+        try {
+            closed = true;
+            pending.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.force(false);
+        channel.close();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // Writes a snapshot of the store and drops the part of the log that it replaces.
+    // Writers are not paused, only the switch to a new segment waits for the current write.
+    public void checkpoint() throws IOException {
+        checkpointLock.lock();
+        try {
+            long snapshotSegment = rotate();
+            UserSnapshot.write(userStore, snapshotFile(snapshotSegment), snapshotSegment, UserSnapshot.PARTITION_USERS);
+            for (long number : list(SNAPSHOT)) {
+                if (number < snapshotSegment) {
+                    Files.deleteIfExists(snapshotFile(number));
+                }
+            }
+            for (long number : list(SEGMENT)) {
+                if (number < snapshotSegment) {
+                    Files.deleteIfExists(segmentFile(number));
+                }
+            }
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    // A failed checkpoint leaves the log as it was, the next one tries again
+    private void scheduledCheckpoint() {
+        try {
+            checkpoint();
+        } catch (IOException | RuntimeException e) {
+            if (!isClosed()) {
+                log.error("Snapshot of the users failed", e);
+            }
+        }
+    }
+
+    private boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Every record appended before this call ends up in the old segment, every later one in the new one
+    private long rotate() {
+        lock.lock();
+        try {
+            checkOpen();
+            rotateRequested = true;
+            pending.signal();
+            while (rotateRequested) {
+                written.awaitUninterruptibly();
+                checkOpen();
+            }
+            return segment;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void userCreated(User user) {
+        append(CREATE, null, user);
+    }
+
+    @Override
+    public void userUpdated(User before, User after) {
+        if (before.getEmail().equals(after.getEmail())) {
+            append(UPDATE, null, after);
+        } else {
+            append(RENAME, before.getEmail(), after);
+        }
+    }
+
+    @Override
+    public void userDeleted(User user) {
+        append(DELETE, user.getEmail(), null);
+    }
+
+    @Override
+    public void storeCleared() {
+        append(CLEAR, null, null);
+    }
+
+    // With the ALWAYS policy the change isn't acknowledged before its record is on the disk
+    @Override
+    public void changesApplied() {
+        if (fsyncPolicy != FsyncPolicy.ALWAYS) {
+            return;
+        }
+        long sequence = lastSequence.get()[0];
+        if (sequence <= durableSequence) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (durableSequence < sequence) {
+                checkOpen();
+                written.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void append(byte type, String email, User user) {
+        int length = 1 + (email == null ? 0 : UserCodec.sizeOf(email)) + (user == null ? 0 : UserCodec.sizeOf(user));
+        if (length > MAX_RECORD_LENGTH) {
+            throw new IllegalArgumentException("User is too large to be logged");
+        }
+        lock.lock();
+        try {
+            checkOpen();
+            while (buffer.position() > MAX_PENDING_BYTES) {
+                written.awaitUninterruptibly();
+                checkOpen();
+            }
+            ensureCapacity(Integer.BYTES + length + Integer.BYTES);
+            buffer.putInt(length);
+            int start = buffer.position();
+            buffer.put(type);
+            if (email != null) {
+                UserCodec.writeString(buffer, email);
+            }
+            if (user != null) {
+                UserCodec.writeUser(buffer, user);
+            }
+            crc.reset();
+            crc.update(buffer.array(), start, length);
+            buffer.putInt((int) crc.getValue());
+            lastSequence.get()[0] = ++appendedSequence;
+            pending.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (buffer.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+
+    private void checkOpen() {
+        if (failure != null) {
+            throw new UncheckedIOException("Write-ahead log failed", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Write-ahead log is closed");
+        }
+    }
+
+    private void writeLoop() {
+        long lastFsync = System.nanoTime();
+        boolean unsynced = false;
+        while (true) {
+            ByteBuffer batch;
+            long batchSequence;
+            boolean rotate;
+            lock.lock();
+            try {
+                // With the INTERVAL policy wakes up in time for the next fsync even if nothing else comes
+                while (buffer.position() == 0 && !closed && !rotateRequested) {
+                    if (unsynced) {
+                        long wait = fsyncIntervalNanos - (System.nanoTime() - lastFsync);
+                        if (wait <= 0 || pending.awaitNanos(wait) <= 0) {
+                            break;
+                        }
+                    } else {
+                        pending.awaitUninterruptibly();
+                    }
+                }
+                if (buffer.position() == 0 && closed) {
+                    written.signalAll();
+                    return;
+                }
+                batch = buffer;
+                buffer = spare;
+                batchSequence = appendedSequence;
+                rotate = rotateRequested;
+            } catch (InterruptedException e) {
+                // Nothing writes the log any more, so writers and waiters are told so like after an IOException
+                failure = new InterruptedIOException("Write-ahead log writer was interrupted");
+                written.signalAll();
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+                // With the OS policy nothing is ever fsynced, so there is nothing to wait for
+                unsynced |= fsyncPolicy != FsyncPolicy.OS && batch.limit() > 0;
+                long now = System.nanoTime();
+                if (unsynced && (fsyncPolicy == FsyncPolicy.ALWAYS
+                        || (fsyncPolicy == FsyncPolicy.INTERVAL && now - lastFsync >= fsyncIntervalNanos))) {
+                    channel.force(false);
+                    lastFsync = now;
+                    unsynced = false;
+                }
+                if (rotate) {
+                    // The old segment is complete, it goes to the disk whatever the policy
+                    FileChannel next = openSegment(segment + 1);
+                    channel.force(false);
+                    channel.close();
+                    channel = next;
+                    segment++;
+                    lastFsync = now;
+                    unsynced = false;
+                }
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    failure = e;
+                    written.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+
+            lock.lock();
+            try {
+                batch.clear();
+                spare = batch;
+                durableSequence = batchSequence;
+                if (rotate) {
+                    rotateRequested = false;
+                }
+                written.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // A crash can only tear the last record of the last segment, anywhere else it means the log is damaged
+    private void replay(Path file, boolean lastSegment) throws IOException {
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            CRC32C recordCrc = new CRC32C();
+            while (true) {
+                byte[] record;
+                int checksum;
+                try {
+                    int length = in.readInt();
+                    if (length < 1 || length > MAX_RECORD_LENGTH) {
+                        break;
+                    }
+                    record = new byte[length];
+                    in.readFully(record);
+                    checksum = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                recordCrc.reset();
+                recordCrc.update(record);
+                if ((int) recordCrc.getValue() != checksum) {
+                    break;
+                }
+                apply(ByteBuffer.wrap(record), file);
+                validLength += Integer.BYTES + record.length + Integer.BYTES;
+            }
+        }
+        // Cuts off a record that a crash left half written, new records go right after the last good one
+        if (validLength < Files.size(file)) {
+            if (!lastSegment) {
+                throw new IllegalStateException("Write-ahead log segment " + file + " is corrupted");
+            }
+            try (FileChannel truncated = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                truncated.truncate(validLength);
+            }
+        }
+    }
+
+    // Every record is applied as a blind write of whole users, so replaying it over a snapshot that
+    // already has the change (or a later one) gives the same result as replaying it over the state before
+    private void apply(ByteBuffer record, Path file) {
+        byte type = record.get();
+        switch (type) {
+            case CREATE, UPDATE -> put(UserCodec.readUser(record));
+            case RENAME -> {
+                userStore.remove(UserCodec.readString(record));
+                put(UserCodec.readUser(record));
+            }
+            case DELETE -> userStore.remove(UserCodec.readString(record));
+            case CLEAR -> userStore.clear();
+            default -> throw new IllegalStateException("Unknown record type " + type + " in " + file);
+        }
+    }
+
+    // An update would give the user a new version, stored again it keeps the logged one
+    private void put(User user) {
+        userStore.remove(user.getEmail());
+        userStore.putIfAbsent(user);
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(segmentFile(number), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    private Path segmentFile(long number) {
+        return directory.resolve(String.format("users-%016d.wal", number));
+    }
+
+    private Path snapshotFile(long number) {
+        return directory.resolve(String.format("snapshot-%016d.bin", number));
+    }
+
+    // Numbers of the files matching the pattern, in ascending order
+    private List<Long> list(Pattern pattern) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(path -> {
+                Matcher matcher = pattern.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    numbers.add(Long.parseLong(matcher.group(1)));
+                }
+            });
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.Users.controllers;
+
+import com.example.Users.controllers.AdmissionFilter.EndpointClass;
+import com.example.Users.models.User;
+import com.example.Users.services.ConcurrencyLimiter;
+import com.example.Users.services.UserMetrics;
+import com.example.Users.services.UserService;
+import com.example.Users.services.UserStatistics;
+import com.example.Users.stores.StripedUserStore;
+import com.example.Users.stores.UserStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AdmissionFilterTest {
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final UserStore userStore = new StripedUserStore(4);
+    private AdmissionFilter filter;
+
+    @BeforeEach
+    public void setUp() {
+        // 1990-01-01 to 1990-04-10, 100 users a day
+        for (int i = 0; i < 10_000; i++) {
+            userStore.putIfAbsent(new User("user" + i + "@example.com", "First", "Last", LocalDate.of(1990, 1, 1).plusDays(i / 100)));
+        }
+        UserStatistics userStatistics = new UserStatistics(userStore, new int[]{25, 35, 45, 55, 65});
+        userStatistics.open();
+        UserService userService = mock(UserService.class);
+        when(userService.getMaxSearchLimit()).thenReturn(500);
+        UserMetrics userMetrics = new UserMetrics(registry, userStore, null);
+        // Limit 4 in every class, a search costs a slot per 1000 users, at most 10
+        filter = new AdmissionFilter(userService, userStatistics, userMetrics, registry, 4, 4, 10, 1.5, 0.2, 100, 1000, 2);
+    }
+
+    @Test
+    void classify_byPathAndMethod() {
+        assertEquals(EndpointClass.READ, AdmissionFilter.classify("GET", "/users/a@example.com"));
+        assertEquals(EndpointClass.READ, AdmissionFilter.classify("HEAD", "/users/stats"));
+        assertEquals(EndpointClass.WRITE, AdmissionFilter.classify("POST", "/users"));
+        assertEquals(EndpointClass.WRITE, AdmissionFilter.classify("DELETE", "/users/a@example.com"));
+        assertEquals(EndpointClass.SEARCH, AdmissionFilter.classify("GET", "/users/search"));
+        assertEquals(EndpointClass.SEARCH, AdmissionFilter.classify("GET", "/users/search/name"));
+        assertEquals(EndpointClass.BULK, AdmissionFilter.classify("POST", "/users/batch"));
+        assertEquals(EndpointClass.BULK, AdmissionFilter.classify("POST", "/users/import"));
+        assertEquals(EndpointClass.BULK, AdmissionFilter.classify("GET", "/users/export"));
+        assertNull(AdmissionFilter.classify("GET", "/users/changes"));
+        assertNull(AdmissionFilter.classify("GET", "/usersx"));
+        assertNull(AdmissionFilter.classify("GET", "/actuator/health"));
+        assertNull(AdmissionFilter.classify("POST", "/partition/users"));
+    }
+
+    @Test
+    void searchCost_fromTheExpectedUsers() {
+        // Both ends excluded: 1990-01-02 to 1990-01-31 are 30 days
+        assertEquals(4, filter.searchCost(search("1990-01-01", "1990-02-01", null, null)));
+        // Capped by admission.max.limit
+        assertEquals(10, filter.searchCost(search("1980-01-01", "2000-01-01", null, null)));
+        // A page at most its limit, or max.search.limit with a cursor and no limit
+        assertEquals(1, filter.searchCost(search("1980-01-01", "2000-01-01", "999", null)));
+        assertEquals(1, filter.searchCost(search("1980-01-01", "2000-01-01", null, "")));
+        // The controller turns these down
+        assertEquals(1, filter.searchCost(search("yesterday", "2000-01-01", null, null)));
+        assertEquals(1, filter.searchCost(search("1980-01-01", "2000-01-01", "many", null)));
+        MockHttpServletRequest byName = new MockHttpServletRequest("GET", "/users/search/name");
+        byName.setParameter("q", "First");
+        assertEquals(1, filter.searchCost(byName));
+    }
+
+    @Test
+    void overLimit_serviceUnavailableWithRetryAfter() throws Exception {
+        ConcurrencyLimiter reads = filter.limiter(EndpointClass.READ);
+        assertTrue(reads.tryAcquire(4));
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(new MockHttpServletRequest("GET", "/users/a@example.com"), response, chain);
+
+        assertNull(chain.getRequest());
+        assertEquals(503, response.getStatus());
+        assertEquals("2", response.getHeader("Retry-After"));
+        assertEquals(1, registry.find("users.rejections").tag("reason", "overloaded").counter().count());
+        // Other classes have slots of their own
+        MockFilterChain writeChain = new MockFilterChain();
+        filter.doFilter(new MockHttpServletRequest("POST", "/users"), new MockHttpServletResponse(), writeChain);
+        assertNotNull(writeChain.getRequest());
+        assertEquals(0, filter.limiter(EndpointClass.WRITE).getInFlight());
+    }
+
+    @Test
+    void expensiveSearch_turnedDownWhenItsCostDoesNotFit() throws Exception {
+        assertTrue(filter.limiter(EndpointClass.SEARCH).tryAcquire(1));
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(search("1990-01-01", "1990-02-01", null, null), response, new MockFilterChain());
+
+        assertEquals(503, response.getStatus());
+        assertEquals(1, filter.limiter(EndpointClass.SEARCH).getInFlight());
+    }
+
+    @Test
+    void asyncRequest_slotHeldUntilComplete() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/users/export");
+        request.setAsyncSupported(true);
+        // Like an export handed to a StreamingResponseBody
+        MockFilterChain chain = new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) {
+                req.startAsync();
+            }
+        });
+
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+
+        ConcurrencyLimiter bulk = filter.limiter(EndpointClass.BULK);
+        assertEquals(1, bulk.getInFlight());
+        request.getAsyncContext().complete();
+        assertEquals(0, bulk.getInFlight());
+    }
+
+    private static HttpServletRequest search(String from, String to, String limit, String cursor) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/users/search");
+        request.setParameter("from", from);
+        request.setParameter("to", to);
+        if (limit != null) {
+            request.setParameter("limit", limit);
+        }
+        if (cursor != null) {
+            request.setParameter("cursor", cursor);
+        }
+        return request;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.Users.controllers;
+
+import com.example.Users.models.User;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryFormatsTest {
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    @Test
+    void cbor_birthDateAsEpochDay() throws Exception {
+        ObjectMapper cbor = BinaryFormats.mapper(objectMapper, new CBORFactory());
+        User user = new User("john@example.com", "John", "Doe", LocalDate.of(1990, 1, 1));
+        user.setVersion(7);
+
+        byte[] bytes = cbor.writeValueAsBytes(user);
+        JsonNode tree = cbor.readTree(bytes);
+
+        assertTrue(tree.get("birthDate").isInt());
+        assertEquals(LocalDate.of(1990, 1, 1).toEpochDay(), tree.get("birthDate").asLong());
+        assertEquals(7, tree.get("version").asLong());
+        User read = cbor.readValue(bytes, User.class);
+        assertEquals(LocalDate.of(1990, 1, 1), read.getBirthDate());
+        assertEquals("john@example.com", read.getEmail());
+        // The JSON mapper is left as it was
+        assertEquals("\"1990-01-01\"", objectMapper.writeValueAsString(LocalDate.of(1990, 1, 1)));
+    }
+
+    @Test
+    void smile_searchResultRoundTrip_smallerThanJson() throws Exception {
+        ObjectMapper smile = BinaryFormats.mapper(objectMapper, new SmileFactory());
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            users.add(new User("user" + i + "@example.com", "First" + i, "Last", LocalDate.of(1950, 1, 1).plusDays(i * 97L)));
+        }
+
+        byte[] bytes = smile.writeValueAsBytes(users);
+        List<User> read = smile.readValue(bytes, new TypeReference<List<User>>() {
+        });
+
+        assertEquals(100, read.size());
+        assertEquals(users.get(42).getBirthDate(), read.get(42).getBirthDate());
+        assertTrue(bytes.length < objectMapper.writeValueAsBytes(users).length);
+    }
+
+    @Test
+    void read_isoDateStringAlsoAccepted_otherwiseRejected() throws Exception {
+        ObjectMapper cbor = BinaryFormats.mapper(objectMapper, new CBORFactory());
+        byte[] iso = cbor.writeValueAsBytes(Map.of("email", "john@example.com", "birthDate", "1990-01-01"));
+        byte[] malformed = cbor.writeValueAsBytes(Map.of("email", "john@example.com", "birthDate", "01.01.1990"));
+
+        assertEquals(LocalDate.of(1990, 1, 1), cbor.readValue(iso, User.class).getBirthDate());
+        assertThrows(Exception.class, () -> cbor.readValue(malformed, User.class));
+    }
+}
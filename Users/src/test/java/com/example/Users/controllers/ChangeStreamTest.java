@@ -0,0 +1,86 @@
+package com.example.Users.controllers;
+
+import com.example.Users.models.User;
+import com.example.Users.services.UserService;
+import com.example.Users.stores.UserStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// More open streams than the threads Spring MVC streams exports on (8 by default)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "changes.max.streams=10")
+class ChangeStreamTest {
+    private static final int STREAMS = 10;
+
+    @LocalServerPort
+    private int port;
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private UserStore userStore;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final List<InputStream> streams = new ArrayList<>();
+
+    @AfterEach
+    public void cleanUp() throws Exception {
+        for (InputStream stream : streams) {
+            stream.close();
+        }
+        userStore.clear();
+    }
+
+    @Test
+    void openStreams_exportStillCompletes_extraStreamTurnedDown() throws Exception {
+        userService.createUser(new User("existing@example.com", "FirstName", "LastName", LocalDate.of(2000, 3, 4)));
+        for (int i = 0; i < STREAMS; i++) {
+            HttpResponse<InputStream> response = client.send(request("/users/changes").header("Accept", "text/event-stream").build(),
+                    HttpResponse.BodyHandlers.ofInputStream());
+            streams.add(response.body());
+            assertEquals(200, response.statusCode());
+        }
+
+        HttpResponse<String> extra = client.send(request("/users/changes").header("Accept", "text/event-stream").build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(503, extra.statusCode());
+        assertTrue(extra.headers().firstValue("Retry-After").isPresent());
+
+        HttpResponse<String> export = client.send(request("/users/export").timeout(Duration.ofSeconds(10)).build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, export.statusCode());
+        assertTrue(export.body().contains("existing@example.com"), export.body());
+
+        // The streams still carry changes
+        userService.createUser(new User("new@example.com", "FirstName", "LastName", LocalDate.of(2000, 3, 4)));
+        BufferedReader events = new BufferedReader(new InputStreamReader(streams.get(0), StandardCharsets.UTF_8));
+        String line = events.readLine();
+        // Comment lines and the blank lines after them
+        while (line.isEmpty() || line.startsWith(":")) {
+            line = events.readLine();
+        }
+        assertTrue(line.startsWith("id: "), line);
+        assertEquals("event: CREATED", events.readLine());
+        assertTrue(events.readLine().contains("new@example.com"));
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path));
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.Users.controllers;
+
+import com.example.Users.services.UserPartitions;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartitionFilterTest {
+    private static final String NODE = "http://localhost:8080";
+
+    private final PartitionFilter filter = new PartitionFilter(
+            new UserPartitions(new ObjectMapper(), new String[]{NODE}, NODE, "s3cret", 64, 2_000));
+
+    @Test
+    void withoutSecret_forbidden() throws Exception {
+        MockHttpServletResponse response = filter(request("POST", "/partition/users"));
+
+        assertEquals(403, response.getStatus());
+        assertEquals("text/plain", response.getContentType());
+    }
+
+    @Test
+    void wrongSecret_forbidden() throws Exception {
+        MockHttpServletRequest request = request("DELETE", "/partition/users/a@example.com");
+        request.addHeader(UserPartitions.SECRET_HEADER, "guess");
+
+        assertEquals(403, filter(request).getStatus());
+    }
+
+    @Test
+    void secret_passedOn() throws Exception {
+        MockHttpServletRequest request = request("GET", "/partition/users/export");
+        request.addHeader(UserPartitions.SECRET_HEADER, "s3cret");
+        MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(request, new MockHttpServletResponse(), chain);
+
+        assertSame(request, chain.getRequest());
+    }
+
+    @Test
+    void otherPaths_notChecked() throws Exception {
+        MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(request("POST", "/users"), new MockHttpServletResponse(), chain);
+        assertNotNull(chain.getRequest());
+        assertEquals(403, filter(request("GET", "/partition/users")).getStatus());
+    }
+
+    private MockHttpServletResponse filter(MockHttpServletRequest request) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request, response, chain);
+        assertNull(chain.getRequest());
+        return response;
+    }
+
+    private static MockHttpServletRequest request(String method, String path) {
+        return new MockHttpServletRequest(method, path);
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.Users.controllers;
+
+import com.example.Users.services.ChangeFeed;
+import com.example.Users.services.ReplicationFollower;
+import com.example.Users.stores.StripedUserStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The leader is a stand-in whose export is as of change 5 and whose change feed has change 6 once it's released
+class ReplicationFilterTest {
+    private static final long WAIT_MILLIS = 300;
+
+    private volatile boolean changeReleased;
+    private HttpServer leader;
+    private String leaderUrl;
+    private ReplicationFollower follower;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        leader = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        leader.createContext("/users/export", exchange -> {
+            exchange.getResponseHeaders().add(ChangeFeed.SEQUENCE_HEADER, "5");
+            send(exchange, "");
+        });
+        leader.createContext("/users/changes", exchange -> {
+            exchange.getResponseHeaders().add(ChangeFeed.SEQUENCE_HEADER, changeReleased ? "6" : "5");
+            send(exchange, changeReleased
+                    ? "[{\"sequence\":6,\"type\":\"DELETED\",\"email\":\"a@example.com\",\"previousEmail\":null,\"user\":null}]"
+                    : "[]");
+        });
+        leader.start();
+        leaderUrl = "http://127.0.0.1:" + leader.getAddress().getPort();
+        follower = new ReplicationFollower(new StripedUserStore(4), new ObjectMapper().registerModule(new JavaTimeModule()),
+                new SimpleMeterRegistry(), leaderUrl, 5, 1000, 2_000);
+        follower.open();
+        assertTrue(follower.awaitSequence(5, 5_000));
+        // Caught up once the first poll has found nothing new
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (follower.stalenessMillis() == Long.MAX_VALUE && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        follower.close();
+        leader.stop(0);
+    }
+
+    @Test
+    void writes_redirectedToTheLeader() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("PATCH", "/users/a@example.com");
+        request.setQueryString("version=3");
+
+        MockHttpServletResponse response = filter(filter(5_000), request, false);
+
+        assertEquals(307, response.getStatus());
+        assertEquals(leaderUrl + "/users/a@example.com?version=3", response.getHeader("Location"));
+    }
+
+    @Test
+    void changeFeed_redirectedToTheLeader() throws Exception {
+        MockHttpServletResponse response = filter(filter(5_000), new MockHttpServletRequest("GET", "/users/changes"), false);
+
+        assertEquals(307, response.getStatus());
+        assertEquals(leaderUrl + "/users/changes", response.getHeader("Location"));
+    }
+
+    @Test
+    void freshRead_answeredHere() throws Exception {
+        MockHttpServletResponse response = filter(filter(5_000), new MockHttpServletRequest("GET", "/users/a@example.com"), true);
+
+        assertEquals("5", response.getHeader(ChangeFeed.SEQUENCE_HEADER));
+    }
+
+    @Test
+    void staleRead_redirectedToTheLeader() throws Exception {
+        // No more polls, the follower is 20 ms behind at least
+        follower.close();
+        Thread.sleep(20);
+        MockHttpServletResponse response = filter(filter(10), new MockHttpServletRequest("GET", "/users/a@example.com"), false);
+
+        assertEquals(307, response.getStatus());
+    }
+
+    @Test
+    void minSequence_waitsForTheChange() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/users/a@example.com");
+        request.addHeader(ReplicationFollower.MIN_SEQUENCE_HEADER, "6");
+        Thread release = new Thread(() -> {
+            try {
+                Thread.sleep(WAIT_MILLIS / 3);
+            } catch (InterruptedException e) {
+                return;
+            }
+            changeReleased = true;
+        });
+        release.start();
+
+        MockHttpServletResponse response = filter(filter(0), request, true);
+        release.join();
+
+        assertEquals("6", response.getHeader(ChangeFeed.SEQUENCE_HEADER));
+    }
+
+    @Test
+    void minSequence_notAppliedInTime_redirectedToTheLeader() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/users/a@example.com");
+        request.addHeader(ReplicationFollower.MIN_SEQUENCE_HEADER, "6");
+
+        long start = System.nanoTime();
+        MockHttpServletResponse response = filter(filter(5_000), request, false);
+
+        assertTrue(System.nanoTime() - start >= WAIT_MILLIS * 1_000_000);
+        assertEquals(307, response.getStatus());
+    }
+
+    @Test
+    void malformedMinSequence_badRequest() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/users/a@example.com");
+        request.addHeader(ReplicationFollower.MIN_SEQUENCE_HEADER, "six");
+
+        MockHttpServletResponse response = filter(filter(5_000), request, false);
+
+        assertEquals(400, response.getStatus());
+        assertEquals("text/plain", response.getContentType());
+        assertEquals(ReplicationFollower.MIN_SEQUENCE_HEADER + " must be a sequence number", response.getContentAsString());
+    }
+
+    @Test
+    void otherPaths_notFiltered() throws Exception {
+        filter(filter(0), new MockHttpServletRequest("POST", "/actuator/health"), true);
+    }
+
+    private ReplicationFilter filter(long maxStalenessMillis) {
+        return new ReplicationFilter(follower, WAIT_MILLIS, maxStalenessMillis);
+    }
+
+    // Filters the request and checks whether it was passed on to the controllers
+    private static MockHttpServletResponse filter(ReplicationFilter filter, MockHttpServletRequest request, boolean passedOn) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request, response, chain);
+        assertEquals(passedOn, chain.getRequest() != null);
+        return response;
+    }
+
+    private static void send(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -1,25 +1,49 @@
 package com.example.Users.controllers;
 
 
+import com.example.Users.models.BatchOperation;
+import com.example.Users.models.BatchResult;
 import com.example.Users.models.User;
+import com.example.Users.models.UserChange;
+import com.example.Users.models.UserPage;
+import com.example.Users.models.UserStats;
+import com.example.Users.services.ChangeFeed;
+import com.example.Users.services.UserBatchService;
+import com.example.Users.services.UserImportService;
+import com.example.Users.services.UserImportService.Format;
+import com.example.Users.services.UserMetrics;
 import com.example.Users.services.UserService;
+import com.example.Users.stores.StripedUserStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.validation.BindingResult;
-
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -32,11 +56,23 @@ class UserControllerTest {
     @Mock
     private UserService userService;
 
+    @Mock
+    private UserBatchService userBatchService;
+
+    @Mock
+    private UserImportService userImportService;
+
+    @Mock
+    private ChangeFeed changeFeed;
+
     private User user;
     private User userToUpdate;
 
     @BeforeEach
     public void setUp() {
+        // A real one: mocking the class would instrument it for the whole JVM and UserMetricsTest counts its allocations
+        ReflectionTestUtils.setField(userController, "userMetrics",
+                new UserMetrics(new SimpleMeterRegistry(), new StripedUserStore(), null));
         userToUpdate = new User();
 
         user = new User();
@@ -50,48 +86,37 @@ class UserControllerTest {
     @Test
     public void testCreateUser_ValidInput_Success() {
 
-        BindingResult bindingResult = mock(BindingResult.class);
-
         // Mock userService behavior
-        when(bindingResult.hasErrors()).thenReturn(false);
         when(userService.isUserOldEnough(user.getBirthDate())).thenReturn(true);
         when(userService.createUser(user)).thenReturn(true);
 
         // Call the method
-        ResponseEntity<?> response = userController.createUser(user, bindingResult);
+        ResponseEntity<?> response = userController.createUser(user);
 
         // Assertions
         assertEquals(HttpStatus.CREATED, response.getStatusCode());
         assertEquals(user, response.getBody());
-        assertFalse(bindingResult.hasErrors()); // Assert no validation errors
     }
 
     @Test
-    public void testCreateUser_bindingResultHasErrors() {
-
-        BindingResult bindingResult = mock(BindingResult.class);
-
-        // Mock userService behavior
-        when(bindingResult.hasErrors()).thenReturn(true);
+    public void testCreateUser_constraintViolations_BadRequest() {
+        when(userService.validateUser(user)).thenReturn(List.of("Email is required"));
 
         // Call the method
-        ResponseEntity<?> response = userController.createUser(user, bindingResult);
+        ResponseEntity<?> response = userController.createUser(user);
 
         // Assertions
         assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
-        assertTrue(bindingResult.hasErrors());
-
+        assertEquals(List.of("Email is required"), response.getBody());
     }
 
     @Test
     public void testCreateUser_InvalidAge_BadRequest() {
 
-        BindingResult bindingResult = mock(BindingResult.class);
-        when(bindingResult.hasErrors()).thenReturn(false);
         when(userService.isUserOldEnough(user.getBirthDate())).thenReturn(false);
 
         // Call the method
-        ResponseEntity<?> response = userController.createUser(user, bindingResult);
+        ResponseEntity<?> response = userController.createUser(user);
 
         // Assertions
         assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
@@ -100,14 +125,12 @@ class UserControllerTest {
 
     @Test
     public void testCreateUser_ExistingEmail_BadRequest() {
-        BindingResult bindingResult = mock(BindingResult.class);
-        when(bindingResult.hasErrors()).thenReturn(false);
 
         when(userService.isUserOldEnough(user.getBirthDate())).thenReturn(true);
         when(userService.createUser(user)).thenReturn(false);
 
         // Call the method
-        ResponseEntity<?> response = userController.createUser(user, bindingResult);
+        ResponseEntity<?> response = userController.createUser(user);
 
         // Assertions
         assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
@@ -122,7 +145,7 @@ class UserControllerTest {
         userToUpdate.setEmail("newemail@example.com");
         when(userService.getUsersByEmail()).thenReturn(new HashMap<>());
 
-        ResponseEntity<?> response = userController.updatePartialUser(email, userToUpdate);
+        ResponseEntity<?> response = userController.updatePartialUser(email, userToUpdate, null);
 
         assertEquals(ResponseEntity.badRequest().body("User with this email not found"), response);
     }
@@ -137,7 +160,7 @@ class UserControllerTest {
         when(userService.getUsersByEmail()).thenReturn(map);
         when(userService.isValidEmail(userToUpdate.getEmail())).thenReturn(false);
 
-        ResponseEntity<?> response = userController.updatePartialUser(user.getEmail(), userToUpdate);
+        ResponseEntity<?> response = userController.updatePartialUser(user.getEmail(), userToUpdate, null);
 
         assertEquals(ResponseEntity.badRequest().body("Invalid email format"), response);
     }
@@ -152,7 +175,7 @@ class UserControllerTest {
         when(userService.getUsersByEmail()).thenReturn(usersByEmail);
         when(userService.isValidEmail(userToUpdate.getEmail())).thenReturn(true);
         System.out.println(userService.getUsersByEmail().containsKey(userToUpdate.getEmail()));
-        ResponseEntity<?> response = userController.updatePartialUser(user.getEmail(), userToUpdate);
+        ResponseEntity<?> response = userController.updatePartialUser(user.getEmail(), userToUpdate, null);
 
 
         assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
@@ -170,7 +193,7 @@ class UserControllerTest {
         when(userService.getUsersByEmail()).thenReturn(mockUsers);
 
         // Call the method
-        ResponseEntity<?> response = userController.updatePartialUser(user.getEmail(), userToUpdate);
+        ResponseEntity<?> response = userController.updatePartialUser(user.getEmail(), userToUpdate, null);
         // Assertions
         assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
         assertTrue(response.getBody().toString().contains("Birth date cannot be in the future"));
@@ -186,7 +209,7 @@ class UserControllerTest {
         when(userService.getUsersByEmail()).thenReturn(mockUsers);
         when(userService.getMinUserAge()).thenReturn(18);
         // Call the method
-        ResponseEntity<?> response = userController.updatePartialUser(user.getEmail(), userToUpdate);
+        ResponseEntity<?> response = userController.updatePartialUser(user.getEmail(), userToUpdate, null);
         // Assertions
         assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
         assertTrue(response.getBody().toString().contains("User must be at least "));
@@ -208,7 +231,7 @@ class UserControllerTest {
         when(userService.updatePartialUser(user.getEmail(), userToUpdate)).thenReturn(existingUser); // Mock successful update
 
         // Call the method
-        ResponseEntity<?> response = userController.updatePartialUser(user.getEmail(), userToUpdate);
+        ResponseEntity<?> response = userController.updatePartialUser(user.getEmail(), userToUpdate, null);
 
         // Assertions
         assertEquals(HttpStatus.OK, response.getStatusCode());
@@ -218,44 +241,37 @@ class UserControllerTest {
     @Test
     public void testUpdateUser_ValidInput_Success() {
 
-        BindingResult bindingResult = mock(BindingResult.class);
-
         userToUpdate.setFirstName("NewName");
         userToUpdate.setEmail("newemail@gmail.com");
         userToUpdate.setLastName("newLastname");
         userToUpdate.setBirthDate(LocalDate.of(1990, 12, 4));
         when(userService.getMinUserAge()).thenReturn(18);
 
-        when(bindingResult.hasErrors()).thenReturn(false);
         when(userService.isUserOldEnough(userToUpdate.getBirthDate())).thenReturn(true);
         when(userService.updateUser(user.getEmail(), userToUpdate)).thenReturn(userToUpdate);
 
 
-        ResponseEntity<?> response = userController.updateUser(user.getEmail(), userToUpdate, bindingResult);
+        ResponseEntity<?> response = userController.updateUser(user.getEmail(), userToUpdate, null);
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
 
         assertEquals(userToUpdate, response.getBody());
-        assertFalse(bindingResult.hasErrors()); // Немає помилок валідації
     }
 
     @Test
     public void testUpdateUser_UserNotFound() {
 
-        BindingResult bindingResult = mock(BindingResult.class);
-
         userToUpdate.setFirstName("NewName");
         userToUpdate.setEmail("newemail@gmail.com");
         userToUpdate.setLastName("newLastname");
         userToUpdate.setBirthDate(LocalDate.of(1990, 12, 4));
         when(userService.getMinUserAge()).thenReturn(18);
 
-        when(bindingResult.hasErrors()).thenReturn(false);
         when(userService.isUserOldEnough(userToUpdate.getBirthDate())).thenReturn(true);
         when(userService.updateUser(user.getEmail(), userToUpdate)).thenReturn(null);
 
 
-        ResponseEntity<?> response = userController.updateUser(user.getEmail(), userToUpdate, bindingResult);
+        ResponseEntity<?> response = userController.updateUser(user.getEmail(), userToUpdate, null);
 
         assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
 
@@ -265,19 +281,16 @@ class UserControllerTest {
     @Test
     public void testUpdateUser_UserIsNotOldEnough() {
 
-        BindingResult bindingResult = mock(BindingResult.class);
-
         userToUpdate.setFirstName("NewName");
         userToUpdate.setEmail("newemail@gmail.com");
         userToUpdate.setLastName("newLastname");
         userToUpdate.setBirthDate(LocalDate.of(1990, 12, 4));
         when(userService.getMinUserAge()).thenReturn(18);
 
-        when(bindingResult.hasErrors()).thenReturn(false);
         when(userService.isUserOldEnough(userToUpdate.getBirthDate())).thenReturn(false);
 
 
-        ResponseEntity<?> response = userController.updateUser(user.getEmail(), userToUpdate, bindingResult);
+        ResponseEntity<?> response = userController.updateUser(user.getEmail(), userToUpdate, null);
 
         assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
 
@@ -287,8 +300,6 @@ class UserControllerTest {
     @Test
     public void testUpdateUser_EmailAlreadyExists() {
 
-        BindingResult bindingResult = mock(BindingResult.class);
-
         userToUpdate.setFirstName("NewName");
         userToUpdate.setEmail(user.getEmail());
         userToUpdate.setLastName("newLastname");
@@ -296,10 +307,9 @@ class UserControllerTest {
 
         when(userService.getMinUserAge()).thenReturn(18);
 
-        when(bindingResult.hasErrors()).thenReturn(false);
 
 
-        ResponseEntity<?> response = userController.updateUser(user.getEmail(), userToUpdate, bindingResult);
+        ResponseEntity<?> response = userController.updateUser(user.getEmail(), userToUpdate, null);
 
         assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
 
@@ -307,22 +317,20 @@ class UserControllerTest {
     }
 
     @Test
-    public void testUpdateUser_bindingResultHasErrors() {
-        BindingResult bindingResult = mock(BindingResult.class);
+    public void testUpdateUser_constraintViolations_BadRequest() {
 
         userToUpdate.setFirstName("NewName");
         userToUpdate.setEmail(user.getEmail());
         userToUpdate.setLastName("newLastname");
         userToUpdate.setBirthDate(LocalDate.of(1990, 12, 4));
 
-        when(bindingResult.hasErrors()).thenReturn(true);
+        when(userService.validateUser(userToUpdate)).thenReturn(List.of("Email is required"));
 
-        ResponseEntity<?> response = userController.updateUser(user.getEmail(), userToUpdate, bindingResult);
+        ResponseEntity<?> response = userController.updateUser(user.getEmail(), userToUpdate, null);
 
         // Assertions
-        System.out.println(response);
         assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
-        assertTrue(bindingResult.hasErrors());
+        assertEquals(List.of("Email is required"), response.getBody());
     }
 
     @Test
@@ -330,7 +338,7 @@ class UserControllerTest {
 
         when(userService.deleteUser(user.getEmail())).thenReturn(true);
 
-        ResponseEntity<?> response = userController.deleteUser(user.getEmail());
+        ResponseEntity<?> response = userController.deleteUser(user.getEmail(), null);
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
         assertEquals("User deleted successfully", response.getBody());
@@ -339,10 +347,166 @@ class UserControllerTest {
     @Test
     public void testDeleteUser_UserNotFound() {
 
-
         when(userService.deleteUser(user.getEmail())).thenReturn(false);
 
-        ResponseEntity<?> response = userController.deleteUser(user.getEmail());
+        ResponseEntity<?> response = userController.deleteUser(user.getEmail(), null);
+
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+        assertEquals("User not found", response.getBody());
+    }
+
+    @Test
+    public void testDeleteUser_OutdatedETag() {
+        user.setVersion(7);
+        when(userService.getUser(user.getEmail())).thenReturn(user);
+
+        ResponseEntity<?> response = userController.deleteUser(user.getEmail(), "\"6\"");
+
+        assertEquals(HttpStatus.PRECONDITION_FAILED, response.getStatusCode());
+    }
+
+    @Test
+    public void testDeleteUser_MatchingETag() {
+        user.setVersion(7);
+        when(userService.getUser(user.getEmail())).thenReturn(user);
+        when(userService.deleteUser(user.getEmail(), 7)).thenReturn(true);
+
+        ResponseEntity<?> response = userController.deleteUser(user.getEmail(), "\"7\"");
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+    }
+
+    @Test
+    public void testGetStats() {
+        UserStats stats = new UserStats(1, 0, Map.of(2000, 1L), Map.of("18-24", 1L), Map.of("example.com", 1L));
+        when(userService.getStats()).thenReturn(stats);
+
+        ResponseEntity<?> response = userController.getStats();
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertSame(stats, response.getBody());
+    }
+
+    @Test
+    public void testExportUsers_gzipOnlyWhenAccepted() throws IOException {
+        doAnswer(invocation -> {
+            OutputStream out = invocation.getArgument(0);
+            out.write("{}\n".getBytes(StandardCharsets.UTF_8));
+            return 1L;
+        }).when(userService).exportUsers(any());
+
+        ResponseEntity<StreamingResponseBody> plain = userController.exportUsers(null);
+        ByteArrayOutputStream plainOut = new ByteArrayOutputStream();
+        plain.getBody().writeTo(plainOut);
+        assertNull(plain.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals("{}\n", plainOut.toString(StandardCharsets.UTF_8));
+
+        ResponseEntity<StreamingResponseBody> gzip = userController.exportUsers("deflate, gzip;q=0.8");
+        ByteArrayOutputStream gzipOut = new ByteArrayOutputStream();
+        gzip.getBody().writeTo(gzipOut);
+        assertEquals("gzip", gzip.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipOut.toByteArray()))) {
+            assertEquals("{}\n", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        assertNull(userController.exportUsers("gzip;q=0").getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    }
+
+    @Test
+    public void testImportUsers_gzippedCsv() throws IOException {
+        ByteArrayOutputStream upload = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(upload)) {
+            gzip.write("email,firstName,lastName,birthDate\n".getBytes(StandardCharsets.UTF_8));
+        }
+        List<String> received = new ArrayList<>();
+        doAnswer(invocation -> {
+            InputStream in = invocation.getArgument(0);
+            received.add(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            return null;
+        }).when(userImportService).importUsers(any(), eq(Format.CSV), any());
+
+        ResponseEntity<StreamingResponseBody> response = userController.importUsers(
+                new ByteArrayInputStream(upload.toByteArray()), "text/csv; charset=UTF-8", "gzip");
+        response.getBody().writeTo(new ByteArrayOutputStream());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(List.of("email,firstName,lastName,birthDate\n"), received);
+    }
+
+    @Test
+    public void testImportUsers_unsupportedEncoding() {
+        ResponseEntity<StreamingResponseBody> response = userController.importUsers(
+                new ByteArrayInputStream(new byte[0]), "application/x-ndjson", "br");
+
+        assertEquals(HttpStatus.UNSUPPORTED_MEDIA_TYPE, response.getStatusCode());
+    }
+
+    @Test
+    public void testGetChanges_NoLongerKept_Gone() {
+        when(userService.getMaxSearchLimit()).thenReturn(1000);
+        when(changeFeed.read(5, 1000)).thenReturn(null);
+        when(changeFeed.oldestSequence()).thenReturn(70000L);
+
+        ResponseEntity<?> response = userController.getChanges(5, null);
+
+        assertEquals(HttpStatus.GONE, response.getStatusCode());
+        assertEquals("Changes after 5 are no longer kept, the oldest sequence to ask from is 70000", response.getBody());
+    }
+
+    @Test
+    public void testGetChanges_WithLimit_Success() {
+        List<UserChange> changes = List.of(new UserChange(6, UserChange.Type.DELETED, user.getEmail(), null, null));
+        when(userService.getMaxSearchLimit()).thenReturn(1000);
+        when(changeFeed.read(5, 1)).thenReturn(changes);
+        when(changeFeed.lastSequence()).thenReturn(9L);
+
+        ResponseEntity<?> response = userController.getChanges(5, 1);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(changes, response.getBody());
+        assertEquals("9", response.getHeaders().getFirst(ChangeFeed.SEQUENCE_HEADER));
+        assertEquals(HttpStatus.BAD_REQUEST, userController.getChanges(5, 1001).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, userController.getChanges(-1, 1).getStatusCode());
+    }
+
+    @Test
+    public void testGetUser_Success() {
+        user.setVersion(7);
+        when(userService.getUser(user.getEmail())).thenReturn(user);
+
+        ResponseEntity<?> response = userController.getUser(user.getEmail(), null);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("\"7\"", response.getHeaders().getETag());
+        assertEquals(user, response.getBody());
+    }
+
+    @Test
+    public void testGetUser_NotModified() {
+        user.setVersion(7);
+        when(userService.getUser(user.getEmail())).thenReturn(user);
+
+        ResponseEntity<?> response = userController.getUser(user.getEmail(), "\"6\", W/\"7\"");
+
+        assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+        assertEquals("\"7\"", response.getHeaders().getETag());
+        assertNull(response.getBody());
+    }
+
+    @Test
+    public void testGetUser_Changed() {
+        user.setVersion(8);
+        when(userService.getUser(user.getEmail())).thenReturn(user);
+
+        ResponseEntity<?> response = userController.getUser(user.getEmail(), "\"7\"");
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(user, response.getBody());
+    }
+
+    @Test
+    public void testGetUser_NotFound() {
+        ResponseEntity<?> response = userController.getUser(user.getEmail(), null);
 
         assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
         assertEquals("User not found", response.getBody());
@@ -360,7 +524,7 @@ class UserControllerTest {
         when(userService.getUsersByBirthDateRange(fromDate, toDate)).thenReturn(mockUsers);
 
         // Call the method
-        ResponseEntity<?> response = userController.searchUsersByBirthDateRange(fromDate.toString(), toDate.toString());
+        ResponseEntity<?> response = userController.searchUsersByBirthDateRange(fromDate.toString(), toDate.toString(), null, null);
 
         // Assertions
         assertEquals(HttpStatus.OK, response.getStatusCode());
@@ -375,10 +539,121 @@ class UserControllerTest {
         LocalDate toDate = LocalDate.of(2000, 12, 31);
 
         // Call the method
-        ResponseEntity<?> response = userController.searchUsersByBirthDateRange(fromDate.toString(), toDate.toString());
+        ResponseEntity<?> response = userController.searchUsersByBirthDateRange(fromDate.toString(), toDate.toString(), null, null);
 
         // Assertions
         assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
         assertTrue(response.getBody().toString().contains("Invalid date range"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSearchUsersByBirthDateRange_WithLimit_ReturnsPageAndNextLink() {
+        LocalDate fromDate = LocalDate.of(2000, 1, 1);
+        LocalDate toDate = LocalDate.of(2005, 12, 31);
+        List<User> page = List.of(user);
+        when(userService.getMaxSearchLimit()).thenReturn(1000);
+        when(userService.getUsersByBirthDateRange(fromDate, toDate, null, 1)).thenReturn(new UserPage(page, "abc"));
+
+        ResponseEntity<?> response = userController.searchUsersByBirthDateRange(fromDate.toString(), toDate.toString(), 1, null);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(page, response.getBody());
+        assertEquals("</users/search?from=2000-01-01&to=2005-12-31&limit=1&cursor=abc>; rel=\"next\"",
+                response.getHeaders().getFirst(HttpHeaders.LINK));
+    }
+
+    @Test
+    public void testSearchUsersByBirthDateRange_LastPage_NoNextLink() {
+        LocalDate fromDate = LocalDate.of(2000, 1, 1);
+        LocalDate toDate = LocalDate.of(2005, 12, 31);
+        when(userService.getMaxSearchLimit()).thenReturn(1000);
+        when(userService.getUsersByBirthDateRange(fromDate, toDate, "abc", 10)).thenReturn(new UserPage(List.of(user), null));
+
+        ResponseEntity<?> response = userController.searchUsersByBirthDateRange(fromDate.toString(), toDate.toString(), 10, "abc");
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertNull(response.getHeaders().getFirst(HttpHeaders.LINK));
+    }
+
+    @Test
+    public void testSearchUsersByName_DefaultLimit() {
+        when(userService.getMaxSearchLimit()).thenReturn(1000);
+        when(userService.getNameSearchLimit()).thenReturn(20);
+        when(userService.getUsersByName("shev", 20)).thenReturn(List.of(user));
+
+        ResponseEntity<?> response = userController.searchUsersByName("shev", null);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(List.of(user), response.getBody());
+    }
+
+    @Test
+    public void testSearchUsersByName_BlankQueryOrBadLimit() {
+        when(userService.getMaxSearchLimit()).thenReturn(1000);
+
+        assertEquals(ResponseEntity.badRequest().body("Query must not be blank"), userController.searchUsersByName(" ", null));
+        assertEquals(ResponseEntity.badRequest().body("Limit must be between 1 and 1000"), userController.searchUsersByName("shev", 0));
+        assertEquals(ResponseEntity.badRequest().body("Limit must be between 1 and 1000"), userController.searchUsersByName("shev", 1001));
+    }
+
+    @Test
+    public void testSearchUsersByBirthDateRange_InvalidLimit_BadRequest() {
+        when(userService.getMaxSearchLimit()).thenReturn(1000);
+
+        ResponseEntity<?> response = userController.searchUsersByBirthDateRange("2000-01-01", "2005-12-31", 1001, null);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertTrue(response.getBody().toString().contains("Limit must be between 1 and 1000"));
+    }
+
+    @Test
+    public void testSearchUsersByBirthDateRange_InvalidCursor_BadRequest() {
+        when(userService.getMaxSearchLimit()).thenReturn(1000);
+        when(userService.getUsersByBirthDateRange(any(LocalDate.class), any(LocalDate.class), any(String.class), any(Integer.class)))
+                .thenThrow(new IllegalArgumentException("Invalid cursor"));
+
+        ResponseEntity<?> response = userController.searchUsersByBirthDateRange("2000-01-01", "2005-12-31", 10, "garbage");
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals("Invalid cursor", response.getBody());
+    }
+
+    @Test
+    public void testApplyBatch_TooManyOperations_BadRequest() {
+        when(userService.getMaxBatchSize()).thenReturn(1);
+        List<BatchOperation> operations = List.of(new BatchOperation(), new BatchOperation());
+
+        ResponseEntity<?> response = userController.applyBatch(operations, false);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertTrue(response.getBody().toString().contains("Batch can't have more than 1 operations"));
+    }
+
+    @Test
+    public void testApplyBatch_BestEffortWithFailures_Ok() {
+        List<BatchOperation> operations = List.of(new BatchOperation(), new BatchOperation());
+        List<BatchResult> results = List.of(new BatchResult(0, BatchResult.Status.CREATED),
+                new BatchResult(1, BatchResult.Status.DUPLICATE_EMAIL));
+        when(userService.getMaxBatchSize()).thenReturn(10);
+        when(userBatchService.applyBatch(operations, false)).thenReturn(results);
+
+        ResponseEntity<?> response = userController.applyBatch(operations, false);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(results, response.getBody());
+    }
+
+    @Test
+    public void testApplyBatch_AtomicWithFailures_BadRequest() {
+        List<BatchOperation> operations = List.of(new BatchOperation(), new BatchOperation());
+        List<BatchResult> results = List.of(new BatchResult(0, BatchResult.Status.NOT_APPLIED),
+                new BatchResult(1, BatchResult.Status.DUPLICATE_EMAIL));
+        when(userService.getMaxBatchSize()).thenReturn(10);
+        when(userBatchService.applyBatch(operations, true)).thenReturn(results);
+
+        ResponseEntity<?> response = userController.applyBatch(operations, true);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals(results, response.getBody());
+    }
+}
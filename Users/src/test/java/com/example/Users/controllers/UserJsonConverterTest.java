@@ -0,0 +1,128 @@
+package com.example.Users.controllers;
+
+import com.example.Users.models.BatchResult;
+import com.example.Users.models.User;
+import com.example.Users.services.UserJsonCache;
+import com.example.Users.services.UserService;
+import com.example.Users.stores.UserStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.mock.http.MockHttpOutputMessage;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+// Responses written from UserJsonCache must be the bytes Spring's own Jackson converter would write
+@SpringBootTest(properties = "json.cache.enabled=true")
+@AutoConfigureMockMvc
+class UserJsonConverterTest {
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private UserStore userStore;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private UserJsonConverter userJsonConverter;
+    @Autowired
+    private UserJsonCache userJsonCache;
+
+    private MappingJackson2HttpMessageConverter jackson;
+
+    @BeforeEach
+    public void setUp() {
+        jackson = new MappingJackson2HttpMessageConverter(objectMapper);
+        userService.createUser(new User("john@example.com", "John", "Doe", LocalDate.of(1990, 1, 1)));
+        userService.createUser(new User("jane@example.com", "Jane \"JJ\" Doe", "Dö", LocalDate.of(1991, 2, 3)));
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        userStore.clear();
+    }
+
+    @Test
+    void user_sameAsJackson() throws Exception {
+        String body = getJson("/users/jane@example.com");
+
+        assertEquals(jackson(userService.getUser("jane@example.com")), body);
+        assertEquals(1, userJsonCache.size());
+        // From the cache this time
+        assertEquals(body, getJson("/users/jane@example.com"));
+    }
+
+    @Test
+    void userList_sameAsJackson() throws Exception {
+        String body = getJson("/users/search?from=1980-01-01&to=2000-01-01");
+
+        assertEquals(jackson(userService.getUsersByBirthDateRange(LocalDate.of(1980, 1, 1), LocalDate.of(2000, 1, 1))), body);
+        assertEquals(2, userJsonCache.size());
+    }
+
+    @Test
+    void emptyList_sameAsJackson() throws Exception {
+        String body = getJson("/users/search?from=2000-01-01&to=2001-01-01");
+
+        assertEquals("[]", body);
+        assertEquals(jackson(List.of()), body);
+    }
+
+    @Test
+    void errorList_sameAsJackson() throws Exception {
+        User invalid = new User("not an email", "", "Doe", LocalDate.of(1990, 1, 1));
+
+        MvcResult result = mockMvc.perform(post("/users").contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(invalid)))
+                .andReturn();
+
+        assertEquals(400, result.getResponse().getStatus());
+        assertEquals(jackson(userService.validateUser(invalid)), result.getResponse().getContentAsString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void otherLists_sameAsJackson() throws Exception {
+        List<BatchResult> results = List.of(new BatchResult(0, BatchResult.Status.CREATED),
+                new BatchResult(1, BatchResult.Status.VALIDATION_ERROR, List.of("Invalid email")));
+        assertEquals(jackson(results), write(results));
+        List<Object> mixed = new ArrayList<>(userService.getUsersByBirthDateRange(LocalDate.of(1980, 1, 1), LocalDate.of(2000, 1, 1)));
+        mixed.add("not a user");
+        assertEquals(jackson(mixed), write(mixed));
+        assertEquals(jackson(new ArrayList<>()), write(new ArrayList<>()));
+    }
+
+    private String getJson(String path) throws Exception {
+        MvcResult result = mockMvc.perform(get(path).accept(MediaType.APPLICATION_JSON)).andReturn();
+        assertEquals(200, result.getResponse().getStatus(), result.getResponse().getContentAsString(StandardCharsets.UTF_8));
+        return result.getResponse().getContentAsString(StandardCharsets.UTF_8);
+    }
+
+    private String jackson(Object body) throws IOException {
+        MockHttpOutputMessage message = new MockHttpOutputMessage();
+        jackson.write(body, MediaType.APPLICATION_JSON, message);
+        return message.getBodyAsString();
+    }
+
+    private String write(Object body) throws IOException {
+        MockHttpOutputMessage message = new MockHttpOutputMessage();
+        userJsonConverter.write(body, MediaType.APPLICATION_JSON, message);
+        return message.getBodyAsString();
+    }
+}
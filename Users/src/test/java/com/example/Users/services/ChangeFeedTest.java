@@ -0,0 +1,180 @@
+package com.example.Users.services;
+
+import com.example.Users.models.User;
+import com.example.Users.models.UserChange;
+import com.example.Users.stores.StripedUserStore;
+import com.example.Users.stores.UserStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangeFeedTest {
+    private final UserStore userStore = new StripedUserStore(4);
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    @Test
+    void read_everyKindOfChangeInOrder() {
+        ChangeFeed changeFeed = open(16);
+        userStore.putIfAbsent(user("a@example.com"));
+        userStore.update("a@example.com", null, user -> user.setFirstName("Changed"));
+        userStore.update("a@example.com", "b@example.com", user -> {
+        });
+        userStore.remove("b@example.com");
+        userStore.clear();
+
+        List<UserChange> changes = changeFeed.read(0, 10);
+
+        assertEquals(List.of("1 CREATED a@example.com null", "2 UPDATED a@example.com null", "3 RENAMED b@example.com a@example.com",
+                "4 DELETED b@example.com null", "5 CLEARED null null"), describe(changes));
+        assertEquals("Changed", changes.get(1).getUser().getFirstName());
+        assertEquals(3, changes.get(2).getUser().getVersion());
+        assertNull(changes.get(3).getUser());
+        assertEquals(List.of("4 DELETED b@example.com null", "5 CLEARED null null"), describe(changeFeed.read(3, 10)));
+        assertEquals(List.of("1 CREATED a@example.com null"), describe(changeFeed.read(0, 1)));
+        assertEquals(List.of(), changeFeed.read(5, 10));
+    }
+
+    @Test
+    void read_fellBehindByMoreThanTheCapacity_null() {
+        ChangeFeed changeFeed = open(4);
+        for (int i = 0; i < 10; i++) {
+            userStore.putIfAbsent(user("user" + i + "@example.com"));
+        }
+
+        assertNull(changeFeed.read(5, 10));
+        assertEquals(6, changeFeed.oldestSequence());
+        assertEquals(4, changeFeed.read(6, 10).size());
+        // A sequence number from before a restart
+        assertNull(changeFeed.read(11, 10));
+    }
+
+    @Test
+    void publish_concurrentWriters_gaplessSequence() throws Exception {
+        ChangeFeed changeFeed = open(1 << 16);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            writers.add(executor.submit(() -> {
+                for (int i = 0; i < 5_000; i++) {
+                    userStore.putIfAbsent(user("user" + thread + "-" + i + "@example.com"));
+                }
+            }));
+        }
+        for (Future<?> writer : writers) {
+            writer.get();
+        }
+        executor.shutdown();
+
+        List<UserChange> changes = changeFeed.read(0, 100_000);
+        assertEquals(20_000, changes.size());
+        for (int i = 0; i < changes.size(); i++) {
+            assertEquals(i + 1, changes.get(i).getSequence());
+        }
+    }
+
+    @Test
+    void stream_writesServerSentEventsAsChangesCome() throws Exception {
+        ChangeFeed changeFeed = open(16);
+        userStore.putIfAbsent(user("a@example.com"));
+        CountDownLatch firstFlush = new CountDownLatch(1);
+        CountDownLatch secondFlush = new CountDownLatch(2);
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        OutputStream out = new OutputStream() {
+            @Override
+            public synchronized void write(int b) {
+                received.write(b);
+            }
+
+            @Override
+            public synchronized void write(byte[] bytes, int offset, int length) {
+                received.write(bytes, offset, length);
+            }
+
+            @Override
+            public void flush() {
+                firstFlush.countDown();
+                secondFlush.countDown();
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> stream = executor.submit(() -> {
+            changeFeed.stream(0, out);
+            return null;
+        });
+
+        assertTrue(firstFlush.await(5, TimeUnit.SECONDS));
+        userStore.remove("a@example.com");
+        assertTrue(secondFlush.await(5, TimeUnit.SECONDS));
+        changeFeed.close();
+        stream.get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        String events;
+        synchronized (out) {
+            events = received.toString(StandardCharsets.UTF_8);
+        }
+        assertTrue(events.startsWith("id: 1\nevent: CREATED\ndata: {\"sequence\":1,\"type\":\"CREATED\",\"email\":\"a@example.com\""), events);
+        assertTrue(events.contains("\"birthDate\":\"1990-01-01\""), events);
+        assertTrue(events.endsWith("id: 2\nevent: DELETED\ndata: {\"sequence\":2,\"type\":\"DELETED\",\"email\":\"a@example.com\",\"previousEmail\":null,\"user\":null}\n\n"), events);
+    }
+
+    @Test
+    void stream_fellBehind_reset() throws IOException {
+        ChangeFeed changeFeed = open(2);
+        for (int i = 0; i < 5; i++) {
+            userStore.putIfAbsent(user("user" + i + "@example.com"));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        changeFeed.stream(0, out);
+
+        assertEquals("event: reset\ndata: 5\n\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void startStream_atMostMaxStreams_endedOnClose() throws Exception {
+        ChangeFeed changeFeed = open(16);
+        CountDownLatch ended = new CountDownLatch(2);
+
+        assertTrue(changeFeed.startStream(0, OutputStream.nullOutputStream(), ended::countDown));
+        assertTrue(changeFeed.startStream(0, OutputStream.nullOutputStream(), ended::countDown));
+        assertFalse(changeFeed.startStream(0, OutputStream.nullOutputStream(), () -> fail("Not started")));
+        changeFeed.close();
+        assertTrue(ended.await(5, TimeUnit.SECONDS));
+    }
+
+    private ChangeFeed open(int capacity) {
+        ChangeFeed changeFeed = new ChangeFeed(userStore, objectMapper, new SimpleMeterRegistry(), capacity, 1, 15_000, 2);
+        changeFeed.open();
+        return changeFeed;
+    }
+
+    private static List<String> describe(List<UserChange> changes) {
+        return changes.stream()
+                .map(change -> change.getSequence() + " " + change.getType() + " " + change.getEmail() + " " + change.getPreviousEmail())
+                .toList();
+    }
+
+    private static User user(String email) {
+        return new User(email, "First", "Last", LocalDate.of(1990, 1, 1));
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.Users.services;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Latencies are fed to sample() with made-up clock readings, one window of 100 ms per call of window()
+class ConcurrencyLimiterTest {
+    private static final long WINDOW = 100_000_000;
+
+    private long now = System.nanoTime();
+
+    @Test
+    void sample_flatLatencyWhileUsed_limitGrows() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 4, 1000, 1.5, 1.0, 100);
+
+        for (int i = 0; i < 10; i++) {
+            window(limiter, 1_000_000, limiter.getLimit());
+        }
+
+        assertTrue(limiter.getLimit() > 40, "limit " + limiter.getLimit());
+    }
+
+    @Test
+    void sample_flatLatencyHardlyUsed_limitStays() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 4, 1000, 1.5, 1.0, 100);
+
+        for (int i = 0; i < 10; i++) {
+            window(limiter, 1_000_000, 2);
+        }
+
+        assertEquals(20, limiter.getLimit());
+    }
+
+    @Test
+    void sample_latencyJumps_limitShrinks() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(100, 4, 1000, 1.5, 1.0, 100);
+        for (int i = 0; i < 5; i++) {
+            window(limiter, 1_000_000, limiter.getLimit());
+        }
+        int before = limiter.getLimit();
+
+        for (int i = 0; i < 5; i++) {
+            window(limiter, 10_000_000, limiter.getLimit());
+        }
+
+        assertTrue(limiter.getLimit() < before / 4, before + " -> " + limiter.getLimit());
+        assertTrue(limiter.getLimit() >= 4);
+    }
+
+    @Test
+    void tryAcquire_dearRequestTurnedDownWhileCheapOnesFit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 4, 1000, 1.5, 0.2, 100);
+
+        assertTrue(limiter.tryAcquire(5));
+        assertFalse(limiter.tryAcquire(6));
+        assertTrue(limiter.tryAcquire(1));
+        assertEquals(6, limiter.getInFlight());
+
+        limiter.release(5, 1_000_000);
+        limiter.release(1, 1_000_000);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void tryAcquire_nothingInFlight_dearerThanTheLimitGetsIn() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 4, 1000, 1.5, 0.2, 100);
+
+        assertTrue(limiter.tryAcquire(50));
+        assertFalse(limiter.tryAcquire(1));
+        limiter.release(50, 1_000_000);
+        assertTrue(limiter.tryAcquire(1));
+    }
+
+    private void window(ConcurrencyLimiter limiter, double latency, int inFlight) {
+        for (int i = 0; i < 10; i++) {
+            now += WINDOW / 10 + 1;
+            limiter.sample(latency, inFlight, now);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.Users.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConsistentHashRingTest {
+    private static final List<String> NODES = List.of("http://localhost:8080", "http://localhost:8081", "http://localhost:8082");
+
+    @Test
+    void nodeFor_sameRingSameNode() {
+        ConsistentHashRing ring = new ConsistentHashRing(NODES, 256);
+        ConsistentHashRing other = new ConsistentHashRing(NODES, 256);
+
+        for (int i = 0; i < 1000; i++) {
+            String email = "user" + i + "@example.com";
+            assertEquals(ring.nodeFor(email), other.nodeFor(email));
+        }
+    }
+
+    @Test
+    void nodeFor_spreadsKeysEvenly() {
+        ConsistentHashRing ring = new ConsistentHashRing(NODES, 256);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 30_000; i++) {
+            counts.merge(ring.nodeFor("user" + i + "@example.com"), 1, Integer::sum);
+        }
+
+        assertEquals(3, counts.size());
+        for (int count : counts.values()) {
+            assertTrue(count > 8_500 && count < 11_500, counts.toString());
+        }
+    }
+
+    @Test
+    void nodeFor_addedNodeOnlyTakesKeys() {
+        ConsistentHashRing ring = new ConsistentHashRing(NODES, 256);
+        ConsistentHashRing grown = new ConsistentHashRing(List.of("http://localhost:8080", "http://localhost:8081",
+                "http://localhost:8082", "http://localhost:8083"), 256);
+        int moved = 0;
+        for (int i = 0; i < 30_000; i++) {
+            String email = "user" + i + "@example.com";
+            String before = ring.nodeFor(email);
+            String after = grown.nodeFor(email);
+            if (!before.equals(after)) {
+                assertEquals("http://localhost:8083", after);
+                moved++;
+            }
+        }
+
+        // About a quarter of the keys
+        assertTrue(moved > 6_000 && moved < 9_000, "moved " + moved);
+    }
+
+    @Test
+    void constructor_noNodes_throws() {
+        assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing(List.of(), 256));
+        assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing(NODES, 0));
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.Users.services;
+
+import com.example.Users.stores.StripedUserStore;
+import com.example.Users.stores.UserStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The leader is a stand-in that answers /users/export and /users/changes with canned responses
+class ReplicationFollowerTest {
+    private final UserStore userStore = new StripedUserStore(4);
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    // Path and query of /users/changes requests to status, X-Users-Sequence and body
+    private final Map<String, Object[]> changes = new ConcurrentHashMap<>();
+    private volatile String exportSequence;
+    private volatile String export;
+    // How long the export stalls after its first line
+    private volatile long exportPauseMillis;
+    private HttpServer leader;
+    private ReplicationFollower follower;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        leader = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        leader.createContext("/users/export", exchange -> {
+            exchange.getResponseHeaders().add(ChangeFeed.SEQUENCE_HEADER, exportSequence);
+            String body = export;
+            int firstLine = body.indexOf('\n') + 1;
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body.substring(0, firstLine).getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                Thread.sleep(exportPauseMillis);
+                out.write(body.substring(firstLine).getBytes(StandardCharsets.UTF_8));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        leader.createContext("/users/changes", exchange -> {
+            String request = exchange.getRequestURI().getRawQuery();
+            // Nothing new unless a response is set
+            Object[] response = changes.getOrDefault(request, new Object[]{200, null, "[]"});
+            if (response[1] != null) {
+                exchange.getResponseHeaders().add(ChangeFeed.SEQUENCE_HEADER, (String) response[1]);
+            }
+            send(exchange, (int) response[0], (String) response[2]);
+        });
+        leader.start();
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        if (follower != null) {
+            follower.close();
+        }
+        leader.stop(0);
+    }
+
+    @Test
+    void load_thenAppliesTheChangesAfterTheExport() throws Exception {
+        exportSequence = "5";
+        export = user("a@example.com", 3) + "\n" + user("b@example.com", 4) + "\n";
+        changes.put("since=5&limit=1000", new Object[]{200, "7", "["
+                + "{\"sequence\":6,\"type\":\"RENAMED\",\"email\":\"c@example.com\",\"previousEmail\":\"a@example.com\",\"user\":" + user("c@example.com", 6) + "},"
+                + "{\"sequence\":7,\"type\":\"DELETED\",\"email\":\"b@example.com\",\"previousEmail\":null,\"user\":null}]"});
+
+        follower = open();
+
+        assertTrue(follower.awaitSequence(7, 5_000));
+        assertEquals(1, userStore.size());
+        assertEquals(6, userStore.get("c@example.com").getVersion());
+        assertEquals("Renamed", userStore.get("c@example.com").getFirstName());
+        assertTrue(follower.stalenessMillis() < 5_000);
+        assertEquals(0, registry.find("users.replication.lag").gauge().value());
+        assertFalse(follower.awaitSequence(8, 50));
+    }
+
+    @Test
+    void fellBehindTheChangeFeed_loadsAgain() throws Exception {
+        exportSequence = "5";
+        export = user("a@example.com", 3) + "\n";
+        changes.put("since=5&limit=1000", new Object[]{410, null, "Changes after 5 are no longer kept"});
+
+        follower = open();
+        assertTrue(follower.awaitSequence(5, 5_000));
+
+        // The export before its sequence number, which the leader reads first
+        export = user("z@example.com", 99) + "\n";
+        exportSequence = "100";
+        assertTrue(follower.awaitSequence(100, 5_000));
+        assertNull(userStore.get("a@example.com"));
+        assertEquals(99, userStore.get("z@example.com").getVersion());
+        assertTrue(registry.find("users.replication.resyncs").counter().count() >= 1);
+    }
+
+    // Reads go on against the users loaded before while the follower loads them all again
+    @Test
+    void fellBehindTheChangeFeed_readsDuringTheLoadSeeAllUsers() throws Exception {
+        exportSequence = "5";
+        export = user("a@example.com", 3) + "\n" + user("b@example.com", 4) + "\n";
+        changes.put("since=5&limit=1000", new Object[]{410, null, "Changes after 5 are no longer kept"});
+        follower = open();
+        assertTrue(follower.awaitSequence(5, 5_000));
+
+        // Every poll answers 410 now, so the follower keeps loading the export, which stalls halfway
+        exportPauseMillis = 20;
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+        while (System.nanoTime() < end) {
+            assertNotNull(userStore.get("a@example.com"));
+            assertNotNull(userStore.get("b@example.com"));
+            assertEquals(2, userStore.size());
+        }
+        assertTrue(registry.find("users.replication.resyncs").counter().count() >= 2);
+
+        exportPauseMillis = 0;
+        export = user("b@example.com", 99) + "\n" + user("z@example.com", 98) + "\n";
+        exportSequence = "100";
+        assertTrue(follower.awaitSequence(100, 5_000));
+        assertNull(userStore.get("a@example.com"));
+        assertEquals(99, userStore.get("b@example.com").getVersion());
+        assertEquals(98, userStore.get("z@example.com").getVersion());
+    }
+
+    private ReplicationFollower open() {
+        ReplicationFollower follower = new ReplicationFollower(userStore, new ObjectMapper().registerModule(new JavaTimeModule()),
+                registry, "http://127.0.0.1:" + leader.getAddress().getPort() + "/", 5, 1000, 2_000);
+        follower.open();
+        return follower;
+    }
+
+    private static String user(String email, long version) {
+        String firstName = email.startsWith("c") ? "Renamed" : "First";
+        return "{\"email\":\"" + email + "\",\"firstName\":\"" + firstName + "\",\"lastName\":\"Last\",\"birthDate\":\"1990-01-01\",\"version\":" + version + "}";
+    }
+
+    private static void send(com.sun.net.httpserver.HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.Users.services;
+
+import com.example.Users.models.User;
+import com.example.Users.stores.StripedUserStore;
+import com.example.Users.stores.UserStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchResultCacheTest {
+    private static final LocalDate FROM = LocalDate.of(1990, 1, 1);
+    private static final LocalDate TO = LocalDate.of(2000, 1, 1);
+
+    private MeterRegistry registry;
+    private UserStore userStore;
+    private SearchResultCache searchResultCache;
+    private AtomicInteger searches;
+
+    @BeforeEach
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        userStore = new StripedUserStore();
+        searchResultCache = cache(256, 1_000_000, 60_000);
+        searches = new AtomicInteger();
+        userStore.putIfAbsent(user("inside@example.com", LocalDate.of(1995, 5, 5)));
+        userStore.putIfAbsent(user("outside@example.com", LocalDate.of(2005, 5, 5)));
+    }
+
+    @Test
+    void get_secondSearchIsAHit() {
+        List<User> first = search(FROM, TO);
+        List<User> second = search(FROM, TO);
+
+        assertSame(first, second);
+        assertEquals(List.of("inside@example.com"), emails(second));
+        assertEquals(1, searches.get());
+        assertEquals(1, searchResultCache.getHits());
+        assertEquals(1, searchResultCache.getMisses());
+        assertEquals(1, registry.find("users.search.cache.requests").tag("result", "hit").counter().count());
+        assertThrows(UnsupportedOperationException.class, () -> second.add(user("other@example.com", FROM)));
+    }
+
+    @Test
+    void changes_invalidateOnlyRangesWithTheirBirthDates() {
+        search(FROM, TO);
+        search(TO, LocalDate.of(2010, 1, 1));
+
+        userStore.putIfAbsent(user("new@example.com", LocalDate.of(1996, 6, 6)));
+        assertEquals(List.of("inside@example.com", "new@example.com"), emails(search(FROM, TO)));
+        search(TO, LocalDate.of(2010, 1, 1));
+        assertEquals(3, searches.get());
+
+        // Moving a user out of one range and into the other touches both
+        userStore.update("outside@example.com", null, user -> user.setBirthDate(LocalDate.of(1997, 7, 7)));
+        assertEquals(3, search(FROM, TO).size());
+        assertEquals(0, search(TO, LocalDate.of(2010, 1, 1)).size());
+        assertEquals(5, searches.get());
+
+        // A birth date on a bound is outside the range
+        userStore.putIfAbsent(user("bound@example.com", TO));
+        userStore.update("bound@example.com", null, user -> user.setFirstName("Changed"));
+        userStore.putIfAbsent(user("none@example.com", null));
+        search(FROM, TO);
+        assertEquals(5, searches.get());
+
+        userStore.remove("inside@example.com");
+        assertEquals(2, search(FROM, TO).size());
+        userStore.clear();
+        assertEquals(0, search(FROM, TO).size());
+        assertEquals(7, searches.get());
+    }
+
+    @Test
+    void concurrentMisses_searchOnce() throws Exception {
+        int threads = 8;
+        CountDownLatch searching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<User>>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> searchResultCache.get(FROM, TO, () -> {
+                    searches.incrementAndGet();
+                    searching.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return userStore.findByBirthDateRange(FROM, TO);
+                })));
+            }
+            assertTrue(searching.await(1, TimeUnit.MINUTES));
+            // Give the other threads time to find the search running
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<List<User>> future : futures) {
+                assertEquals(List.of("inside@example.com"), emails(future.get(1, TimeUnit.MINUTES)));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, searches.get());
+        assertEquals(1, searchResultCache.getMisses());
+        assertEquals(threads - 1, searchResultCache.getHits());
+    }
+
+    @Test
+    void changeDuringSearch_resultNotKept() {
+        List<User> users = searchResultCache.get(FROM, TO, () -> {
+            List<User> found = userStore.findByBirthDateRange(FROM, TO);
+            userStore.putIfAbsent(user("new@example.com", LocalDate.of(1996, 6, 6)));
+            return found;
+        });
+
+        assertEquals(1, users.size());
+        assertEquals(0, searchResultCache.size());
+        assertEquals(2, search(FROM, TO).size());
+    }
+
+    @Test
+    void failedSearch_notKept() {
+        assertThrows(IllegalStateException.class, () -> searchResultCache.get(FROM, TO, () -> {
+            throw new IllegalStateException("Search failed");
+        }));
+
+        assertEquals(0, searchResultCache.size());
+        assertEquals(1, search(FROM, TO).size());
+    }
+
+    @Test
+    void maxEntries_evictsLeastRecentlyUsed() {
+        searchResultCache = cache(2, 1_000_000, 60_000);
+        LocalDate other = LocalDate.of(1980, 1, 1);
+        search(FROM, TO);
+        search(other, TO);
+        search(FROM, TO);
+        search(other, FROM);
+
+        assertEquals(2, searchResultCache.size());
+        search(FROM, TO);
+        assertEquals(3, searches.get());
+        search(other, TO);
+        assertEquals(4, searches.get());
+    }
+
+    @Test
+    void maxUsers_limitsUsersHeld() {
+        searchResultCache = cache(256, 1, 60_000);
+        LocalDate end = LocalDate.of(2010, 1, 1);
+        search(FROM, end);
+        assertEquals(0, searchResultCache.size());
+
+        search(FROM, TO);
+        search(TO, end);
+        assertEquals(1, searchResultCache.size());
+        search(TO, end);
+        assertEquals(3, searches.get());
+    }
+
+    @Test
+    void ttl_expiresResults() throws InterruptedException {
+        searchResultCache = cache(256, 1_000_000, 1);
+        search(FROM, TO);
+        Thread.sleep(5);
+        search(FROM, TO);
+
+        assertEquals(2, searches.get());
+        assertEquals(0, searchResultCache.getHits());
+    }
+
+    private SearchResultCache cache(int maxEntries, long maxUsers, long ttlMillis) {
+        SearchResultCache cache = new SearchResultCache(userStore, registry, null, maxEntries, maxUsers, ttlMillis);
+        cache.open();
+        return cache;
+    }
+
+    private List<User> search(LocalDate from, LocalDate to) {
+        return searchResultCache.get(from, to, () -> {
+            searches.incrementAndGet();
+            return userStore.findByBirthDateRange(from, to);
+        });
+    }
+
+    private static List<String> emails(List<User> users) {
+        return users.stream().map(User::getEmail).toList();
+    }
+
+    private static User user(String email, LocalDate birthDate) {
+        return new User(email, "FirstName", "LastName", birthDate);
+    }
+}
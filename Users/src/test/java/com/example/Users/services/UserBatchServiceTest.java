@@ -0,0 +1,158 @@
+package com.example.Users.services;
+
+import com.example.Users.models.BatchOperation;
+import com.example.Users.models.BatchOperation.Type;
+import com.example.Users.models.BatchResult;
+import com.example.Users.models.BatchResult.Status;
+import com.example.Users.models.User;
+import com.example.Users.stores.UserStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+class UserBatchServiceTest {
+    @Autowired
+    private UserBatchService userBatchService;
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private UserStore userStore;
+    @Autowired
+    private MeterRegistry registry;
+
+    @BeforeEach
+    public void setUp() {
+        userService.setMinUserAge(18);
+        userService.createUser(new User("existing@example.com", "FirstName", "LastName", LocalDate.of(2000, 3, 4)));
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        userStore.clear();
+    }
+
+    @Test
+    void applyBatch_bestEffort_reportsEveryOperation() {
+        List<BatchOperation> operations = List.of(
+                create("new@example.com", LocalDate.of(1990, 1, 1)),
+                create("existing@example.com", LocalDate.of(1990, 1, 1)),
+                create("young@example.com", LocalDate.now().minusYears(10)),
+                create("not an email", LocalDate.of(1990, 1, 1)),
+                new BatchOperation(Type.UPDATE, "missing@example.com", user("other@example.com", LocalDate.of(1990, 1, 1))),
+                new BatchOperation(Type.DELETE, "existing@example.com", null));
+
+        List<BatchResult> results = userBatchService.applyBatch(operations, false);
+
+        assertEquals(List.of(Status.CREATED, Status.DUPLICATE_EMAIL, Status.TOO_YOUNG, Status.VALIDATION_ERROR,
+                Status.NOT_FOUND, Status.DELETED), results.stream().map(BatchResult::getStatus).toList());
+        assertFalse(results.get(3).getErrors().isEmpty());
+        assertTrue(userStore.contains("new@example.com"));
+        assertFalse(userStore.contains("existing@example.com"));
+    }
+
+    // Operations left out of a failed atomic batch are not rejections of their own
+    @Test
+    void applyBatch_countsRejectionsByReason() {
+        double duplicates = rejections("duplicate_email");
+        double tooYoung = rejections("too_young");
+        double badFormat = rejections("bad_format");
+
+        userBatchService.applyBatch(List.of(
+                create("existing@example.com", LocalDate.of(1990, 1, 1)),
+                create("not an email", LocalDate.of(1990, 1, 1))), false);
+        userBatchService.applyBatch(List.of(
+                create("new@example.com", LocalDate.of(1990, 1, 1)),
+                create("young@example.com", LocalDate.now().minusYears(10))), true);
+
+        assertEquals(duplicates + 1, rejections("duplicate_email"));
+        assertEquals(badFormat + 1, rejections("bad_format"));
+        assertEquals(tooYoung + 1, rejections("too_young"));
+    }
+
+    @Test
+    void applyBatch_atomic_invalidOperation_nothingApplied() {
+        List<BatchOperation> operations = List.of(
+                create("new@example.com", LocalDate.of(1990, 1, 1)),
+                create("young@example.com", LocalDate.now().minusYears(10)));
+
+        List<BatchResult> results = userBatchService.applyBatch(operations, true);
+
+        assertEquals(Status.NOT_APPLIED, results.get(0).getStatus());
+        assertEquals(Status.TOO_YOUNG, results.get(1).getStatus());
+        assertFalse(userStore.contains("new@example.com"));
+    }
+
+    @Test
+    void applyBatch_atomic_failedOperation_rollsBackAppliedOnes() {
+        List<BatchOperation> operations = List.of(
+                create("new@example.com", LocalDate.of(1990, 1, 1)),
+                new BatchOperation(Type.UPDATE, "existing@example.com", user("renamed@example.com", LocalDate.of(1980, 5, 5))),
+                new BatchOperation(Type.DELETE, "new@example.com", null),
+                // Fails only when applied, after the operations above already changed the store
+                create("renamed@example.com", LocalDate.of(1990, 1, 1)));
+
+        List<BatchResult> results = userBatchService.applyBatch(operations, true);
+
+        assertEquals(List.of(Status.NOT_APPLIED, Status.NOT_APPLIED, Status.NOT_APPLIED, Status.DUPLICATE_EMAIL),
+                results.stream().map(BatchResult::getStatus).toList());
+        assertEquals(1, userStore.size());
+        User existingUser = userStore.get("existing@example.com");
+        assertEquals("FirstName", existingUser.getFirstName());
+        assertEquals(LocalDate.of(2000, 3, 4), existingUser.getBirthDate());
+        assertEquals(1, userService.getUsersByBirthDateRange(LocalDate.of(2000, 1, 1), LocalDate.of(2001, 1, 1)).size());
+    }
+
+    // Undone users are the ones that were there, with the same versions and so the same ETags
+    @Test
+    void applyBatch_atomic_rolledBack_versionsKept() {
+        userService.createUser(new User("other@example.com", "Other", "LastName", LocalDate.of(1995, 6, 7)));
+        long existingVersion = userStore.get("existing@example.com").getVersion();
+        long otherVersion = userStore.get("other@example.com").getVersion();
+        List<BatchOperation> operations = List.of(
+                new BatchOperation(Type.UPDATE, "existing@example.com", user("existing@example.com", LocalDate.of(1980, 5, 5))),
+                new BatchOperation(Type.DELETE, "other@example.com", null),
+                new BatchOperation(Type.DELETE, "missing@example.com", null));
+
+        List<BatchResult> results = userBatchService.applyBatch(operations, true);
+
+        assertEquals(Status.NOT_FOUND, results.get(2).getStatus());
+        assertEquals(existingVersion, userStore.get("existing@example.com").getVersion());
+        assertEquals("FirstName", userStore.get("existing@example.com").getFirstName());
+        assertEquals(otherVersion, userStore.get("other@example.com").getVersion());
+        assertEquals(2, userStore.size());
+    }
+
+    @Test
+    void applyBatch_atomic_allApplied() {
+        List<BatchOperation> operations = List.of(
+                create("new@example.com", LocalDate.of(1990, 1, 1)),
+                new BatchOperation(Type.UPDATE, "existing@example.com", user("renamed@example.com", LocalDate.of(1980, 5, 5))));
+
+        List<BatchResult> results = userBatchService.applyBatch(operations, true);
+
+        assertTrue(results.stream().allMatch(BatchResult::isSuccess));
+        assertTrue(userStore.contains("new@example.com"));
+        assertEquals(LocalDate.of(1980, 5, 5), userStore.get("renamed@example.com").getBirthDate());
+    }
+
+    private static BatchOperation create(String email, LocalDate birthDate) {
+        return new BatchOperation(Type.CREATE, null, user(email, birthDate));
+    }
+
+    private static User user(String email, LocalDate birthDate) {
+        return new User(email, "NewFirstName", "NewLastName", birthDate);
+    }
+
+    private double rejections(String reason) {
+        return registry.find("users.rejections").tag("reason", reason).counter().count();
+    }
+}
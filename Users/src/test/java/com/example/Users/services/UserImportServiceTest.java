@@ -0,0 +1,193 @@
+package com.example.Users.services;
+
+import com.example.Users.models.ImportProgress;
+import com.example.Users.models.User;
+import com.example.Users.services.UserImportService.Format;
+import com.example.Users.services.UserImportService.Lines;
+import com.example.Users.stores.UserStore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+class UserImportServiceTest {
+    @Autowired
+    private UserImportService userImportService;
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private UserStore userStore;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @BeforeEach
+    public void setUp() {
+        userService.setMinUserAge(18);
+        userService.createUser(new User("existing@example.com", "FirstName", "LastName", LocalDate.of(2000, 3, 4)));
+    }
+
+    @AfterEach
+    public void cleanUp() {
+        userStore.clear();
+    }
+
+    @Test
+    void importUsers_ndjson_createsValidUsersAndReportsTheOtherLines() throws Exception {
+        String young = LocalDate.now().minusYears(10).toString();
+        String input = """
+                {"email":"a@example.com","firstName":"A","lastName":"A","birthDate":"1990-01-01"}
+                {"email":"b@example.com",
+                {"email":"young@example.com","firstName":"Y","lastName":"Y","birthDate":"%s"}
+
+                {"email":"existing@example.com","firstName":"E","lastName":"E","birthDate":"1990-01-01"}
+                {"email":"not an email","firstName":"N","lastName":"N","birthDate":"1990-01-01"}
+                {"email":"a@example.com","firstName":"Again","lastName":"A","birthDate":"1990-01-01"}
+                {"email":"c@example.com","firstName":"C","lastName":"C","birthDate":"1990-01-02"}""".formatted(young);
+
+        List<JsonNode> report = importUsers(input, Format.NDJSON);
+
+        assertEquals(List.of("2 VALIDATION_ERROR", "3 TOO_YOUNG", "5 DUPLICATE_EMAIL", "6 VALIDATION_ERROR", "7 DUPLICATE_EMAIL"),
+                rejections(report));
+        assertTrue(report.get(0).get("errors").get(0).asText().startsWith("Malformed JSON"));
+        assertEquals("must be a well-formed email address", report.get(3).get("errors").get(0).asText());
+        assertDone(report, 8, 2, 5);
+        assertEquals("A", userStore.get("a@example.com").getFirstName());
+        assertNotNull(userStore.get("c@example.com"));
+        assertEquals(3, userStore.size());
+    }
+
+    @Test
+    void importUsers_csv_columnsInAnyOrderAndQuotedFields() throws Exception {
+        String input = "\uFEFFBirthDate,email,firstName,lastName,legacyId\r\n"
+                + "1990-01-01,a@example.com,\"Smith, Jr.\",\"O\"\"Neil\",17\r\n"
+                + "01.01.1990,b@example.com,B,B,18\r\n"
+                + "1990-01-01,c@example.com,,C\r\n"
+                + "1990-01-01,d@example.com,D,D\r\n";
+
+        List<JsonNode> report = importUsers(input, Format.CSV);
+
+        assertEquals(List.of("3 VALIDATION_ERROR", "4 VALIDATION_ERROR"), rejections(report));
+        assertEquals("Birth date must be in yyyy-MM-dd format", report.get(0).get("errors").get(0).asText());
+        assertEquals("First name is required", report.get(1).get("errors").get(0).asText());
+        assertDone(report, 5, 2, 2);
+        User user = userStore.get("a@example.com");
+        assertEquals("Smith, Jr.", user.getFirstName());
+        assertEquals("O\"Neil", user.getLastName());
+        assertEquals(LocalDate.of(1990, 1, 1), user.getBirthDate());
+    }
+
+    @Test
+    void importUsers_csvWithoutRequiredColumns_stops() throws Exception {
+        List<JsonNode> report = importUsers("email,name\na@example.com,A\n", Format.CSV);
+
+        assertEquals(List.of("1 VALIDATION_ERROR"), rejections(report));
+        assertDone(report, 1, 0, 1);
+        assertFalse(userStore.contains("a@example.com"));
+    }
+
+    @Test
+    void importUsers_manyLines_streamsProgress() throws Exception {
+        int users = 250_000;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        ImportProgress last = userImportService.importUsers(new GeneratedUsers(users), Format.NDJSON, out);
+
+        List<JsonNode> report = parse(out);
+        List<Long> lines = new ArrayList<>();
+        for (JsonNode node : report) {
+            lines.add(node.get("lines").asLong());
+        }
+        assertEquals(List.of(100_000L, 200_000L, 250_000L), lines);
+        assertTrue(last.isDone());
+        assertEquals(users, last.getCreated());
+        assertEquals(users + 1, userStore.size());
+    }
+
+    @Test
+    void parseCsv_quotesAndEmptyFields() {
+        assertEquals(List.of("a", "", "b,c", "d\"e", ""), UserImportService.parseCsv("a,,\"b,c\",\"d\"\"e\","));
+        assertEquals(List.of(""), UserImportService.parseCsv(""));
+    }
+
+    @Test
+    void lines_splitOnNewlinesAndSkipTooLongOnes() throws Exception {
+        Lines lines = new Lines(new StringReader("one\r\n" + "x".repeat(100) + "\n\nfour"), 10);
+
+        assertEquals("one", lines.next());
+        assertSame(Lines.TOO_LONG, lines.next());
+        assertEquals("", lines.next());
+        assertEquals("four", lines.next());
+        assertEquals(4, lines.number());
+        assertNull(lines.next());
+    }
+
+    private List<JsonNode> importUsers(String input, Format format) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        userImportService.importUsers(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), format, out);
+        return parse(out);
+    }
+
+    private List<JsonNode> parse(ByteArrayOutputStream out) throws Exception {
+        List<JsonNode> nodes = new ArrayList<>();
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            nodes.add(objectMapper.readTree(line));
+        }
+        return nodes;
+    }
+
+    private static List<String> rejections(List<JsonNode> report) {
+        return report.stream()
+                .filter(node -> node.has("status"))
+                .map(node -> node.get("index").asLong() + " " + node.get("status").asText())
+                .toList();
+    }
+
+    private static void assertDone(List<JsonNode> report, long lines, long created, long rejected) {
+        JsonNode last = report.get(report.size() - 1);
+        assertTrue(last.get("done").asBoolean());
+        assertEquals(lines, last.get("lines").asLong());
+        assertEquals(created, last.get("created").asLong());
+        assertEquals(rejected, last.get("rejected").asLong());
+    }
+
+    // NDJSON of many users made up while it's read, the whole upload is never in memory
+    private static final class GeneratedUsers extends InputStream {
+        private final int users;
+        private int next;
+        private byte[] line = new byte[0];
+        private int position;
+
+        GeneratedUsers(int users) {
+            this.users = users;
+        }
+
+        @Override
+        public int read() {
+            if (position == line.length) {
+                if (next == users) {
+                    return -1;
+                }
+                line = ("{\"email\":\"user" + next + "@example.com\",\"firstName\":\"F\",\"lastName\":\"L\",\"birthDate\":\""
+                        + LocalDate.of(1960, 1, 1).plusDays(next % 10_000) + "\"}\n").getBytes(StandardCharsets.UTF_8);
+                next++;
+                position = 0;
+            }
+            return line[position++];
+        }
+    }
+}
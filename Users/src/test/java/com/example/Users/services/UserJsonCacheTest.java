@@ -0,0 +1,143 @@
+package com.example.Users.services;
+
+import com.example.Users.models.User;
+import com.example.Users.stores.StripedUserStore;
+import com.example.Users.stores.UserStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserJsonCacheTest {
+    private final UserStore userStore = new StripedUserStore(4);
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private UserJsonCache userJsonCache;
+
+    @BeforeEach
+    public void setUp() {
+        userJsonCache = new UserJsonCache(userStore, objectMapper, registry, 1 << 20);
+        userJsonCache.open();
+        userStore.putIfAbsent(new User("john@example.com", "John", "Doe", LocalDate.of(1990, 1, 1)));
+        userStore.putIfAbsent(new User("jane@example.com", "Jane", "Doe", LocalDate.of(1991, 2, 3)));
+    }
+
+    @Test
+    void toJson_sameBytesAsTheObjectMapper_madeOnce() throws Exception {
+        User user = userStore.getCopy("john@example.com");
+
+        byte[] json = userJsonCache.toJson(user);
+
+        assertArrayEquals(objectMapper.writeValueAsBytes(user), json);
+        assertSame(json, userJsonCache.toJson(userStore.getCopy("john@example.com")));
+        assertEquals(1, registry.find("users.json.cache.requests").tag("result", "hit").counter().count());
+        assertEquals(1, userJsonCache.size());
+    }
+
+    @Test
+    void toJson_userChanged_madeAgain() throws Exception {
+        User before = userStore.getCopy("john@example.com");
+        userJsonCache.toJson(before);
+
+        userStore.update("john@example.com", null, user -> user.setFirstName("Johnny"));
+        assertEquals(0, userJsonCache.size());
+        User after = userStore.getCopy("john@example.com");
+        assertArrayEquals(objectMapper.writeValueAsBytes(after), userJsonCache.toJson(after));
+
+        // A copy read before the change still gets its own JSON, not the cached one
+        assertArrayEquals(objectMapper.writeValueAsBytes(before), userJsonCache.toJson(before));
+        // And one changed outside the store doesn't get the cached JSON of its version
+        User changed = userStore.getCopy("john@example.com");
+        userJsonCache.toJson(changed);
+        changed.setLastName("Smith");
+        assertArrayEquals(objectMapper.writeValueAsBytes(changed), userJsonCache.toJson(changed));
+    }
+
+    // A user changing while it's serialized: its JSON must not be kept under the fields it ends up with
+    @Test
+    void toJson_userChangedWhileSerialized_jsonKeptWithTheFieldsItWasMadeOf() throws Exception {
+        User stored = userStore.get("john@example.com");
+        User changing = new User(stored.getEmail(), null, stored.getLastName(), stored.getBirthDate()) {
+            private int reads;
+
+            @Override
+            public String getFirstName() {
+                return reads++ == 0 ? "Old" : stored.getFirstName();
+            }
+        };
+        changing.setVersion(stored.getVersion());
+
+        assertTrue(new String(userJsonCache.toJson(changing)).contains("\"Old\""));
+
+        assertArrayEquals(objectMapper.writeValueAsBytes(stored), userJsonCache.toJson(stored));
+    }
+
+    @Test
+    void toJson_deletedOrNotStored_notKept() throws Exception {
+        userJsonCache.toJson(userStore.getCopy("john@example.com"));
+        userStore.remove("john@example.com");
+        assertEquals(0, userJsonCache.size());
+
+        userJsonCache.toJson(new User("elsewhere@example.com", "Else", "Where", LocalDate.of(1980, 5, 6)));
+        assertEquals(0, userJsonCache.size());
+
+        userJsonCache.toJson(userStore.getCopy("jane@example.com"));
+        userStore.clear();
+        assertEquals(0, userJsonCache.size());
+        assertEquals(0, userJsonCache.bytes());
+    }
+
+    @Test
+    void toJson_overMaxBytes_evictsDownToNineTenths() throws Exception {
+        int json = objectMapper.writeValueAsBytes(userStore.getCopy("john@example.com")).length;
+        UserJsonCache bounded = new UserJsonCache(userStore, objectMapper, new SimpleMeterRegistry(), 10L * json);
+        bounded.open();
+        for (int i = 0; i < 100; i++) {
+            userStore.putIfAbsent(new User("john" + (char) ('a' + i % 26) + (char) ('a' + i / 26) + "@example.com", "John", "Doe", LocalDate.of(1990, 1, 1)));
+        }
+
+        for (User user : userStore.findByBirthDateRange(LocalDate.of(1980, 1, 1), LocalDate.of(2000, 1, 1))) {
+            assertArrayEquals(objectMapper.writeValueAsBytes(user), bounded.toJson(user));
+            assertTrue(bounded.bytes() <= 10L * json, bounded.bytes() + " bytes");
+        }
+        // Never emptied, only down to nine tenths
+        assertTrue(bounded.bytes() >= 8L * json, bounded.bytes() + " bytes");
+        assertTrue(bounded.size() < 10, bounded.size() + " users");
+
+        userStore.clear();
+        assertEquals(0, bounded.bytes());
+    }
+
+    @Test
+    void toJson_userBiggerThanMaxBytes_notKept() throws Exception {
+        UserJsonCache bounded = new UserJsonCache(userStore, objectMapper, new SimpleMeterRegistry(), 10);
+
+        bounded.toJson(userStore.getCopy("john@example.com"));
+
+        assertEquals(0, bounded.size());
+        assertEquals(0, bounded.bytes());
+    }
+
+    @Test
+    void writeArray_sameBytesAsTheObjectMapper() throws Exception {
+        List<User> users = userStore.findByBirthDateRange(LocalDate.of(1980, 1, 1), LocalDate.of(2000, 1, 1));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        userJsonCache.writeArray(users, out);
+        assertArrayEquals(objectMapper.writeValueAsBytes(users), out.toByteArray());
+
+        out.reset();
+        userJsonCache.writeArray(List.of(), out);
+        assertEquals("[]", out.toString());
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.Users.services;
+
+import com.example.Users.models.User;
+import com.example.Users.services.UserMetrics.Operation;
+import com.example.Users.services.UserMetrics.Rejection;
+import com.example.Users.stores.ColumnarUserIndex;
+import com.example.Users.stores.StripedUserStore;
+import com.example.Users.stores.UserStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserMetricsTest {
+    private MeterRegistry registry;
+    private UserStore userStore;
+    private ColumnarUserIndex columnarUserIndex;
+    private UserMetrics userMetrics;
+
+    @BeforeEach
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        userStore = new StripedUserStore();
+        columnarUserIndex = new ColumnarUserIndex(userStore);
+        columnarUserIndex.open();
+        userMetrics = new UserMetrics(registry, userStore, columnarUserIndex);
+    }
+
+    @Test
+    void record_timesEachOperationSeparately() {
+        userMetrics.record(Operation.CREATE, System.nanoTime() - 2_000_000);
+        userMetrics.record(Operation.CREATE, System.nanoTime());
+        userMetrics.record(Operation.SEARCH, System.nanoTime());
+
+        assertEquals(2, registry.find("users.operations").tag("operation", "create").timer().count());
+        assertTrue(registry.find("users.operations").tag("operation", "create").timer().totalTime(TimeUnit.MILLISECONDS) >= 2);
+        assertEquals(1, registry.find("users.operations").tag("operation", "search").timer().count());
+        assertEquals(0, registry.find("users.operations").tag("operation", "update_partial").timer().count());
+    }
+
+    @Test
+    void rejected_countsEachReason() {
+        userMetrics.rejected(Rejection.TOO_YOUNG);
+        userMetrics.rejected(Rejection.TOO_YOUNG);
+        userMetrics.rejected(Rejection.NOT_FOUND);
+
+        assertEquals(2, registry.find("users.rejections").tag("reason", "too_young").counter().count());
+        assertEquals(1, registry.find("users.rejections").tag("reason", "not_found").counter().count());
+        assertEquals(0, registry.find("users.rejections").tag("reason", "duplicate_email").counter().count());
+        assertEquals(0, registry.find("users.rejections").tag("reason", "bad_format").counter().count());
+    }
+
+    @Test
+    void gauges_followStoreAndIndexes() {
+        userStore.putIfAbsent(new User("first@example.com", "FirstName", "LastName", LocalDate.of(2000, 3, 4)));
+        userStore.putIfAbsent(new User("second@example.com", "FirstName", "LastName", null));
+
+        assertEquals(2, registry.find("users.store.size").gauge().value());
+        assertEquals(1, registry.find("users.index.size").tag("index", "birth_date").gauge().value());
+        assertEquals(2, registry.find("users.index.size").tag("index", "columnar").gauge().value());
+    }
+
+    // Recording sits on every request, it must not leave garbage behind
+    @Test
+    void recording_doesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Operation[] operations = Operation.values();
+        Rejection[] reasons = Rejection.values();
+        for (int i = 0; i < 20_000; i++) {
+            userMetrics.record(operations[i % operations.length], System.nanoTime());
+            userMetrics.rejected(reasons[i % reasons.length]);
+        }
+
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 100_000; i++) {
+            userMetrics.record(Operation.UPDATE, System.nanoTime());
+            userMetrics.rejected(Rejection.BAD_FORMAT);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        assertTrue(allocated < 4_096, "Allocated " + allocated + " bytes");
+    }
+}
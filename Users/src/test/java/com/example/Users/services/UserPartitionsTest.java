@@ -0,0 +1,191 @@
+package com.example.Users.services;
+
+import com.example.Users.models.User;
+import com.example.Users.models.UserPage;
+import com.example.Users.stores.BirthDateKey;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The peer is a stand-in that answers the requests of PartitionController with canned responses,
+// and with 403 like PartitionFilter to a request without the cluster secret
+class UserPartitionsTest {
+    private static final String SELF = "http://localhost:1";
+    private static final String SECRET = "s3cret";
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    // "METHOD path?query" to status and body
+    private final Map<String, Object[]> responses = new ConcurrentHashMap<>();
+    private final Map<String, String> requestBodies = new ConcurrentHashMap<>();
+    private HttpServer peer;
+    private UserPartitions userPartitions;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        peer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        peer.createContext("/", exchange -> {
+            String request = exchange.getRequestMethod() + " " + exchange.getRequestURI().getRawPath()
+                    + (exchange.getRequestURI().getRawQuery() == null ? "" : "?" + exchange.getRequestURI().getRawQuery());
+            requestBodies.put(request, new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            Object[] response = !SECRET.equals(exchange.getRequestHeaders().getFirst(UserPartitions.SECRET_HEADER))
+                    ? new Object[]{403, "Only for the nodes of the cluster"}
+                    : responses.getOrDefault(request, new Object[]{500, "Unexpected " + request});
+            byte[] body = ((String) response[1]).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders((int) response[0], body.length == 0 ? -1 : body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        peer.start();
+        String peerUrl = "http://127.0.0.1:" + peer.getAddress().getPort();
+        userPartitions = new UserPartitions(objectMapper, new String[]{SELF, peerUrl + "/"}, SELF + "/", SECRET, 64, 2_000);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        peer.stop(0);
+    }
+
+    @Test
+    void isLocal_everyEmailHasOneOwner() {
+        int local = 0;
+        for (int i = 0; i < 1000; i++) {
+            String email = "user" + i + "@example.com";
+            assertEquals(userPartitions.isLocal(email), userPartitions.ownerOf(email).equals(SELF));
+            local += userPartitions.isLocal(email) ? 1 : 0;
+        }
+        assertTrue(local > 350 && local < 650, "local " + local);
+        assertEquals(List.of("http://127.0.0.1:" + peer.getAddress().getPort()), userPartitions.peers());
+    }
+
+    @Test
+    void getUser_asksTheOwner() throws Exception {
+        String email = remoteEmail("a+b");
+        respond("GET /partition/users/" + email.replace("+", "%2B").replace("@", "%40"), 200,
+                "{\"email\":\"" + email + "\",\"firstName\":\"First\",\"lastName\":\"Last\",\"birthDate\":\"1990-01-01\",\"version\":7}");
+        String missing = remoteEmail("missing");
+        respond("GET /partition/users/" + missing.replace("@", "%40"), 404, "");
+
+        User user = userPartitions.getUser(email);
+
+        assertEquals(email, user.getEmail());
+        assertEquals(LocalDate.of(1990, 1, 1), user.getBirthDate());
+        assertEquals(7, user.getVersion());
+        assertNull(userPartitions.getUser(missing));
+        assertNull(userPartitions.view(Map.of()).get(missing));
+    }
+
+    @Test
+    void createUser_setsTheVersionOfTheOwner() throws Exception {
+        String email = remoteEmail("new");
+        User user = new User(email, "First", "Last", LocalDate.of(1990, 1, 1));
+        respond("POST /partition/users", 201, "{\"email\":\"" + email + "\",\"version\":3}");
+
+        assertTrue(userPartitions.createUser(user));
+        assertEquals(3, user.getVersion());
+        assertEquals(email, objectMapper.readTree(requestBodies.get("POST /partition/users")).path("email").asText());
+
+        respond("POST /partition/users", 409, "");
+        assertFalse(userPartitions.createUser(user));
+    }
+
+    @Test
+    void deleteUser_misdirected_unavailable() {
+        String email = remoteEmail("elsewhere");
+        respond("DELETE /partition/users/" + email.replace("@", "%40") + "?version=0", 421, "");
+
+        UserPartitions.UnavailableException e = assertThrows(UserPartitions.UnavailableException.class,
+                () -> userPartitions.deleteUser(email, 0));
+        assertTrue(e.getMessage().contains("cluster.nodes"), e.getMessage());
+    }
+
+    @Test
+    void findByBirthDateRange_pageMergesAllNodes() throws Exception {
+        LocalDate from = LocalDate.of(1990, 1, 1);
+        LocalDate to = LocalDate.of(2000, 1, 1);
+        User remote1 = user("remote1@example.com", LocalDate.of(1991, 1, 1));
+        User remote2 = user("remote2@example.com", LocalDate.of(1993, 1, 1));
+        User local1 = user("local1@example.com", LocalDate.of(1992, 1, 1));
+        User local2 = user("local2@example.com", LocalDate.of(1994, 1, 1));
+        respond("GET /partition/users/search?from=1990-01-01&to=2000-01-01&limit=3", 200,
+                objectMapper.writeValueAsString(new UserPage(List.of(remote1, remote2), null)));
+
+        UserPage page = userPartitions.findByBirthDateRange(from, to, null, 3,
+                () -> new UserPage(List.of(local1, local2), null));
+
+        assertEquals(List.of("remote1@example.com", "local1@example.com", "remote2@example.com"),
+                page.getUsers().stream().map(User::getEmail).toList());
+        // Every node goes on after the last user of the page, wherever it came from
+        assertEquals(new BirthDateKey(remote2.getBirthDate(), remote2.getEmail()), BirthDateKey.decode(page.getNextCursor()));
+
+        respond("GET /partition/users/search?from=1990-01-01&to=2000-01-01&limit=3&cursor=" + page.getNextCursor(), 200,
+                objectMapper.writeValueAsString(new UserPage(List.of(), null)));
+        UserPage last = userPartitions.findByBirthDateRange(from, to, page.getNextCursor(), 3,
+                () -> new UserPage(List.of(local2), null));
+
+        assertEquals(List.of("local2@example.com"), last.getUsers().stream().map(User::getEmail).toList());
+        assertNull(last.getNextCursor());
+    }
+
+    @Test
+    void findByName_mergesInSearchOrder() throws Exception {
+        respond("GET /partition/users/search/name?q=ann&limit=2", 200, objectMapper.writeValueAsString(List.of(
+                new User("a@example.com", "Ann", "Last", LocalDate.of(1990, 1, 1)),
+                new User("d@example.com", "Joanne", "Last", LocalDate.of(1990, 1, 1)))));
+
+        List<User> users = userPartitions.findByName("ann", 2, () -> List.of(
+                new User("b@example.com", "Anna", "Last", LocalDate.of(1990, 1, 1)),
+                new User("c@example.com", "Hanna", "Last", LocalDate.of(1990, 1, 1))));
+
+        assertEquals(List.of("a@example.com", "b@example.com"), users.stream().map(User::getEmail).toList());
+    }
+
+    @Test
+    void secret_sentToPeersAndChecked() {
+        String peerUrl = userPartitions.peers().get(0);
+        UserPartitions otherCluster = new UserPartitions(objectMapper, new String[]{SELF, peerUrl}, SELF, "other", 64, 2_000);
+        String email = remoteEmail("a");
+        respond("GET /partition/users/" + email.replace("@", "%40"), 404, "");
+
+        assertNull(userPartitions.getUser(email));
+        assertThrows(UserPartitions.UnavailableException.class, () -> otherCluster.getUser(email));
+        assertTrue(userPartitions.isPeerSecret(SECRET));
+        assertFalse(userPartitions.isPeerSecret("s3cre"));
+        assertFalse(userPartitions.isPeerSecret(null));
+        assertThrows(IllegalArgumentException.class,
+                () -> new UserPartitions(objectMapper, new String[]{SELF}, SELF, " ", 64, 2_000));
+    }
+
+    private void respond(String request, int status, String body) {
+        responses.put(request, new Object[]{status, body});
+    }
+
+    private String remoteEmail(String prefix) {
+        for (int i = 0; ; i++) {
+            String email = prefix + i + "@example.com";
+            if (!userPartitions.isLocal(email)) {
+                return email;
+            }
+        }
+    }
+
+    private static User user(String email, LocalDate birthDate) {
+        return new User(email, "First", "Last", birthDate);
+    }
+}
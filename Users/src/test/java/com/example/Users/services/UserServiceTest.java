@@ -1,6 +1,8 @@
 package com.example.Users.services;
 
 import com.example.Users.models.User;
+import com.example.Users.models.UserPage;
+import com.example.Users.stores.UserStore;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -9,7 +11,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -18,6 +23,8 @@ import static org.junit.jupiter.api.Assertions.*;
 class UserServiceTest {
     @Autowired
     private UserService userService;
+    @Autowired
+    private UserStore userStore;
     private User user;
 
     @BeforeEach
@@ -31,7 +38,7 @@ class UserServiceTest {
 
     @AfterEach
     public void cleanUp(){
-        userService.getUsersByEmail().clear();
+        userStore.clear();
     }
 
     @Test
@@ -51,7 +58,7 @@ class UserServiceTest {
     @Test
     void updatePartialUser_updateFirstName() {
 
-        userService.getUsersByEmail().put(user.getEmail(), user);
+        userService.createUser(user);
 
         User updatedUser = new User();
         updatedUser.setFirstName("NewFirstName");
@@ -63,7 +70,7 @@ class UserServiceTest {
 
     @Test
     void updatePartialUser_updateLastName() {
-        userService.getUsersByEmail().put(user.getEmail(), user);
+        userService.createUser(user);
 
         User updatedUser = new User();
         updatedUser.setLastName("NewLastName");
@@ -75,7 +82,7 @@ class UserServiceTest {
 
     @Test
     void updatePartialUser_updateEmail() {
-        userService.getUsersByEmail().put(user.getEmail(), user);
+        userService.createUser(user);
 
         User updatedUser = new User();
         updatedUser.setEmail("newemail@example.com");
@@ -87,7 +94,7 @@ class UserServiceTest {
 
     @Test
     void updatePartialUser_updateBirthDate() {
-        userService.getUsersByEmail().put(user.getEmail(), user);
+        userService.createUser(user);
 
         LocalDate newBirthDate = LocalDate.of(1990, 1, 1);
         User updatedUser = new User();
@@ -112,7 +119,7 @@ class UserServiceTest {
 
     @Test
     void updateUser() {
-        userService.getUsersByEmail().put(user.getEmail(), user);
+        userService.createUser(user);
 
         User updatedUser = new User("newemail@gmail.com", "NewFirstName", "NewLastName"
                 , LocalDate.of(1999, 1, 30));
@@ -122,32 +129,103 @@ class UserServiceTest {
         assertEquals("newemail@gmail.com", resultUser.getEmail());
         assertEquals("NewFirstName", resultUser.getFirstName());
         assertEquals("NewLastName", resultUser.getLastName());
-        assertEquals(user.getBirthDate(), resultUser.getBirthDate());
+        assertEquals(LocalDate.of(1999, 1, 30), resultUser.getBirthDate());
+        // The created user is left as it was, the store keeps a changed copy
+        assertEquals(LocalDate.of(2000, 3, 4), user.getBirthDate());
     }
 
     @Test
     void deleteUser() {
-        userService.getUsersByEmail().put(user.getEmail(), user);
+        userService.createUser(user);
 
         assertTrue(userService.deleteUser(user.getEmail()));
         assertFalse(userService.deleteUser(user.getEmail()));
     }
 
+    @Test
+    void getUser_returnsCopyWithVersion() {
+        userService.createUser(user);
+
+        User copy = userService.getUser(user.getEmail());
+        copy.setFirstName("Changed");
+
+        assertEquals("FirstName", userService.getUser(user.getEmail()).getFirstName());
+        assertTrue(copy.getVersion() > 0);
+        assertNull(userService.getUser("missing@example.com"));
+    }
+
+    @Test
+    void updateUser_withExpectedVersion_onlyIfUnchanged() {
+        userService.createUser(user);
+        long version = userService.getUser(user.getEmail()).getVersion();
+        User updatedUser = new User(user.getEmail(), "NewFirstName", "NewLastName", LocalDate.of(1999, 1, 30));
+
+        assertNotNull(userService.updateUser(user.getEmail(), updatedUser, version));
+        assertNull(userService.updateUser(user.getEmail(), updatedUser, version));
+        assertFalse(userService.deleteUser(user.getEmail(), version));
+        assertTrue(userService.deleteUser(user.getEmail(), userService.getUser(user.getEmail()).getVersion()));
+    }
+
     @Test
     void getUsersByBirthDateRange() {
 
         User user1 = new User("otheremail@gmai.com", "Bob", "Bobenko", LocalDate.of(1999, 10, 31));
         User user2 = new User("someemail@gmai.com", "Ron", "Ronchuk", LocalDate.of(2001, 10, 31));
 
-        userService.getUsersByEmail().put(user.getEmail(), user);
-        userService.getUsersByEmail().put(user1.getEmail(), user1);
-        userService.getUsersByEmail().put(user2.getEmail(), user2);
+        userService.createUser(user);
+        userService.createUser(user1);
+        userService.createUser(user2);
 
         List<User> userList = userService.getUsersByBirthDateRange(LocalDate.of(1999, 12, 8), LocalDate.of(2001, 6, 22));
 
         assertEquals(1, userList.size());
     }
 
+    @Test
+    void getUsersByBirthDateRange_pagedWithCursor() {
+        for (int i = 0; i < 25; i++) {
+            userService.createUser(new User("user" + i + "@gmail.com", "Bob", "Bobenko", LocalDate.of(1990, 1, 1).plusDays(i % 7)));
+        }
+
+        List<User> allUsers = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            UserPage page = userService.getUsersByBirthDateRange(LocalDate.of(1989, 1, 1), LocalDate.of(1991, 1, 1), cursor, 10);
+            allUsers.addAll(page.getUsers());
+            cursor = page.getNextCursor();
+            pages++;
+            // A user deleted after its page was served must not break the cursor
+            userService.deleteUser(page.getUsers().get(page.getUsers().size() - 1).getEmail());
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(25, allUsers.size());
+        assertEquals(userService.getUsersByBirthDateRange(LocalDate.of(1989, 1, 1), LocalDate.of(1991, 1, 1)).size() + 3,
+                allUsers.stream().map(User::getEmail).distinct().count());
+    }
+
+    @Test
+    void getUsersByBirthDateRange_invalidCursor() {
+        assertThrows(IllegalArgumentException.class, () ->
+                userService.getUsersByBirthDateRange(LocalDate.of(1989, 1, 1), LocalDate.of(1991, 1, 1), "not a cursor", 10));
+    }
+
+    @Test
+    void exportUsers_oneJsonLinePerUser() throws Exception {
+        userService.createUser(user);
+        userService.createUser(new User("undated@example.com", "Bob", "Bobenko", null));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(2, userService.exportUsers(out));
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("{\"email\":\"example@example.com\""), lines[0]);
+        assertTrue(lines[0].contains("\"birthDate\":\"2000-03-04\""), lines[0]);
+        assertTrue(lines[1].startsWith("{\"email\":\"undated@example.com\""), lines[1]);
+    }
+
     @Test
     void isValidEmail() {
         // Перевірка коректних email
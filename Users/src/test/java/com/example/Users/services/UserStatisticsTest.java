@@ -0,0 +1,141 @@
+package com.example.Users.services;
+
+import com.example.Users.models.User;
+import com.example.Users.models.UserStats;
+import com.example.Users.stores.StripedUserStore;
+import com.example.Users.stores.UserStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserStatisticsTest {
+    private static final LocalDate TODAY = LocalDate.of(2026, 10, 17);
+
+    private UserStore userStore;
+    private UserStatistics userStatistics;
+
+    @BeforeEach
+    public void setUp() {
+        userStore = new StripedUserStore();
+        // Users stored before the statistics are opened are counted as well
+        userStore.putIfAbsent(user("first@example.com", LocalDate.of(2000, 3, 4)));
+        userStatistics = new UserStatistics(userStore, new int[]{25, 35, 65});
+        userStatistics.open();
+    }
+
+    @Test
+    void snapshot_countsByYearBandAndDomain() {
+        userStore.putIfAbsent(user("second@Example.com", LocalDate.of(2000, 12, 31)));
+        userStore.putIfAbsent(user("third@other.org", LocalDate.of(1950, 1, 1)));
+        userStore.putIfAbsent(user("fourth@other.org", null));
+
+        UserStats stats = userStatistics.snapshot(TODAY, 18);
+
+        assertEquals(4, stats.getTotal());
+        assertEquals(1, stats.getWithoutBirthDate());
+        assertEquals(Map.of(1950, 1L, 2000, 2L), stats.getByBirthYear());
+        assertEquals(List.of(1950, 2000), List.copyOf(stats.getByBirthYear().keySet()));
+        assertEquals(bands(0, 0, 2, 0, 1), stats.getByAgeBand());
+        assertEquals(Map.of("example.com", 2L, "other.org", 2L), stats.getByEmailDomain());
+    }
+
+    @Test
+    void snapshot_ageBandsChangeOnBirthdays() {
+        userStore.putIfAbsent(user("young@example.com", TODAY.minusYears(18)));
+        userStore.putIfAbsent(user("almost@example.com", TODAY.minusYears(18).plusDays(1)));
+        userStore.putIfAbsent(user("old@example.com", TODAY.minusYears(65)));
+
+        assertEquals(bands(1, 1, 1, 0, 1), userStatistics.snapshot(TODAY, 18).getByAgeBand());
+        assertEquals(bands(0, 2, 1, 0, 1), userStatistics.snapshot(TODAY.plusDays(1), 18).getByAgeBand());
+    }
+
+    @Test
+    void snapshot_firstBandStartsAtMinUserAge() {
+        Map<String, Long> byAgeBand = userStatistics.snapshot(TODAY, 30).getByAgeBand();
+
+        assertEquals(List.of("0-29", "30-34", "35-64", "65+"), List.copyOf(byAgeBand.keySet()));
+        assertEquals(1, byAgeBand.get("0-29").longValue());
+    }
+
+    @Test
+    void countBornBetween_excludesBothEnds() {
+        userStore.putIfAbsent(user("second@example.com", LocalDate.of(2000, 3, 5)));
+        userStore.putIfAbsent(user("third@example.com", LocalDate.of(2000, 3, 6)));
+
+        assertEquals(1, userStatistics.countBornBetween(LocalDate.of(2000, 3, 4), LocalDate.of(2000, 3, 6)));
+        assertEquals(3, userStatistics.countBornBetween(LocalDate.of(1999, 1, 1), LocalDate.of(2001, 1, 1)));
+        assertEquals(0, userStatistics.countBornBetween(LocalDate.of(2001, 1, 1), LocalDate.of(1999, 1, 1)));
+    }
+
+    @Test
+    void changes_moveCountsBetweenBuckets() {
+        userStore.update("first@example.com", "first@other.org", user -> user.setBirthDate(LocalDate.of(1970, 6, 6)));
+        UserStats stats = userStatistics.snapshot(TODAY, 18);
+        assertEquals(1, stats.getTotal());
+        assertEquals(Map.of(1970, 1L), stats.getByBirthYear());
+        assertEquals(bands(0, 0, 0, 1, 0), stats.getByAgeBand());
+        assertEquals(Map.of("other.org", 1L), stats.getByEmailDomain());
+
+        userStore.remove("first@other.org");
+        stats = userStatistics.snapshot(TODAY, 18);
+        assertEquals(0, stats.getTotal());
+        assertTrue(stats.getByBirthYear().isEmpty());
+        assertTrue(stats.getByEmailDomain().isEmpty());
+
+        userStore.putIfAbsent(user("second@example.com", null));
+        userStore.clear();
+        assertEquals(0, userStatistics.snapshot(TODAY, 18).getWithoutBirthDate());
+    }
+
+    @Test
+    void randomChanges_sameCountsAsAScan() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < 20_000; i++) {
+            String email = "user" + random.nextInt(500) + "@domain" + random.nextInt(5) + ".com";
+            LocalDate birthDate = random.nextInt(10) == 0 ? null : LocalDate.of(1930 + random.nextInt(90), 1, 1).plusDays(random.nextInt(365));
+            switch (random.nextInt(3)) {
+                case 0 -> userStore.putIfAbsent(user(email, birthDate));
+                case 1 -> userStore.remove(email);
+                default -> userStore.update(email, "user" + random.nextInt(500) + "@domain" + random.nextInt(5) + ".com",
+                        user -> user.setBirthDate(birthDate));
+            }
+        }
+
+        Map<Integer, Long> byBirthYear = new HashMap<>();
+        Map<String, Long> byEmailDomain = new HashMap<>();
+        for (User user : userStore.values()) {
+            if (user.getBirthDate() != null) {
+                byBirthYear.merge(user.getBirthDate().getYear(), 1L, Long::sum);
+            }
+            byEmailDomain.merge(user.getEmail().substring(user.getEmail().indexOf('@') + 1), 1L, Long::sum);
+        }
+        UserStats stats = userStatistics.snapshot(TODAY, 18);
+        assertEquals(userStore.size(), stats.getTotal());
+        assertEquals(byBirthYear, stats.getByBirthYear());
+        assertEquals(byEmailDomain, stats.getByEmailDomain());
+        assertEquals(stats.getTotal() - stats.getWithoutBirthDate(),
+                stats.getByAgeBand().values().stream().mapToLong(Long::longValue).sum());
+    }
+
+    // Counts of the bands 0-17, 18-24, 25-34, 35-64 and 65+
+    private static Map<String, Long> bands(long... counts) {
+        Map<String, Long> bands = new LinkedHashMap<>();
+        String[] names = {"0-17", "18-24", "25-34", "35-64", "65+"};
+        for (int i = 0; i < names.length; i++) {
+            bands.put(names[i], counts[i]);
+        }
+        return bands;
+    }
+
+    private static User user(String email, LocalDate birthDate) {
+        return new User(email, "FirstName", "LastName", birthDate);
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.Users.services;
+
+import com.example.Users.models.User;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Differential tests: UserValidator must give the same answers as the rules it replaces
+class UserValidatorTest {
+    private static final String EMAIL_REGEX = "^[a-zA-Z0-9_+&*-]+(?:\\.[a-zA-Z0-9_+&*-]+)*@(?:[a-zA-Z0-9-]+\\.)+[a-zA-Z]{2,7}$";
+    private static final List<String> EMAILS = List.of(
+            "test@example.com", "john.doe@example.co.uk", "user1234@example.com.ua", "a_b+c&d*e-f@x-y.org",
+            "not_an_email", "user@example", "user@.com", "user@example..com", "@example.com", "user.example.com",
+            "user@example.c", "user@example.toolongtld", "user@example.com.", ".user@example.com", "user.@example.com",
+            "us..er@example.com", "user@@example.com", "user@exam_ple.com", "user@example.c0m", "user@-example.com",
+            "user@example-.com", "user@123.com", "USER@EXAMPLE.COM", "user name@example.com", "user@example.com ",
+            "\"quoted\"@example.com", "user@[192.168.0.1]", "user@localhost", "üser@example.com", "user@exämple.com",
+            "a@b.cd", "x".repeat(64) + "@example.com", "x".repeat(65) + "@example.com",
+            "user@" + "x".repeat(63) + ".com", "user@" + "x".repeat(64) + ".com", " ", "   ", "");
+
+    private final Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+    private final UserValidator userValidator = new UserValidator(validator);
+
+    @Test
+    void isValidEmail_sameAsRegex() {
+        for (String email : EMAILS) {
+            assertEquals(email.matches(EMAIL_REGEX), userValidator.isValidEmail(email), email);
+        }
+        // Random strings over the chars that matter to the regex
+        Random random = new Random(42);
+        String alphabet = "aZ09_+&*-.@ #ä";
+        for (int i = 0; i < 200_000; i++) {
+            StringBuilder email = new StringBuilder();
+            int length = random.nextInt(16);
+            for (int j = 0; j < length; j++) {
+                email.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String candidate = email.toString();
+            assertEquals(candidate.matches(EMAIL_REGEX), userValidator.isValidEmail(candidate), candidate);
+        }
+    }
+
+    @Test
+    void validate_sameAsAnnotations() {
+        LocalDate today = LocalDate.now();
+        List<LocalDate> birthDates = java.util.Arrays.asList(null, today.minusYears(30), today.minusDays(1), today, today.plusDays(1));
+        List<String> names = java.util.Arrays.asList(null, "", "  ", "Name");
+        for (String email : EMAILS) {
+            for (String name : names) {
+                for (LocalDate birthDate : birthDates) {
+                    User user = new User(email, name, "LastName", birthDate);
+                    assertEquals(annotationMessages(user), new HashSet<>(userValidator.validate(user)), email + " " + name + " " + birthDate);
+                }
+            }
+        }
+        User user = new User(null, "FirstName", null, null);
+        assertEquals(annotationMessages(user), new HashSet<>(userValidator.validate(user)));
+    }
+
+    @Test
+    void validate_validUser_noErrors() {
+        User user = new User("example@example.com", "FirstName", "LastName", LocalDate.of(2000, 3, 4));
+
+        assertTrue(userValidator.validate(user).isEmpty());
+    }
+
+    @Test
+    void isUserOldEnough_sameAsLocalDate() {
+        for (int minUserAge : new int[]{0, 1, 18, 21}) {
+            LocalDate cutoff = LocalDate.now().minusYears(minUserAge);
+            for (int days = -3; days <= 3; days++) {
+                LocalDate birthDate = cutoff.plusDays(days);
+                assertEquals(birthDate.isBefore(LocalDate.now().minusYears(minUserAge)),
+                        userValidator.isUserOldEnough(birthDate, minUserAge), birthDate + " " + minUserAge);
+            }
+        }
+    }
+
+    @Test
+    void isUserOldEnough_cutoffMovesWithTheDay() {
+        MutableClock clock = new MutableClock(LocalDate.of(2024, 2, 28).atTime(23, 59).toInstant(ZoneOffset.UTC));
+        UserValidator validator = new UserValidator(this.validator, clock);
+        LocalDate birthDate = LocalDate.of(2006, 3, 1);
+        User bornToday = new User("a@b.cd", "A", "B", LocalDate.of(2024, 2, 28));
+
+        assertFalse(validator.isUserOldEnough(birthDate, 18));
+        assertEquals(List.of(UserValidator.BIRTH_DATE_NOT_PAST), validator.validate(bornToday));
+
+        // One minute later it's 2024-02-29, the cached dates must follow
+        clock.instant = LocalDate.of(2024, 2, 29).atStartOfDay().toInstant(ZoneOffset.UTC);
+        assertFalse(validator.isUserOldEnough(birthDate, 18));
+        assertTrue(validator.validate(bornToday).isEmpty());
+
+        clock.instant = LocalDate.of(2024, 3, 1).atStartOfDay().toInstant(ZoneOffset.UTC);
+        assertFalse(validator.isUserOldEnough(birthDate, 18));
+        assertTrue(validator.isUserOldEnough(birthDate.minusDays(1), 18));
+    }
+
+    private Set<String> annotationMessages(User user) {
+        return validator.validate(user).stream().map(ConstraintViolation::getMessage).collect(Collectors.toSet());
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant instant;
+
+        MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
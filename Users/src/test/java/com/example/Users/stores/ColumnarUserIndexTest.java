@@ -0,0 +1,120 @@
+package com.example.Users.stores;
+
+import com.example.Users.models.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnarUserIndexTest {
+    private UserStore userStore;
+    private ColumnarUserIndex columnarUserIndex;
+
+    @BeforeEach
+    public void setUp() {
+        userStore = new StripedUserStore();
+        columnarUserIndex = new ColumnarUserIndex(userStore);
+    }
+
+    @Test
+    void open_copiesExistingUsersAndFollowsChanges() {
+        userStore.putIfAbsent(user("before@example.com", LocalDate.of(2000, 3, 4)));
+        columnarUserIndex.open();
+        userStore.putIfAbsent(user("after@example.com", LocalDate.of(2000, 3, 5)));
+
+        List<User> users = columnarUserIndex.findByBirthDateRange(LocalDate.of(2000, 1, 1), LocalDate.of(2001, 1, 1));
+
+        assertEquals(List.of("before@example.com", "after@example.com"), emails(users));
+        assertEquals("FirstName", users.get(0).getFirstName());
+        assertEquals(2, columnarUserIndex.nameCount());
+    }
+
+    @Test
+    void findByBirthDateRange_boundsAreExclusive() {
+        columnarUserIndex.open();
+        userStore.putIfAbsent(user("from@example.com", LocalDate.of(1999, 12, 8)));
+        userStore.putIfAbsent(user("inside@example.com", LocalDate.of(2000, 3, 4)));
+        userStore.putIfAbsent(user("to@example.com", LocalDate.of(2001, 6, 22)));
+        userStore.putIfAbsent(user("none@example.com", null));
+
+        assertEquals(List.of("inside@example.com"),
+                emails(columnarUserIndex.findByBirthDateRange(LocalDate.of(1999, 12, 8), LocalDate.of(2001, 6, 22))));
+        assertEquals(3, columnarUserIndex.findByBirthDateRange(LocalDate.MIN, LocalDate.MAX).size());
+        assertTrue(columnarUserIndex.findByBirthDateRange(LocalDate.of(2001, 6, 22), LocalDate.of(1999, 12, 8)).isEmpty());
+    }
+
+    @Test
+    void findByBirthDateRange_datesBeyondIntDays() {
+        columnarUserIndex.open();
+        userStore.putIfAbsent(user("ancient@example.com", LocalDate.of(-6_000_000, 1, 1)));
+        userStore.putIfAbsent(user("modern@example.com", LocalDate.of(2000, 1, 1)));
+
+        assertEquals(List.of("ancient@example.com", "modern@example.com"),
+                emails(columnarUserIndex.findByBirthDateRange(LocalDate.MIN, LocalDate.MAX)));
+        assertEquals(List.of("ancient@example.com"),
+                emails(columnarUserIndex.findByBirthDateRange(LocalDate.MIN, LocalDate.of(0, 1, 1))));
+        userStore.update("ancient@example.com", null, user -> user.setBirthDate(LocalDate.of(1990, 1, 1)));
+        assertTrue(columnarUserIndex.findByBirthDateRange(LocalDate.MIN, LocalDate.of(0, 1, 1)).isEmpty());
+    }
+
+    // Enough users for the parallel scan, changed at random, must give the same results as the store's index
+    @Test
+    void randomChanges_sameResultsAsStoreIndex() {
+        columnarUserIndex.open();
+        Random random = new Random(42);
+        int users = ColumnarUserIndex.PARALLEL_THRESHOLD * 3;
+        for (int i = 0; i < users; i++) {
+            userStore.putIfAbsent(user(email(i), LocalDate.of(1950, 1, 1).plusDays(random.nextInt(20_000))));
+        }
+        for (int i = 0; i < 50_000; i++) {
+            String email = email(random.nextInt(users));
+            LocalDate birthDate = random.nextInt(100) == 0 ? null : LocalDate.of(1950, 1, 1).plusDays(random.nextInt(20_000));
+            switch (random.nextInt(4)) {
+                case 0 -> userStore.remove(email);
+                case 1 -> userStore.putIfAbsent(user(email, birthDate));
+                case 2 -> userStore.update(email, email(random.nextInt(users)), user -> user.setLastName("Renamed"));
+                default -> userStore.update(email, null, user -> user.setBirthDate(birthDate));
+            }
+        }
+
+        assertEquals(userStore.size(), columnarUserIndex.size());
+        for (int i = 0; i < 20; i++) {
+            LocalDate from = LocalDate.of(1950, 1, 1).plusDays(random.nextInt(20_000));
+            LocalDate to = from.plusDays(random.nextInt(5_000));
+            List<User> expected = userStore.findByBirthDateRange(from, to);
+            List<User> actual = columnarUserIndex.findByBirthDateRange(from, to);
+            assertEquals(emails(expected), emails(actual));
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(expected.get(j).getLastName(), actual.get(j).getLastName());
+                assertEquals(expected.get(j).getBirthDate(), actual.get(j).getBirthDate());
+                assertEquals(expected.get(j).getVersion(), actual.get(j).getVersion());
+            }
+        }
+    }
+
+    @Test
+    void storeCleared_emptiesColumns() {
+        columnarUserIndex.open();
+        userStore.putIfAbsent(user("first@example.com", LocalDate.of(2000, 3, 4)));
+        userStore.clear();
+        userStore.putIfAbsent(user("second@example.com", LocalDate.of(2000, 3, 4)));
+
+        assertEquals(List.of("second@example.com"), emails(columnarUserIndex.findByBirthDateRange(LocalDate.MIN, LocalDate.MAX)));
+    }
+
+    private static List<String> emails(List<User> users) {
+        return users.stream().map(User::getEmail).toList();
+    }
+
+    private static String email(int i) {
+        return "user" + i + "@example.com";
+    }
+
+    private static User user(String email, LocalDate birthDate) {
+        return new User(email, "FirstName", "LastName", birthDate);
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.Users.stores;
+
+import com.example.Users.models.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NameIndexTest {
+    private static final String[] NAMES = {"Olena", "Oleh", "Taras", "Iryna", "Shevchenko", "Kovalenko", "Melnyk", "Мирослава", "Лена"};
+
+    private UserStore userStore;
+    private NameIndex nameIndex;
+
+    @BeforeEach
+    public void setUp() {
+        userStore = new StripedUserStore();
+        // Users stored before the index is opened are found as well
+        userStore.putIfAbsent(user("before@example.com", "Olena", "Shevchenko"));
+        nameIndex = new NameIndex(userStore);
+        nameIndex.open();
+    }
+
+    @Test
+    void search_prefixMatchesFirstThenSubstring() {
+        userStore.putIfAbsent(user("a@example.com", "Taras", "Kovalenko"));
+        userStore.putIfAbsent(user("b@example.com", "Oleh", "Melnyk"));
+        userStore.putIfAbsent(user("c@example.com", "Lena", "Bondar"));
+
+        assertEquals(List.of("b@example.com", "before@example.com"), emails(nameIndex.search("OLE", 10)));
+        assertEquals(List.of("c@example.com", "a@example.com", "before@example.com"), emails(nameIndex.search("len", 10)));
+        assertEquals(List.of("a@example.com", "before@example.com"), emails(nameIndex.search("enko", 10)));
+        assertEquals(List.of("a@example.com", "b@example.com"), emails(nameIndex.search("e", 2)));
+        assertEquals(List.of(), emails(nameIndex.search("xyz", 10)));
+        assertEquals(List.of(), emails(nameIndex.search("  ", 10)));
+    }
+
+    @Test
+    void search_ignoresCaseOfAnyAlphabet() {
+        userStore.putIfAbsent(user("a@example.com", "Мирослава", "Лисенко"));
+
+        assertEquals(List.of("a@example.com"), emails(nameIndex.search("МИРО", 10)));
+        assertEquals(List.of("a@example.com"), emails(nameIndex.search("сенк", 10)));
+    }
+
+    @Test
+    void changes_keepIndexConsistent() {
+        userStore.update("before@example.com", null, user -> user.setFirstName("Iryna"));
+        assertEquals(List.of(), nameIndex.search("olena", 10));
+        assertEquals(List.of("before@example.com"), emails(nameIndex.search("iryna", 10)));
+
+        userStore.update("before@example.com", "after@example.com", user -> user.setLastName("Melnyk"));
+        assertEquals(List.of(), nameIndex.search("shev", 10));
+        assertEquals(List.of("after@example.com"), emails(nameIndex.search("melnyk", 10)));
+
+        userStore.remove("after@example.com");
+        assertEquals(List.of(), nameIndex.search("iryna", 10));
+        assertEquals(0, nameIndex.nameCount());
+        assertEquals(0, nameIndex.size());
+
+        userStore.putIfAbsent(user("same@example.com", "Anna", "ANNA"));
+        assertEquals(1, nameIndex.size());
+        userStore.clear();
+        assertEquals(List.of(), nameIndex.search("anna", 10));
+    }
+
+    @Test
+    void randomChanges_sameResultsAsAScan() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < 20_000; i++) {
+            String email = "user" + random.nextInt(300) + "@example.com";
+            String firstName = NAMES[random.nextInt(NAMES.length)];
+            String lastName = NAMES[random.nextInt(NAMES.length)];
+            switch (random.nextInt(3)) {
+                case 0 -> userStore.putIfAbsent(user(email, firstName, lastName));
+                case 1 -> userStore.remove(email);
+                default -> userStore.update(email, "user" + random.nextInt(300) + "@example.com", user -> {
+                    user.setFirstName(firstName);
+                    user.setLastName(lastName);
+                });
+            }
+        }
+
+        for (String query : new String[]{"o", "ol", "ole", "enko", "ЛЕН", "на", "yk", "taras", "q"}) {
+            assertEquals(scan(query, 25), emails(nameIndex.search(query, 25)), query);
+        }
+    }
+
+    // What the index should return, found by looking at every user
+    private List<String> scan(String query, int limit) {
+        String needle = query.toLowerCase(Locale.ROOT);
+        List<User> prefix = new ArrayList<>();
+        List<User> substring = new ArrayList<>();
+        for (User user : userStore.values()) {
+            String firstName = user.getFirstName().toLowerCase(Locale.ROOT);
+            String lastName = user.getLastName().toLowerCase(Locale.ROOT);
+            if (firstName.startsWith(needle) || lastName.startsWith(needle)) {
+                prefix.add(user);
+            } else if (firstName.contains(needle) || lastName.contains(needle)) {
+                substring.add(user);
+            }
+        }
+        prefix.sort(Comparator.comparing(User::getEmail));
+        substring.sort(Comparator.comparing(User::getEmail));
+        List<String> emails = new ArrayList<>(emails(prefix));
+        emails.addAll(emails(substring));
+        return emails.subList(0, Math.min(limit, emails.size()));
+    }
+
+    private static List<String> emails(List<User> users) {
+        return users.stream().map(User::getEmail).toList();
+    }
+
+    private static User user(String email, String firstName, String lastName) {
+        return new User(email, firstName, lastName, LocalDate.of(2000, 3, 4));
+    }
+}
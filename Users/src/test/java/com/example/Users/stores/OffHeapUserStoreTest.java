@@ -0,0 +1,229 @@
+package com.example.Users.stores;
+
+import com.example.Users.models.User;
+import com.example.Users.models.UserPage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapUserStoreTest {
+    private OffHeapUserStore userStore;
+
+    @BeforeEach
+    public void setUp() {
+        userStore = new OffHeapUserStore();
+    }
+
+    @Test
+    void putGetUpdateRemove() {
+        assertTrue(userStore.putIfAbsent(user("first@example.com", LocalDate.of(2000, 3, 4))));
+        assertFalse(userStore.putIfAbsent(user("first@example.com", LocalDate.of(1990, 1, 1))));
+        assertEquals(LocalDate.of(2000, 3, 4), userStore.get("first@example.com").getBirthDate());
+
+        User updated = userStore.update("first@example.com", "second@example.com", user -> user.setFirstName("Змінене"));
+        assertEquals("second@example.com", updated.getEmail());
+        assertNull(userStore.get("first@example.com"));
+        assertEquals("Змінене", userStore.get("second@example.com").getFirstName());
+
+        assertTrue(userStore.putIfAbsent(user("third@example.com", null)));
+        assertNull(userStore.update("third@example.com", "second@example.com", user -> user.setFirstName("Lost")));
+        assertEquals("FirstName", userStore.get("third@example.com").getFirstName());
+
+        assertTrue(userStore.remove("second@example.com"));
+        assertFalse(userStore.remove("second@example.com"));
+        assertEquals(1, userStore.size());
+    }
+
+    @Test
+    void get_returnsLazyCopy() {
+        userStore.putIfAbsent(user("first@example.com", LocalDate.of(2000, 3, 4)));
+
+        User user = userStore.get("first@example.com");
+        user.setLastName("Changed");
+
+        assertEquals("first@example.com", user.getEmail());
+        assertEquals("Changed", user.getLastName());
+        assertEquals("LastName", userStore.get("first@example.com").getLastName());
+    }
+
+    @Test
+    void removeAndCreateAgain_reusesMemory() {
+        for (int i = 0; i < 10_000; i++) {
+            userStore.putIfAbsent(user("user" + i + "@example.com", LocalDate.of(2000, 3, 4)));
+        }
+        long reserved = userStore.getReservedBytes();
+        long records = userStore.getRecordBytes();
+        for (int i = 0; i < 10_000; i++) {
+            userStore.remove("user" + i + "@example.com");
+        }
+        assertEquals(0, userStore.getRecordBytes());
+        assertEquals(records, userStore.getFreeBytes());
+
+        for (int i = 0; i < 10_000; i++) {
+            userStore.putIfAbsent(user("user" + i + "@example.com", LocalDate.of(2000, 3, 4)));
+        }
+        assertEquals(reserved, userStore.getReservedBytes());
+        assertEquals(records, userStore.getRecordBytes());
+    }
+
+    // Random changes applied to both stores must leave them with the same users and the same search results
+    @Test
+    void randomChanges_sameResultsAsStripedUserStore() {
+        UserStore expected = new StripedUserStore();
+        Random random = new Random(42);
+        for (int i = 0; i < 50_000; i++) {
+            String email = email(random.nextInt(3_000));
+            LocalDate birthDate = random.nextInt(50) == 0 ? null : LocalDate.of(1990, 1, 1).plusDays(random.nextInt(400));
+            switch (random.nextInt(5)) {
+                case 0 -> assertEquals(expected.putIfAbsent(user(email, birthDate)), userStore.putIfAbsent(user(email, birthDate)));
+                case 1 -> assertEquals(expected.remove(email), userStore.remove(email));
+                case 2 -> {
+                    String newEmail = random.nextBoolean() ? null : email(random.nextInt(3_000));
+                    String firstName = "Name" + random.nextInt(1_000);
+                    User expectedUser = expected.update(email, newEmail, user -> {
+                        user.setFirstName(firstName);
+                        user.setBirthDate(birthDate);
+                    });
+                    User actualUser = userStore.update(email, newEmail, user -> {
+                        user.setFirstName(firstName);
+                        user.setBirthDate(birthDate);
+                    });
+                    assertEquals(expectedUser == null, actualUser == null);
+                }
+                case 3 -> {
+                    String newEmail = random.nextBoolean() ? email : email(random.nextInt(3_000));
+                    long version = 1 + random.nextInt(1_000_000);
+                    User expectedUser = user(newEmail, birthDate);
+                    expectedUser.setVersion(version);
+                    expected.replace(email, expectedUser);
+                    User actualUser = user(newEmail, birthDate);
+                    actualUser.setVersion(version);
+                    userStore.replace(email, actualUser);
+                }
+                default -> assertEquals(expected.contains(email), userStore.contains(email));
+            }
+        }
+
+        assertEquals(expected.size(), userStore.size());
+        assertEquals(expected.indexSize(), userStore.indexSize());
+        for (User user : expected.values()) {
+            assertEquals(user.getFirstName(), userStore.get(user.getEmail()).getFirstName());
+            assertEquals(user.getBirthDate(), userStore.get(user.getEmail()).getBirthDate());
+            assertEquals(user.getVersion(), userStore.get(user.getEmail()).getVersion());
+        }
+        LocalDate from = LocalDate.of(1990, 3, 1);
+        LocalDate to = LocalDate.of(1990, 9, 1);
+        assertEquals(emails(expected.findByBirthDateRange(from, to)), emails(userStore.findByBirthDateRange(from, to)));
+
+        // Walks both stores page by page with each store's own cursors
+        String expectedCursor = null;
+        String actualCursor = null;
+        do {
+            UserPage expectedPage = expected.findByBirthDateRange(from, to,
+                    expectedCursor == null ? null : BirthDateKey.decode(expectedCursor), 37);
+            UserPage actualPage = userStore.findByBirthDateRange(from, to,
+                    actualCursor == null ? null : BirthDateKey.decode(actualCursor), 37);
+            assertEquals(emails(expectedPage.getUsers()), emails(actualPage.getUsers()));
+            assertEquals(expectedPage.getNextCursor(), actualPage.getNextCursor());
+            expectedCursor = expectedPage.getNextCursor();
+            actualCursor = actualPage.getNextCursor();
+        } while (expectedCursor != null);
+    }
+
+    @Test
+    void findByBirthDateRange_emailsOrderedLikeStrings() {
+        LocalDate birthDate = LocalDate.of(2000, 3, 4);
+        // U+FF21 comes before a supplementary character in UTF-8 but after it in a String
+        for (String email : List.of("b@example.com", "Ａ@example.com", "😀@example.com", "a@example.com", "ab@example.com")) {
+            userStore.putIfAbsent(user(email, birthDate));
+        }
+
+        List<User> users = userStore.findByBirthDateRange(birthDate.minusDays(1), birthDate.plusDays(1));
+
+        assertEquals(List.of("a@example.com", "ab@example.com", "b@example.com", "😀@example.com", "Ａ@example.com"),
+                emails(users));
+    }
+
+    @Test
+    void values_forEachCopyAndAsMap_seeEveryUserOnce() {
+        for (int i = 0; i < 5_000; i++) {
+            userStore.putIfAbsent(user(email(i), i % 10 == 0 ? null : LocalDate.of(1990, 1, 1).plusDays(i % 7)));
+        }
+
+        assertEquals(5_000, userStore.values().stream().map(User::getEmail).distinct().count());
+        assertEquals(5_000, userStore.asMap().entrySet().size());
+        assertTrue(userStore.asMap().containsKey(email(42)));
+        List<User> copies = new ArrayList<>();
+        userStore.forEachCopy(copies::add);
+        assertEquals(5_000, copies.stream().map(User::getEmail).distinct().count());
+        // Birth date order, users without one at the end
+        assertNull(copies.get(copies.size() - 1).getBirthDate());
+        assertEquals(LocalDate.of(1990, 1, 1), copies.get(0).getBirthDate());
+    }
+
+    @Test
+    void concurrentReadersAndWriters_indexStaysConsistent() throws Exception {
+        for (int i = 0; i < 1_000; i++) {
+            userStore.putIfAbsent(user(email(i), LocalDate.of(1990, 1, 1).plusDays(i)));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            boolean writer = t % 2 == 0;
+            futures.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 20_000; i++) {
+                    String email = email(random.nextInt(1_200));
+                    if (writer) {
+                        LocalDate birthDate = LocalDate.of(1990, 1, 1).plusDays(random.nextInt(2_000));
+                        switch (random.nextInt(3)) {
+                            case 0 -> userStore.putIfAbsent(user(email, birthDate));
+                            case 1 -> userStore.remove(email);
+                            default -> userStore.update(email, email(random.nextInt(1_200)), user -> user.setBirthDate(birthDate));
+                        }
+                    } else {
+                        User user = userStore.get(email);
+                        if (user != null) {
+                            assertEquals(email, user.getEmail());
+                        }
+                        for (User found : userStore.findByBirthDateRange(LocalDate.of(1991, 1, 1), LocalDate.of(1991, 2, 1))) {
+                            assertTrue(found.getBirthDate().getMonthValue() == 1 && found.getBirthDate().getYear() == 1991);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        List<User> indexed = userStore.findByBirthDateRange(LocalDate.MIN, LocalDate.MAX);
+        assertEquals(userStore.size(), indexed.size());
+        for (User user : indexed) {
+            assertEquals(user.getBirthDate(), userStore.get(user.getEmail()).getBirthDate());
+        }
+    }
+
+    private static List<String> emails(List<User> users) {
+        return users.stream().map(User::getEmail).toList();
+    }
+
+    private static String email(int i) {
+        return "user" + i + "@example.com";
+    }
+
+    private static User user(String email, LocalDate birthDate) {
+        return new User(email, "FirstName", "LastName", birthDate);
+    }
+}
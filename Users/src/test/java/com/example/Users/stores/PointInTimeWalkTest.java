@@ -0,0 +1,121 @@
+package com.example.Users.stores;
+
+import com.example.Users.models.User;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PointInTimeWalkTest {
+    private static final int USERS = 30_000;
+    private static final int WRITERS = 4;
+
+    @Test
+    void walk_stripedStoreUnderWrites_passesEveryUserAsItWasOnce() throws Exception {
+        assertPointInTime(new StripedUserStore(4));
+    }
+
+    @Test
+    void walk_offHeapStoreUnderWrites_passesEveryUserAsItWasOnce() throws Exception {
+        assertPointInTime(new OffHeapUserStore());
+    }
+
+    @Test
+    void walk_clearedStore_fails() {
+        UserStore userStore = new StripedUserStore();
+        userStore.putIfAbsent(new User("a@example.com", "A", "A", LocalDate.of(2000, 1, 1)));
+        userStore.putIfAbsent(new User("b@example.com", "B", "B", LocalDate.of(2000, 1, 2)));
+
+        assertThrows(IllegalStateException.class, () -> PointInTimeWalk.forEachCopy(userStore, user -> userStore.clear()));
+    }
+
+    @Test
+    void walk_listenerIsRemoved() {
+        UserStore userStore = new StripedUserStore();
+        userStore.putIfAbsent(new User("a@example.com", "A", "A", LocalDate.of(2000, 1, 1)));
+        PointInTimeWalk.forEachCopy(userStore, user -> {
+        });
+
+        // A walk still listening would fail on clear
+        userStore.clear();
+        assertEquals(0, PointInTimeWalk.forEachCopy(userStore, user -> fail("The store is empty")));
+    }
+
+    private static void assertPointInTime(UserStore userStore) throws Exception {
+        for (int i = 0; i < USERS; i++) {
+            userStore.putIfAbsent(user(i, i % 10 == 0 ? null : LocalDate.of(1990, 1, 1).plusDays(i % 3000)));
+        }
+        Map<String, String> expected = new HashMap<>();
+        userStore.forEachCopy(user -> expected.put(user.getEmail(), describe(user)));
+
+        // Writers start once the walk has begun, so the walk's moment is the state above
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < WRITERS; t++) {
+            writers.add(executor.submit(() -> {
+                started.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (!done.get()) {
+                    int i = random.nextInt(USERS + USERS / 5);
+                    LocalDate birthDate = random.nextInt(10) == 0 ? null : LocalDate.of(1990, 1, 1).plusDays(random.nextInt(3000));
+                    switch (random.nextInt(4)) {
+                        case 0 -> userStore.putIfAbsent(user(i, birthDate));
+                        case 1 -> userStore.remove(email(i));
+                        case 2 -> userStore.update(email(i), email(random.nextInt(USERS + USERS / 5)), user -> user.setFirstName("Renamed"));
+                        default -> userStore.update(email(i), null, user -> {
+                            user.setLastName("Changed");
+                            user.setBirthDate(birthDate);
+                        });
+                    }
+                }
+                return null;
+            }));
+        }
+
+        Map<String, String> passed = new HashMap<>();
+        long count;
+        try {
+            count = PointInTimeWalk.forEachCopy(userStore, user -> {
+                started.countDown();
+                assertNull(passed.put(user.getEmail(), describe(user)), user.getEmail());
+                if (passed.size() % 16 == 0) {
+                    Thread.yield();
+                }
+            });
+        } finally {
+            done.set(true);
+            executor.shutdown();
+        }
+        for (Future<?> writer : writers) {
+            writer.get();
+        }
+
+        assertEquals(USERS, count);
+        assertEquals(expected, passed);
+    }
+
+    private static String describe(User user) {
+        return user.getVersion() + " " + user.getFirstName() + " " + user.getLastName() + " " + user.getBirthDate();
+    }
+
+    private static String email(int i) {
+        return "user" + i + "@example.com";
+    }
+
+    private static User user(int i, LocalDate birthDate) {
+        return new User(email(i), "First" + i, "Last" + i, birthDate);
+    }
+}
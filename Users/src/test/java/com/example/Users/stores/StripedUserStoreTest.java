@@ -0,0 +1,461 @@
+package com.example.Users.stores;
+
+import com.example.Users.models.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StripedUserStoreTest {
+    private static final int THREADS = 8;
+
+    private StripedUserStore userStore;
+
+    @BeforeEach
+    public void setUp() {
+        // Few stripes so that threads contend on the same locks
+        userStore = new StripedUserStore(4);
+    }
+
+    @Test
+    void putIfAbsent_sameEmailFromManyThreads_onlyOneWins() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+
+        runConcurrently(thread -> {
+            for (int i = 0; i < 10_000; i++) {
+                if (userStore.putIfAbsent(user("user" + i + "@example.com"))) {
+                    created.incrementAndGet();
+                }
+            }
+        });
+
+        assertEquals(10_000, created.get());
+        assertEquals(10_000, userStore.size());
+        assertConsistent();
+    }
+
+    @Test
+    void update_concurrentRenames_noUserLostOrDuplicated() throws Exception {
+        int users = 1_000;
+        for (int i = 0; i < users; i++) {
+            userStore.putIfAbsent(user("user" + i + "@example.com"));
+        }
+
+        // Every thread tries to move random users onto a small set of emails,
+        // so most renames collide with each other and with taken emails
+        runConcurrently(thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 20_000; i++) {
+                String from = random.nextBoolean()
+                        ? "user" + random.nextInt(users) + "@example.com"
+                        : "moved" + random.nextInt(50) + "@example.com";
+                String to = random.nextBoolean()
+                        ? "user" + random.nextInt(users) + "@example.com"
+                        : "moved" + random.nextInt(50) + "@example.com";
+                userStore.update(from, to, user -> user.setFirstName("Thread" + thread));
+            }
+        });
+
+        assertEquals(users, userStore.size());
+        assertConsistent();
+    }
+
+    @Test
+    void update_renameToTakenEmail_returnsNull() {
+        User first = user("first@example.com");
+        User second = user("second@example.com");
+        userStore.putIfAbsent(first);
+        userStore.putIfAbsent(second);
+
+        assertNull(userStore.update(first.getEmail(), second.getEmail(), user -> user.setFirstName("Changed")));
+        assertEquals("FirstName", first.getFirstName());
+        assertSame(first, userStore.get("first@example.com"));
+        assertSame(second, userStore.get("second@example.com"));
+    }
+
+    @Test
+    void createAndDelete_concurrently_sizeMatchesOutcome() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger deleted = new AtomicInteger();
+
+        runConcurrently(thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 50_000; i++) {
+                String email = "user" + random.nextInt(500) + "@example.com";
+                if (random.nextBoolean()) {
+                    if (userStore.putIfAbsent(user(email))) {
+                        created.incrementAndGet();
+                    }
+                } else if (userStore.remove(email)) {
+                    deleted.incrementAndGet();
+                }
+            }
+        });
+
+        assertEquals(created.get() - deleted.get(), userStore.size());
+        assertConsistent();
+    }
+
+    @Test
+    void findByBirthDateRange_boundsAreExclusive() {
+        userStore.putIfAbsent(user("from@example.com", LocalDate.of(1999, 12, 8)));
+        userStore.putIfAbsent(user("inside@example.com", LocalDate.of(2000, 3, 4)));
+        userStore.putIfAbsent(user("to@example.com", LocalDate.of(2001, 6, 22)));
+
+        List<User> users = userStore.findByBirthDateRange(LocalDate.of(1999, 12, 8), LocalDate.of(2001, 6, 22));
+
+        assertEquals(1, users.size());
+        assertEquals("inside@example.com", users.get(0).getEmail());
+        assertTrue(userStore.findByBirthDateRange(LocalDate.of(2001, 6, 22), LocalDate.of(1999, 12, 8)).isEmpty());
+    }
+
+    @Test
+    void findByBirthDateRange_orderedByBirthDateThenEmail() {
+        userStore.putIfAbsent(user("b@example.com", LocalDate.of(2000, 1, 2)));
+        userStore.putIfAbsent(user("c@example.com", LocalDate.of(2000, 1, 1)));
+        userStore.putIfAbsent(user("a@example.com", LocalDate.of(2000, 1, 2)));
+
+        List<User> users = userStore.findByBirthDateRange(LocalDate.of(1999, 1, 1), LocalDate.of(2001, 1, 1));
+
+        assertEquals(List.of("c@example.com", "a@example.com", "b@example.com"),
+                users.stream().map(User::getEmail).toList());
+    }
+
+    @Test
+    void findByBirthDateRange_followsUpdatesAndDeletes() {
+        LocalDate from = LocalDate.of(1990, 1, 1);
+        LocalDate to = LocalDate.of(1995, 1, 1);
+        userStore.putIfAbsent(user("old@example.com", LocalDate.of(2000, 3, 4)));
+        assertTrue(userStore.findByBirthDateRange(from, to).isEmpty());
+
+        // Birth date moves into the range together with a rename
+        userStore.update("old@example.com", "new@example.com", user -> user.setBirthDate(LocalDate.of(1992, 5, 5)));
+        List<User> users = userStore.findByBirthDateRange(from, to);
+        assertEquals(1, users.size());
+        assertEquals("new@example.com", users.get(0).getEmail());
+
+        userStore.remove("new@example.com");
+        assertTrue(userStore.findByBirthDateRange(from, to).isEmpty());
+    }
+
+    @Test
+    void findByBirthDateRange_concurrentUpdates_indexMatchesStore() throws Exception {
+        for (int i = 0; i < 1_000; i++) {
+            userStore.putIfAbsent(user("user" + i + "@example.com", LocalDate.of(1990, 1, 1).plusDays(i)));
+        }
+
+        runConcurrently(thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 20_000; i++) {
+                String from = "user" + random.nextInt(1_000) + "@example.com";
+                String to = "user" + random.nextInt(1_000) + "@example.com";
+                LocalDate birthDate = LocalDate.of(1990, 1, 1).plusDays(random.nextInt(5_000));
+                userStore.update(from, to, user -> user.setBirthDate(birthDate));
+            }
+        });
+
+        List<User> indexed = userStore.findByBirthDateRange(LocalDate.MIN, LocalDate.MAX);
+        assertEquals(userStore.size(), indexed.size());
+        assertEquals(indexed.size(), userStore.indexSize());
+        for (User user : indexed) {
+            assertSame(user, userStore.get(user.getEmail()));
+        }
+    }
+
+    @Test
+    void findByBirthDateRange_concurrentNameChanges_neverMissesAUser() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            userStore.putIfAbsent(user("user" + i + "@example.com", LocalDate.of(1990, 1, 1).plusDays(i)));
+        }
+        LocalDate from = LocalDate.of(1989, 12, 31);
+        LocalDate to = LocalDate.of(1990, 4, 11);
+
+        runConcurrently(thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 20_000; i++) {
+                if (thread == 0) {
+                    assertEquals(100, userStore.findByBirthDateRange(from, to).size());
+                    assertEquals(100, userStore.findByBirthDateRange(from, to, null, 1_000).getUsers().size());
+                } else {
+                    userStore.update("user" + random.nextInt(100) + "@example.com", null, user -> user.setFirstName("Name" + random.nextInt()));
+                }
+            }
+        });
+    }
+
+    @Test
+    void update_concurrentReaders_neverSeeHalfAChange() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            userStore.putIfAbsent(new User("user" + i + "@example.com", "Name0", "Name0", LocalDate.of(1990, 1, 1).plusDays(i)));
+        }
+        LocalDate from = LocalDate.of(1989, 12, 31);
+        LocalDate to = LocalDate.of(1990, 4, 11);
+
+        runConcurrently(thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 20_000; i++) {
+                if (thread == 0) {
+                    for (User user : userStore.findByBirthDateRange(from, to)) {
+                        assertEquals(user.getFirstName(), user.getLastName());
+                    }
+                    User user = userStore.get("user" + random.nextInt(100) + "@example.com");
+                    assertEquals(user.getFirstName(), user.getLastName());
+                } else {
+                    String name = "Name" + random.nextInt();
+                    userStore.update("user" + random.nextInt(100) + "@example.com", null, user -> {
+                        user.setFirstName(name);
+                        user.setLastName(name);
+                    });
+                }
+            }
+        });
+    }
+
+    @Test
+    void replace_keepsTheVersion_renamesInOneStep() {
+        List<String> heard = new ArrayList<>();
+        userStore.addListener(new UserChangeListener() {
+            @Override
+            public void userCreated(User user) {
+                heard.add("created " + user.getEmail());
+            }
+
+            @Override
+            public void userUpdated(User before, User after) {
+                heard.add("updated " + before.getEmail() + " " + after.getEmail());
+            }
+
+            @Override
+            public void userDeleted(User user) {
+                heard.add("deleted " + user.getEmail());
+            }
+
+            @Override
+            public void storeCleared() {
+            }
+        });
+        User first = user("first@example.com", LocalDate.of(2000, 3, 4));
+        first.setVersion(40);
+        userStore.replace(first.getEmail(), first);
+        User changed = user("first@example.com", LocalDate.of(1990, 1, 1));
+        changed.setVersion(41);
+        userStore.replace(changed.getEmail(), changed);
+        User renamed = user("second@example.com", LocalDate.of(1990, 1, 1));
+        renamed.setVersion(42);
+        userStore.replace("first@example.com", renamed);
+
+        assertEquals(List.of("created first@example.com", "updated first@example.com first@example.com",
+                "updated first@example.com second@example.com"), heard);
+        assertNull(userStore.get("first@example.com"));
+        assertSame(renamed, userStore.get("second@example.com"));
+        assertEquals(42, userStore.lastVersion());
+        assertEquals(List.of(renamed), userStore.findByBirthDateRange(LocalDate.MIN, LocalDate.MAX));
+        assertConsistent();
+    }
+
+    @Test
+    void replace_concurrentReaders_neverMissTheUser() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            userStore.putIfAbsent(user("user" + i + "@example.com", LocalDate.of(1990, 1, 1).plusDays(i)));
+        }
+        LocalDate from = LocalDate.of(1989, 12, 31);
+        LocalDate to = LocalDate.of(1990, 4, 11);
+        AtomicLong versions = new AtomicLong(1_000);
+
+        runConcurrently(thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 20_000; i++) {
+                int n = random.nextInt(100);
+                if (thread == 0) {
+                    assertEquals(100, userStore.findByBirthDateRange(from, to).size());
+                    assertNotNull(userStore.get("user" + n + "@example.com"));
+                } else {
+                    User user = new User("user" + n + "@example.com", "Name" + random.nextInt(), "LastName", LocalDate.of(1990, 1, 1).plusDays(n));
+                    user.setVersion(versions.incrementAndGet());
+                    userStore.replace(user.getEmail(), user);
+                }
+            }
+        });
+        assertEquals(100, userStore.indexSize());
+        assertConsistent();
+    }
+
+    @Test
+    void indexSize_countsUsersWithBirthDate() {
+        userStore.putIfAbsent(user("first@example.com", LocalDate.of(2000, 3, 4)));
+        userStore.putIfAbsent(user("second@example.com", null));
+        assertEquals(1, userStore.indexSize());
+
+        userStore.update("second@example.com", "third@example.com", user -> user.setBirthDate(LocalDate.of(1990, 1, 1)));
+        userStore.update("first@example.com", null, user -> user.setBirthDate(null));
+        assertEquals(1, userStore.indexSize());
+
+        userStore.remove("third@example.com");
+        assertEquals(0, userStore.indexSize());
+        userStore.putIfAbsent(user("fourth@example.com", LocalDate.of(2000, 3, 4)));
+        userStore.clear();
+        assertEquals(0, userStore.indexSize());
+    }
+
+    @Test
+    void versions_growWithEveryChange() {
+        userStore.putIfAbsent(user("first@example.com"));
+        long created = userStore.get("first@example.com").getVersion();
+        assertTrue(created > 0);
+
+        User updated = userStore.update("first@example.com", "second@example.com", user -> user.setFirstName("Changed"));
+        assertTrue(updated.getVersion() > created);
+
+        userStore.remove("second@example.com");
+        userStore.putIfAbsent(user("second@example.com"));
+        assertTrue(userStore.get("second@example.com").getVersion() > updated.getVersion());
+    }
+
+    @Test
+    void conditionalChanges_outdatedVersion_fail() {
+        userStore.putIfAbsent(user("first@example.com"));
+        long version = userStore.get("first@example.com").getVersion();
+
+        assertNull(userStore.update("first@example.com", null, version + 1, user -> user.setFirstName("Changed")));
+        assertFalse(userStore.remove("first@example.com", version + 1));
+        assertEquals("FirstName", userStore.get("first@example.com").getFirstName());
+        assertEquals(version, userStore.get("first@example.com").getVersion());
+
+        assertNotNull(userStore.update("first@example.com", null, version, user -> user.setFirstName("Changed")));
+        assertFalse(userStore.remove("first@example.com", version));
+        assertTrue(userStore.remove("first@example.com", userStore.get("first@example.com").getVersion()));
+    }
+
+    @Test
+    void putIfAbsent_userWithVersion_keepsIt() {
+        User user = user("first@example.com");
+        user.setVersion(42);
+        userStore.putIfAbsent(user);
+        assertEquals(42, userStore.get("first@example.com").getVersion());
+
+        userStore.putIfAbsent(user("second@example.com"));
+        assertTrue(userStore.get("second@example.com").getVersion() > 42);
+    }
+
+    // Waits for a change whose listener is still running while writers on the other stripes go on
+    @Test
+    void awaitChangesUnderWay_waitsForChangeInProgress_otherStripesWrite() throws Exception {
+        CountDownLatch inListener = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        userStore.addListener(new UserChangeListener() {
+            @Override
+            public void userCreated(User user) {
+                if (user.getEmail().equals("slow@example.com")) {
+                    inListener.countDown();
+                    awaitUninterruptibly(release);
+                }
+            }
+
+            @Override
+            public void userUpdated(User before, User after) {
+            }
+
+            @Override
+            public void userDeleted(User user) {
+            }
+
+            @Override
+            public void storeCleared() {
+            }
+        });
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Future<?> slow = executor.submit(() -> userStore.putIfAbsent(user("slow@example.com")));
+            assertTrue(inListener.await(10, TimeUnit.SECONDS));
+            Future<?> await = executor.submit(() -> userStore.awaitChangesUnderWay());
+            AtomicInteger created = new AtomicInteger();
+            for (int i = 0; i < 16; i++) {
+                String email = "user" + i + "@example.com";
+                executor.submit(() -> {
+                    userStore.putIfAbsent(user(email));
+                    created.incrementAndGet();
+                });
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (created.get() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+
+            assertTrue(created.get() > 0);
+            assertFalse(await.isDone());
+            release.countDown();
+            slow.get(10, TimeUnit.SECONDS);
+            await.get(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    // Each stored user must sit under its own email and appear exactly once
+    private void assertConsistent() {
+        Set<User> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Map.Entry<String, User> entry : userStore.asMap().entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue().getEmail());
+            assertTrue(seen.add(entry.getValue()), "User stored twice: " + entry.getKey());
+        }
+    }
+
+    private void runConcurrently(ThreadBody body) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    body.run(thread);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static User user(String email) {
+        return user(email, LocalDate.of(2000, 3, 4));
+    }
+
+    private static User user(String email, LocalDate birthDate) {
+        return new User(email, "FirstName", "LastName", birthDate);
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface ThreadBody {
+        void run(int thread) throws Exception;
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.Users.stores;
+
+import com.example.Users.models.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserSnapshotTest {
+    // Startup target: 10M users are back in the store, with their index, within this time on an 8 core machine
+    private static final Duration STARTUP_TARGET = Duration.ofSeconds(10);
+
+    private Path directory;
+    private Path file;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("snapshot-test");
+        file = directory.resolve("snapshot.bin");
+    }
+
+    @AfterEach
+    public void cleanUp() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Test
+    void writeAndRead_manyPartitions_restoresUsersAndIndex() throws IOException {
+        UserStore userStore = new StripedUserStore();
+        for (int i = 0; i < 1_050; i++) {
+            userStore.putIfAbsent(user(i));
+        }
+        userStore.putIfAbsent(new User("unicode@example.com", "Іван", "Franko 😀", LocalDate.of(1856, 8, 27)));
+        userStore.putIfAbsent(new User("empty@example.com", null, "", null));
+
+        assertEquals(1_052, UserSnapshot.write(userStore, file, 42, 100));
+
+        UserStore restored = new StripedUserStore();
+        assertEquals(42, UserSnapshot.read(file, restored));
+        assertEquals(1_052, restored.size());
+        for (User user : userStore.values()) {
+            User restoredUser = restored.get(user.getEmail());
+            assertEquals(user.getFirstName(), restoredUser.getFirstName());
+            assertEquals(user.getLastName(), restoredUser.getLastName());
+            assertEquals(user.getBirthDate(), restoredUser.getBirthDate());
+            assertEquals(user.getVersion(), restoredUser.getVersion());
+        }
+        assertEquals(userStore.findByBirthDateRange(LocalDate.MIN, LocalDate.MAX).size(),
+                restored.findByBirthDateRange(LocalDate.MIN, LocalDate.MAX).size());
+    }
+
+    @Test
+    void writeAndRead_emptyStore() throws IOException {
+        assertEquals(0, UserSnapshot.write(new StripedUserStore(), file, 7, UserSnapshot.PARTITION_USERS));
+
+        UserStore restored = new StripedUserStore();
+        assertEquals(7, UserSnapshot.read(file, restored));
+        assertEquals(0, restored.size());
+    }
+
+    @Test
+    void read_damagedPartition_throws() throws IOException {
+        UserStore userStore = new StripedUserStore();
+        for (int i = 0; i < 1_000; i++) {
+            userStore.putIfAbsent(user(i));
+        }
+        UserSnapshot.write(userStore, file, 1, 100);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF}), 5_000);
+        }
+
+        assertThrows(IllegalStateException.class, () -> UserSnapshot.read(file, new StripedUserStore()));
+    }
+
+    // Needs a large heap: mvn test -Dlarge.tests=true -DargLine=-Xmx8g
+    @Test
+    @EnabledIfSystemProperty(named = "large.tests", matches = "true")
+    void read_tenMillionUsers_withinStartupTarget() throws IOException {
+        int users = 10_000_000;
+        UserStore userStore = new StripedUserStore();
+        for (int i = 0; i < users; i++) {
+            userStore.putIfAbsent(user(i));
+        }
+        assertEquals(users, UserSnapshot.write(userStore, file, 1, UserSnapshot.PARTITION_USERS));
+        userStore = null;
+        System.gc();
+
+        UserStore restored = new StripedUserStore();
+        long start = System.nanoTime();
+        UserSnapshot.read(file, restored);
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        assertEquals(users, restored.size());
+        assertEquals(users, restored.findByBirthDateRange(LocalDate.MIN, LocalDate.MAX).size());
+        assertTrue(elapsed.compareTo(STARTUP_TARGET) <= 0, "Loaded in " + elapsed);
+    }
+
+    private static User user(int i) {
+        return new User("user" + i + "@example.com", "FirstName" + (i % 100), "LastName" + (i % 1_000),
+                LocalDate.of(1950, 1, 1).plusDays(i % 20_000));
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.Users.stores;
+
+import com.example.Users.models.User;
+import com.example.Users.stores.WriteAheadLog.FsyncPolicy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteAheadLogTest {
+    private Path directory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("wal-test");
+    }
+
+    @AfterEach
+    public void cleanUp() throws IOException {
+        for (Path file : files()) {
+            Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    void replay_restoresAllKindsOfChanges() throws IOException {
+        UserStore userStore = new StripedUserStore();
+        try (WriteAheadLog log = open(userStore, FsyncPolicy.OS)) {
+            userStore.putIfAbsent(user("kept@example.com", LocalDate.of(2000, 3, 4)));
+            userStore.putIfAbsent(user("renamed@example.com", LocalDate.of(1990, 1, 1)));
+            userStore.putIfAbsent(user("deleted@example.com", LocalDate.of(1980, 1, 1)));
+            userStore.update("kept@example.com", null, user -> user.setFirstName("Змінене ім'я"));
+            userStore.update("renamed@example.com", "new@example.com", user -> user.setBirthDate(LocalDate.of(1991, 2, 2)));
+            userStore.remove("deleted@example.com");
+        }
+
+        UserStore restored = new StripedUserStore();
+        try (WriteAheadLog log = open(restored, FsyncPolicy.OS)) {
+            assertEquals(2, restored.size());
+            assertEquals("Змінене ім'я", restored.get("kept@example.com").getFirstName());
+            assertEquals(LocalDate.of(1991, 2, 2), restored.get("new@example.com").getBirthDate());
+            assertNull(restored.get("renamed@example.com"));
+            assertNull(restored.get("deleted@example.com"));
+            // The secondary index is rebuilt as well
+            assertEquals(1, restored.findByBirthDateRange(LocalDate.of(1991, 1, 1), LocalDate.of(1992, 1, 1)).size());
+        }
+    }
+
+    @Test
+    void replay_clear() throws IOException {
+        UserStore userStore = new StripedUserStore();
+        try (WriteAheadLog log = open(userStore, FsyncPolicy.INTERVAL)) {
+            userStore.putIfAbsent(user("first@example.com", LocalDate.of(2000, 3, 4)));
+            userStore.clear();
+            userStore.putIfAbsent(user("second@example.com", LocalDate.of(2000, 3, 4)));
+        }
+
+        UserStore restored = new StripedUserStore();
+        try (WriteAheadLog log = open(restored, FsyncPolicy.INTERVAL)) {
+            assertEquals(1, restored.size());
+            assertTrue(restored.contains("second@example.com"));
+        }
+    }
+
+    @Test
+    void replay_tornLastRecord_isCutOff() throws IOException {
+        UserStore userStore = new StripedUserStore();
+        try (WriteAheadLog log = open(userStore, FsyncPolicy.ALWAYS)) {
+            userStore.putIfAbsent(user("first@example.com", LocalDate.of(2000, 3, 4)));
+        }
+        Path file = files().get(files().size() - 1);
+        long goodLength = Files.size(file);
+        // What a crash in the middle of a write leaves behind
+        Files.write(file, new byte[]{0, 0, 0, 40, 1, 0, 0}, StandardOpenOption.APPEND);
+
+        UserStore restored = new StripedUserStore();
+        try (WriteAheadLog log = open(restored, FsyncPolicy.ALWAYS)) {
+            assertEquals(1, restored.size());
+            assertEquals(goodLength, Files.size(file));
+            restored.putIfAbsent(user("second@example.com", LocalDate.of(2000, 3, 4)));
+        }
+
+        UserStore restoredAgain = new StripedUserStore();
+        try (WriteAheadLog log = open(restoredAgain, FsyncPolicy.ALWAYS)) {
+            assertEquals(2, restoredAgain.size());
+        }
+    }
+
+    @Test
+    void fsyncAlways_concurrentWriters_nothingLost() throws Exception {
+        UserStore userStore = new StripedUserStore();
+        try (WriteAheadLog log = open(userStore, FsyncPolicy.ALWAYS)) {
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        userStore.putIfAbsent(user("user" + thread + "-" + i + "@example.com", LocalDate.of(2000, 3, 4)));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+        }
+
+        UserStore restored = new StripedUserStore();
+        try (WriteAheadLog log = open(restored, FsyncPolicy.ALWAYS)) {
+            assertEquals(4_000, restored.size());
+        }
+    }
+
+    @Test
+    void checkpoint_snapshotAndLaterChanges_restored() throws IOException {
+        UserStore userStore = new StripedUserStore();
+        try (WriteAheadLog log = open(userStore, FsyncPolicy.OS)) {
+            userStore.putIfAbsent(user("kept@example.com", LocalDate.of(2000, 3, 4)));
+            userStore.putIfAbsent(user("renamed@example.com", LocalDate.of(1990, 1, 1)));
+            userStore.putIfAbsent(user("deleted@example.com", LocalDate.of(1980, 1, 1)));
+            log.checkpoint();
+            userStore.update("kept@example.com", null, user -> user.setLastName("Changed"));
+            userStore.update("renamed@example.com", "new@example.com", user -> user.setBirthDate(LocalDate.of(1991, 2, 2)));
+            userStore.remove("deleted@example.com");
+            userStore.putIfAbsent(user("created@example.com", LocalDate.of(1970, 1, 1)));
+            log.checkpoint();
+            userStore.update("created@example.com", null, user -> user.setFirstName("Changed"));
+        }
+        // Only the last snapshot and the segments after it are kept
+        assertEquals(1, files().stream().filter(file -> file.getFileName().toString().startsWith("snapshot-")).count());
+
+        UserStore restored = new StripedUserStore();
+        try (WriteAheadLog log = open(restored, FsyncPolicy.OS)) {
+            assertEquals(3, restored.size());
+            assertEquals("Changed", restored.get("kept@example.com").getLastName());
+            assertEquals(LocalDate.of(1991, 2, 2), restored.get("new@example.com").getBirthDate());
+            assertEquals("Changed", restored.get("created@example.com").getFirstName());
+            assertNull(restored.get("renamed@example.com"));
+            assertNull(restored.get("deleted@example.com"));
+            assertEquals(1, restored.findByBirthDateRange(LocalDate.of(1991, 1, 1), LocalDate.of(1992, 1, 1)).size());
+        }
+    }
+
+    @Test
+    void checkpoint_whileWritersRun_restoresFinalState() throws Exception {
+        UserStore userStore = new StripedUserStore(4);
+        try (WriteAheadLog log = open(userStore, FsyncPolicy.OS)) {
+            for (int i = 0; i < 1_000; i++) {
+                userStore.putIfAbsent(user("user" + i + "@example.com", LocalDate.of(2000, 3, 4)));
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 20_000; i++) {
+                        String email = "user" + random.nextInt(1_200) + "@example.com";
+                        String newEmail = "user" + random.nextInt(1_200) + "@example.com";
+                        switch (random.nextInt(4)) {
+                            case 0 -> userStore.putIfAbsent(user(email, LocalDate.of(2000, 3, 4)));
+                            case 1 -> userStore.remove(email);
+                            case 2 -> userStore.update(email, newEmail, user -> user.setFirstName("Renamed"));
+                            default -> userStore.update(email, null,
+                                    user -> user.setBirthDate(LocalDate.of(1950, 1, 1).plusDays(random.nextInt(20_000))));
+                        }
+                    }
+                }));
+            }
+            for (int i = 0; i < 5; i++) {
+                log.checkpoint();
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+        }
+
+        UserStore restored = new StripedUserStore();
+        try (WriteAheadLog log = open(restored, FsyncPolicy.OS)) {
+            assertEquals(userStore.size(), restored.size());
+            for (User user : userStore.values()) {
+                User restoredUser = restored.get(user.getEmail());
+                assertNotNull(restoredUser, user.getEmail());
+                assertEquals(user.getFirstName(), restoredUser.getFirstName());
+                assertEquals(user.getBirthDate(), restoredUser.getBirthDate());
+                assertEquals(user.getVersion(), restoredUser.getVersion());
+            }
+            assertEquals(restored.size(), restored.findByBirthDateRange(LocalDate.MIN, LocalDate.MAX).size());
+        }
+    }
+
+    @Test
+    void writerInterrupted_laterChangesFail() throws Exception {
+        UserStore userStore = new StripedUserStore();
+        try (WriteAheadLog log = new WriteAheadLog(directory, FsyncPolicy.INTERVAL, 60_000, 0, userStore)) {
+            log.open();
+            userStore.putIfAbsent(user("first@example.com", LocalDate.of(2000, 3, 4)));
+            // Written but not fsynced, the writer waits for the interval
+            Thread writer = (Thread) ReflectionTestUtils.getField(log, "writer");
+            while (writer.getState() != Thread.State.TIMED_WAITING) {
+                Thread.sleep(1);
+            }
+
+            writer.interrupt();
+            writer.join(5_000);
+
+            assertFalse(writer.isAlive());
+            assertThrows(UncheckedIOException.class, () -> userStore.putIfAbsent(user("second@example.com", LocalDate.of(2000, 3, 4))));
+        }
+    }
+
+    private WriteAheadLog open(UserStore userStore, FsyncPolicy fsyncPolicy) throws IOException {
+        WriteAheadLog log = new WriteAheadLog(directory, fsyncPolicy, 10, 0, userStore);
+        log.open();
+        return log;
+    }
+
+    // Files of the log in name order, snapshots first, the last one is the newest segment
+    private List<Path> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private static User user(String email, LocalDate birthDate) {
+        return new User(email, "FirstName", "LastName", birthDate);
+    }
+}
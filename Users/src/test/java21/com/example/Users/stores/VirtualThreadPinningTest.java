@@ -0,0 +1,171 @@
+package com.example.Users.stores;
+
+import com.example.Users.models.User;
+import com.example.Users.services.ChangeFeed;
+import com.example.Users.services.ReplicationFollower;
+import com.example.Users.stores.WriteAheadLog.FsyncPolicy;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// With spring.threads.virtual.enabled every request runs on a virtual thread. A virtual thread that
+// blocks inside synchronized or a native frame holds on to its carrier, and with few carriers the
+// whole server stalls. The stores, the columnar index, the write-ahead log and a follower's
+// read-your-writes wait only block on java.util.concurrent locks, which unmount the virtual thread;
+// JFR reports any blocking that doesn't.
+class VirtualThreadPinningTest {
+    private Path directory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("pinning-test");
+    }
+
+    @AfterEach
+    public void cleanUp() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    void stripedUserStore_contendedWritesWithGroupCommit_doNotPin() throws Exception {
+        assertNoPinning(new StripedUserStore());
+    }
+
+    @Test
+    void offHeapUserStore_contendedWritesWithGroupCommit_doNotPin() throws Exception {
+        assertNoPinning(new OffHeapUserStore());
+    }
+
+    // Requests with X-Users-Min-Sequence wait for the follower to apply a change the stand-in leader only has later
+    @Test
+    void replicationFollower_awaitSequence_doesNotPin() throws Exception {
+        HttpServer leader = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        long start = System.nanoTime();
+        leader.createContext("/users/export", exchange -> {
+            exchange.getResponseHeaders().add(ChangeFeed.SEQUENCE_HEADER, "5");
+            send(exchange, "");
+        });
+        leader.createContext("/users/changes", exchange -> send(exchange, System.nanoTime() - start < 500_000_000L ? "[]"
+                : "[{\"sequence\":6,\"type\":\"DELETED\",\"email\":\"a@example.com\",\"previousEmail\":null,\"user\":null}]"));
+        leader.start();
+        ReplicationFollower follower = new ReplicationFollower(new StripedUserStore(), new ObjectMapper(), new SimpleMeterRegistry(),
+                "http://127.0.0.1:" + leader.getAddress().getPort(), 5, 1000, 2_000);
+        try {
+            assertNoPinning(() -> {
+                follower.open();
+                List<Future<Boolean>> waits = new ArrayList<>();
+                try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                    for (int t = 0; t < 1_000; t++) {
+                        waits.add(executor.submit(() -> follower.awaitSequence(6, 10_000)));
+                    }
+                }
+                for (Future<Boolean> wait : waits) {
+                    assertTrue(wait.get());
+                }
+            });
+        } finally {
+            follower.close();
+            leader.stop(0);
+        }
+    }
+
+    private void assertNoPinning(UserStore userStore) throws Exception {
+        // Waiting for the shared fsync and for the few contended emails makes every thread block
+        assertNoPinning(() -> {
+            try (WriteAheadLog log = new WriteAheadLog(directory, FsyncPolicy.ALWAYS, 0, 0, userStore)) {
+                log.open();
+                ColumnarUserIndex columnarUserIndex = new ColumnarUserIndex(userStore);
+                columnarUserIndex.open();
+                runOnVirtualThreads(userStore, columnarUserIndex);
+                assertEquals(userStore.size(), columnarUserIndex.size());
+            }
+        });
+    }
+
+    private void assertNoPinning(Work work) throws Exception {
+        List<RecordedEvent> pinned;
+        try (Recording recording = new Recording()) {
+            recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+            // Object.wait() holds on to the carrier too, but JFR only reports it as a monitor wait
+            recording.enable("jdk.JavaMonitorWait").withThreshold(Duration.ZERO).withStackTrace();
+            recording.start();
+            work.run();
+            recording.stop();
+            Path file = directory.resolve("pinning.jfr");
+            recording.dump(file);
+            pinned = RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().equals("jdk.VirtualThreadPinned")
+                            || event.getThread() != null && event.getThread().isVirtual())
+                    .toList();
+        }
+        assertTrue(pinned.isEmpty(), () -> "Virtual thread pinned at " + pinned.get(0).getStackTrace());
+    }
+
+    private static void send(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void runOnVirtualThreads(UserStore userStore, ColumnarUserIndex columnarUserIndex) throws Exception {
+        List<Future<?>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int t = 0; t < 2_000; t++) {
+                futures.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 50; i++) {
+                        String email = "user" + random.nextInt(100) + "@example.com";
+                        LocalDate birthDate = LocalDate.of(1990, 1, 1).plusDays(random.nextInt(1_000));
+                        switch (random.nextInt(5)) {
+                            case 0 -> userStore.putIfAbsent(new User(email, "FirstName", "LastName", birthDate));
+                            case 1 -> userStore.remove(email);
+                            case 2 -> userStore.update(email, "user" + random.nextInt(100) + "@example.com",
+                                    user -> user.setBirthDate(birthDate));
+                            case 3 -> columnarUserIndex.findByBirthDateRange(birthDate, birthDate.plusDays(30));
+                            default -> userStore.findByBirthDateRange(birthDate, birthDate.plusDays(30));
+                        }
+                    }
+                }));
+            }
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    private interface Work {
+        void run() throws Exception;
+    }
+}